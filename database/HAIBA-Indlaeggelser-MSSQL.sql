@@ -142,6 +142,8 @@ CREATE TABLE Statistik (
     AntalAmbulanteKontakterEksporteret BIGINT NULL,
     AntalCPRNumreMedSlettedeKontakterBehandlet BIGINT NULL,
     AntalNuvaerendePatienterBehandlet BIGINT NULL,
+    AntalRaekkerSkrevet BIGINT NULL,
+    AntalCPRNumreMedEnKontakt BIGINT NULL,
     Regel1 BIGINT NULL,
     Regel2 BIGINT NULL,
     Regel3 BIGINT NULL,
@@ -158,6 +160,12 @@ CREATE TABLE Statistik (
     Regel14 BIGINT NULL
 );
 
+CREATE TABLE LPRSynkronisering (
+    LPR_dbid BIGINT NOT NULL PRIMARY KEY,
+    SenesteSyncID BIGINT NOT NULL,
+    KoerselsDato DATETIME NOT NULL
+);
+
 
 go;
 
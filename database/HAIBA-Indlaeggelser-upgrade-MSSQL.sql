@@ -0,0 +1,17 @@
+-- Upgrades an existing HAIBA database to the tables of HAIBA-Indlaeggelser-MSSQL.sql, run it before deploying the new version.
+
+-- the LPR synchronisations processed by the last successful incremental import, lpr.import.incremental=true
+IF OBJECT_ID('LPRSynkronisering', 'U') IS NULL
+CREATE TABLE LPRSynkronisering (
+    LPR_dbid BIGINT NOT NULL PRIMARY KEY,
+    SenesteSyncID BIGINT NOT NULL,
+    KoerselsDato DATETIME NOT NULL
+);
+
+-- the rows written to HAIBA by the import
+IF COL_LENGTH('Statistik', 'AntalRaekkerSkrevet') IS NULL
+ALTER TABLE Statistik ADD AntalRaekkerSkrevet BIGINT NULL;
+
+-- the CPR numbers with a single contact, sent directly to the admission rules
+IF COL_LENGTH('Statistik', 'AntalCPRNumreMedEnKontakt') IS NULL
+ALTER TABLE Statistik ADD AntalCPRNumreMedEnKontakt BIGINT NULL;
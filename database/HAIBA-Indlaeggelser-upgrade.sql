@@ -0,0 +1,16 @@
+USE HAIBA;
+
+-- Upgrades an existing HAIBA database to the tables of HAIBA-Indlaeggelser.sql, run it before deploying the new version.
+
+-- the LPR synchronisations processed by the last successful incremental import, lpr.import.incremental=true
+CREATE TABLE IF NOT EXISTS LPRSynkronisering (
+    LPR_dbid BIGINT(15) NOT NULL PRIMARY KEY,
+    SenesteSyncID BIGINT(15) NOT NULL,
+    KoerselsDato DATETIME NOT NULL
+) ENGINE=InnoDB COLLATE=utf8_bin;
+
+-- the rows written to HAIBA by the import
+ALTER TABLE Statistik ADD AntalRaekkerSkrevet BIGINT(15) NULL AFTER AntalNuvaerendePatienterBehandlet;
+
+-- the CPR numbers with a single contact, sent directly to the admission rules
+ALTER TABLE Statistik ADD AntalCPRNumreMedEnKontakt BIGINT(15) NULL AFTER AntalRaekkerSkrevet;
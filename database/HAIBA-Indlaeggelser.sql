@@ -179,6 +179,8 @@ CREATE TABLE Statistik (
     AntalAmbulanteKontakterEksporteret BIGINT(15) NULL,
     AntalCPRNumreMedSlettedeKontakterBehandlet BIGINT(15) NULL,
     AntalNuvaerendePatienterBehandlet BIGINT(15) NULL,
+    AntalRaekkerSkrevet BIGINT(15) NULL,
+    AntalCPRNumreMedEnKontakt BIGINT(15) NULL,
     Regel1 BIGINT(15) NULL,
     Regel2 BIGINT(15) NULL,
     Regel3 BIGINT(15) NULL,
@@ -194,3 +196,9 @@ CREATE TABLE Statistik (
     Regel13 BIGINT(15) NULL,
     Regel14 BIGINT(15) NULL
 ) ENGINE=InnoDB COLLATE=utf8_bin;
+
+CREATE TABLE IF NOT EXISTS LPRSynkronisering (
+    LPR_dbid BIGINT(15) NOT NULL PRIMARY KEY,
+    SenesteSyncID BIGINT(15) NOT NULL,
+    KoerselsDato DATETIME NOT NULL
+) ENGINE=InnoDB COLLATE=utf8_bin;
@@ -0,0 +1,183 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.lprimporter.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import dk.nsi.haiba.lprimporter.dao.HAIBADAO;
+import dk.nsi.haiba.lprimporter.dao.LPRDAO;
+import dk.nsi.haiba.lprimporter.model.haiba.Diagnose;
+import dk.nsi.haiba.lprimporter.model.haiba.Indlaeggelse;
+import dk.nsi.haiba.lprimporter.model.haiba.Procedure;
+import dk.nsi.haiba.lprimporter.model.lpr.Administration;
+import dk.nsi.haiba.lprimporter.model.lpr.LPRDiagnose;
+import dk.nsi.haiba.lprimporter.model.lpr.LPRProcedure;
+
+/*
+ * The LPR and HAIBA tables in embedded databases, filled with the contacts of synthetic patients.
+ * T_ADM and T_KODER get the contacts of all the patients, none of them imported yet, and HAIBA gets a forloeb
+ * of one admission per contact for each patient. The parameters can be given to JMH with -p name=value,...
+ */
+@State(Scope.Benchmark)
+public class BenchmarkDatabase {
+
+	/* the admissions of the first patients are kept, a benchmark writing to HAIBA reprocesses one of them */
+	static final int REPROCESSED_PATIENTS = 1000;
+
+	/* the patients are created and inserted this many at a time */
+	private static final int SLICE = 1000;
+
+	/* with the defaults 500.000 rows in T_ADM and 2.000.000 rows in T_KODER */
+	@Param({ "100000" })
+	int patients;
+
+	@Param({ "5" })
+	int contactsPerPatient;
+
+	/* diagnoses and procedures per contact */
+	@Param({ "4" })
+	int codesPerContact;
+
+	/* HAIBA-LPR.sql creates no indexes, this adds the indexes on the columns LPRDAO selects by */
+	@Param({ "true" })
+	boolean indexed;
+
+	AnnotationConfigApplicationContext applicationContext;
+	LPRDAO lprDAO;
+	HAIBADAO haibaDAO;
+	String[] cprNumbers;
+	private List<List<Indlaeggelse>> reprocessedAdmissions;
+
+	@Setup
+	public void setup() throws IOException {
+		applicationContext = new AnnotationConfigApplicationContext(DAOBenchmarkConfiguration.class);
+		lprDAO = applicationContext.getBean(LPRDAO.class);
+		haibaDAO = applicationContext.getBean(HAIBADAO.class);
+		JdbcTemplate lprJdbc = applicationContext.getBean("jdbcTemplate", JdbcTemplate.class);
+		EmbeddedSchema.load(lprJdbc, "HAIBA-LPR.sql");
+		EmbeddedSchema.load(applicationContext.getBean("haibaJdbcTemplate", JdbcTemplate.class), "HAIBA-Indlaeggelser.sql");
+
+		cprNumbers = new String[patients];
+		reprocessedAdmissions = new ArrayList<List<Indlaeggelse>>();
+		SyntheticPatients syntheticPatients = new SyntheticPatients(contactsPerPatient, 0.2, codesPerContact, 0.1);
+		Random random = new Random(4711);
+		for (int first = 0; first < patients; first += SLICE) {
+			List<List<Administration>> slice = syntheticPatients.create(random, first, Math.min(SLICE, patients - first));
+			insertContacts(lprJdbc, slice);
+			for (List<Administration> contacts : slice) {
+				List<Indlaeggelse> admissions = toAdmissions(contacts);
+				haibaDAO.saveIndlaeggelsesForloeb(admissions);
+				if (reprocessedAdmissions.size() < REPROCESSED_PATIENTS) {
+					reprocessedAdmissions.add(admissions);
+				}
+			}
+			for (int patient = first; patient < first + slice.size(); patient++) {
+				cprNumbers[patient] = SyntheticPatients.cpr(patient);
+			}
+		}
+		if (indexed) {
+			// created after the rows are inserted, which is faster than updating them for every row
+			lprJdbc.execute(EmbeddedSchema.createIndex("T_ADM", "V_CPR"));
+			lprJdbc.execute(EmbeddedSchema.createIndex("T_ADM", "V_RECNUM"));
+			lprJdbc.execute(EmbeddedSchema.createIndex("T_KODER", "V_RECNUM"));
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		applicationContext.close();
+	}
+
+	int reprocessedPatients() {
+		return Math.min(patients, REPROCESSED_PATIENTS);
+	}
+
+	/*
+	 * The admissions stored in HAIBA for one of the first patients
+	 */
+	List<Indlaeggelse> admissions(int patient) {
+		return reprocessedAdmissions.get(patient);
+	}
+
+	private static void insertContacts(JdbcTemplate jdbc, List<List<Administration>> contactsByPatient) {
+		List<Object[]> contactRows = new ArrayList<Object[]>();
+		List<Object[]> codeRows = new ArrayList<Object[]>();
+		for (List<Administration> contacts : contactsByPatient) {
+			for (Administration contact : contacts) {
+				contactRows.add(new Object[] { contact.getRecordNumber(), contact.getSygehusCode(), contact.getAfdelingsCode(),
+						Integer.toString(contact.getPatientType()), contact.getCpr(), contact.getIndlaeggelsesDatetime(),
+						contact.getUdskrivningsDatetime() });
+				for (LPRDiagnose d : contact.getLprDiagnoses()) {
+					codeRows.add(new Object[] { contact.getRecordNumber(), d.getDiagnoseCode(), d.getTillaegsDiagnose(), d.getDiagnoseType(),
+							null, null, null, "DIA" });
+				}
+				for (LPRProcedure p : contact.getLprProcedures()) {
+					codeRows.add(new Object[] { contact.getRecordNumber(), p.getProcedureCode(), p.getTillaegsProcedureCode(), p.getProcedureType(),
+							p.getProcedureDatetime(), p.getSygehusCode(), p.getAfdelingsCode(), "PRO" });
+				}
+			}
+		}
+		jdbc.batchUpdate("INSERT INTO T_ADM (V_RECNUM, C_SGH, C_AFD, C_PATTYPE, V_CPR, D_INDDTO, D_UDDTO) VALUES (?,?,?,?,?,?,?)", contactRows);
+		jdbc.batchUpdate("INSERT INTO T_KODER (V_RECNUM, C_KODE, C_TILKODE, C_KODEART, D_PDTO, C_PSGH, C_PAFD, V_TYPE) VALUES (?,?,?,?,?,?,?,?)", codeRows);
+	}
+
+	/*
+	 * One admission per contact, as ContactToAdmissionRule converts the contacts when they aren't connected
+	 */
+	private static List<Indlaeggelse> toAdmissions(List<Administration> contacts) {
+		List<Indlaeggelse> admissions = new ArrayList<Indlaeggelse>();
+		for (Administration contact : contacts) {
+			Indlaeggelse admission = new Indlaeggelse();
+			admission.setCpr(contact.getCpr());
+			admission.setSygehusCode(contact.getSygehusCode());
+			admission.setAfdelingsCode(contact.getAfdelingsCode());
+			admission.setIndlaeggelsesTime(contact.getIndlaeggelsesTime());
+			admission.setUdskrivningsTime(contact.getUdskrivningsTime());
+			admission.addLPRReference(contact.getLprReference());
+			for (LPRDiagnose d : contact.getLprDiagnoses()) {
+				admission.addDiagnose(new Diagnose(d.getDiagnoseCode(), d.getDiagnoseType(), d.getTillaegsDiagnose()));
+			}
+			for (LPRProcedure p : contact.getLprProcedures()) {
+				admission.addProcedure(new Procedure(p.getProcedureCode(), p.getProcedureType(), p.getTillaegsProcedureCode(),
+						p.getSygehusCode(), p.getAfdelingsCode(), p.getProcedureDatetime()));
+			}
+			admissions.add(admission);
+		}
+		return admissions;
+	}
+}
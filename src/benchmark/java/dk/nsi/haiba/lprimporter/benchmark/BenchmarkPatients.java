@@ -0,0 +1,91 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.lprimporter.benchmark;
+
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import dk.nsi.haiba.lprimporter.importer.ImportOutcomeBuffer;
+import dk.nsi.haiba.lprimporter.model.haiba.Statistics;
+import dk.nsi.haiba.lprimporter.model.lpr.Administration;
+
+/*
+ * The configured rules and the synthetic patients they process, the parameters can be given to JMH with -p name=value,...
+ */
+@State(Scope.Benchmark)
+public class BenchmarkPatients {
+
+	/* each operation processes this many patients, so the reported ops/s are patients per second */
+	public static final int PATIENTS = 100;
+
+	@Param({ "1", "5", "20" })
+	int contactsPerPatient;
+
+	/* the share of contacts starting before the previous contact of the patient ends */
+	@Param({ "0.2" })
+	double overlapDensity;
+
+	/* diagnoses and procedures per contact */
+	@Param({ "4" })
+	int codesPerContact;
+
+	/* the share of contacts from hospital 3800, which are looked up in FGR */
+	@Param({ "0.1" })
+	double share3800;
+
+	AnnotationConfigApplicationContext applicationContext;
+	Statistics statistics;
+	private SyntheticPatients syntheticPatients;
+	private ImportOutcomeBuffer importOutcomeBuffer;
+
+	@Setup
+	public void setup() {
+		applicationContext = new AnnotationConfigApplicationContext(RulesBenchmarkConfiguration.class);
+		importOutcomeBuffer = applicationContext.getBean(ImportOutcomeBuffer.class);
+		statistics = Statistics.getInstance().createWorkerInstance();
+		syntheticPatients = new SyntheticPatients(contactsPerPatient, overlapDensity, codesPerContact, share3800);
+	}
+
+	@TearDown
+	public void tearDown() {
+		applicationContext.close();
+	}
+
+	/*
+	 * New contacts for the next operation, the outcomes of the previous operation are discarded
+	 */
+	List<List<Administration>> next() {
+		importOutcomeBuffer.clear();
+		return syntheticPatients.create(PATIENTS);
+	}
+}
@@ -0,0 +1,143 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.lprimporter.benchmark;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dk.nsi.haiba.lprimporter.model.haiba.Indlaeggelse;
+import dk.nsi.haiba.lprimporter.model.haiba.LPRReference;
+import dk.nsi.haiba.lprimporter.model.lpr.Administration;
+import dk.nsi.haiba.lprimporter.status.ImportStatus.Outcome;
+
+/*
+ * The latency of the LPRDAO and HAIBADAO calls of the import, each call with a random patient or contact.
+ * The sample mode reports the percentiles of the calls, p0.50 to p1.00.
+ * Every benchmark runs in its own JVM, so the rows one benchmark writes are not seen by the next,
+ * and every JVM fills the databases again before the warmup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class DAOBenchmark {
+
+	/* the CPR numbers in a batch, lpr.cpr.batchsize in the default configuration */
+	@Param({ "100" })
+	int batchSize;
+
+	private final Random random = new Random(17);
+
+	@Benchmark
+	public List<String> getCPRnumberBatch(BenchmarkDatabase database) {
+		return database.lprDAO.getCPRnumberBatch(batchSize, randomCPR(database));
+	}
+
+	@Benchmark
+	public List<Administration> getContactsByCPR(BenchmarkDatabase database) {
+		return database.lprDAO.getContactsByCPR(randomCPR(database));
+	}
+
+	@Benchmark
+	public void updateImportTime(BenchmarkDatabase database) {
+		String recordNumber = Long.toString(1 + random.nextInt(database.patients * database.contactsPerPatient));
+		database.lprDAO.updateImportTime(new LPRReference(1, recordNumber), Outcome.SUCCESS);
+	}
+
+	@Benchmark
+	public void prepareCPRNumberForImport(BenchmarkDatabase database, StoredPatient patient) {
+		database.haibaDAO.prepareCPRNumberForImport(patient.cpr);
+	}
+
+	@Benchmark
+	public void saveIndlaeggelsesForloeb(BenchmarkDatabase database, DeletedPatient patient) {
+		database.haibaDAO.saveIndlaeggelsesForloeb(patient.admissions);
+	}
+
+	private String randomCPR(BenchmarkDatabase database) {
+		return database.cprNumbers[random.nextInt(database.patients)];
+	}
+
+	/*
+	 * A patient with its admissions stored in HAIBA, they are stored again after the call deleted them.
+	 * Setup and teardown per call are not timed, which is precise enough for calls of this length.
+	 * The teardown uses the database of the setup, JMH 1.21 generates uncompilable code when both take it as a parameter.
+	 */
+	@State(Scope.Thread)
+	public static class StoredPatient {
+		private final Random random = new Random(17);
+		private BenchmarkDatabase database;
+		String cpr;
+		List<Indlaeggelse> admissions;
+
+		@Setup(Level.Invocation)
+		public void pick(BenchmarkDatabase database) {
+			this.database = database;
+			int patient = random.nextInt(database.reprocessedPatients());
+			cpr = database.cprNumbers[patient];
+			admissions = database.admissions(patient);
+		}
+
+		@TearDown(Level.Invocation)
+		public void storeAgain() {
+			database.haibaDAO.saveIndlaeggelsesForloeb(admissions);
+		}
+	}
+
+	/*
+	 * A patient with its admissions deleted from HAIBA, as when the CPR number has been prepared for the import
+	 */
+	@State(Scope.Thread)
+	public static class DeletedPatient {
+		private final Random random = new Random(17);
+		List<Indlaeggelse> admissions;
+
+		@Setup(Level.Invocation)
+		public void pickAndDelete(BenchmarkDatabase database) {
+			int patient = random.nextInt(database.reprocessedPatients());
+			admissions = database.admissions(patient);
+			database.haibaDAO.prepareCPRNumberForImport(database.cprNumbers[patient]);
+		}
+	}
+}
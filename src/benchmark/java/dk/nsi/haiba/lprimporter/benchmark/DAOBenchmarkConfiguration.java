@@ -0,0 +1,96 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.lprimporter.benchmark;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import dk.nsi.haiba.lprimporter.dao.HAIBADAO;
+import dk.nsi.haiba.lprimporter.dao.LPRDAO;
+import dk.nsi.haiba.lprimporter.dao.impl.HAIBADAOImpl;
+import dk.nsi.haiba.lprimporter.dao.impl.LPRDAOImpl;
+
+/*
+ * LPRDAO and HAIBADAO as configured in LPRConfiguration, on in-memory H2 databases in MySQL mode instead of the JNDI data sources.
+ * Each database has one connection, which is not closed between the statements, so the DAOs must be called from one thread.
+ */
+@Configuration
+public class DAOBenchmarkConfiguration {
+
+    @Bean
+    public static PropertySourcesPlaceholderConfigurer propertySourcesPlaceholderConfigurer() {
+        PropertySourcesPlaceholderConfigurer propertySourcesPlaceholderConfigurer = new PropertySourcesPlaceholderConfigurer();
+        propertySourcesPlaceholderConfigurer.setLocations(new Resource[] { new ClassPathResource("default-config.properties") });
+        return propertySourcesPlaceholderConfigurer;
+    }
+
+    @Bean
+    public DataSource lprDataSource() {
+        return embeddedDataSource("LPR");
+    }
+
+    @Bean
+    public DataSource haibaDataSource() {
+        return embeddedDataSource("HAIBA");
+    }
+
+    @Bean
+    public JdbcTemplate jdbcTemplate(@Qualifier("lprDataSource") DataSource ds) {
+        return new JdbcTemplate(ds);
+    }
+
+    @Bean
+    public JdbcTemplate haibaJdbcTemplate(@Qualifier("haibaDataSource") DataSource ds) {
+        return new JdbcTemplate(ds);
+    }
+
+    /* the MySQL statements of the DAO are used, as jdbc.dialect is MySQL in the default configuration */
+    @Bean
+    public LPRDAO lprdao(@Qualifier("lprDataSource") DataSource ds) {
+        return new LPRDAOImpl(ds, "", "");
+    }
+
+    @Bean
+    public HAIBADAO haibaDao() {
+        return new HAIBADAOImpl();
+    }
+
+    private static DataSource embeddedDataSource(String name) {
+        // the database lives as long as its connection, which is closed with the application context
+        SingleConnectionDataSource ds = new SingleConnectionDataSource("jdbc:h2:mem:" + name + ";MODE=MySQL", true);
+        ds.setDriverClassName("org.h2.Driver");
+        return ds;
+    }
+}
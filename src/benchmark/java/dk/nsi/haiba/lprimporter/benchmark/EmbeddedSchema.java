@@ -0,0 +1,88 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.lprimporter.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/*
+ * Creates the tables of a MySQL script from the database directory in an embedded database.
+ * H2 in MySQL mode reads the table definitions, only the statements and table options of a MySQL server are left out.
+ */
+public class EmbeddedSchema {
+
+	/* relative to the project directory, where mvn exec:exec starts JMH */
+	private static final File DATABASE_DIRECTORY = new File("database");
+
+	private static final Pattern SKIPPED = Pattern.compile("(CREATE DATABASE|USE|GRANT)\\b", Pattern.CASE_INSENSITIVE);
+	private static final Pattern TABLE_OPTIONS = Pattern.compile("\\)\\s*ENGINE\\s*=\\s*\\w+(\\s+COLLATE\\s*=\\s*\\w+)?$", Pattern.CASE_INSENSITIVE);
+	private static final Pattern TABLE_NAME = Pattern.compile("CREATE TABLE\\s+(IF NOT EXISTS\\s+)?(\\w+)", Pattern.CASE_INSENSITIVE);
+	private static final Pattern INLINE_INDEX = Pattern.compile(",\\s*INDEX\\s*\\((\\w+)\\)", Pattern.CASE_INSENSITIVE);
+
+	public static void load(JdbcTemplate jdbc, String script) throws IOException {
+		String sql = FileUtils.readFileToString(new File(DATABASE_DIRECTORY, script), "UTF-8");
+		for (String statement : statements(sql)) {
+			jdbc.execute(statement);
+		}
+	}
+
+	static List<String> statements(String sql) {
+		List<String> statements = new ArrayList<String>();
+		for (String statement : sql.replaceAll("--[^\n]*", "").split(";")) {
+			statement = statement.trim();
+			if (statement.length() == 0 || SKIPPED.matcher(statement).lookingAt()) {
+				continue;
+			}
+			statement = TABLE_OPTIONS.matcher(statement.replace("`", "")).replaceFirst(")");
+
+			// an index in the table definition is created after the table
+			List<String> indexes = new ArrayList<String>();
+			Matcher table = TABLE_NAME.matcher(statement);
+			if (table.lookingAt()) {
+				Matcher index = INLINE_INDEX.matcher(statement);
+				while (index.find()) {
+					indexes.add(createIndex(table.group(2), index.group(1)));
+				}
+				statement = index.replaceAll("");
+			}
+			statements.add(statement);
+			statements.addAll(indexes);
+		}
+		return statements;
+	}
+
+	static String createIndex(String table, String column) {
+		return "CREATE INDEX IX_" + table + "_" + column + " ON " + table + " (" + column + ")";
+	}
+}
@@ -0,0 +1,98 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.lprimporter.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dk.nsi.haiba.lprimporter.exception.RuleAbortedException;
+import dk.nsi.haiba.lprimporter.model.lpr.Administration;
+import dk.nsi.haiba.lprimporter.rules.LPRRule;
+import dk.nsi.haiba.lprimporter.rules.LPRRuleContext;
+
+/*
+ * Patients per second through the rules up to and including lastRule, in the order of the rule chain.
+ * A rule changes the contacts the next rule gets, so the rules are not measured alone: the time and the allocations
+ * of a rule are the difference to the rule before it, and to RuleChainBenchmark.createPatients for the first rule.
+ * Unlike LPRRulesEngine every rule is applied, also to a single contact.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RuleBenchmark {
+
+	@Param({ "lprPrepareDataRule", "lprDateTimeRule", "removeIdenticalContactsRule", "extendContactEndtimeRule",
+			"contactsWithSameStartDateRule", "overlappingContactsRule", "connectContactsRule", "contactToAdmissionRule",
+			"connectAdmissionsRule" })
+	String lastRule;
+
+	private LPRRule firstRule;
+	private LPRRule stopAfterRule;
+
+	@Setup
+	public void setup(BenchmarkPatients patients) {
+		firstRule = patients.applicationContext.getBean("lprPrepareDataRule", LPRRule.class);
+		stopAfterRule = patients.applicationContext.getBean(lastRule, LPRRule.class);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BenchmarkPatients.PATIENTS)
+	public LPRRuleContext rulesUntilLastRule(BenchmarkPatients patients) {
+		LPRRuleContext context = null;
+		for (List<Administration> contacts : patients.next()) {
+			context = LPRRuleContext.withContacts(firstRule, contacts);
+			try {
+				while(context.getNextRule() != null) {
+					LPRRule rule = context.getNextRule();
+					context = rule.doProcessing(context, patients.statistics);
+					if(rule == stopAfterRule) {
+						break;
+					}
+				}
+			} catch(RuleAbortedException e) {
+				// the rest of the rules are skipped for the patient, as in LPRRulesEngine
+			}
+		}
+		return context;
+	}
+}
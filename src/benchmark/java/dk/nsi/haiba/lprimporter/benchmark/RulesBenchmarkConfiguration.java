@@ -0,0 +1,170 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.lprimporter.benchmark;
+
+import static org.mockito.Mockito.mock;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
+import org.springframework.context.support.ReloadableResourceBundleMessageSource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+import org.springframework.mail.javamail.JavaMailSender;
+
+import dk.nsi.haiba.lprimporter.dao.ClassificationCheckDAO;
+import dk.nsi.haiba.lprimporter.dao.HAIBADAO;
+import dk.nsi.haiba.lprimporter.email.EmailSender;
+import dk.nsi.haiba.lprimporter.importer.ClassificationCheckHelper;
+import dk.nsi.haiba.lprimporter.importer.ImportOutcomeBuffer;
+import dk.nsi.haiba.lprimporter.log.BusinessRuleErrorLog;
+import dk.nsi.haiba.lprimporter.message.MessageResolver;
+import dk.nsi.haiba.lprimporter.rules.ConnectAdmissionsRule;
+import dk.nsi.haiba.lprimporter.rules.ConnectContactsRule;
+import dk.nsi.haiba.lprimporter.rules.ContactToAdmissionRule;
+import dk.nsi.haiba.lprimporter.rules.ContactsWithSameStartDateRule;
+import dk.nsi.haiba.lprimporter.rules.ExtendContactEndtimeRule;
+import dk.nsi.haiba.lprimporter.rules.LPRDateTimeRule;
+import dk.nsi.haiba.lprimporter.rules.LPRPrepareDataRule;
+import dk.nsi.haiba.lprimporter.rules.LPRRulesEngine;
+import dk.nsi.haiba.lprimporter.rules.OverlappingContactsRule;
+import dk.nsi.haiba.lprimporter.rules.RemoveIdenticalContactsRule;
+import dk.nsi.haiba.lprimporter.rules.RulesEngine;
+
+/*
+ * The rules engine and the rules as configured in LPRConfiguration, with the default configuration and no databases.
+ */
+@Configuration
+public class RulesBenchmarkConfiguration {
+
+    @Bean
+    public static PropertySourcesPlaceholderConfigurer propertySourcesPlaceholderConfigurer() {
+        PropertySourcesPlaceholderConfigurer propertySourcesPlaceholderConfigurer = new PropertySourcesPlaceholderConfigurer();
+        propertySourcesPlaceholderConfigurer.setLocations(new Resource[] { new ClassPathResource("default-config.properties") });
+        return propertySourcesPlaceholderConfigurer;
+    }
+
+    @Bean
+    public ReloadableResourceBundleMessageSource messageSource() {
+        ReloadableResourceBundleMessageSource messageSource = new ReloadableResourceBundleMessageSource();
+        String[] resources = { "classpath:messages" };
+        messageSource.setBasenames(resources);
+        return messageSource;
+    }
+
+    @Bean
+    public MessageResolver resolver() {
+        return new MessageResolver();
+    }
+
+    @Bean
+    public BusinessRuleErrorLog businessRuleErrorLog() {
+        return new BusinessRuleErrorLog();
+    }
+
+    @Bean
+    public HAIBADAO haibaDao() {
+        return new StubHAIBADAO();
+    }
+
+    /* the classifications are only collected by the rules, they are never checked */
+    @Bean
+    public ClassificationCheckDAO classificationCheckDAO() {
+        return mock(ClassificationCheckDAO.class);
+    }
+
+    @Bean
+    public EmailSender mailSender() {
+        return mock(EmailSender.class);
+    }
+
+    /* the mock is a subclass of EmailSender, so its fields are autowired too */
+    @Bean
+    public JavaMailSender javaMailSender() {
+        return mock(JavaMailSender.class);
+    }
+
+    @Bean
+    public ClassificationCheckHelper classificationCheckHelper() {
+        return new ClassificationCheckHelper();
+    }
+
+    @Bean
+    public ImportOutcomeBuffer importOutcomeBuffer() {
+        return new ImportOutcomeBuffer();
+    }
+
+    @Bean
+    public RulesEngine rulesEngine() {
+        return new LPRRulesEngine();
+    }
+
+    @Bean
+    public LPRPrepareDataRule lprPrepareDataRule() {
+        return new LPRPrepareDataRule();
+    }
+
+    @Bean
+    public LPRDateTimeRule lprDateTimeRule() {
+        return new LPRDateTimeRule();
+    }
+
+    @Bean
+    public RemoveIdenticalContactsRule removeIdenticalContactsRule() {
+        return new RemoveIdenticalContactsRule();
+    }
+
+    @Bean
+    public ExtendContactEndtimeRule extendContactEndtimeRule() {
+        return new ExtendContactEndtimeRule();
+    }
+
+    @Bean
+    public ContactsWithSameStartDateRule contactsWithSameStartDateRule() {
+        return new ContactsWithSameStartDateRule();
+    }
+
+    @Bean
+    public OverlappingContactsRule overlappingContactsRule() {
+        return new OverlappingContactsRule();
+    }
+
+    @Bean
+    public ConnectContactsRule connectContactsRule() {
+        return new ConnectContactsRule();
+    }
+
+    @Bean
+    public ContactToAdmissionRule contactToAdmissionRule() {
+        return new ContactToAdmissionRule();
+    }
+
+    @Bean
+    public ConnectAdmissionsRule connectAdmissionsRule() {
+        return new ConnectAdmissionsRule();
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.lprimporter.benchmark;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import dk.nsi.haiba.lprimporter.dao.HAIBADAO;
+import dk.nsi.haiba.lprimporter.model.haiba.LPRReference;
+import dk.nsi.haiba.lprimporter.model.haiba.RebuildOutcome;
+import dk.nsi.haiba.lprimporter.model.haiba.ShakRegionValues;
+import dk.nsi.haiba.lprimporter.model.haiba.Statistics;
+import dk.nsi.haiba.lprimporter.model.haiba.Indlaeggelse;
+import dk.nsi.haiba.lprimporter.model.lpr.Administration;
+import dk.nsi.haiba.lprimporter.rules.BusinessRuleError;
+import dk.nsi.haiba.lprimporter.status.ImportStatus.Outcome;
+
+/*
+ * HAIBADAO without a database, the saves are only counted so the rules are measured without JDBC
+ */
+public class StubHAIBADAO implements HAIBADAO {
+
+	long admissionsSaved;
+	long ambulantContactsSaved;
+	long businessRuleErrorsSaved;
+
+	@Override
+	public void saveIndlaeggelsesForloeb(List<Indlaeggelse> indlaeggelser) {
+		admissionsSaved += indlaeggelser.size();
+	}
+
+	@Override
+	public void saveAmbulantIndlaeggelser(List<Administration> contacts) {
+		ambulantContactsSaved += contacts.size();
+	}
+
+	@Override
+	public void saveBusinessRuleError(BusinessRuleError error) {
+		businessRuleErrorsSaved++;
+	}
+
+	@Override
+	public String getSygehusInitials(String sygehuscode, String afdelingsCode, Date in) {
+		return "BBH";
+	}
+
+	@Override
+	public void clearSygehusInitialsCache() {
+	}
+
+	@Override
+	public void prepareCPRNumberForImport(String cpr) {
+	}
+
+	@Override
+	public void prepareCPRNumbersForImport(Collection<String> cprNumbers) {
+	}
+
+	@Override
+	public long finishCPRNumberImport(String cpr) {
+		return 0;
+	}
+
+	@Override
+	public void startRebuild() {
+	}
+
+	@Override
+	public void finishRebuild() {
+	}
+
+	@Override
+	public void abortRebuild() {
+	}
+
+	@Override
+	public void saveRebuildOutcomes(Collection<LPRReference> lprReferences, Outcome outcome) {
+	}
+
+	@Override
+	public List<RebuildOutcome> getRebuildOutcomes(long afterId, int count) {
+		return Collections.emptyList();
+	}
+
+	@Override
+	public void dropRebuildOutcomes() {
+	}
+
+	@Override
+	public Set<String> getCurrentPatients() {
+		return Collections.emptySet();
+	}
+
+	@Override
+	public void saveStatistics(Statistics statistics) {
+	}
+
+	@Override
+	public Map<Integer, Long> getLastSyncIds() {
+		return Collections.emptyMap();
+	}
+
+	@Override
+	public void saveLastSyncIds(Map<Integer, Long> syncIds) {
+	}
+
+	@Override
+	public Collection<ShakRegionValues> getShakRegionValuesForSygehusNumre(Collection<String> sygehusNumre) {
+		return Collections.emptyList();
+	}
+}
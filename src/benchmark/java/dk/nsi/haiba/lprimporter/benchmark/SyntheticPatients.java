@@ -0,0 +1,146 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.lprimporter.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.joda.time.DateTime;
+
+import dk.nsi.haiba.lprimporter.model.haiba.LPRReference;
+import dk.nsi.haiba.lprimporter.model.lpr.Administration;
+import dk.nsi.haiba.lprimporter.model.lpr.LPRDiagnose;
+import dk.nsi.haiba.lprimporter.model.lpr.LPRProcedure;
+import dk.nsi.haiba.lprimporter.util.EpochTime;
+
+/*
+ * Creates the same synthetic LPR contacts for a number of patients every time, the rules change the contacts
+ * so a benchmark creates them again for every operation.
+ */
+public class SyntheticPatients {
+
+	private static final long START = new DateTime(2012, 1, 2, 0, 0, 0).getMillis();
+	private static final String[] HOSPITALS = { "1301", "4202", "6006" };
+	private static final String[] DEPARTMENTS = { "011", "022", "033" };
+
+	private final int contactsPerPatient;
+	private final double overlapDensity;
+	private final int codesPerContact;
+	private final double share3800;
+
+	/*
+	 * overlapDensity is the share of contacts starting before the previous contact ends,
+	 * share3800 is the share of contacts with the hospital code 3800, which the prepare rule looks up in FGR
+	 */
+	public SyntheticPatients(int contactsPerPatient, double overlapDensity, int codesPerContact, double share3800) {
+		this.contactsPerPatient = contactsPerPatient;
+		this.overlapDensity = overlapDensity;
+		this.codesPerContact = codesPerContact;
+		this.share3800 = share3800;
+	}
+
+	public List<List<Administration>> create(int patients) {
+		return create(new Random(4711), 0, patients);
+	}
+
+	/*
+	 * The patients from firstPatient on, a larger population is created in slices with the same random
+	 */
+	public List<List<Administration>> create(Random random, int firstPatient, int patients) {
+		List<List<Administration>> contactsByPatient = new ArrayList<List<Administration>>(patients);
+		for (int patient = firstPatient; patient < firstPatient + patients; patient++) {
+			contactsByPatient.add(createPatient(random, patient));
+		}
+		return contactsByPatient;
+	}
+
+	public static String cpr(int patient) {
+		return String.format("%010d", patient);
+	}
+
+	private List<Administration> createPatient(Random random, int patient) {
+		String cpr = cpr(patient);
+		List<Administration> contacts = new ArrayList<Administration>(contactsPerPatient);
+		long in = START + random.nextInt(365) * EpochTime.MILLIS_PER_DAY;
+		long previousOut = in;
+		for (int i = 0; i < contactsPerPatient; i++) {
+			if(i > 0) {
+				if(random.nextDouble() < overlapDensity) {
+					// starts before the previous contact ends
+					in = previousOut - (1 + random.nextInt(12)) * EpochTime.MILLIS_PER_HOUR;
+				} else {
+					// starts after the previous contact, some close enough to be connected
+					in = previousOut + random.nextInt(72) * EpochTime.MILLIS_PER_HOUR;
+				}
+			}
+			// some contacts are registered without hours, which the datetime rule adjusts
+			if(random.nextInt(4) == 0) {
+				in = EpochTime.withStartOfDay(in);
+			}
+			long out = in + (1 + random.nextInt(96)) * EpochTime.MILLIS_PER_HOUR;
+			// numeric like V_RECNUM in LPR, which LPRDAO updates by its number
+			String recordNumber = Long.toString((long) patient * contactsPerPatient + i + 1);
+			contacts.add(createContact(random, cpr, recordNumber, in, out));
+			previousOut = out;
+		}
+		return contacts;
+	}
+
+	private Administration createContact(Random random, String cpr, String recordNumber, long in, long out) {
+		Administration contact = new Administration();
+		contact.setRecordNumber(recordNumber);
+		contact.setLprReference(new LPRReference(1, recordNumber));
+		contact.setCpr(cpr);
+		contact.setSygehusCode(random.nextDouble() < share3800 ? "3800" : HOSPITALS[random.nextInt(HOSPITALS.length)]);
+		contact.setAfdelingsCode(DEPARTMENTS[random.nextInt(DEPARTMENTS.length)]);
+		contact.setIndlaeggelsesTime(in);
+		contact.setUdskrivningsTime(out);
+		contact.setPatientType(0);
+
+		// half the codes are diagnoses, the other half procedures during the contact
+		for (int i = 0; i < codesPerContact; i++) {
+			if(i % 2 == 0) {
+				LPRDiagnose diagnose = new LPRDiagnose();
+				diagnose.setRecordNumber(recordNumber);
+				diagnose.setDiagnoseCode("DA" + random.nextInt(100));
+				diagnose.setDiagnoseType(i == 0 ? "A" : "B");
+				contact.addLprDiagnose(diagnose);
+			} else {
+				LPRProcedure procedure = new LPRProcedure();
+				procedure.setRecordNumber(recordNumber);
+				procedure.setProcedureCode("KA" + random.nextInt(100));
+				procedure.setProcedureType("P");
+				procedure.setSygehusCode(contact.getSygehusCode());
+				procedure.setAfdelingsCode(contact.getAfdelingsCode());
+				procedure.setProcedureTime(in + (long) (random.nextDouble() * (out - in)));
+				contact.addLprProcedure(procedure);
+			}
+		}
+		return contact;
+	}
+}
@@ -58,6 +58,7 @@ import dk.nsi.haiba.lprimporter.dao.impl.LPRDAOImpl;
 import dk.nsi.haiba.lprimporter.email.EmailSender;
 import dk.nsi.haiba.lprimporter.importer.ClassificationCheckHelper;
 import dk.nsi.haiba.lprimporter.importer.ImportExecutor;
+import dk.nsi.haiba.lprimporter.importer.ImportOutcomeBuffer;
 import dk.nsi.haiba.lprimporter.log.BusinessRuleErrorLog;
 import dk.nsi.haiba.lprimporter.message.MessageResolver;
 import dk.nsi.haiba.lprimporter.rules.ConnectAdmissionsRule;
@@ -347,4 +348,9 @@ public class LPRConfiguration {
     public ClassificationCheckHelper classificationCheckHelper() {
         return new ClassificationCheckHelper();
     }
+
+    @Bean
+    public ImportOutcomeBuffer importOutcomeBuffer() {
+        return new ImportOutcomeBuffer();
+    }
 }
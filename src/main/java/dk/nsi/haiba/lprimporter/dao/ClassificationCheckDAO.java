@@ -55,4 +55,10 @@ public interface ClassificationCheckDAO {
     }
 
     public void storeShakRegionValues(Collection<ShakRegionValues> shakRegionValuesForSygehusNumre);
+
+    /**
+     * The classifications are loaded once and kept in memory, together with the classifications stored since.
+     * Clears them, so they are loaded again on the next check.
+     */
+    public void clearClassificationCache();
 }
@@ -29,13 +29,18 @@ package dk.nsi.haiba.lprimporter.dao;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import dk.nsi.haiba.lprimporter.exception.DAOException;
 import dk.nsi.haiba.lprimporter.model.haiba.Indlaeggelse;
+import dk.nsi.haiba.lprimporter.model.haiba.LPRReference;
+import dk.nsi.haiba.lprimporter.model.haiba.RebuildOutcome;
 import dk.nsi.haiba.lprimporter.model.haiba.ShakRegionValues;
 import dk.nsi.haiba.lprimporter.model.haiba.Statistics;
 import dk.nsi.haiba.lprimporter.model.lpr.Administration;
 import dk.nsi.haiba.lprimporter.rules.BusinessRuleError;
+import dk.nsi.haiba.lprimporter.status.ImportStatus.Outcome;
 
 public interface HAIBADAO {
 
@@ -78,6 +83,12 @@ public interface HAIBADAO {
 	 */
 	public String getSygehusInitials(String sygehuscode, String afdelingsCode, Date in) throws DAOException;
 
+	/**
+	 * The FGR hospital names used by getSygehusInitials are loaded once and kept in memory.
+	 * Clears them, so they are loaded again with the changes from FGR on the next lookup.
+	 */
+	public void clearSygehusInitialsCache();
+
 	/**
 	 * removes all data from the HAIBA indlaeggelses tables for current patient
 	 * This method is used before applying businessrules
@@ -86,16 +97,88 @@ public interface HAIBADAO {
 	 * @throws DAOException if something goes wrong in the process
 	 */
 	public void prepareCPRNumberForImport(String cpr);
+
+	/**
+	 * removes all data from the HAIBA indlaeggelses and ambulant tables for the CPR numbers,
+	 * with a few statements for all of them.
+	 * When only changes are written, the data is read instead, and the data saved for each of the CPR numbers
+	 * is compared with it in {@link #finishCPRNumberImport(String)}
+	 * 
+	 * @param the CPR numbers about to be processed
+	 * @throws DAOException if something goes wrong in the process
+	 */
+	public void prepareCPRNumbersForImport(Collection<String> cprNumbers);
+
+	/**
+	 * Called when the business rules are processed for a CPR number prepared for import by the same thread.
+	 * When only changes are written, the admissions and ambulant contacts saved for the CPR number are compared with the earlier processed data,
+	 * and only the changed rows are inserted, updated or deleted.
+	 * 
+	 * @param the processed CPR number
+	 * @return the number of rows inserted, updated or deleted in the HAIBA tables by the thread since the last call
+	 * @throws DAOException if something goes wrong in the process
+	 */
+	public long finishCPRNumberImport(String cpr);
+
+	/**
+	 * Starts a full rebuild, the admission and ambulant data is written to empty shadow tables
+	 * until the rebuild is finished or aborted. The live tables are left untouched.
+	 * 
+	 * @throws DAOException if something goes wrong in the process
+	 */
+	public void startRebuild();
+
+	/**
+	 * Adds the indexes to the shadow tables, and swaps them with the live tables in one step.
+	 * The replaced tables are dropped afterwards, if that fails they are left until the next rebuild.
+	 * 
+	 * @throws DAOException if the shadow tables are not swapped in, the live tables are then untouched
+	 */
+	public void finishRebuild();
+
+	/**
+	 * Drops the shadow tables, the data is written to the live tables again
+	 * 
+	 * @throws DAOException if something goes wrong in the process
+	 */
+	public void abortRebuild();
+
+	/**
+	 * Stores the import outcome of contacts processed by the rebuild, they are written to LPR when the rebuilt tables are swapped in.
+	 * The outcomes are dropped with the shadow tables when the rebuild is aborted.
+	 * 
+	 * @param lprReferences the processed contacts
+	 * @param outcome the outcome of the contacts
+	 * @throws DAOException if something goes wrong in the process
+	 */
+	public void saveRebuildOutcomes(Collection<LPRReference> lprReferences, Outcome outcome);
+
+	/**
+	 * Fetches the outcomes stored by the rebuild, in the order they are stored
+	 * 
+	 * @param afterId only the outcomes with a higher id are fetched, 0 for the first
+	 * @param count the maximum number of outcomes fetched
+	 * @return the outcomes ordered by id, empty when all are fetched
+	 * @throws DAOException if something goes wrong in the process
+	 */
+	public List<RebuildOutcome> getRebuildOutcomes(long afterId, int count);
+
+	/**
+	 * Drops the outcomes stored by the rebuild, when they are written to LPR
+	 * 
+	 * @throws DAOException if something goes wrong in the process
+	 */
+	public void dropRebuildOutcomes();
 	
 	/**
-	 * Fetches a list of current patients, that need to be reprocessed every time there is new data
+	 * Fetches the current patients, that need to be reprocessed every time there is new data
 	 * to see if they are discharged from hospital
 	 * 
 	 * 
-	 * @return a list containing all the current patients CPR numbers
+	 * @return a set containing all the current patients CPR numbers, each CPR number once
 	 * @throws DAOException if something goes wrong in the process
 	 */
-	public List<String> getCurrentPatients();
+	public Set<String> getCurrentPatients();
 
 	/**
 	 * saves statistics for a single run, saving all the counters to the database 
@@ -104,6 +187,22 @@ public interface HAIBADAO {
 	 */
 	public void saveStatistics(Statistics statistics);
 
+	/**
+	 * Fetches the last v_sync_id of each LPR database, whose changes are processed
+	 * 
+	 * @return the v_sync_id per LPR database id, a database without processed changes is left out
+	 * @throws DAOException if something goes wrong in the process
+	 */
+	public Map<Integer, Long> getLastSyncIds();
+
+	/**
+	 * Saves the last v_sync_id of each LPR database, whose changes are processed, so the next incremental run starts after them
+	 * 
+	 * @param syncIds the v_sync_id per LPR database id
+	 * @throws DAOException if something goes wrong in the process
+	 */
+	public void saveLastSyncIds(Map<Integer, Long> syncIds);
+
     Collection<ShakRegionValues> getShakRegionValuesForSygehusNumre(Collection<String> sygehusNumre);
 	
 }
\ No newline at end of file
@@ -26,7 +26,11 @@
  */
 package dk.nsi.haiba.lprimporter.dao;
 
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import dk.nsi.haiba.lprimporter.exception.DAOException;
 import dk.nsi.haiba.lprimporter.model.haiba.LPRReference;
@@ -52,13 +56,54 @@ public interface LPRDAO {
 	public List<String> getCPRnumbersFromDeletedContacts() throws DAOException;
 
 	/**
-	 * Fetches a list of CPRnumbers that have not been processed (Where the Import date is empty)
+	 * Fetches the CPRnumbers of the contacts inserted, updated or deleted by the synchronisations in the given interval
+	 * 
+	 * @param afterSyncId - the last synchronisationid that is already processed
+	 * @param toSyncId - the last synchronisationid to include
+	 * @return A list of CPRnumbers as String, each CPR number once
+	 * @throws DAOException if something goes wrong in the process
+	 */
+	public List<String> getCPRnumbersFromSyncHistory(long afterSyncId, long toSyncId) throws DAOException;
+
+	/**
+	 * Fetches the CPRnumbers of the contacts inserted, updated or deleted by the synchronisations of each LPR database in the given intervals
+	 * 
+	 * @param afterSyncIds - the last synchronisationid that is already processed, per LPR database id
+	 * @param toSyncIds - the last synchronisationid to include, per LPR database id
+	 * @return A list of CPRnumbers as String, each CPR number once
+	 * @throws DAOException if something goes wrong in the process
+	 */
+	public List<String> getCPRnumbersFromSyncHistory(Map<Integer, Long> afterSyncIds, Map<Integer, Long> toSyncIds) throws DAOException;
+
+	/**
+	 * Fetches the latest finished synchronisationid of each LPR database
+	 * 
+	 * @return the v_sync_id per LPR database id
+	 * @throws DAOException if something goes wrong in the process
+	 */
+	public Map<Integer, Long> getLatestSyncIds() throws DAOException;
+
+	/**
+	 * Fetches a list of CPRnumbers that have not been processed (Where the Import date is empty),
+	 * ordered by CPR number and starting after the given CPR number, so a run pages through the CPR numbers once
 	 * 
 	 * @param batchsize
+	 * @param afterCPR the last CPR number of the previous batch, the empty string for the first batch
 	 * @return A list of CPRnumbers as String
 	 * @throws DAOException if something goes wrong in the process
 	 */
-	public List<String> getCPRnumberBatch(int batchsize) throws DAOException;
+	public List<String> getCPRnumberBatch(int batchsize, String afterCPR) throws DAOException;
+
+	/**
+	 * Fetches a list of all CPRnumbers with contacts, processed or not, ordered by CPR number and starting after the given CPR number.
+	 * Used by a rebuild, which processes all of LPR without changing the import timestamps before it succeeds
+	 * 
+	 * @param batchsize
+	 * @param afterCPR the last CPR number of the previous batch, the empty string for the first batch
+	 * @return A list of CPRnumbers as String
+	 * @throws DAOException if something goes wrong in the process
+	 */
+	public List<String> getAllCPRnumberBatch(int batchsize, String afterCPR) throws DAOException;
 
 	/**
 	 * Fetches a list of {@link Administration} given the CPR number
@@ -72,6 +117,30 @@ public interface LPRDAO {
 	 */
 	public List<Administration> getContactsByCPR(String CPR) throws DAOException;
 
+	/**
+	 * Fetches the CPR numbers among the given ones, that have a contact without an out date, admitted after the given date or without an in date
+	 * 
+	 * @param cprNumbers
+	 *            The CPR numbers to check
+	 * @param admittedAfter
+	 *            The earliest in date of the contacts
+	 * @return The CPR numbers with such contacts, each CPR number once
+	 * @throws DAOException
+	 *             if something goes wrong in the process
+	 */
+	public Set<String> getCPRnumbersWithOpenContacts(Collection<String> cprNumbers, Date admittedAfter) throws DAOException;
+
+	/**
+	 * Fetches the {@link Administration}s for a batch of CPR numbers, with as few queries as possible
+	 * 
+	 * @param cprNumbers
+	 *            The CPR numbers of the LPR Contacts
+	 * @return The contacts for each of the given CPR numbers, a CPR number without contacts maps to an empty list
+	 * @throws DAOException
+	 *             if something goes wrong in the process
+	 */
+	public Map<String, List<Administration>> getContactsByCPRs(Collection<String> cprNumbers) throws DAOException;
+
 	/**
 	 * Updates the import timestamp in the T_ADM table for the given reference
 	 * 
@@ -81,6 +150,16 @@ public interface LPRDAO {
 	 */
 	public void updateImportTime(LPRReference lprReference, Outcome outcome);
 
+	/**
+	 * Updates the import timestamp in the T_ADM table for all the given references, with as few statements as possible
+	 * 
+	 * @param  The refernces from the LPR Contacts
+	 * @param  The Outcome of the Import (Success Or Failure)
+	 * @throws DAOException if something goes wrong in the process
+	 */
+	public void updateImportTimes(Collection<LPRReference> lprReferences, Outcome outcome);
+
+
 	
 	/**
 	 * Checks if there are any unprocessed cprnumbers in the T_ADM table
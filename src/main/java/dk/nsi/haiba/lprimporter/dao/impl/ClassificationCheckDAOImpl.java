@@ -26,15 +26,23 @@
  */
 package dk.nsi.haiba.lprimporter.dao.impl;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.support.rowset.SqlRowSet;
+import org.springframework.jdbc.core.RowCallbackHandler;
 
 import dk.nsi.haiba.lprimporter.dao.ClassificationCheckDAO;
 import dk.nsi.haiba.lprimporter.dao.CommonDAO;
@@ -53,50 +61,79 @@ public class ClassificationCheckDAOImpl extends CommonDAO implements Classificat
         aClassificationJdbc = classificationJdbc;
     }
 
-    private boolean rowExists(CheckStructure checkStructure, String tableName) {
-        String sql = null;
-        String secondaryQualifier = "=?";
-        String secondaryCode = checkStructure.getSecondaryCode();
-        if (secondaryCode == null) {
-            secondaryQualifier = " IS NULL";
+    /*
+     * The (code, secondary code) pairs in each classification table, loaded with one query on the first check against the table
+     */
+    private final Map<String, Set<String>> classificationsByTable = new ConcurrentHashMap<String, Set<String>>();
+
+    private Set<String> getClassifications(CheckStructure checkStructure) {
+        String tableName = checkStructure.getClassificationTableName();
+        Set<String> classifications = classificationsByTable.get(tableName);
+        if (classifications != null) {
+            return classifications;
+        }
+        synchronized (classificationsByTable) {
+            classifications = classificationsByTable.get(tableName);
+            if (classifications == null) {
+                classifications = loadClassifications(checkStructure);
+                classificationsByTable.put(tableName, classifications);
+            }
+            return classifications;
         }
+    }
+
+    private Set<String> loadClassifications(CheckStructure checkStructure) {
+        final String codeColumnName = checkStructure.getCodeClassificationColumnName();
+        final String secondaryCodeColumnName = checkStructure.getSecondaryCodeClasificationColumnName();
+        String sql = null;
         if (MYSQL.equals(getDialect())) {
-            sql = "SELECT * FROM " + tableName + " WHERE " + checkStructure.getCodeClassificationColumnName()
-                    + "=? AND " + checkStructure.getSecondaryCodeClasificationColumnName() + secondaryQualifier
-                    + " LIMIT 1";
+            sql = "SELECT " + codeColumnName + ", " + secondaryCodeColumnName + " FROM "
+                    + checkStructure.getClassificationTableName();
         } else {
             // MSSQL
-            sql = "SELECT TOP 1 * FROM " + tableprefix + tableName + " WHERE "
-                    + checkStructure.getCodeClassificationColumnName() + "=? AND "
-                    + checkStructure.getSecondaryCodeClasificationColumnName() + secondaryQualifier;
+            sql = "SELECT " + codeColumnName + ", " + secondaryCodeColumnName + " FROM " + tableprefix
+                    + checkStructure.getClassificationTableName();
         }
 
+        final Set<String> classifications = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
         try {
-            Object[] objects = null;
-            if (secondaryCode != null) {
-                objects = new Object[] { checkStructure.getCode(), secondaryCode };
-            } else {
-                objects = new Object[] { checkStructure.getCode() };
-            }
-            SqlRowSet queryForRowSet = aClassificationJdbc.queryForRowSet(sql, objects);
-            if (queryForRowSet.first()) {
-                return true;
-            } else {
-                return false;
-            }
-        } catch (EmptyResultDataAccessException e) {
-            // ignore - does not exist
+            aClassificationJdbc.query(sql, new RowCallbackHandler() {
+                @Override
+                public void processRow(ResultSet rs) throws SQLException {
+                    classifications.add(key(rs.getString(codeColumnName), rs.getString(secondaryCodeColumnName)));
+                }
+            });
         } catch (RuntimeException e) {
-            throw new DAOException("Error testing existence of " + checkStructure, e);
+            throw new DAOException("Error loading " + checkStructure.getClassificationTableName(), e);
         }
-        return false;
+        log.debug("Loaded " + classifications.size() + " classifications from "
+                + checkStructure.getClassificationTableName());
+        return classifications;
+    }
+
+    /*
+     * Codes are compared as the database does, without case and trailing spaces. A null secondary code only matches null.
+     */
+    private static String key(String code, String secondaryCode) {
+        return normalize(code) + (secondaryCode == null ? "\0" : "\1" + normalize(secondaryCode));
+    }
+
+    private static String normalize(String code) {
+        if (code == null) {
+            return "";
+        }
+        int end = code.length();
+        while (end > 0 && code.charAt(end - 1) == ' ') {
+            end--;
+        }
+        return code.substring(0, end).toUpperCase(Locale.ENGLISH);
     }
 
     @Override
     public Collection<CheckStructure> checkClassifications(Collection<CheckStructure> checkStructures) {
         Set<CheckStructure> returnValue = new HashSet<CheckStructure>();
         for (CheckStructure checkStructure : checkStructures) {
-            if (!rowExists(checkStructure, checkStructure.getClassificationTableName())) {
+            if (!getClassifications(checkStructure).contains(key(checkStructure.getCode(), checkStructure.getSecondaryCode()))) {
                 returnValue.add(checkStructure);
             }
         }
@@ -105,22 +142,46 @@ public class ClassificationCheckDAOImpl extends CommonDAO implements Classificat
 
     @Override
     public void storeClassifications(Collection<CheckStructure> checkStructures) {
+        // one batch per table
+        Map<String, List<Object[]>> argsBySql = new LinkedHashMap<String, List<Object[]>>();
         for (CheckStructure unknownStructure : checkStructures) {
             String sql = "INSERT INTO " + tableprefix + unknownStructure.getClassificationTableName() + "("
                     + unknownStructure.getCodeClassificationColumnName() + ","
                     + unknownStructure.getSecondaryCodeClasificationColumnName() + ") VALUES (?,?)";
-            log.debug("checkClassifications: insert sql=" + sql);
-            aClassificationJdbc.update(sql, unknownStructure.getCode(), unknownStructure.getSecondaryCode());
+            List<Object[]> args = argsBySql.get(sql);
+            if (args == null) {
+                log.debug("checkClassifications: insert sql=" + sql);
+                args = new ArrayList<Object[]>();
+                argsBySql.put(sql, args);
+            }
+            args.add(new Object[] { unknownStructure.getCode(), unknownStructure.getSecondaryCode() });
+        }
+        for (Map.Entry<String, List<Object[]>> entry : argsBySql.entrySet()) {
+            aClassificationJdbc.batchUpdate(entry.getKey(), entry.getValue());
+        }
+
+        // the stored classifications are known from now on
+        for (CheckStructure storedStructure : checkStructures) {
+            getClassifications(storedStructure).add(key(storedStructure.getCode(), storedStructure.getSecondaryCode()));
         }
     }
 
     @Override
     public void storeShakRegionValues(Collection<ShakRegionValues> shakRegionValuesForSygehusNumre) {
+        if (shakRegionValuesForSygehusNumre.isEmpty()) {
+            return;
+        }
+        String sql = "UPDATE " + tableprefix
+                + "anvendt_klass_shak SET Ejerforhold=?, Institutionsart=?, Regionskode=? WHERE sygehuskode=?";
+        List<Object[]> args = new ArrayList<Object[]>();
         for (ShakRegionValues srv : shakRegionValuesForSygehusNumre) {
-            String sql = "UPDATE " + tableprefix
-                    + "anvendt_klass_shak SET Ejerforhold=?, Institutionsart=?, Regionskode=? WHERE sygehuskode=?";
-            aClassificationJdbc.update(sql, srv.getEjerForhold(), srv.getInstitutionsArt(), srv.getRegionsKode(),
-                    srv.getNummer());
+            args.add(new Object[] { srv.getEjerForhold(), srv.getInstitutionsArt(), srv.getRegionsKode(), srv.getNummer() });
         }
+        aClassificationJdbc.batchUpdate(sql, args);
+    }
+
+    @Override
+    public void clearClassificationCache() {
+        classificationsByTable.clear();
     }
 }
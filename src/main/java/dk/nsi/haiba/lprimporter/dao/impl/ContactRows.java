@@ -0,0 +1,171 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.lprimporter.dao.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import dk.nsi.haiba.lprimporter.model.haiba.Diagnose;
+import dk.nsi.haiba.lprimporter.model.haiba.Indlaeggelse;
+import dk.nsi.haiba.lprimporter.model.haiba.LPRReference;
+import dk.nsi.haiba.lprimporter.model.haiba.Procedure;
+import dk.nsi.haiba.lprimporter.model.lpr.Administration;
+import dk.nsi.haiba.lprimporter.model.lpr.LPRDiagnose;
+import dk.nsi.haiba.lprimporter.model.lpr.LPRProcedure;
+
+/*
+ * The rows of an admission or an ambulant contact in HAIBA, without the generated ids.
+ * Used to insert the rows, and to compare the output of the business rules with the rows stored for a CPR number earlier.
+ */
+class ContactRows {
+    static final int DIAGNOSES = 0;
+    static final int PROCEDURES = 1;
+    static final int REFERENCES = 2;
+
+    // CPR, Sygehuskode, Afdelingskode, Indlaeggelsesdatotid, Udskrivningsdatotid, Aktuel
+    final Object[] row;
+    // the rows for the diagnoses, procedures and LPR references, without the id of the contact
+    final List<List<Object[]>> children = new ArrayList<List<Object[]>>();
+
+    // only set for stored rows
+    long id;
+    Long forloebId;
+
+    ContactRows(Object[] row) {
+        this.row = row;
+        for (int i = 0; i <= REFERENCES; i++) {
+            children.add(new ArrayList<Object[]>());
+        }
+    }
+
+    static ContactRows of(Indlaeggelse indlaeggelse) {
+        ContactRows rows = new ContactRows(new Object[] { 
+                indlaeggelse.getCpr(), 
+                indlaeggelse.getSygehusCode(),
+                indlaeggelse.getAfdelingsCode(), 
+                indlaeggelse.getIndlaeggelsesDatetime(),
+                indlaeggelse.getUdskrivningsDatetime(),
+                indlaeggelse.isAktuel() ? new Integer(1) : new Integer(0) });
+        for (Diagnose d : indlaeggelse.getDiagnoses()) {
+            rows.children.get(DIAGNOSES).add(new Object[] { d.getDiagnoseCode(), d.getDiagnoseType(), d.getTillaegsDiagnose() });
+        }
+        for (Procedure p : indlaeggelse.getProcedures()) {
+            rows.children.get(PROCEDURES).add(new Object[] { 
+                    p.getProcedureCode(), 
+                    p.getProcedureType(), 
+                    p.getTillaegsProcedureCode(),
+                    p.getSygehusCode(), 
+                    p.getAfdelingsCode(), 
+                    p.getProcedureDatetime() });
+        }
+        for (LPRReference ref : indlaeggelse.getLprReferencer()) {
+            rows.children.get(REFERENCES).add(new Object[] { ref.getLprRecordNumber(), ref.getDbId() });
+        }
+        return rows;
+    }
+
+    static ContactRows of(Administration contact) {
+        ContactRows rows = new ContactRows(new Object[] { 
+                contact.getCpr(), 
+                contact.getSygehusCode(),
+                contact.getAfdelingsCode(), 
+                contact.getIndlaeggelsesDatetime(),
+                contact.getUdskrivningsDatetime(), 
+                contact.isCurrentPatient() ? new Integer(1) : new Integer(0) });
+        for (LPRDiagnose d : contact.getLprDiagnoses()) {
+            rows.children.get(DIAGNOSES).add(new Object[] { d.getDiagnoseCode(), d.getDiagnoseType(), d.getTillaegsDiagnose() });
+        }
+        for (LPRProcedure p : contact.getLprProcedures()) {
+            rows.children.get(PROCEDURES).add(new Object[] { 
+                    p.getProcedureCode(), 
+                    p.getProcedureType(),
+                    p.getTillaegsProcedureCode(), 
+                    p.getSygehusCode(), 
+                    p.getAfdelingsCode(), 
+                    p.getProcedureDatetime() });
+        }
+        for (LPRReference ref : contact.getLprReferencer()) {
+            rows.children.get(REFERENCES).add(new Object[] { ref.getLprRecordNumber(), ref.getDbId() });
+        }
+        return rows;
+    }
+
+    /*
+     * The contacts of a CPR number are matched by hospital, department and in time
+     */
+    List<Object> key() {
+        return Arrays.asList(row[1], row[2], normalize(row[3]));
+    }
+
+    boolean sameRow(ContactRows other) {
+        return normalize(row).equals(normalize(other.row));
+    }
+
+    /*
+     * The child rows have no order
+     */
+    boolean sameChildren(ContactRows other, int table) {
+        return count(children.get(table)).equals(count(other.children.get(table)));
+    }
+
+    private static Map<List<Object>, Integer> count(List<Object[]> rows) {
+        Map<List<Object>, Integer> counts = new HashMap<List<Object>, Integer>();
+        for (Object[] values : rows) {
+            List<Object> key = normalize(values);
+            Integer count = counts.get(key);
+            counts.put(key, count == null ? 1 : count + 1);
+        }
+        return counts;
+    }
+
+    /*
+     * The stored rows are read with other types than they are written with, e.g. a Timestamp for a Date, a Boolean for a TINYINT(1),
+     * and DATETIME columns round the milliseconds
+     */
+    private static List<Object> normalize(Object[] values) {
+        List<Object> normalized = new ArrayList<Object>(values.length);
+        for (Object value : values) {
+            normalized.add(normalize(value));
+        }
+        return normalized;
+    }
+
+    private static Object normalize(Object value) {
+        if (value instanceof Date) {
+            return new Long(Math.round(((Date) value).getTime() / 1000.0));
+        } else if (value instanceof Boolean) {
+            return new Long(((Boolean) value).booleanValue() ? 1 : 0);
+        } else if (value instanceof Number) {
+            return new Long(((Number) value).longValue());
+        }
+        return value;
+    }
+}
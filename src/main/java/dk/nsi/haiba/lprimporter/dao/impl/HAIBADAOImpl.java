@@ -32,39 +32,48 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataAccessException;
-import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
-import org.springframework.jdbc.support.GeneratedKeyHolder;
-import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.StatementCreatorUtils;
+import org.springframework.jdbc.support.JdbcUtils;
 
 import dk.nsi.haiba.lprimporter.dao.CommonDAO;
 import dk.nsi.haiba.lprimporter.dao.HAIBADAO;
 import dk.nsi.haiba.lprimporter.exception.DAOException;
 import dk.nsi.haiba.lprimporter.log.Log;
-import dk.nsi.haiba.lprimporter.model.haiba.Diagnose;
 import dk.nsi.haiba.lprimporter.model.haiba.Indlaeggelse;
 import dk.nsi.haiba.lprimporter.model.haiba.LPRReference;
-import dk.nsi.haiba.lprimporter.model.haiba.Procedure;
+import dk.nsi.haiba.lprimporter.model.haiba.RebuildOutcome;
 import dk.nsi.haiba.lprimporter.model.haiba.ShakRegionValues;
 import dk.nsi.haiba.lprimporter.model.haiba.Statistics;
 import dk.nsi.haiba.lprimporter.model.lpr.Administration;
-import dk.nsi.haiba.lprimporter.model.lpr.LPRDiagnose;
-import dk.nsi.haiba.lprimporter.model.lpr.LPRProcedure;
 import dk.nsi.haiba.lprimporter.rules.BusinessRuleError;
+import dk.nsi.haiba.lprimporter.status.ImportStatus.Outcome;
 
 public class HAIBADAOImpl extends CommonDAO implements HAIBADAO {
     private static Log log = new Log(Logger.getLogger(HAIBADAOImpl.class));
 
+    private static final int IN_LIST_CHUNK_SIZE = 1000;
+
     @Autowired
     @Qualifier("haibaJdbcTemplate")
     JdbcTemplate jdbc;
@@ -75,50 +84,54 @@ public class HAIBADAOImpl extends CommonDAO implements HAIBADAO {
     @Value("${jdbc.fgrtableprefix:fgr.}")
     String fgrtableprefix;
 
+    @Value("${lpr.import.writechangesonly}")
+    boolean writeChangesOnly;
+
+    private static final ContactTables ADMISSION_TABLES = new ContactTables("Indlaeggelser", "IndlaeggelsesID", "Diagnoser", "Procedurer", "LPR_Reference");
+    private static final ContactTables AMBULANT_TABLES = new ContactTables("AmbulantKontakt", "AmbulantKontaktID", "AmbulantDiagnoser", "AmbulantProcedurer", "AmbulantLPR_Reference");
+    private static final String CONTACT_COLUMNS = "CPR, Sygehuskode, Afdelingskode, Indlaeggelsesdatotid, Udskrivningsdatotid, aktuel";
+    // by the child table indexes in ContactRows
+    private static final String[] CHILD_COLUMNS = {
+            "Diagnoseskode, Diagnosetype, Tillaegsdiagnose",
+            "Procedurekode, Proceduretype, Tillaegsprocedurekode, Sygehuskode, Afdelingskode, Proceduredatotid",
+            "LPR_recordnummer, LPR_dbid" };
+
+    /*
+     * The CPR numbers prepared for import and the rows written by the thread, a CPR number is processed by one thread
+     */
+    private final ThreadLocal<ImportState> importState = new ThreadLocal<ImportState>() {
+        @Override
+        protected ImportState initialValue() {
+            return new ImportState();
+        }
+    };
+
+    private volatile KlassShakIndex klassShakIndex;
+
+    /*
+     * During a rebuild the admission and ambulant tables are written to their shadow tables
+     */
+    private volatile boolean rebuilding;
+
     @Override
     public void saveIndlaeggelsesForloeb(List<Indlaeggelse> indlaeggelser) throws DAOException {
-        List<Long> indlaeggelserInForloeb = new ArrayList<Long>();
-
+        if (indlaeggelser.isEmpty()) {
+            return;
+        }
+        List<ContactRows> admissions = new ArrayList<ContactRows>();
+        for (Indlaeggelse indlaeggelse : indlaeggelser) {
+            admissions.add(ContactRows.of(indlaeggelse));
+        }
+        PendingImport pending = importState.get().pending.get(indlaeggelser.get(0).getCpr());
+        if (pending != null) {
+            // written with the changes when the CPR number is finished
+            pending.forloeb.add(admissions);
+            return;
+        }
         try {
             log.debug("* Inserting Indlaeggelsesforloeb");
-            for (Indlaeggelse indlaeggelse : indlaeggelser) {
-
-                final String sql = "INSERT INTO " + tableprefix + "Indlaeggelser (CPR, Sygehuskode, Afdelingskode, Indlaeggelsesdatotid, Udskrivningsdatotid, aktuel) VALUES (?,?,?,?,?,?)";
-
-                final Object[] args = new Object[] { 
-                        indlaeggelse.getCpr(), 
-                        indlaeggelse.getSygehusCode(),
-                        indlaeggelse.getAfdelingsCode(), 
-                        indlaeggelse.getIndlaeggelsesDatetime(),
-                        indlaeggelse.getUdskrivningsDatetime(),
-                        indlaeggelse.isAktuel() ? new Integer(1) : new Integer(0) };
-
-                long indlaeggelsesId = -1;
-                if (MYSQL.equals(getDialect())) {
-                    KeyHolder keyHolder = new GeneratedKeyHolder();
-                    jdbc.update(new PreparedStatementCreator() {
-                        public PreparedStatement createPreparedStatement(Connection connection) throws SQLException {
-                            PreparedStatement ps = connection.prepareStatement(sql, new String[] { "id" });
-                            for (int i = 0; i < args.length; i++) {
-                                ps.setObject(i + 1, args[i]);
-                            }
-                            return ps;
-                        }
-                    }, keyHolder);
-                    indlaeggelsesId = keyHolder.getKey().longValue();
-                } else if (MSSQL.equals(getDialect())) {
-                    jdbc.update(sql, args);
-                    indlaeggelsesId = jdbc.queryForLong("SELECT @@IDENTITY");
-                } else {
-                    throw new DAOException("Unknown SQL dialect: " + getDialect());
-                }
-                indlaeggelserInForloeb.add(new Long(indlaeggelsesId));
-
-                saveDiagnoses(indlaeggelse.getDiagnoses(), indlaeggelsesId);
-                saveProcedures(indlaeggelse.getProcedures(), indlaeggelsesId);
-                saveLPRReferences(indlaeggelse.getLprReferencer(), indlaeggelsesId);
-            }
-            saveForloeb(indlaeggelserInForloeb);
+            List<Long> indlaeggelserInForloeb = insertContacts(ADMISSION_TABLES, admissions);
+            saveForloeb(Collections.singletonList(indlaeggelserInForloeb));
             log.debug("** Inserted Indlaeggelsesforloeb");
         } catch (DataAccessException e) {
             throw new DAOException(e.getMessage(), e);
@@ -126,73 +139,180 @@ public class HAIBADAOImpl extends CommonDAO implements HAIBADAO {
 
     }
 
-    private void saveForloeb(List<Long> indlaeggelserInForloeb) {
-        final String sql = "INSERT INTO " + tableprefix + "Indlaeggelsesforloeb (IndlaeggelsesID) VALUES (?)";
-        String sqlWithReference = "INSERT INTO " + tableprefix + "Indlaeggelsesforloeb (IndlaeggelsesforloebID,IndlaeggelsesID) VALUES (?,?)";
+    /*
+     * Inserts the contacts with their child rows, and returns the generated ids in the order of the contacts
+     */
+    private List<Long> insertContacts(ContactTables tables, List<ContactRows> contacts) {
+        List<Object[]> rows = new ArrayList<Object[]>();
+        for (ContactRows contact : contacts) {
+            rows.add(contact.row);
+        }
+        List<Long> ids = insertAndGetIds(table(tables.contacts), CONTACT_COLUMNS, tables.id, rows);
+        written(ids.size());
+
+        // the child rows of all the contacts are written with one batch per table
+        for (int child = 0; child < CHILD_COLUMNS.length; child++) {
+            List<Object[]> childRows = new ArrayList<Object[]>();
+            for (int i = 0; i < contacts.size(); i++) {
+                childRows.addAll(withId(ids.get(i), contacts.get(i).children.get(child)));
+            }
+            insertChildren(tables, child, childRows);
+        }
+        return ids;
+    }
 
-        boolean first = true;
-        long sequenceId = 0;
+    private void insertChildren(ContactTables tables, int child, List<Object[]> rows) {
+        int columns = CHILD_COLUMNS[child].split(",").length + 1;
+        batchInsert("INSERT INTO " + table(tables.children[child]) + " (" + tables.id + ", " + CHILD_COLUMNS[child] + ") VALUES (" + placeholders(columns) + ")", rows);
+    }
 
-        for (Long indlaeggelsesId : indlaeggelserInForloeb) {
-            if (first) {
-                final Object[] args = new Object[] { indlaeggelsesId };
+    private static List<Object[]> withId(Long id, List<Object[]> rows) {
+        List<Object[]> rowsWithId = new ArrayList<Object[]>(rows.size());
+        for (Object[] row : rows) {
+            Object[] rowWithId = new Object[row.length + 1];
+            rowWithId[0] = id;
+            System.arraycopy(row, 0, rowWithId, 1, row.length);
+            rowsWithId.add(rowWithId);
+        }
+        return rowsWithId;
+    }
 
-                if (MYSQL.equals(getDialect())) {
-                    KeyHolder keyHolder = new GeneratedKeyHolder();
-                    jdbc.update(new PreparedStatementCreator() {
-                        public PreparedStatement createPreparedStatement(Connection connection) throws SQLException {
-                            PreparedStatement ps = connection.prepareStatement(sql, new String[] { "id" });
-                            for (int i = 0; i < args.length; i++) {
-                                ps.setObject(i + 1, args[i]);
-                            }
-                            return ps;
+    /*
+     * Inserts the rows and returns the generated ids of idColumn in the order of the rows.
+     * MySQL returns the generated keys for a whole batch, on MSSQL the ids are returned by the insert with OUTPUT.
+     */
+    private List<Long> insertAndGetIds(String table, String columns, final String idColumn, final List<Object[]> rows) {
+        List<Long> ids = new ArrayList<Long>();
+        if (rows.isEmpty()) {
+            return ids;
+        }
+        if (MYSQL.equals(getDialect())) {
+            final String sql = "INSERT INTO " + table + " (" + columns + ") VALUES (" + placeholders(rows.get(0).length) + ")";
+            ids = jdbc.execute(new ConnectionCallback<List<Long>>() {
+                @Override
+                public List<Long> doInConnection(Connection connection) throws SQLException, DataAccessException {
+                    List<Long> generatedIds = new ArrayList<Long>();
+                    PreparedStatement ps = connection.prepareStatement(sql, new String[] { idColumn });
+                    ResultSet rs = null;
+                    try {
+                        for (Object[] args : rows) {
+                            setParameters(ps, 0, args);
+                            ps.addBatch();
+                        }
+                        ps.executeBatch();
+                        rs = ps.getGeneratedKeys();
+                        while (rs.next()) {
+                            generatedIds.add(new Long(rs.getLong(1)));
                         }
-                    }, keyHolder);
-                    sequenceId = keyHolder.getKey().longValue();
-                } else if (MSSQL.equals(getDialect())) {
-                    jdbc.update(sql, args);
-                    sequenceId = jdbc.queryForLong("SELECT @@IDENTITY");
-                } else {
-                    throw new DAOException("Unknown SQL dialect: " + getDialect());
+                    } finally {
+                        JdbcUtils.closeResultSet(rs);
+                        JdbcUtils.closeStatement(ps);
+                    }
+                    return generatedIds;
                 }
-                jdbc.update("UPDATE " + tableprefix + "Indlaeggelsesforloeb SET IndlaeggelsesforloebID=? WHERE ID=?", sequenceId, sequenceId);
-
-                first = false;
-                continue;
+            });
+        } else if (MSSQL.equals(getDialect())) {
+            // a VALUES list has at most 1000 rows, and a statement at most 2100 parameters
+            int chunkSize = Math.min(1000, 2000 / rows.get(0).length);
+            for (int from = 0; from < rows.size(); from += chunkSize) {
+                ids.addAll(insertWithOutput(table, columns, idColumn, rows.subList(from, Math.min(from + chunkSize, rows.size()))));
             }
-            jdbc.update(sqlWithReference, sequenceId, indlaeggelsesId);
+        } else {
+            throw new DAOException("Unknown SQL dialect: " + getDialect());
+        }
+        if (ids.size() != rows.size()) {
+            throw new DAOException("Expected " + rows.size() + " generated ids, got " + ids.size());
         }
+        return ids;
     }
 
-    private void saveLPRReferences(List<LPRReference> lprReferencer, long indlaeggelsesId) {
-        String sql = "INSERT INTO " + tableprefix + "LPR_Reference (IndlaeggelsesID, LPR_recordnummer, LPR_dbid) VALUES (?, ?, ?)";
-
-        for (LPRReference ref : lprReferencer) {
-            jdbc.update(sql, indlaeggelsesId, ref.getLprRecordNumber(), ref.getDbId());
+    /*
+     * Inserts the rows with one statement on MSSQL. The order of the OUTPUT rows isn't guaranteed, but an INSERT from a SELECT
+     * with ORDER BY assigns the identities in that order, so the sorted ids are in the order of the rows.
+     */
+    private List<Long> insertWithOutput(String table, String columns, String idColumn, final List<Object[]> rows) {
+        StringBuilder sql = new StringBuilder("INSERT INTO " + table + " (" + columns + ") OUTPUT INSERTED." + idColumn
+                + " SELECT " + columns + " FROM (VALUES ");
+        String rowPlaceholders = placeholders(rows.get(0).length);
+        for (int i = 0; i < rows.size(); i++) {
+            sql.append(i == 0 ? "(" : ",(").append(rowPlaceholders).append(",").append(i).append(")");
         }
+        sql.append(") AS v (" + columns + ", RowNumber) ORDER BY RowNumber");
+        final String insert = sql.toString();
+        List<Long> ids = jdbc.execute(new ConnectionCallback<List<Long>>() {
+            @Override
+            public List<Long> doInConnection(Connection connection) throws SQLException, DataAccessException {
+                List<Long> generatedIds = new ArrayList<Long>();
+                PreparedStatement ps = connection.prepareStatement(insert);
+                ResultSet rs = null;
+                try {
+                    int index = 0;
+                    for (Object[] args : rows) {
+                        setParameters(ps, index, args);
+                        index += args.length;
+                    }
+                    rs = ps.executeQuery();
+                    while (rs.next()) {
+                        generatedIds.add(new Long(rs.getLong(1)));
+                    }
+                } finally {
+                    JdbcUtils.closeResultSet(rs);
+                    JdbcUtils.closeStatement(ps);
+                }
+                return generatedIds;
+            }
+        });
+        Collections.sort(ids);
+        return ids;
     }
 
-    private void saveProcedures(List<Procedure> procedures, long indlaeggelsesId) {
-        String sql = "INSERT INTO " + tableprefix + "Procedurer (IndlaeggelsesID, Procedurekode, Proceduretype, Tillaegsprocedurekode, Sygehuskode, Afdelingskode, Proceduredatotid) VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static void setParameters(PreparedStatement ps, int offset, Object[] args) throws SQLException {
+        for (int i = 0; i < args.length; i++) {
+            StatementCreatorUtils.setParameterValue(ps, offset + i + 1, SqlTypeValue.TYPE_UNKNOWN, args[i]);
+        }
+    }
 
-        for (Procedure p : procedures) {
-            jdbc.update(sql, 
-                    indlaeggelsesId, 
-                    p.getProcedureCode(), 
-                    p.getProcedureType(), 
-                    p.getTillaegsProcedureCode(),
-                    p.getSygehusCode(), 
-                    p.getAfdelingsCode(), 
-                    p.getProcedureDatetime());
+    private void batchInsert(String sql, List<Object[]> rows) {
+        if (!rows.isEmpty()) {
+            jdbc.batchUpdate(sql, rows);
+            written(rows.size());
         }
     }
 
-    private void saveDiagnoses(List<Diagnose> diagnoses, long indlaeggelsesId) {
-        String sql = "INSERT INTO " + tableprefix + "Diagnoser (IndlaeggelsesID, Diagnoseskode, Diagnosetype, Tillaegsdiagnose) VALUES (?, ?, ?, ?)";
+    /*
+     * Saves the forloeb with one insert of their first admissions, whose generated ids are the ids of the forloeb,
+     * one update setting the forloeb ids, and one batch of the other admissions
+     */
+    private void saveForloeb(List<List<Long>> forloebList) {
+        List<Object[]> firstRows = new ArrayList<Object[]>();
+        for (List<Long> indlaeggelserInForloeb : forloebList) {
+            if (!indlaeggelserInForloeb.isEmpty()) {
+                firstRows.add(new Object[] { indlaeggelserInForloeb.get(0) });
+            }
+        }
+        if (firstRows.isEmpty()) {
+            return;
+        }
+        List<Long> sequenceIds = insertAndGetIds(table("Indlaeggelsesforloeb"), "IndlaeggelsesID", "ID", firstRows);
+        written(sequenceIds.size());
+        for (int from = 0; from < sequenceIds.size(); from += IN_LIST_CHUNK_SIZE) {
+            List<Long> chunk = sequenceIds.subList(from, Math.min(from + IN_LIST_CHUNK_SIZE, sequenceIds.size()));
+            jdbc.update("UPDATE " + table("Indlaeggelsesforloeb") + " SET IndlaeggelsesforloebID=ID WHERE ID IN (" + placeholders(chunk.size()) + ")", chunk.toArray());
+        }
 
-        for (Diagnose d : diagnoses) {
-            jdbc.update(sql, indlaeggelsesId, d.getDiagnoseCode(), d.getDiagnoseType(), d.getTillaegsDiagnose());
+        String sqlWithReference = "INSERT INTO " + table("Indlaeggelsesforloeb") + " (IndlaeggelsesforloebID,IndlaeggelsesID) VALUES (?,?)";
+        List<Object[]> rows = new ArrayList<Object[]>();
+        Iterator<Long> sequenceId = sequenceIds.iterator();
+        for (List<Long> indlaeggelserInForloeb : forloebList) {
+            if (indlaeggelserInForloeb.isEmpty()) {
+                continue;
+            }
+            Long forloebId = sequenceId.next();
+            for (Long indlaeggelsesId : indlaeggelserInForloeb.subList(1, indlaeggelserInForloeb.size())) {
+                rows.add(new Object[] { forloebId, indlaeggelsesId });
+            }
         }
+        batchInsert(sqlWithReference, rows);
     }
 
     @Override
@@ -211,157 +331,509 @@ public class HAIBADAOImpl extends CommonDAO implements HAIBADAO {
 
     @Override
     public String getSygehusInitials(String sygehuscode, String afdelingsCode, Date in) throws DAOException {
-        // TODO - this can be cached
+        KlassShakIndex.Interval interval = getKlassShakIndex().find(sygehuscode + afdelingsCode, in);
+        if (interval == null) {
+            // no name found
+            log.warn("No SygehusInitials found for Code:" + sygehuscode + ", department:" + afdelingsCode + " and date:" + in);
+            return "";
+        }
+        String name = interval.getNavn();
+        if (name != null && name.length() > 3) {
+            return name.substring(0, 3);
+        } else {
+            return name;
+        }
+    }
+
+    @Override
+    public void clearSygehusInitialsCache() {
+        klassShakIndex = null;
+    }
+
+    /*
+     * Loads the whole klass_shak table on the first lookup, the lookups are then done in memory
+     */
+    private KlassShakIndex getKlassShakIndex() {
+        KlassShakIndex index = klassShakIndex;
+        if (index != null) {
+            return index;
+        }
+        synchronized (this) {
+            if (klassShakIndex == null) {
+                klassShakIndex = loadKlassShakIndex();
+            }
+            return klassShakIndex;
+        }
+    }
+
+    private KlassShakIndex loadKlassShakIndex() {
         String sql = null;
         if (MYSQL.equals(getDialect())) {
-            sql = "SELECT Navn FROM klass_shak WHERE Nummer=? AND ValidFrom <= ? AND ValidTo >= ?";
+            sql = "SELECT Nummer, ValidFrom, ValidTo, Navn FROM klass_shak";
         } else {
             // MSSQL
-            sql = "SELECT Navn FROM " + fgrtableprefix + "klass_shak WHERE Nummer=? AND ValidFrom <= ? AND ValidTo >= ?";
+            sql = "SELECT Nummer, ValidFrom, ValidTo, Navn FROM " + fgrtableprefix + "klass_shak";
         }
 
+        final KlassShakIndex index = new KlassShakIndex();
         try {
-            String name = jdbc.queryForObject(sql, new Object[] { sygehuscode + afdelingsCode, in, in }, String.class);
-            if (name != null && name.length() > 3) {
-                return name.substring(0, 3);
-            } else {
-                return name;
-            }
-        } catch (EmptyResultDataAccessException e) {
-            // no name found
-            log.warn("No SygehusInitials found for Code:" + sygehuscode + ", department:" + afdelingsCode + " and date:" + in);
-            return "";
+            jdbc.query(sql, new RowCallbackHandler() {
+                @Override
+                public void processRow(ResultSet rs) throws SQLException {
+                    index.add(rs.getString("Nummer"), rs.getTimestamp("ValidFrom"), rs.getTimestamp("ValidTo"), rs.getString("Navn"));
+                }
+            });
         } catch (RuntimeException e) {
             throw new DAOException("Error Fetching initials for hospital from FGR", e);
         }
+        index.sort();
+        log.debug("Loaded " + index.size() + " rows from klass_shak");
+        return index;
+    }
+
+    private String table(String name) {
+        return tableprefix + name + (rebuilding ? ShadowTables.SHADOW_SUFFIX : "");
+    }
+
+    private ShadowTables shadowTables() {
+        return new ShadowTables(jdbc, MYSQL.equals(getDialect()), tableprefix);
     }
 
     @Override
-    public void prepareCPRNumberForImport(String cpr) {
-        boolean cprExists = false;
+    public void startRebuild() {
+        try {
+            shadowTables().create();
+        } catch (RuntimeException e) {
+            throw new DAOException("Error creating the shadow tables for the rebuild", e);
+        }
+        rebuilding = true;
+    }
 
-        String sql = null;
-        if (MYSQL.equals(getDialect())) {
-            sql = "SELECT IndlaeggelsesID FROM Indlaeggelser where cpr=? LIMIT 1";
-        } else {
-            // MSSQL
-            sql = "SELECT TOP 1 IndlaeggelsesID FROM " + tableprefix + "Indlaeggelser where cpr=?";
+    @Override
+    public void finishRebuild() {
+        ShadowTables shadowTables = shadowTables();
+        try {
+            shadowTables.addIndexes();
+            shadowTables.swap();
+        } catch (RuntimeException e) {
+            throw new DAOException("Error swapping the shadow tables with the live tables", e);
+        } finally {
+            rebuilding = false;
         }
+        // the rebuilt tables are live, so the rebuild has succeeded also if the replaced tables are left
+        try {
+            shadowTables.dropOldTables();
+        } catch (RuntimeException e) {
+            log.warn("Error dropping the tables replaced by the rebuild, they are dropped by the next rebuild", e);
+        }
+    }
 
+    @Override
+    public void abortRebuild() {
+        rebuilding = false;
         try {
-            jdbc.queryForLong(sql, new Object[] { cpr });
-            cprExists = true;
-        } catch (EmptyResultDataAccessException e) {
-            // ignore - no CPR exists
+            shadowTables().drop();
         } catch (RuntimeException e) {
-            throw new DAOException("Error Fetching CPR number from Indlaeggelser", e);
+            throw new DAOException("Error dropping the shadow tables", e);
         }
+    }
 
-        if (cprExists) {
-            // delete earlier processed data from HAIBA indlaeggelses tables.
-            jdbc.update("DELETE FROM " + tableprefix + "Diagnoser WHERE indlaeggelsesID IN (SELECT indlaeggelsesID FROM " + tableprefix + "Indlaeggelser WHERE cpr=?)", cpr);
-            jdbc.update("DELETE FROM " + tableprefix + "Procedurer WHERE indlaeggelsesID IN (SELECT indlaeggelsesID FROM " + tableprefix + "Indlaeggelser WHERE cpr=?)", cpr);
-            jdbc.update("DELETE FROM " + tableprefix + "Indlaeggelsesforloeb WHERE indlaeggelsesID IN (SELECT indlaeggelsesID FROM " + tableprefix + "Indlaeggelser WHERE cpr=?)", cpr);
-            jdbc.update("DELETE FROM " + tableprefix + "LPR_Reference WHERE indlaeggelsesID IN (SELECT indlaeggelsesID FROM " + tableprefix + "Indlaeggelser WHERE cpr=?)", cpr);
-            jdbc.update("DELETE FROM " + tableprefix + "Indlaeggelser WHERE cpr=?", cpr);
-            // delete ambulant contacts
-            jdbc.update("DELETE FROM " + tableprefix + "AmbulantDiagnoser WHERE AmbulantKontaktId IN (SELECT ambulantKontaktId FROM " + tableprefix + "AmbulantKontakt WHERE cpr=?)", cpr);
-            jdbc.update("DELETE FROM " + tableprefix + "AmbulantProcedurer WHERE AmbulantKontaktId IN (SELECT ambulantKontaktId FROM " + tableprefix + "AmbulantKontakt WHERE cpr=?)", cpr);
-            jdbc.update("DELETE FROM " + tableprefix + "AmbulantLPR_Reference WHERE AmbulantKontaktId IN (SELECT ambulantKontaktId FROM " + tableprefix + "AmbulantKontakt WHERE cpr=?)", cpr);
-            jdbc.update("DELETE FROM " + tableprefix + "AmbulantKontakt WHERE cpr=?", cpr);
+    @Override
+    public void saveRebuildOutcomes(Collection<LPRReference> lprReferences, Outcome outcome) {
+        List<Object[]> rows = new ArrayList<Object[]>(lprReferences.size());
+        for (LPRReference lprReference : lprReferences) {
+            rows.add(new Object[] { lprReference.getDbId(), lprReference.getLprRecordNumber(), outcome.name() });
+        }
+        if (rows.isEmpty()) {
+            return;
+        }
+        try {
+            // not counted as written rows, the table is dropped after the rebuild
+            jdbc.batchUpdate("INSERT INTO " + tableprefix + ShadowTables.OUTCOMES + " (LPR_dbid, LPR_recordnummer, Status) VALUES (?,?,?)", rows);
+        } catch (RuntimeException e) {
+            throw new DAOException("Error saving the outcomes of the rebuild", e);
         }
     }
 
     @Override
-    public List<String> getCurrentPatients() {
-        String sql = "SELECT distinct cpr FROM " + tableprefix + "Indlaeggelser WHERE Aktuel = 1";
-        String sql2 = "SELECT distinct cpr FROM " + tableprefix + "AmbulantKontakt WHERE Aktuel = 1";
+    public List<RebuildOutcome> getRebuildOutcomes(long afterId, int count) {
+        String columns = "ID, LPR_dbid, LPR_recordnummer, Status FROM " + tableprefix + ShadowTables.OUTCOMES + " WHERE ID > ? ORDER BY ID";
+        String sql = MYSQL.equals(getDialect()) ? "SELECT " + columns + " LIMIT " + count : "SELECT TOP " + count + " " + columns;
+        try {
+            return jdbc.query(sql, new Object[] { afterId }, new RowMapper<RebuildOutcome>() {
+                @Override
+                public RebuildOutcome mapRow(ResultSet rs, int rowNum) throws SQLException {
+                    return new RebuildOutcome(rs.getLong(1), new LPRReference(rs.getInt(2), rs.getString(3)), Outcome.valueOf(rs.getString(4)));
+                }
+            });
+        } catch (RuntimeException e) {
+            throw new DAOException("Error fetching the outcomes of the rebuild", e);
+        }
+    }
 
-        List<String> currentPatientCPRNumbers = new ArrayList<String>();
+    @Override
+    public void dropRebuildOutcomes() {
         try {
-            currentPatientCPRNumbers = jdbc.queryForList(sql, String.class);
-            currentPatientCPRNumbers.addAll(jdbc.queryForList(sql2, String.class));
+            shadowTables().dropOutcomes();
         } catch (RuntimeException e) {
-            throw new DAOException("Error fetching list of current patients", e);
+            throw new DAOException("Error dropping the outcomes of the rebuild", e);
         }
-        return currentPatientCPRNumbers;
     }
 
     @Override
-    public void saveAmbulantIndlaeggelser(List<Administration> contacts) throws DAOException {
+    public void prepareCPRNumberForImport(String cpr) {
+        prepareCPRNumbersForImport(Collections.singletonList(cpr));
+    }
+
+    @Override
+    public void prepareCPRNumbersForImport(Collection<String> cprNumbers) {
+        // the CPR numbers left by a failing slice must not have their output compared with stored rows of the tables written before
+        importState.get().pending.clear();
+        if (rebuilding) {
+            // the shadow tables started out empty, and a rebuild processes each CPR number once
+            return;
+        }
+        if (writeChangesOnly) {
+            loadForImport(cprNumbers);
+            return;
+        }
+        List<String> cprList = new ArrayList<String>(cprNumbers);
+        for (int from = 0; from < cprList.size(); from += IN_LIST_CHUNK_SIZE) {
+            List<String> existingCPRNumbers = getExistingCPRNumbers(cprList.subList(from, Math.min(from + IN_LIST_CHUNK_SIZE, cprList.size())));
+            if (existingCPRNumbers.isEmpty()) {
+                continue;
+            }
+
+            String cprIn = "cpr IN (" + placeholders(existingCPRNumbers.size()) + ")";
+            Object[] args = existingCPRNumbers.toArray();
+            String admissions = "(SELECT indlaeggelsesID FROM " + table("Indlaeggelser") + " WHERE " + cprIn + ")";
+            String ambulantContacts = "(SELECT ambulantKontaktId FROM " + table("AmbulantKontakt") + " WHERE " + cprIn + ")";
+            try {
+                // delete earlier processed data from HAIBA indlaeggelses tables.
+                written(jdbc.update("DELETE FROM " + table("Diagnoser") + " WHERE indlaeggelsesID IN " + admissions, args));
+                written(jdbc.update("DELETE FROM " + table("Procedurer") + " WHERE indlaeggelsesID IN " + admissions, args));
+                written(jdbc.update("DELETE FROM " + table("Indlaeggelsesforloeb") + " WHERE indlaeggelsesID IN " + admissions, args));
+                written(jdbc.update("DELETE FROM " + table("LPR_Reference") + " WHERE indlaeggelsesID IN " + admissions, args));
+                written(jdbc.update("DELETE FROM " + table("Indlaeggelser") + " WHERE " + cprIn, args));
+                // delete ambulant contacts
+                written(jdbc.update("DELETE FROM " + table("AmbulantDiagnoser") + " WHERE AmbulantKontaktId IN " + ambulantContacts, args));
+                written(jdbc.update("DELETE FROM " + table("AmbulantProcedurer") + " WHERE AmbulantKontaktId IN " + ambulantContacts, args));
+                written(jdbc.update("DELETE FROM " + table("AmbulantLPR_Reference") + " WHERE AmbulantKontaktId IN " + ambulantContacts, args));
+                written(jdbc.update("DELETE FROM " + table("AmbulantKontakt") + " WHERE " + cprIn, args));
+            } catch (RuntimeException e) {
+                throw new DAOException("Error deleting earlier processed data for CPR numbers", e);
+            }
+        }
+    }
+
+    /*
+     * Returns the CPR numbers with admissions or ambulant contacts in HAIBA, most CPR numbers in a new batch have none
+     */
+    private List<String> getExistingCPRNumbers(List<String> cprNumbers) {
+        String cprIn = "cpr IN (" + placeholders(cprNumbers.size()) + ")";
+        String sql = "SELECT cpr FROM " + table("Indlaeggelser") + " WHERE " + cprIn + " UNION SELECT cpr FROM " + table("AmbulantKontakt") + " WHERE " + cprIn;
+        List<Object> args = new ArrayList<Object>(cprNumbers);
+        args.addAll(cprNumbers);
         try {
-            log.debug("* Inserting ambulant contact");
-            for (Administration contact : contacts) {
-
-                final String sql = "INSERT INTO " + tableprefix + "AmbulantKontakt (CPR, Sygehuskode, Afdelingskode, Indlaeggelsesdatotid, Udskrivningsdatotid, aktuel) VALUES (?,?,?,?,?,?)";
-
-                final Object[] args = new Object[] { 
-                        contact.getCpr(), 
-                        contact.getSygehusCode(),
-                        contact.getAfdelingsCode(), 
-                        contact.getIndlaeggelsesDatetime(),
-                        contact.getUdskrivningsDatetime(), 
-                        contact.isCurrentPatient() ? new Integer(1) : new Integer(0) };
-
-                long ambulantContactId = -1;
-                if (MYSQL.equals(getDialect())) {
-                    KeyHolder keyHolder = new GeneratedKeyHolder();
-                    jdbc.update(new PreparedStatementCreator() {
-                        public PreparedStatement createPreparedStatement(Connection connection) throws SQLException {
-                            PreparedStatement ps = connection.prepareStatement(sql, new String[] { "id" });
-                            for (int i = 0; i < args.length; i++) {
-                                ps.setObject(i + 1, args[i]);
-                            }
-                            return ps;
-                        }
-                    }, keyHolder);
-                    ambulantContactId = keyHolder.getKey().longValue();
-                } else if (MSSQL.equals(getDialect())) {
-                    jdbc.update(sql, args);
-                    ambulantContactId = jdbc.queryForLong("SELECT @@IDENTITY");
-                } else {
-                    throw new DAOException("Unknown SQL dialect: " + getDialect());
+            return jdbc.queryForList(sql, args.toArray(), String.class);
+        } catch (RuntimeException e) {
+            throw new DAOException("Error Fetching CPR numbers from Indlaeggelser and AmbulantKontakt", e);
+        }
+    }
+
+    /*
+     * Reads the stored rows of the CPR numbers, the output of the business rules is compared with them when the CPR number is finished
+     */
+    private void loadForImport(Collection<String> cprNumbers) {
+        Map<String, PendingImport> pending = new HashMap<String, PendingImport>();
+        for (String cpr : cprNumbers) {
+            pending.put(cpr, new PendingImport());
+        }
+        List<String> cprList = new ArrayList<String>(cprNumbers);
+        try {
+            for (int from = 0; from < cprList.size(); from += IN_LIST_CHUNK_SIZE) {
+                List<String> chunk = cprList.subList(from, Math.min(from + IN_LIST_CHUNK_SIZE, cprList.size()));
+                loadStoredContacts(ADMISSION_TABLES, chunk, pending);
+                loadStoredContacts(AMBULANT_TABLES, chunk, pending);
+            }
+        } catch (RuntimeException e) {
+            throw new DAOException("Error fetching earlier processed data for CPR numbers", e);
+        }
+        importState.get().pending = pending;
+    }
+
+    private void loadStoredContacts(final ContactTables tables, List<String> cprNumbers, final Map<String, PendingImport> pending) {
+        String cprIn = "cpr IN (" + placeholders(cprNumbers.size()) + ")";
+        Object[] args = cprNumbers.toArray();
+        final Map<Long, ContactRows> contactsById = new HashMap<Long, ContactRows>();
+        jdbc.query("SELECT " + tables.id + ", " + CONTACT_COLUMNS + " FROM " + table(tables.contacts) + " WHERE " + cprIn, args, new RowCallbackHandler() {
+            @Override
+            public void processRow(ResultSet rs) throws SQLException {
+                ContactRows contact = new ContactRows(new Object[] { 
+                        rs.getString(2), 
+                        rs.getString(3), 
+                        rs.getString(4),
+                        rs.getTimestamp(5), 
+                        rs.getTimestamp(6), 
+                        rs.getObject(7) });
+                contact.id = rs.getLong(1);
+                contactsById.put(contact.id, contact);
+                PendingImport pendingImport = pending.get(rs.getString(2));
+                if (pendingImport != null) {
+                    (tables == ADMISSION_TABLES ? pendingImport.storedAdmissions : pendingImport.storedAmbulantContacts).add(contact);
                 }
-                log.trace("ambulantContactId is " + ambulantContactId);
+            }
+        });
+        if (contactsById.isEmpty()) {
+            return;
+        }
+
+        String ids = "(SELECT " + tables.id + " FROM " + table(tables.contacts) + " WHERE " + cprIn + ")";
+        for (int child = 0; child < CHILD_COLUMNS.length; child++) {
+            final int columns = CHILD_COLUMNS[child].split(",").length;
+            final int childIndex = child;
+            jdbc.query("SELECT " + tables.id + ", " + CHILD_COLUMNS[child] + " FROM " + table(tables.children[child]) + " WHERE " + tables.id + " IN " + ids, args, new RowCallbackHandler() {
+                @Override
+                public void processRow(ResultSet rs) throws SQLException {
+                    Object[] row = new Object[columns];
+                    for (int i = 0; i < columns; i++) {
+                        row[i] = rs.getObject(i + 2);
+                    }
+                    contactsById.get(rs.getLong(1)).children.get(childIndex).add(row);
+                }
+            });
+        }
+        if (tables == ADMISSION_TABLES) {
+            jdbc.query("SELECT IndlaeggelsesID, IndlaeggelsesforloebID FROM " + table("Indlaeggelsesforloeb") + " WHERE IndlaeggelsesID IN " + ids, args, new RowCallbackHandler() {
+                @Override
+                public void processRow(ResultSet rs) throws SQLException {
+                    long forloebId = rs.getLong(2);
+                    contactsById.get(rs.getLong(1)).forloebId = rs.wasNull() ? null : new Long(forloebId);
+                }
+            });
+        }
+    }
 
-                saveAmbulantDiagnoses(contact.getLprDiagnoses(), ambulantContactId);
-                saveAmbulantProcedures(contact.getLprProcedures(), ambulantContactId);
-                saveAmbulantLPRReferences(contact.getLprReferencer(), ambulantContactId);
+    @Override
+    public long finishCPRNumberImport(String cpr) {
+        ImportState state = importState.get();
+        PendingImport pending = state.pending.remove(cpr);
+        if (pending != null) {
+            try {
+                writeAdmissionChanges(pending);
+                writeContactChanges(AMBULANT_TABLES, pending.ambulantContacts, pending.storedAmbulantContacts);
+            } catch (DataAccessException e) {
+                throw new DAOException(e.getMessage(), e);
             }
-            log.debug("** Inserted ambulant contact");
-        } catch (DataAccessException e) {
-            throw new DAOException(e.getMessage(), e);
         }
+        long rowsWritten = state.rowsWritten;
+        state.rowsWritten = 0;
+        return rowsWritten;
     }
 
-    private void saveAmbulantLPRReferences(List<LPRReference> lprReferencer, long ambulantContactId) {
-        String sql = "INSERT INTO " + tableprefix + "AmbulantLPR_Reference (AmbulantKontaktID, LPR_recordnummer, LPR_dbid) VALUES (?, ?, ?)";
+    /*
+     * A forloeb is kept when its admissions are the same stored admissions, else its rows are replaced
+     */
+    private void writeAdmissionChanges(PendingImport pending) {
+        List<ContactRows> admissions = new ArrayList<ContactRows>();
+        for (List<ContactRows> forloeb : pending.forloeb) {
+            admissions.addAll(forloeb);
+        }
+        Map<ContactRows, ContactRows> matches = match(admissions, pending.storedAdmissions);
 
-        for (LPRReference ref : lprReferencer) {
-            jdbc.update(sql, ambulantContactId, ref.getLprRecordNumber(), ref.getDbId());
+        Map<Long, Integer> storedForloebSizes = new HashMap<Long, Integer>();
+        for (ContactRows stored : pending.storedAdmissions) {
+            if (stored.forloebId != null) {
+                Integer size = storedForloebSizes.get(stored.forloebId);
+                storedForloebSizes.put(stored.forloebId, size == null ? 1 : size + 1);
+            }
+        }
+        Set<Long> keptForloeb = new HashSet<Long>();
+        List<List<ContactRows>> newForloeb = new ArrayList<List<ContactRows>>();
+        for (List<ContactRows> forloeb : pending.forloeb) {
+            Long forloebId = storedForloebId(forloeb, matches);
+            if (forloebId != null && storedForloebSizes.get(forloebId).intValue() == forloeb.size() && keptForloeb.add(forloebId)) {
+                continue;
+            }
+            newForloeb.add(forloeb);
+        }
+        Set<Long> removedForloeb = new HashSet<Long>(storedForloebSizes.keySet());
+        removedForloeb.removeAll(keptForloeb);
+        deleteWhereIn(table("Indlaeggelsesforloeb"), "IndlaeggelsesforloebID", removedForloeb);
+
+        Map<ContactRows, Long> ids = writeContactChanges(ADMISSION_TABLES, admissions, pending.storedAdmissions, matches);
+        List<List<Long>> newForloebIds = new ArrayList<List<Long>>();
+        for (List<ContactRows> forloeb : newForloeb) {
+            List<Long> indlaeggelserInForloeb = new ArrayList<Long>();
+            for (ContactRows admission : forloeb) {
+                indlaeggelserInForloeb.add(ids.get(admission));
+            }
+            newForloebIds.add(indlaeggelserInForloeb);
         }
+        saveForloeb(newForloebIds);
     }
 
-    private void saveAmbulantProcedures(List<LPRProcedure> procedures, long ambulantContactId) {
-        String sql = "INSERT INTO " + tableprefix + "AmbulantProcedurer (AmbulantKontaktID, Procedurekode, Proceduretype, Tillaegsprocedurekode, Sygehuskode, Afdelingskode, Proceduredatotid) VALUES (?, ?, ?, ?, ?, ?, ?)";
+    /*
+     * The stored forloeb of the admissions, null if they aren't all stored in the same forloeb
+     */
+    private static Long storedForloebId(List<ContactRows> forloeb, Map<ContactRows, ContactRows> matches) {
+        Long forloebId = null;
+        for (ContactRows admission : forloeb) {
+            ContactRows stored = matches.get(admission);
+            if (stored == null || stored.forloebId == null || (forloebId != null && !forloebId.equals(stored.forloebId))) {
+                return null;
+            }
+            forloebId = stored.forloebId;
+        }
+        return forloebId;
+    }
 
-        for (LPRProcedure p : procedures) {
-            jdbc.update(sql, 
-                    ambulantContactId, 
-                    p.getProcedureCode(), 
-                    p.getProcedureType(),
-                    p.getTillaegsProcedureCode(), 
-                    p.getSygehusCode(), 
-                    p.getAfdelingsCode(), 
-                    p.getProcedureDatetime());
+    /*
+     * Matches the contacts with the stored contacts with the same key, each stored contact is matched once
+     */
+    private static Map<ContactRows, ContactRows> match(List<ContactRows> contacts, List<ContactRows> storedContacts) {
+        Map<List<Object>, LinkedList<ContactRows>> storedByKey = new HashMap<List<Object>, LinkedList<ContactRows>>();
+        for (ContactRows stored : storedContacts) {
+            LinkedList<ContactRows> withKey = storedByKey.get(stored.key());
+            if (withKey == null) {
+                withKey = new LinkedList<ContactRows>();
+                storedByKey.put(stored.key(), withKey);
+            }
+            withKey.add(stored);
         }
+        Map<ContactRows, ContactRows> matches = new IdentityHashMap<ContactRows, ContactRows>();
+        for (ContactRows contact : contacts) {
+            LinkedList<ContactRows> withKey = storedByKey.get(contact.key());
+            if (withKey != null && !withKey.isEmpty()) {
+                matches.put(contact, withKey.removeFirst());
+            }
+        }
+        return matches;
+    }
+
+    private Map<ContactRows, Long> writeContactChanges(ContactTables tables, List<ContactRows> contacts, List<ContactRows> storedContacts) {
+        return writeContactChanges(tables, contacts, storedContacts, match(contacts, storedContacts));
     }
 
-    private void saveAmbulantDiagnoses(List<LPRDiagnose> diagnoses, long ambulantContactId) {
-        String sql = "INSERT INTO " + tableprefix + "AmbulantDiagnoser (AmbulantKontaktID, Diagnoseskode, Diagnosetype, Tillaegsdiagnose) VALUES (?, ?, ?, ?)";
+    /*
+     * Deletes the stored contacts that aren't matched, updates the matched contacts where they differ, and inserts the new contacts.
+     * Returns the ids of the contacts.
+     */
+    private Map<ContactRows, Long> writeContactChanges(ContactTables tables, List<ContactRows> contacts, List<ContactRows> storedContacts, Map<ContactRows, ContactRows> matches) {
+        Set<ContactRows> matchedStored = Collections.newSetFromMap(new IdentityHashMap<ContactRows, Boolean>());
+        matchedStored.addAll(matches.values());
+        List<Long> deletedIds = new ArrayList<Long>();
+        for (ContactRows stored : storedContacts) {
+            if (!matchedStored.contains(stored)) {
+                deletedIds.add(stored.id);
+            }
+        }
+        for (int child = 0; child < CHILD_COLUMNS.length; child++) {
+            deleteWhereIn(table(tables.children[child]), tables.id, deletedIds);
+        }
+        if (tables == ADMISSION_TABLES) {
+            // normally removed with their forloeb
+            deleteWhereIn(table("Indlaeggelsesforloeb"), "IndlaeggelsesID", deletedIds);
+        }
+        deleteWhereIn(table(tables.contacts), tables.id, deletedIds);
+
+        Map<ContactRows, Long> ids = new IdentityHashMap<ContactRows, Long>();
+        List<ContactRows> newContacts = new ArrayList<ContactRows>();
+        List<List<Object[]>> changedChildRows = new ArrayList<List<Object[]>>();
+        for (int child = 0; child < CHILD_COLUMNS.length; child++) {
+            changedChildRows.add(new ArrayList<Object[]>());
+        }
+        for (ContactRows contact : contacts) {
+            ContactRows stored = matches.get(contact);
+            if (stored == null) {
+                newContacts.add(contact);
+                continue;
+            }
+            ids.put(contact, stored.id);
+            if (!contact.sameRow(stored)) {
+                // the key columns are the same
+                written(jdbc.update("UPDATE " + table(tables.contacts) + " SET Udskrivningsdatotid = ?, aktuel = ? WHERE " + tables.id + " = ?", contact.row[4], contact.row[5], stored.id));
+            }
+            for (int child = 0; child < CHILD_COLUMNS.length; child++) {
+                if (!contact.sameChildren(stored, child)) {
+                    written(jdbc.update("DELETE FROM " + table(tables.children[child]) + " WHERE " + tables.id + " = ?", stored.id));
+                    changedChildRows.get(child).addAll(withId(stored.id, contact.children.get(child)));
+                }
+            }
+        }
+        for (int child = 0; child < CHILD_COLUMNS.length; child++) {
+            insertChildren(tables, child, changedChildRows.get(child));
+        }
 
-        for (LPRDiagnose d : diagnoses) {
-            jdbc.update(sql, ambulantContactId, d.getDiagnoseCode(), d.getDiagnoseType(), d.getTillaegsDiagnose());
+        List<Long> newIds = insertContacts(tables, newContacts);
+        for (int i = 0; i < newContacts.size(); i++) {
+            ids.put(newContacts.get(i), newIds.get(i));
+        }
+        return ids;
+    }
+
+    private void deleteWhereIn(String table, String column, Collection<Long> ids) {
+        List<Long> idList = new ArrayList<Long>(ids);
+        for (int from = 0; from < idList.size(); from += IN_LIST_CHUNK_SIZE) {
+            List<Long> chunk = idList.subList(from, Math.min(from + IN_LIST_CHUNK_SIZE, idList.size()));
+            written(jdbc.update("DELETE FROM " + table + " WHERE " + column + " IN (" + placeholders(chunk.size()) + ")", chunk.toArray()));
+        }
+    }
+
+    private void written(int rows) {
+        importState.get().rowsWritten += rows;
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            placeholders.append(i == 0 ? "?" : ",?");
+        }
+        return placeholders.toString();
+    }
+
+    @Override
+    public Set<String> getCurrentPatients() {
+        // UNION removes the CPR numbers that are current patients in both tables
+        String sql = "SELECT cpr FROM " + table("Indlaeggelser") + " WHERE Aktuel = 1 UNION SELECT cpr FROM "
+                + table("AmbulantKontakt") + " WHERE Aktuel = 1";
+
+        final Set<String> currentPatientCPRNumbers = new HashSet<String>();
+        try {
+            jdbc.query(sql, new RowCallbackHandler() {
+                @Override
+                public void processRow(ResultSet rs) throws SQLException {
+                    currentPatientCPRNumbers.add(rs.getString(1));
+                }
+            });
+        } catch (RuntimeException e) {
+            throw new DAOException("Error fetching list of current patients", e);
+        }
+        return currentPatientCPRNumbers;
+    }
+
+    @Override
+    public void saveAmbulantIndlaeggelser(List<Administration> contacts) throws DAOException {
+        if (contacts.isEmpty()) {
+            return;
+        }
+        List<ContactRows> ambulantContacts = new ArrayList<ContactRows>();
+        for (Administration contact : contacts) {
+            ambulantContacts.add(ContactRows.of(contact));
+        }
+        PendingImport pending = importState.get().pending.get(contacts.get(0).getCpr());
+        if (pending != null) {
+            // written with the changes when the CPR number is finished
+            pending.ambulantContacts.addAll(ambulantContacts);
+            return;
+        }
+        try {
+            log.debug("* Inserting ambulant contact");
+            List<Long> ambulantContactIds = insertContacts(AMBULANT_TABLES, ambulantContacts);
+            log.trace("ambulantContactIds are " + ambulantContactIds);
+            log.debug("** Inserted ambulant contact");
+        } catch (DataAccessException e) {
+            throw new DAOException(e.getMessage(), e);
         }
     }
 
@@ -369,8 +841,8 @@ public class HAIBADAOImpl extends CommonDAO implements HAIBADAO {
     public void saveStatistics(Statistics statistics) {
         String sql = "INSERT INTO "
                 + tableprefix
-                + "Statistik (KoerselsDato,AntalKontakter,AntalCPRNumre,AntalKontakterFejlet,AntalCPRNumreEksporteret,AntalIndlaeggelserEksporteret,AntalForloebEksporteret,AntalAmbulanteKontakterEksporteret,AntalCPRNumreMedSlettedeKontakterBehandlet,AntalNuvaerendePatienterBehandlet,Regel1,Regel2,Regel3,Regel4,Regel5,Regel6,Regel7,Regel8,Regel9,Regel10,Regel11,Regel12,Regel13,Regel14) "
-                + " VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+                + "Statistik (KoerselsDato,AntalKontakter,AntalCPRNumre,AntalKontakterFejlet,AntalCPRNumreEksporteret,AntalIndlaeggelserEksporteret,AntalForloebEksporteret,AntalAmbulanteKontakterEksporteret,AntalCPRNumreMedSlettedeKontakterBehandlet,AntalNuvaerendePatienterBehandlet,AntalRaekkerSkrevet,AntalCPRNumreMedEnKontakt,Regel1,Regel2,Regel3,Regel4,Regel5,Regel6,Regel7,Regel8,Regel9,Regel10,Regel11,Regel12,Regel13,Regel14) "
+                + " VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
 
         jdbc.update(sql, 
                 statistics.getDate(), 
@@ -383,6 +855,8 @@ public class HAIBADAOImpl extends CommonDAO implements HAIBADAO {
                 statistics.ambulantContactsExportedCounter,
                 statistics.cprNumbersWithDeletedContactsCounter, 
                 statistics.currentPatientsCounter,
+                statistics.haibaRowsWrittenCounter,
+                statistics.singleContactCprCounter,
                 statistics.rule1Counter, 
                 statistics.rule2Counter, 
                 statistics.rule3Counter, 
@@ -399,6 +873,40 @@ public class HAIBADAOImpl extends CommonDAO implements HAIBADAO {
                 statistics.rule14Counter);
     }
 
+    @Override
+    public Map<Integer, Long> getLastSyncIds() {
+        // not a shadow table, the sync ids are kept through a rebuild
+        String sql = "SELECT LPR_dbid, SenesteSyncID FROM " + tableprefix + "LPRSynkronisering";
+        final Map<Integer, Long> syncIds = new HashMap<Integer, Long>();
+        try {
+            jdbc.query(sql, new RowCallbackHandler() {
+                @Override
+                public void processRow(ResultSet rs) throws SQLException {
+                    syncIds.put(rs.getInt("LPR_dbid"), rs.getLong("SenesteSyncID"));
+                }
+            });
+        } catch (RuntimeException e) {
+            throw new DAOException("Error fetching the last processed sync ids", e);
+        }
+        return syncIds;
+    }
+
+    @Override
+    public void saveLastSyncIds(Map<Integer, Long> syncIds) {
+        String update = "UPDATE " + tableprefix + "LPRSynkronisering SET SenesteSyncID = ?, KoerselsDato = ? WHERE LPR_dbid = ?";
+        String insert = "INSERT INTO " + tableprefix + "LPRSynkronisering (LPR_dbid, SenesteSyncID, KoerselsDato) VALUES (?, ?, ?)";
+        Date now = new Date();
+        try {
+            for (Map.Entry<Integer, Long> entry : syncIds.entrySet()) {
+                if (jdbc.update(update, entry.getValue(), now, entry.getKey()) == 0) {
+                    jdbc.update(insert, entry.getKey(), entry.getValue(), now);
+                }
+            }
+        } catch (RuntimeException e) {
+            throw new DAOException("Error saving the last processed sync ids", e);
+        }
+    }
+
     @Override
     public Collection<ShakRegionValues> getShakRegionValuesForSygehusNumre(Collection<String> sygehusNumre) {
         List<ShakRegionValues> returnValue = new ArrayList<ShakRegionValues>();
@@ -428,4 +936,32 @@ public class HAIBADAOImpl extends CommonDAO implements HAIBADAO {
         }
         return returnValue;
     }
+
+    private static class ContactTables {
+        private final String contacts;
+        private final String id;
+        // by the child table indexes in ContactRows
+        private final String[] children;
+
+        ContactTables(String contacts, String id, String diagnoses, String procedures, String references) {
+            this.contacts = contacts;
+            this.id = id;
+            this.children = new String[] { diagnoses, procedures, references };
+        }
+    }
+
+    private static class ImportState {
+        private Map<String, PendingImport> pending = new HashMap<String, PendingImport>();
+        private long rowsWritten;
+    }
+
+    /*
+     * The stored rows of a CPR number prepared for import, and the output of the business rules for it
+     */
+    private static class PendingImport {
+        private final List<ContactRows> storedAdmissions = new ArrayList<ContactRows>();
+        private final List<ContactRows> storedAmbulantContacts = new ArrayList<ContactRows>();
+        private final List<List<ContactRows>> forloeb = new ArrayList<List<ContactRows>>();
+        private final List<ContactRows> ambulantContacts = new ArrayList<ContactRows>();
+    }
 }
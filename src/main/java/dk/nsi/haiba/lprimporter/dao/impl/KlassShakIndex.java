@@ -0,0 +1,126 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.lprimporter.dao.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * The names from the FGR klass_shak table, by Nummer and sorted by ValidFrom, so the name valid at a date is found by a binary search.
+ * Filled once and read by several threads after that.
+ */
+class KlassShakIndex {
+    private static final Comparator<Interval> BY_VALID_FROM = new Comparator<Interval>() {
+        @Override
+        public int compare(Interval o1, Interval o2) {
+            return o1.validFrom < o2.validFrom ? -1 : (o1.validFrom == o2.validFrom ? 0 : 1);
+        }
+    };
+
+    private final Map<String, List<Interval>> intervalsByNummer = new HashMap<String, List<Interval>>();
+    private int size;
+
+    void add(String nummer, Date validFrom, Date validTo, String navn) {
+        if (nummer == null || validFrom == null || validTo == null) {
+            // can never match the ValidFrom <= ? AND ValidTo >= ? lookup
+            return;
+        }
+        List<Interval> intervals = intervalsByNummer.get(nummer);
+        if (intervals == null) {
+            intervals = new ArrayList<Interval>(1);
+            intervalsByNummer.put(nummer, intervals);
+        }
+        intervals.add(new Interval(validFrom.getTime(), validTo.getTime(), navn));
+        size++;
+    }
+
+    /*
+     * Must be called when all the rows are added
+     */
+    void sort() {
+        for (List<Interval> intervals : intervalsByNummer.values()) {
+            Collections.sort(intervals, BY_VALID_FROM);
+        }
+    }
+
+    /*
+     * Returns the interval for the nummer valid at the date, null if there is none
+     */
+    Interval find(String nummer, Date date) {
+        List<Interval> intervals = intervalsByNummer.get(nummer);
+        if (intervals == null) {
+            return null;
+        }
+        long time = date.getTime();
+        // the last interval starting at or before the date
+        int low = 0;
+        int high = intervals.size() - 1;
+        int last = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (intervals.get(middle).validFrom <= time) {
+                last = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        // intervals for a nummer don't overlap in FGR, but an earlier one could still cover the date if they did
+        for (int i = last; i >= 0; i--) {
+            Interval interval = intervals.get(i);
+            if (interval.validTo >= time) {
+                return interval;
+            }
+        }
+        return null;
+    }
+
+    int size() {
+        return size;
+    }
+
+    static class Interval {
+        private final long validFrom;
+        private final long validTo;
+        private final String navn;
+
+        Interval(long validFrom, long validTo, String navn) {
+            this.validFrom = validFrom;
+            this.validTo = validTo;
+            this.navn = navn;
+        }
+
+        String getNavn() {
+            return navn;
+        }
+    }
+}
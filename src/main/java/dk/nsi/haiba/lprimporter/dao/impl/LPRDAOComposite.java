@@ -27,9 +27,15 @@
 package dk.nsi.haiba.lprimporter.dao.impl;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -61,6 +67,43 @@ public class LPRDAOComposite implements LPRDAO {
         return null;
     }
 
+    @Override
+    public List<String> getCPRnumbersFromSyncHistory(long afterSyncId, long toSyncId) throws DAOException {
+        log.error("getCPRnumbersFromSyncHistory(afterSyncId, toSyncId) not supported");
+        return null;
+    }
+
+    @Override
+    public List<String> getCPRnumbersFromSyncHistory(Map<Integer, Long> afterSyncIds, Map<Integer, Long> toSyncIds)
+            throws DAOException {
+        Set<String> returnValue = new HashSet<String>();
+        returnValue.addAll(getCPRnumbersFromSyncHistory(ssiLPRDAO, SSI_DB, afterSyncIds, toSyncIds));
+        returnValue.addAll(getCPRnumbersFromSyncHistory(minipasLPRDAO, MINIPAS_DB, afterSyncIds, toSyncIds));
+        return new ArrayList<String>(returnValue);
+    }
+
+    private List<String> getCPRnumbersFromSyncHistory(LPRDAO lprdao, int dbId, Map<Integer, Long> afterSyncIds,
+            Map<Integer, Long> toSyncIds) {
+        Long afterSyncId = afterSyncIds.get(dbId);
+        Long toSyncId = toSyncIds.get(dbId);
+        if (afterSyncId == null || toSyncId == null) {
+            throw new DAOException("No sync id for " + getDbIdText(dbId) + ", the changes can't be determined");
+        }
+        if (toSyncId.longValue() <= afterSyncId.longValue()) {
+            // no new synchronisations
+            return new ArrayList<String>();
+        }
+        return lprdao.getCPRnumbersFromSyncHistory(afterSyncId.longValue(), toSyncId.longValue());
+    }
+
+    @Override
+    public Map<Integer, Long> getLatestSyncIds() throws DAOException {
+        Map<Integer, Long> returnValue = new HashMap<Integer, Long>();
+        returnValue.put(SSI_DB, ssiLPRDAO.isdatabaseReadyForImport());
+        returnValue.put(MINIPAS_DB, minipasLPRDAO.isdatabaseReadyForImport());
+        return returnValue;
+    }
+
     public static String getDbIdText(int dbId) {
         String returnValue = "NA";
         if (dbId == SSI_DB) {
@@ -72,10 +115,25 @@ public class LPRDAOComposite implements LPRDAO {
     }
 
     @Override
-    public List<String> getCPRnumberBatch(int batchsize) throws DAOException {
-        List<String> returnValue = ssiLPRDAO.getCPRnumberBatch(batchsize);
-        if (batchsize > returnValue.size()) {
-            returnValue.addAll(minipasLPRDAO.getCPRnumberBatch(batchsize - returnValue.size()));
+    public List<String> getCPRnumberBatch(int batchsize, String afterCPR) throws DAOException {
+        return firstOfUnion(batchsize, ssiLPRDAO.getCPRnumberBatch(batchsize, afterCPR), minipasLPRDAO.getCPRnumberBatch(batchsize, afterCPR));
+    }
+
+    @Override
+    public List<String> getAllCPRnumberBatch(int batchsize, String afterCPR) throws DAOException {
+        return firstOfUnion(batchsize, ssiLPRDAO.getAllCPRnumberBatch(batchsize, afterCPR), minipasLPRDAO.getAllCPRnumberBatch(batchsize, afterCPR));
+    }
+
+    /*
+     * The first batchsize CPR numbers of the union, each source returns its first batchsize CPR numbers
+     */
+    private static List<String> firstOfUnion(int batchsize, List<String> ssiCPRNumbers, List<String> minipasCPRNumbers) {
+        SortedSet<String> cprNumbers = new TreeSet<String>();
+        cprNumbers.addAll(ssiCPRNumbers);
+        cprNumbers.addAll(minipasCPRNumbers);
+        List<String> returnValue = new ArrayList<String>(cprNumbers);
+        if (returnValue.size() > batchsize) {
+            returnValue = new ArrayList<String>(returnValue.subList(0, batchsize));
         }
         return returnValue;
     }
@@ -96,6 +154,39 @@ public class LPRDAOComposite implements LPRDAO {
         return returnValue;
     }
 
+    @Override
+    public Map<String, List<Administration>> getContactsByCPRs(Collection<String> cprNumbers) throws DAOException {
+        Map<String, List<Administration>> returnValue = new HashMap<String, List<Administration>>();
+        for (String cpr : cprNumbers) {
+            returnValue.put(cpr, new ArrayList<Administration>());
+        }
+        addContacts(returnValue, ssiLPRDAO.getContactsByCPRs(cprNumbers), SSI_DB);
+        addContacts(returnValue, minipasLPRDAO.getContactsByCPRs(cprNumbers), MINIPAS_DB);
+        return returnValue;
+    }
+
+    @Override
+    public Set<String> getCPRnumbersWithOpenContacts(Collection<String> cprNumbers, Date admittedAfter) throws DAOException {
+        Set<String> returnValue = new HashSet<String>();
+        returnValue.addAll(ssiLPRDAO.getCPRnumbersWithOpenContacts(cprNumbers, admittedAfter));
+        returnValue.addAll(minipasLPRDAO.getCPRnumbersWithOpenContacts(cprNumbers, admittedAfter));
+        return returnValue;
+    }
+
+    private void addContacts(Map<String, List<Administration>> contactsByCPR, Map<String, List<Administration>> contactsFromDb, int dbId) {
+        for (Map.Entry<String, List<Administration>> entry : contactsFromDb.entrySet()) {
+            List<Administration> contacts = contactsByCPR.get(entry.getKey());
+            if (contacts == null) {
+                contacts = new ArrayList<Administration>();
+                contactsByCPR.put(entry.getKey(), contacts);
+            }
+            for (Administration administration : entry.getValue()) {
+                administration.setLprReference(new LPRReference(dbId, administration.getRecordNumber()));
+                contacts.add(administration);
+            }
+        }
+    }
+
     @Override
     public void updateImportTime(LPRReference lprReference, Outcome outcome) {
         if (lprReference.getDbId() == SSI_DB) {
@@ -105,6 +196,25 @@ public class LPRDAOComposite implements LPRDAO {
         }
     }
 
+    @Override
+    public void updateImportTimes(Collection<LPRReference> lprReferences, Outcome outcome) {
+        List<LPRReference> ssiReferences = new ArrayList<LPRReference>();
+        List<LPRReference> minipasReferences = new ArrayList<LPRReference>();
+        for (LPRReference lprReference : lprReferences) {
+            if (lprReference.getDbId() == SSI_DB) {
+                ssiReferences.add(lprReference);
+            } else if (lprReference.getDbId() == MINIPAS_DB) {
+                minipasReferences.add(lprReference);
+            }
+        }
+        if (!ssiReferences.isEmpty()) {
+            ssiLPRDAO.updateImportTimes(ssiReferences, outcome);
+        }
+        if (!minipasReferences.isEmpty()) {
+            minipasLPRDAO.updateImportTimes(minipasReferences, outcome);
+        }
+    }
+
     @Override
     public boolean hasUnprocessedCPRnumbers() {
         boolean returnValue = ssiLPRDAO.hasUnprocessedCPRnumbers() || minipasLPRDAO.hasUnprocessedCPRnumbers();
@@ -27,16 +27,23 @@
 package dk.nsi.haiba.lprimporter.dao.impl;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.sql.DataSource;
 
 import org.apache.log4j.Logger;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import dk.nsi.haiba.lprimporter.dao.CommonDAO;
 import dk.nsi.haiba.lprimporter.dao.LPRDAO;
@@ -48,13 +55,16 @@ import dk.nsi.haiba.lprimporter.status.ImportStatus.Outcome;
 
 public class LPRDAOImpl extends CommonDAO implements LPRDAO {
     private static Log log = new Log(Logger.getLogger(LPRDAOImpl.class));
+    private static final int IN_LIST_CHUNK_SIZE = 1000;
 
+    private TransactionTemplate transactionTemplate;
     private JdbcTemplate jdbcTemplate;
     private String hr_tableprefix;
     private String etl_tableprefix;
 
     public LPRDAOImpl(DataSource ds, String haibareplicaPrefix, String etlPrefix) {
         jdbcTemplate = new JdbcTemplate(ds);
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(ds));
         hr_tableprefix = haibareplicaPrefix;
         etl_tableprefix = etlPrefix;
     }
@@ -81,20 +91,20 @@ public class LPRDAOImpl extends CommonDAO implements LPRDAO {
     }
 
     @Override
-    public List<String> getCPRnumberBatch(int batchsize) throws DAOException {
+    public List<String> getCPRnumberBatch(int batchsize, String afterCPR) throws DAOException {
         log.trace("BEGIN getCPRnumberBatch");
         String sql = null;
         if (MYSQL.equals(getDialect())) {
-            sql = "SELECT v_cpr FROM T_ADM WHERE D_IMPORTDTO IS NULL GROUP BY v_cpr LIMIT " + batchsize;
+            sql = "SELECT v_cpr FROM T_ADM WHERE D_IMPORTDTO IS NULL AND v_cpr > ? GROUP BY v_cpr ORDER BY v_cpr LIMIT " + batchsize;
         } else {
             // MSSQL
             sql = "SELECT TOP " + batchsize + " v_cpr FROM " + hr_tableprefix
-                    + "T_ADM WHERE D_IMPORTDTO IS NULL GROUP BY v_cpr";
+                    + "T_ADM WHERE D_IMPORTDTO IS NULL AND v_cpr > ? GROUP BY v_cpr ORDER BY v_cpr";
         }
 
         List<String> unprocessedCPRNumbers = new ArrayList<String>();
         try {
-            unprocessedCPRNumbers = jdbcTemplate.queryForList(sql, String.class);
+            unprocessedCPRNumbers = jdbcTemplate.queryForList(sql, new Object[] { afterCPR }, String.class);
         } catch (RuntimeException e) {
             throw new DAOException("Error fetching contacts from LPR", e);
         }
@@ -102,6 +112,28 @@ public class LPRDAOImpl extends CommonDAO implements LPRDAO {
         return unprocessedCPRNumbers;
     }
 
+    @Override
+    public List<String> getAllCPRnumberBatch(int batchsize, String afterCPR) throws DAOException {
+        log.trace("BEGIN getAllCPRnumberBatch");
+        String sql = null;
+        if (MYSQL.equals(getDialect())) {
+            sql = "SELECT v_cpr FROM T_ADM WHERE v_cpr > ? GROUP BY v_cpr ORDER BY v_cpr LIMIT " + batchsize;
+        } else {
+            // MSSQL
+            sql = "SELECT TOP " + batchsize + " v_cpr FROM " + hr_tableprefix
+                    + "T_ADM WHERE v_cpr > ? GROUP BY v_cpr ORDER BY v_cpr";
+        }
+
+        List<String> cprNumbers = new ArrayList<String>();
+        try {
+            cprNumbers = jdbcTemplate.queryForList(sql, new Object[] { afterCPR }, String.class);
+        } catch (RuntimeException e) {
+            throw new DAOException("Error fetching CPR numbers from LPR", e);
+        }
+        log.trace("END getAllCPRnumberBatch");
+        return cprNumbers;
+    }
+
     @Override
     public List<Administration> getContactsByCPR(String cpr) throws DAOException {
         log.trace("BEGIN getContactsByCPR");
@@ -111,44 +143,100 @@ public class LPRDAOImpl extends CommonDAO implements LPRDAO {
             if (MYSQL.equals(getDialect())) {
                 sql = "SELECT a.v_recnum,a.c_sgh,a.c_afd,a.c_pattype,a.v_cpr,a.d_inddto,a.d_uddto,"
                         + "k.c_kode,k.c_tilkode,k.c_kodeart,k.d_pdto,k.c_psgh,k.c_pafd,k.v_type FROM T_ADM a "
-                        + "LEFT JOIN T_KODER k ON a.v_recnum = k.v_recnum WHERE a.v_cpr=?";
+                        + "LEFT JOIN T_KODER k ON a.v_recnum = k.v_recnum WHERE a.v_cpr=? ORDER BY a.v_recnum";
             } else {
                 // MSSQL
                 sql = "SELECT a.v_recnum,a.c_sgh,a.c_afd,a.c_pattype,a.v_cpr,a.d_inddto,a.d_uddto,"
                         + "k.c_kode,k.c_tilkode,k.c_kodeart,k.d_pdto,k.c_psgh,k.c_pafd,k.v_type FROM " + hr_tableprefix
                         + "T_ADM a LEFT JOIN " + hr_tableprefix
-                        + "T_KODER k ON a.v_recnum = k.v_recnum WHERE a.v_cpr=?";
+                        + "T_KODER k ON a.v_recnum = k.v_recnum WHERE a.v_cpr=? ORDER BY a.v_recnum";
             }
-            lprContacts = jdbcTemplate.query(sql, new Object[] { cpr }, new LPRContactRowMapper());
+            lprContacts = jdbcTemplate.query(sql, new Object[] { cpr }, new LPRContactExtractor());
         } catch (RuntimeException e) {
             throw new DAOException("Error fetching contacts from LPR", e);
         }
 
-        lprContacts = mergeContacts(lprContacts);
-
         log.trace("END getContactsByCPR");
         return lprContacts;
     }
 
-    private List<Administration> mergeContacts(List<Administration> lprContacts) {
+    @Override
+    public Map<String, List<Administration>> getContactsByCPRs(Collection<String> cprNumbers) throws DAOException {
+        log.trace("BEGIN getContactsByCPRs");
+        String sql = null;
+        if (MYSQL.equals(getDialect())) {
+            sql = "SELECT a.v_recnum,a.c_sgh,a.c_afd,a.c_pattype,a.v_cpr,a.d_inddto,a.d_uddto,"
+                    + "k.c_kode,k.c_tilkode,k.c_kodeart,k.d_pdto,k.c_psgh,k.c_pafd,k.v_type FROM T_ADM a "
+                    + "LEFT JOIN T_KODER k ON a.v_recnum = k.v_recnum WHERE a.v_cpr IN (";
+        } else {
+            // MSSQL
+            sql = "SELECT a.v_recnum,a.c_sgh,a.c_afd,a.c_pattype,a.v_cpr,a.d_inddto,a.d_uddto,"
+                    + "k.c_kode,k.c_tilkode,k.c_kodeart,k.d_pdto,k.c_psgh,k.c_pafd,k.v_type FROM " + hr_tableprefix
+                    + "T_ADM a LEFT JOIN " + hr_tableprefix
+                    + "T_KODER k ON a.v_recnum = k.v_recnum WHERE a.v_cpr IN (";
+        }
 
-        if (lprContacts.size() == 1) {
-            return lprContacts;
+        Map<String, List<Administration>> contactsByCPR = new HashMap<String, List<Administration>>();
+        List<String> cprList = new ArrayList<String>(cprNumbers);
+        for (String cpr : cprList) {
+            contactsByCPR.put(cpr, new ArrayList<Administration>());
         }
+        try {
+            for (int from = 0; from < cprList.size(); from += IN_LIST_CHUNK_SIZE) {
+                List<String> chunk = cprList.subList(from, Math.min(from + IN_LIST_CHUNK_SIZE, cprList.size()));
+                StringBuilder placeholders = new StringBuilder();
+                for (int i = 0; i < chunk.size(); i++) {
+                    placeholders.append(i == 0 ? "?" : ",?");
+                }
+                List<Administration> contacts = jdbcTemplate.query(sql + placeholders + ") ORDER BY a.v_cpr, a.v_recnum", chunk.toArray(), new LPRContactExtractor());
+                for (Administration adm : contacts) {
+                    List<Administration> contactsForCPR = contactsByCPR.get(adm.getCpr());
+                    if (contactsForCPR == null) {
+                        // not expected, but keep the contact rather than losing it
+                        contactsForCPR = new ArrayList<Administration>();
+                        contactsByCPR.put(adm.getCpr(), contactsForCPR);
+                    }
+                    contactsForCPR.add(adm);
+                }
+            }
+        } catch (RuntimeException e) {
+            throw new DAOException("Error fetching contacts from LPR", e);
+        }
+        log.trace("END getContactsByCPRs");
+        return contactsByCPR;
+    }
 
-        Map<Long, Administration> contacts = new HashMap<Long, Administration>();
-        for (Administration adm : lprContacts) {
-            Long recordNumber = new Long(adm.getRecordNumber());
+    @Override
+    public Set<String> getCPRnumbersWithOpenContacts(Collection<String> cprNumbers, Date admittedAfter) throws DAOException {
+        log.trace("BEGIN getCPRnumbersWithOpenContacts");
+        String sql = null;
+        if (MYSQL.equals(getDialect())) {
+            sql = "SELECT DISTINCT v_cpr FROM T_ADM WHERE d_uddto IS NULL AND (d_inddto IS NULL OR d_inddto >= ?) AND v_cpr IN (";
+        } else {
+            // MSSQL
+            sql = "SELECT DISTINCT v_cpr FROM " + hr_tableprefix
+                    + "T_ADM WHERE d_uddto IS NULL AND (d_inddto IS NULL OR d_inddto >= ?) AND v_cpr IN (";
+        }
 
-            Administration c = contacts.get(recordNumber);
-            if (c == null) {
-                contacts.put(recordNumber, adm);
-            } else {
-                c.getLprDiagnoses().addAll(adm.getLprDiagnoses());
-                c.getLprProcedures().addAll(adm.getLprProcedures());
+        Set<String> cprNumbersWithOpenContacts = new HashSet<String>();
+        List<String> cprList = new ArrayList<String>(cprNumbers);
+        try {
+            for (int from = 0; from < cprList.size(); from += IN_LIST_CHUNK_SIZE) {
+                List<String> chunk = cprList.subList(from, Math.min(from + IN_LIST_CHUNK_SIZE, cprList.size()));
+                List<Object> args = new ArrayList<Object>();
+                args.add(admittedAfter);
+                args.addAll(chunk);
+                StringBuilder placeholders = new StringBuilder();
+                for (int i = 0; i < chunk.size(); i++) {
+                    placeholders.append(i == 0 ? "?" : ",?");
+                }
+                cprNumbersWithOpenContacts.addAll(jdbcTemplate.queryForList(sql + placeholders + ")", args.toArray(), String.class));
             }
+        } catch (RuntimeException e) {
+            throw new DAOException("Error fetching CPR numbers with open contacts from LPR", e);
         }
-        return new ArrayList<Administration>(contacts.values());
+        log.trace("END getCPRnumbersWithOpenContacts");
+        return cprNumbersWithOpenContacts;
     }
 
     @Override
@@ -172,6 +260,47 @@ public class LPRDAOImpl extends CommonDAO implements LPRDAO {
         log.trace("END updateImportTime");
     }
 
+    @Override
+    public void updateImportTimes(Collection<LPRReference> lprReferences, final Outcome status) {
+        log.trace("BEGIN updateImportTimes");
+
+        String sql = null;
+        if (MYSQL.equals(getDialect())) {
+            sql = "UPDATE T_ADM SET D_IMPORTDTO = ?, V_STATUS =? WHERE V_RECNUM IN (";
+        } else {
+            // MSSQL
+            sql = "UPDATE " + hr_tableprefix + "T_ADM SET D_IMPORTDTO = ?, V_STATUS =? WHERE V_RECNUM IN (";
+        }
+
+        final String updateSql = sql;
+        final Date importTime = new Date();
+        final List<LPRReference> references = new ArrayList<LPRReference>(lprReferences);
+        try {
+            // the chunks are committed at once, so the contacts are marked as imported all together or not at all
+            transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+                @Override
+                protected void doInTransactionWithoutResult(TransactionStatus transactionStatus) {
+                    // chunked, as MSSQL allows at most 2100 parameters in a statement
+                    for (int from = 0; from < references.size(); from += IN_LIST_CHUNK_SIZE) {
+                        List<LPRReference> chunk = references.subList(from, Math.min(from + IN_LIST_CHUNK_SIZE, references.size()));
+                        StringBuilder placeholders = new StringBuilder();
+                        List<Object> args = new ArrayList<Object>();
+                        args.add(importTime);
+                        args.add(status.toString());
+                        for (LPRReference lprReference : chunk) {
+                            placeholders.append(placeholders.length() == 0 ? "?" : ",?");
+                            args.add(new Long(lprReference.getLprRecordNumber()));
+                        }
+                        jdbcTemplate.update(updateSql + placeholders + ")", args.toArray());
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            throw new DAOException("Error updating import timestamp in LPR", e);
+        }
+        log.trace("END updateImportTimes");
+    }
+
     @Override
     public long isdatabaseReadyForImport() {
 
@@ -225,6 +354,43 @@ public class LPRDAOImpl extends CommonDAO implements LPRDAO {
         return cprNumbersWithDeletedContacts;
     }
 
+    @Override
+    public List<String> getCPRnumbersFromSyncHistory(long afterSyncId, long toSyncId) throws DAOException {
+        log.trace("BEGIN getCPRnumbersFromSyncHistory");
+        String sql = null;
+        if (MYSQL.equals(getDialect())) {
+            sql = "SELECT DISTINCT a.v_cpr FROM T_ADM a JOIN T_LOG_SYNC_HISTORY h ON h.AFFECTED_V_RECNUM = a.v_recnum"
+                    + " WHERE h.v_sync_id > ? AND h.v_sync_id <= ?";
+        } else {
+            // MSSQL
+            sql = "SELECT DISTINCT a.v_cpr FROM " + hr_tableprefix + "T_ADM a JOIN " + etl_tableprefix
+                    + "T_LOG_SYNC_HISTORY h ON h.AFFECTED_V_RECNUM = a.v_recnum WHERE h.v_sync_id > ? AND h.v_sync_id <= ?";
+        }
+
+        List<String> cprNumbers = new ArrayList<String>();
+        try {
+            cprNumbers = jdbcTemplate.queryForList(sql, new Object[] { new Long(afterSyncId), new Long(toSyncId) },
+                    String.class);
+        } catch (RuntimeException e) {
+            throw new DAOException("Error fetching CPR numbers from changed contacts in LPR", e);
+        }
+        log.trace("END getCPRnumbersFromSyncHistory");
+        return cprNumbers;
+    }
+
+    @Override
+    public List<String> getCPRnumbersFromSyncHistory(Map<Integer, Long> afterSyncIds, Map<Integer, Long> toSyncIds)
+            throws DAOException {
+        log.error("getCPRnumbersFromSyncHistory(afterSyncIds, toSyncIds) not supported");
+        return null;
+    }
+
+    @Override
+    public Map<Integer, Long> getLatestSyncIds() throws DAOException {
+        log.error("getLatestSyncIds() not supported");
+        return null;
+    }
+
     @Override
     public List<String> getCPRnumbersFromDeletedContacts() throws DAOException {
         List<String> returnValue = new ArrayList<String>();
@@ -0,0 +1,203 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.lprimporter.dao.impl;
+
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import dk.nsi.haiba.lprimporter.log.Log;
+
+/*
+ * Empty copies of the HAIBA admission and ambulant tables, filled by a full rebuild and swapped with the live tables when it is done.
+ * The copies have no secondary indexes or foreign keys while they are filled, they are added just before the swap.
+ * The indexes and keys are the ones from database/HAIBA-Indlaeggelser.sql and database/HAIBA-Indlaeggelser-MSSQL.sql
+ */
+class ShadowTables {
+    private static Log log = new Log(Logger.getLogger(ShadowTables.class));
+
+    static final String SHADOW_SUFFIX = "_shadow";
+    private static final String OLD_SUFFIX = "_old";
+
+    /* the import outcomes of the rebuild, kept until they are written to LPR after the swap */
+    static final String OUTCOMES = "LPR_Importstatus" + SHADOW_SUFFIX;
+
+    // parents before children
+    private static final Table[] TABLES = {
+            new Table("Indlaeggelser", "IndlaeggelsesID", null, null, "CPR", null),
+            new Table("Diagnoser", null, "Indlaeggelser", "IndlaeggelsesID", null, null),
+            new Table("Procedurer", null, "Indlaeggelser", "IndlaeggelsesID", null, null),
+            new Table("Indlaeggelsesforloeb", "ID", "Indlaeggelser", "IndlaeggelsesID", null, "IndlaeggelsesforloebID, IndlaeggelsesID"),
+            new Table("LPR_Reference", "ID", "Indlaeggelser", "IndlaeggelsesID", null, null),
+            new Table("AmbulantKontakt", "AmbulantKontaktID", null, null, null, null),
+            new Table("AmbulantDiagnoser", null, "AmbulantKontakt", "AmbulantKontaktID", null, null),
+            new Table("AmbulantProcedurer", null, "AmbulantKontakt", "AmbulantKontaktID", null, null),
+            new Table("AmbulantLPR_Reference", "ID", "AmbulantKontakt", "AmbulantKontaktID", null, null) };
+
+    private final JdbcTemplate jdbc;
+    private final boolean mysql;
+    private final String tableprefix;
+
+    ShadowTables(JdbcTemplate jdbc, boolean mysql, String tableprefix) {
+        this.jdbc = jdbc;
+        this.mysql = mysql;
+        // the MySQL statements use the tables of the current database, as elsewhere in the DAOs
+        this.tableprefix = mysql ? "" : tableprefix;
+    }
+
+    /*
+     * Creates the empty copies and the outcome table, after dropping any tables left by an earlier rebuild
+     */
+    void create() {
+        drop();
+        for (Table table : TABLES) {
+            String shadow = table.name + SHADOW_SUFFIX;
+            if (mysql) {
+                // keeps the primary key and auto increment, the other indexes are dropped
+                jdbc.execute("CREATE TABLE " + shadow + " LIKE " + table.name);
+                List<String> indexNames = jdbc.queryForList("SELECT DISTINCT INDEX_NAME FROM information_schema.STATISTICS WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND INDEX_NAME <> 'PRIMARY'", new Object[] { shadow }, String.class);
+                for (String indexName : indexNames) {
+                    jdbc.execute("ALTER TABLE " + shadow + " DROP INDEX " + indexName);
+                }
+            } else {
+                // MSSQL, keeps the identity column but no keys or indexes
+                jdbc.execute("SELECT * INTO " + tableprefix + shadow + " FROM " + tableprefix + table.name + " WHERE 1=0");
+            }
+        }
+        if (mysql) {
+            jdbc.execute("CREATE TABLE " + OUTCOMES + " (ID BIGINT(15) NOT NULL AUTO_INCREMENT PRIMARY KEY, LPR_dbid BIGINT(15) NOT NULL, "
+                    + "LPR_recordnummer varchar(255) NOT NULL, Status varchar(20) NOT NULL) ENGINE=InnoDB COLLATE=utf8_bin");
+        } else {
+            jdbc.execute("CREATE TABLE " + tableprefix + OUTCOMES + " (ID BIGINT NOT NULL IDENTITY PRIMARY KEY, LPR_dbid BIGINT NOT NULL, "
+                    + "LPR_recordnummer varchar(255) NOT NULL, Status varchar(20) NOT NULL)");
+        }
+        log.info("Created empty shadow tables for the rebuild");
+    }
+
+    /*
+     * Adds the keys and indexes to the filled copies
+     */
+    void addIndexes() {
+        for (Table table : TABLES) {
+            String shadow = tableprefix + table.name + SHADOW_SUFFIX;
+            if (!mysql && table.primaryKey != null) {
+                jdbc.execute("ALTER TABLE " + shadow + " ADD PRIMARY KEY (" + table.primaryKey + ")");
+            }
+            if (table.index != null) {
+                jdbc.execute("CREATE INDEX " + table.index + " ON " + shadow + " (" + table.index + ")");
+            }
+            if (table.unique != null) {
+                jdbc.execute("ALTER TABLE " + shadow + " ADD UNIQUE (" + table.unique + ")");
+            }
+            if (table.parent != null) {
+                jdbc.execute("ALTER TABLE " + shadow + " ADD FOREIGN KEY (" + table.foreignKey + ") REFERENCES "
+                        + tableprefix + table.parent + SHADOW_SUFFIX + " (" + table.foreignKey + ")");
+            }
+        }
+        log.info("Added keys and indexes to the shadow tables");
+    }
+
+    /*
+     * Replaces the live tables with the copies in one step, readers see either the old or the rebuilt tables.
+     * The replaced tables are kept with the old suffix, until dropOldTables.
+     */
+    void swap() {
+        if (mysql) {
+            StringBuilder sql = new StringBuilder("RENAME TABLE ");
+            for (int i = 0; i < TABLES.length; i++) {
+                String name = TABLES[i].name;
+                sql.append(i == 0 ? "" : ", ");
+                sql.append(name + " TO " + name + OLD_SUFFIX + ", " + name + SHADOW_SUFFIX + " TO " + name);
+            }
+            jdbc.execute(sql.toString());
+        } else {
+            // MSSQL, sp_rename takes part in the transaction
+            StringBuilder sql = new StringBuilder("SET XACT_ABORT ON; BEGIN TRANSACTION; ");
+            for (Table table : TABLES) {
+                sql.append("EXEC sp_rename '" + tableprefix + table.name + "', '" + table.name + OLD_SUFFIX + "'; ");
+                sql.append("EXEC sp_rename '" + tableprefix + table.name + SHADOW_SUFFIX + "', '" + table.name + "'; ");
+            }
+            sql.append("COMMIT TRANSACTION;");
+            jdbc.execute(sql.toString());
+        }
+        log.info("Swapped the shadow tables with the live tables");
+    }
+
+    /*
+     * Drops the tables replaced by the swap
+     */
+    void dropOldTables() {
+        dropTables(OLD_SUFFIX);
+    }
+
+    /*
+     * Drops the copies, the outcome table and any old tables left by a failed swap
+     */
+    void drop() {
+        dropTables(SHADOW_SUFFIX);
+        dropTables(OLD_SUFFIX);
+        dropOutcomes();
+    }
+
+    void dropOutcomes() {
+        dropTable(tableprefix + OUTCOMES);
+    }
+
+    private void dropTables(String suffix) {
+        // children before parents
+        for (int i = TABLES.length - 1; i >= 0; i--) {
+            dropTable(tableprefix + TABLES[i].name + suffix);
+        }
+    }
+
+    private void dropTable(String table) {
+        if (mysql) {
+            jdbc.execute("DROP TABLE IF EXISTS " + table);
+        } else {
+            jdbc.execute("IF OBJECT_ID('" + table + "', 'U') IS NOT NULL DROP TABLE " + table);
+        }
+    }
+
+    private static class Table {
+        private final String name;
+        private final String primaryKey;
+        private final String parent;
+        private final String foreignKey;
+        private final String index;
+        private final String unique;
+
+        Table(String name, String primaryKey, String parent, String foreignKey, String index, String unique) {
+            this.name = name;
+            this.primaryKey = primaryKey;
+            this.parent = parent;
+            this.foreignKey = foreignKey;
+            this.index = index;
+            this.unique = unique;
+        }
+    }
+}
@@ -28,9 +28,11 @@ package dk.nsi.haiba.lprimporter.importer;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -60,11 +62,18 @@ public class ClassificationCheckHelper {
     @Autowired
     EmailSender emailSender;
 
-    private void check(Collection<Wrapper> wrappers) {
-        Set<CheckStructure> sygehusCheckStructures = new HashSet<ClassificationCheckDAO.CheckStructure>();
-        Set<CheckStructure> diagnoseCheckStructures = new HashSet<ClassificationCheckDAO.CheckStructure>();
-        Set<CheckStructure> procedureCheckStructures = new HashSet<ClassificationCheckDAO.CheckStructure>();
+    /*
+     * The classifications seen in this run, collected by the import workers and checked once when the run ends
+     */
+    private final Set<CheckStructure> sygehusCheckStructures = newConcurrentSet();
+    private final Set<CheckStructure> diagnoseCheckStructures = newConcurrentSet();
+    private final Set<CheckStructure> procedureCheckStructures = newConcurrentSet();
 
+    private static Set<CheckStructure> newConcurrentSet() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<CheckStructure, Boolean>());
+    }
+
+    private void collect(Collection<Wrapper> wrappers) {
         for (Wrapper wrapper : wrappers) {
             String sygehusCode = wrapper.getSygehusCode();
             String afdelingsCode = wrapper.getAfdelingsCode();
@@ -90,6 +99,19 @@ public class ClassificationCheckHelper {
                 procedureCheckStructures.add(csi);
             }
         }
+    }
+
+    /*
+     * Checks the classifications collected since the last check, sends one email about the new ones and stores them.
+     * Called by the import when the contacts are processed.
+     */
+    public synchronized void checkCollectedClassifications() {
+        Set<CheckStructure> sygehusCheckStructures = drain(this.sygehusCheckStructures);
+        Set<CheckStructure> diagnoseCheckStructures = drain(this.diagnoseCheckStructures);
+        Set<CheckStructure> procedureCheckStructures = drain(this.procedureCheckStructures);
+        log.debug("checking " + sygehusCheckStructures.size() + " sygehuse, " + procedureCheckStructures.size()
+                + " procedures and " + diagnoseCheckStructures.size() + " diagnoses");
+
         Collection<CheckStructure> newSygehusClassifications = classificationCheckDAO
                 .checkClassifications(sygehusCheckStructures);
         Collection<CheckStructure> newProcedureCheckClassifications = classificationCheckDAO
@@ -117,6 +139,22 @@ public class ClassificationCheckHelper {
         }
     }
 
+    private Set<CheckStructure> drain(Set<CheckStructure> collected) {
+        Set<CheckStructure> returnValue = new HashSet<CheckStructure>(collected);
+        // classifications added meanwhile are kept for the next check
+        collected.removeAll(returnValue);
+        return returnValue;
+    }
+
+    /*
+     * Forgets the collected classifications, called when a run starts
+     */
+    public void clear() {
+        sygehusCheckStructures.clear();
+        diagnoseCheckStructures.clear();
+        procedureCheckStructures.clear();
+    }
+
     private Collection<String> getSygehusNumre(Collection<CheckStructure> newSygehusClassifications) {
         Collection<String> returnValue = new HashSet<String>();
         for (CheckStructure checkStructure : newSygehusClassifications) {
@@ -125,12 +163,12 @@ public class ClassificationCheckHelper {
         return returnValue;
     }
 
-    public void checkClassifications(Administration[] array) {
-        check(wrap(array));
+    public void collectClassifications(Administration[] array) {
+        collect(wrap(array));
     }
 
-    public void checkClassifications(Indlaeggelse[] array) {
-        check(wrap(array));
+    public void collectClassifications(Indlaeggelse[] array) {
+        collect(wrap(array));
     }
 
     private Collection<Wrapper> wrap(Administration[] admissions) {
@@ -0,0 +1,202 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.lprimporter.importer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import dk.nsi.haiba.lprimporter.dao.LPRDAO;
+import dk.nsi.haiba.lprimporter.log.Log;
+import dk.nsi.haiba.lprimporter.model.lpr.Administration;
+
+/*
+ * Hands out slices of CPR numbers together with their contacts from LPR.
+ * When prefetching, a reader thread fetches the slices ahead of the rule processing into a bounded queue,
+ * so LPR is read while the rules run and HAIBA is written. The reader blocks when the queue is full.
+ * Without prefetching each slice is fetched when it is asked for.
+ */
+public class ContactSliceReader {
+    private static Log log = new Log(Logger.getLogger(ContactSliceReader.class));
+
+    private static final Slice END = new Slice(new ArrayList<String>(), null);
+
+    private final LPRDAO lprdao;
+    private final Queue<String> cprNumbers;
+    private final int sliceSize;
+    private final BlockingQueue<Slice> prefetched;
+    private Future<?> reader;
+    private volatile Throwable readerError;
+
+    private final long started = System.currentTimeMillis();
+    private final AtomicLong cprNumbersRead = new AtomicLong();
+    private final AtomicLong cprNumbersHandedOut = new AtomicLong();
+    private final AtomicLong readerWaitMillis = new AtomicLong();
+    private final AtomicLong rulesWaitMillis = new AtomicLong();
+
+    /*
+     * prefetchSlices is the number of slices read ahead, 0 disables prefetching.
+     */
+    public ContactSliceReader(LPRDAO lprdao, Queue<String> cprNumbers, int sliceSize, int prefetchSlices) {
+        this.lprdao = lprdao;
+        this.cprNumbers = cprNumbers;
+        this.sliceSize = sliceSize;
+        this.prefetched = prefetchSlices > 0 ? new ArrayBlockingQueue<Slice>(prefetchSlices) : null;
+    }
+
+    public void start(ExecutorService readerExecutor) {
+        if (prefetched == null) {
+            return;
+        }
+        reader = readerExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Slice slice = read();
+                    while (slice != null) {
+                        long before = System.currentTimeMillis();
+                        prefetched.put(slice);
+                        readerWaitMillis.addAndGet(System.currentTimeMillis() - before);
+                        slice = read();
+                    }
+                    prefetched.put(END);
+                } catch (InterruptedException e) {
+                    // stopped, the import is failing
+                    end();
+                } catch (Throwable t) {
+                    readerError = t;
+                    end();
+                }
+            }
+        });
+    }
+
+    /*
+     * Returns the next slice, or null when all the CPR numbers are handed out. May be called by several threads.
+     */
+    public Slice next() throws InterruptedException {
+        if (prefetched == null) {
+            Slice slice = read();
+            if (slice != null) {
+                cprNumbersHandedOut.addAndGet(slice.cprNumbers.size());
+            }
+            return slice;
+        }
+
+        long before = System.currentTimeMillis();
+        Slice slice = prefetched.take();
+        rulesWaitMillis.addAndGet(System.currentTimeMillis() - before);
+        if (slice == END) {
+            // leave the end for the other threads
+            prefetched.put(END);
+            if (readerError instanceof RuntimeException) {
+                throw (RuntimeException) readerError;
+            } else if (readerError instanceof Error) {
+                throw (Error) readerError;
+            } else if (readerError != null) {
+                throw new RuntimeException(readerError);
+            }
+            return null;
+        }
+        cprNumbersHandedOut.addAndGet(slice.cprNumbers.size());
+        return slice;
+    }
+
+    /*
+     * Stops handing out slices, used when the processing fails.
+     */
+    public void stop() {
+        cprNumbers.clear();
+        if (reader != null) {
+            reader.cancel(true);
+        }
+    }
+
+    private Slice read() {
+        List<String> slice = new ArrayList<String>();
+        String cpr;
+        while (slice.size() < sliceSize && (cpr = cprNumbers.poll()) != null) {
+            slice.add(cpr);
+        }
+        if (slice.isEmpty()) {
+            return null;
+        }
+        Slice read = new Slice(slice, lprdao.getContactsByCPRs(slice));
+        cprNumbersRead.addAndGet(slice.size());
+        return read;
+    }
+
+    private void end() {
+        prefetched.clear();
+        prefetched.offer(END);
+    }
+
+    public void logStatus() {
+        log.debug(toString());
+    }
+
+    @Override
+    public String toString() {
+        long elapsed = Math.max(1, System.currentTimeMillis() - started);
+        return "ContactSliceReader [prefetching=" + (prefetched != null) 
+                + ", queuedSlices=" + (prefetched != null ? prefetched.size() : 0)
+                + ", cprNumbersRead=" + cprNumbersRead.get() + ", cprNumbersHandedOut=" + cprNumbersHandedOut.get()
+                + ", cprNumbersReadPerSecond=" + (cprNumbersRead.get() * 1000 / elapsed)
+                + ", cprNumbersHandedOutPerSecond=" + (cprNumbersHandedOut.get() * 1000 / elapsed)
+                + ", readerWaitMillis=" + readerWaitMillis.get() + ", rulesWaitMillis=" + rulesWaitMillis.get() + "]";
+    }
+
+    public static class Slice {
+        private final List<String> cprNumbers;
+        private final Map<String, List<Administration>> contacts;
+
+        Slice(List<String> cprNumbers, Map<String, List<Administration>> contacts) {
+            this.cprNumbers = cprNumbers;
+            this.contacts = contacts;
+        }
+
+        public List<String> getCprNumbers() {
+            return cprNumbers;
+        }
+
+        /*
+         * Returns the contacts for the CPR number, an empty list if it has none
+         */
+        public List<Administration> getContacts(String cpr) {
+            List<Administration> contactsByCPR = contacts.get(cpr);
+            return contactsByCPR != null ? contactsByCPR : new ArrayList<Administration>();
+        }
+    }
+}
@@ -26,20 +26,39 @@
  */
 package dk.nsi.haiba.lprimporter.importer;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.log4j.Logger;
 import org.joda.time.DateTime;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import dk.nsi.haiba.lprimporter.dao.ClassificationCheckDAO;
 import dk.nsi.haiba.lprimporter.dao.HAIBADAO;
 import dk.nsi.haiba.lprimporter.dao.LPRDAO;
 import dk.nsi.haiba.lprimporter.email.EmailSender;
 import dk.nsi.haiba.lprimporter.log.Log;
+import dk.nsi.haiba.lprimporter.model.haiba.RebuildOutcome;
 import dk.nsi.haiba.lprimporter.model.haiba.Statistics;
 import dk.nsi.haiba.lprimporter.model.lpr.Administration;
 import dk.nsi.haiba.lprimporter.rules.RulesEngine;
@@ -52,18 +71,38 @@ public class ImportExecutor {
 	
 	private static Log log = new Log(Logger.getLogger(ImportExecutor.class));
 
+	// the outcomes of a rebuild written to LPR per transaction after the swap
+	private static final int REBUILD_OUTCOMES_PER_TRANSACTION = 10000;
+
 	@Value("${lpr.cpr.batchsize}")
 	int batchsize;
 	
+	@Value("${lpr.import.threads}")
+	int threads;
+
+	@Value("${lpr.import.prefetch.cprnumbers}")
+	int prefetchCPRNumbers;
+
+	@Value("${lpr.import.incremental}")
+	boolean incremental;
+
+	@Value("${lpr.import.transaction.cprnumbers}")
+	int transactionCPRNumbers;
+
     @Value("${currentpatient.default.outdate.days.after.indate}")
 	private int currentPatientDaysIfGreaterThanInterval;
 
     private boolean manualOverride;
+
+    private volatile ContactSliceReader currentReader;
 	
     LPRDAO lprdao;
     
     @Autowired
     HAIBADAO haibaDao;
+
+    @Autowired
+    ClassificationCheckDAO classificationCheckDAO;
     
 	@Autowired
 	RulesEngine rulesEngine;
@@ -73,6 +112,16 @@ public class ImportExecutor {
 	
     @Autowired
     EmailSender emailSender;
+
+    @Autowired
+    ImportOutcomeBuffer importOutcomeBuffer;
+
+    @Autowired
+    ClassificationCheckHelper classificationCheckHelper;
+
+    @Autowired
+    @Qualifier("haibaTransactionManager")
+    PlatformTransactionManager haibaTransactionManager;
 	
     public ImportExecutor(LPRDAO lprdao) {
         this.lprdao = lprdao;
@@ -92,7 +141,21 @@ public class ImportExecutor {
 	 * Separated into its own method for testing purpose, because testing a scheduled method isn't good
 	 */
 	public void doProcess(boolean manual) {
-		log.info("Started processing, manual="+isManualOverride());
+		process(manual, false);
+	}
+
+	/*
+	 * Reprocesses all of LPR into empty shadow tables, which replace the HAIBA tables when all is processed.
+	 * Used when the business rules are changed, the HAIBA tables and the import timestamps in LPR are left untouched if the rebuild fails.
+	 */
+	public void doRebuild(boolean manual) {
+		process(manual, true);
+	}
+
+	// one run at a time, a scheduled run must not write to the shadow tables of a rebuild
+	private synchronized void process(boolean manual, boolean rebuild) {
+		log.info("Started processing, manual="+isManualOverride()+", rebuild="+rebuild);
+		boolean rebuilding = false;
 		// Fetch new records from LPR contact table
 		try {
 			statusRepo.importStartedAt(new DateTime());
@@ -111,48 +174,124 @@ public class ImportExecutor {
 	            }
 				return;
 			}
+
+			// the synchronisations of LPR, that are processed when this run succeeds,
+			// only read and stored by incremental runs, as LPRSynkronisering is only needed for them
+			Map<Integer, Long> latestSyncIds = incremental ? lprdao.getLatestSyncIds() : null;
+			// null when the CPR numbers to process are found by scanning LPR for unprocessed contacts
+			List<String> changedCPRNumbers = null;
+			if(incremental && !rebuild) {
+				changedCPRNumbers = getChangedCPRNumbers(latestSyncIds);
+			}
+
+			if(rebuild) {
+				log.info("Rebuilding the HAIBA tables from all contacts in LPR");
+				haibaDao.startRebuild();
+				rebuilding = true;
+			}
 			
-			if(lprdao.hasUnprocessedCPRnumbers()) {
+			// a rebuild processes all of LPR, also when every contact is imported
+			boolean hasChanges = rebuild || (changedCPRNumbers != null ? !changedCPRNumbers.isEmpty() : lprdao.hasUnprocessedCPRnumbers());
+			if(hasChanges) {
 				Statistics statistics = Statistics.getInstance();
-
-				log.info("LPR has unprocessed CPR numbers, starting import");
-				
-				//check if any contacts are deleted, and recalculate the affected CPR numbers
-				List<String> cprNumbersWithDeletedContacts = lprdao.getCPRnumbersFromDeletedContacts();
-				log.debug("processing "+cprNumbersWithDeletedContacts.size()+ " cprnumbers with deleted contacts");
-				// count CPR numbers with deleted contacts
-				statistics.cprNumbersWithDeletedContactsCounter += cprNumbersWithDeletedContacts.size();
-				for (String cpr : cprNumbersWithDeletedContacts) {
-					processCPRNumber(cpr, statistics, false);
+				ExecutorService workers = null;
+				ExecutorService reader = null;
+				List<Statistics> workerStatistics = null;
+				if(threads > 1) {
+					log.info("Processing CPR numbers with "+threads+" worker threads");
+					workers = Executors.newFixedThreadPool(threads);
+					workerStatistics = new ArrayList<Statistics>();
+					for (int i = 0; i < threads; i++) {
+						workerStatistics.add(statistics.createWorkerInstance());
+					}
 				}
-				
-				// new data has arrived, check if any of the processed current patients are discharged
-				List<String> currentPatients = haibaDao.getCurrentPatients();
-				log.debug("processing "+currentPatients.size()+ " current patients cprnumbers");
-				// count CPR numbers processed for current patients
-				statistics.currentPatientsCounter += currentPatients.size();
-				for (String cpr : currentPatients) {
-					processCPRNumber(cpr, statistics, true);
+				if(prefetchCPRNumbers > 0) {
+					log.info("Prefetching contacts for "+prefetchCPRNumbers+" CPR numbers");
+					reader = Executors.newSingleThreadExecutor();
 				}
+				boolean imported = false;
+				try {
+					log.info("LPR has unprocessed CPR numbers, starting import");
+					importOutcomeBuffer.clear();
+					classificationCheckHelper.clear();
+					// pick up the changes in FGR and the classification tables since the last run
+					haibaDao.clearSygehusInitialsCache();
+					classificationCheckDAO.clearClassificationCache();
 
-				// process the new data
-				List<String> unprocessedCPRnumbers = lprdao.getCPRnumberBatch(batchsize);
-				while(unprocessedCPRnumbers.size() > 0) {
-					// count the unprocessed CPR numbers
-					statistics.cprCounter += unprocessedCPRnumbers.size();
+					if(changedCPRNumbers != null) {
+						// the CPR numbers with contacts inserted, updated or deleted since the last run, instead of scanning LPR for unprocessed contacts
+						log.debug("processing "+changedCPRNumbers.size()+ " cprnumbers with changed contacts");
+						statistics.cprCounter += changedCPRNumbers.size();
+						processCPRNumbers(workers, reader, workerStatistics, changedCPRNumbers, statistics, false, false);
+					} else if(!rebuild) {
+						// a rebuild starts out with empty tables and processes every CPR number in the batches below
+						//check if any contacts are deleted, and recalculate the affected CPR numbers
+						List<String> cprNumbersWithDeletedContacts = lprdao.getCPRnumbersFromDeletedContacts();
+						log.debug("processing "+cprNumbersWithDeletedContacts.size()+ " cprnumbers with deleted contacts");
+						// count CPR numbers with deleted contacts
+						statistics.cprNumbersWithDeletedContactsCounter += cprNumbersWithDeletedContacts.size();
+						processCPRNumbers(workers, reader, workerStatistics, cprNumbersWithDeletedContacts, statistics, false, false);
+					}
+
+					if(!rebuild) {
+						// new data has arrived, check if any of the processed current patients are discharged
+						Set<String> currentPatients = haibaDao.getCurrentPatients();
+						// count CPR numbers processed for current patients
+						statistics.currentPatientsCounter += currentPatients.size();
+						// only the ones with an open contact inside the interval are recalculated, the contacts of the others aren't fetched
+						Set<String> currentPatientsToRecalculate = lprdao.getCPRnumbersWithOpenContacts(currentPatients, getRecalculationIntervalStart());
+						log.debug("processing "+currentPatientsToRecalculate.size()+ " of "+currentPatients.size()+" current patients cprnumbers");
+						processCPRNumbers(workers, reader, workerStatistics, currentPatientsToRecalculate, statistics, true, false);
+					}
+
+					// process the new data, the batches are pages ordered by CPR number, so every CPR number is fetched at most once
+					// and the loop ends, also when contacts for a CPR number are not marked as imported
+					String lastCPR = "";
+					List<String> unprocessedCPRnumbers = changedCPRNumbers == null ? getCPRnumberBatch(rebuild, lastCPR) : new ArrayList<String>();
+					while(unprocessedCPRnumbers.size() > 0) {
+						// count the unprocessed CPR numbers
+						statistics.cprCounter += unprocessedCPRnumbers.size();
 
-					log.debug("processing "+unprocessedCPRnumbers.size()+ " cprnumbers");
-					for (String cpr : unprocessedCPRnumbers) {
-						processCPRNumber(cpr, statistics, false);
+						log.debug("processing "+unprocessedCPRnumbers.size()+ " cprnumbers");
+						// the whole batch is processed and its outcomes are written before the next batch is fetched,
+						// the outcomes of a rebuild are stored in HAIBA until the shadow tables have replaced the HAIBA tables
+						processCPRNumbers(workers, reader, workerStatistics, unprocessedCPRnumbers, statistics, false, rebuild);
+						// fetch the next batch
+						lastCPR = unprocessedCPRnumbers.get(unprocessedCPRnumbers.size() - 1);
+						unprocessedCPRnumbers = getCPRnumberBatch(rebuild, lastCPR);
+					}
+					if(rebuilding) {
+						haibaDao.finishRebuild();
+						rebuilding = false;
+						applyRebuildOutcomes();
+					}
+					saveLastSyncIds(latestSyncIds);
+					imported = true;
+					// the new classifications seen in this run are notified about and stored once
+					classificationCheckHelper.checkCollectedClassifications();
+					statusRepo.importEndedWithSuccess(new DateTime());
+					haibaDao.saveStatistics(statistics.snapshot());
+				} finally {
+					if(!imported) {
+						// outside a rebuild the contacts processed before the failure are marked as imported, so their classifications are checked anyway
+						try {
+							classificationCheckHelper.checkCollectedClassifications();
+						} catch(RuntimeException e) {
+							log.error("Checking the classifications failed", e);
+						}
+					}
+					if(workers != null) {
+						workers.shutdownNow();
 					}
-					// fetch the next batch
-					unprocessedCPRnumbers = lprdao.getCPRnumberBatch(batchsize);
+					if(reader != null) {
+						reader.shutdownNow();
+					}
+					// also reset when failing, else the next run would continue counting from this run
+					statistics.resetInstance();
 				}
-				statusRepo.importEndedWithSuccess(new DateTime());
-				haibaDao.saveStatistics(statistics);
-				statistics.resetInstance();
 			} else {
 				log.info("No unprocessed CPR numbers found");
+				saveLastSyncIds(latestSyncIds);
 				statusRepo.importEndedWithSuccess(new DateTime());
 			}
 			if (manual) {
@@ -160,6 +299,9 @@ public class ImportExecutor {
 			}
 		} catch(Exception e) {
 			log.error("", e);
+			if(rebuilding) {
+				abortRebuild();
+			}
 			statusRepo.importEndedWithFailure(new DateTime(), e.getClass().getName());
             if (manual) {
                 emailSender.sendDone(ExceptionUtils.getStackTrace(e));
@@ -167,44 +309,225 @@ public class ImportExecutor {
 		}
 	}
 
+	/*
+	 * The CPR numbers changed by the synchronisations after the ones processed by the last successful run,
+	 * null if the last processed synchronisations are not known yet.
+	 */
+	private List<String> getChangedCPRNumbers(Map<Integer, Long> latestSyncIds) {
+		Map<Integer, Long> lastSyncIds = haibaDao.getLastSyncIds();
+		if(!lastSyncIds.keySet().containsAll(latestSyncIds.keySet())) {
+			log.info("No processed synchronisations stored for "+latestSyncIds.keySet()+", processing all unprocessed contacts");
+			return null;
+		}
+		log.info("Processing the contacts changed by the synchronisations after "+lastSyncIds+" up to "+latestSyncIds);
+		return lprdao.getCPRnumbersFromSyncHistory(lastSyncIds, latestSyncIds);
+	}
+
+	private void saveLastSyncIds(Map<Integer, Long> latestSyncIds) {
+		if(latestSyncIds != null) {
+			haibaDao.saveLastSyncIds(latestSyncIds);
+		}
+	}
+
+	/*
+	 * A rebuild processes every CPR number in LPR, the import timestamps are not read or changed until it succeeds
+	 */
+	private List<String> getCPRnumberBatch(boolean rebuild, String afterCPR) {
+		return rebuild ? lprdao.getAllCPRnumberBatch(batchsize, afterCPR) : lprdao.getCPRnumberBatch(batchsize, afterCPR);
+	}
+
+	/*
+	 * Writes the outcomes stored by the rebuild to LPR, a page at a time in separate transactions.
+	 * If this fails the swap stands, the contacts not marked are processed again by the next run
+	 * and the stored outcomes are dropped by the next rebuild.
+	 */
+	private void applyRebuildOutcomes() {
+		try {
+			long afterId = 0;
+			List<RebuildOutcome> outcomes = haibaDao.getRebuildOutcomes(afterId, REBUILD_OUTCOMES_PER_TRANSACTION);
+			while(!outcomes.isEmpty()) {
+				for (RebuildOutcome outcome : outcomes) {
+					importOutcomeBuffer.add(outcome.getLprReference(), outcome.getOutcome());
+				}
+				importOutcomeBuffer.flush(lprdao);
+				afterId = outcomes.get(outcomes.size() - 1).getId();
+				outcomes = haibaDao.getRebuildOutcomes(afterId, REBUILD_OUTCOMES_PER_TRANSACTION);
+			}
+			haibaDao.dropRebuildOutcomes();
+		} catch(RuntimeException e) {
+			importOutcomeBuffer.clear();
+			log.error("Writing the outcomes of the rebuild to LPR failed, the contacts not marked as imported are processed by the next run", e);
+		}
+	}
+
+	private void abortRebuild() {
+		// the contacts processed by the rebuild are not marked as imported, the contacts not imported before the rebuild are imported by the next run
+		importOutcomeBuffer.clear();
+		try {
+			haibaDao.abortRebuild();
+		} catch(RuntimeException e) {
+			log.error("Dropping the shadow tables failed", e);
+		}
+	}
+
+	/*
+	 * Processes the CPR numbers in the calling thread, or by the worker threads if more than 1 is configured.
+	 * With a reader the contacts are read from LPR ahead of the processing, else each slice is read when it is processed.
+	 * Worker i counts in workerStatistics i, which is safe as the workers of one call are done before the next call.
+	 * Returns when all the CPR numbers are processed and their import outcomes are written to LPR,
+	 * or stored in HAIBA when rebuilding.
+	 */
+	private void processCPRNumbers(ExecutorService workers, ExecutorService reader, List<Statistics> workerStatistics, Collection<String> cprNumbers, Statistics statistics, final boolean currentPatient, boolean rebuild) throws InterruptedException {
+		// a CPR number must only be processed once at a time, else the delete and insert of its data would interleave
+		Queue<String> queue = new ConcurrentLinkedQueue<String>(new LinkedHashSet<String>(cprNumbers));
+		// the contacts are fetched for a slice of the CPR numbers at a time, small enough to keep all the workers busy
+		int sliceSize = workers == null ? batchsize : Math.max(1, Math.min(batchsize, queue.size() / threads));
+		int prefetchSlices = reader == null ? 0 : Math.max(1, prefetchCPRNumbers / sliceSize);
+		final ContactSliceReader slices = new ContactSliceReader(lprdao, queue, sliceSize, prefetchSlices);
+		currentReader = slices;
+		try {
+			slices.start(reader);
+			if(workers == null) {
+				processSlices(slices, statistics, currentPatient);
+			} else {
+				processSlicesByWorkers(workers, workerStatistics, slices, currentPatient);
+			}
+			if(rebuild) {
+				importOutcomeBuffer.stage(haibaDao);
+			} else {
+				importOutcomeBuffer.flush(lprdao);
+			}
+		} finally {
+			slices.stop();
+			slices.logStatus();
+			currentReader = null;
+		}
+	}
 
-	private void processCPRNumber(String cpr, Statistics statistics, boolean currentPatient) {
-		List<Administration> contactsByCPR = lprdao.getContactsByCPR(cpr);
-		log.debug("Fetched "+contactsByCPR.size()+ " contacts");
-		
-		if(currentPatient) {
-			boolean recalculate = false;
-			// check if data is changed, and if current contact is more than 30 days old.
-			for (Administration contact : contactsByCPR) {
-				// check if any contacts has outdate set to null
-				if(contact.getUdskrivningsDatetime() == null) {
-					// if an outdate is null, check if the indate is more than 30 days old - if so nothing has changed
-					DateTime in = new DateTime(contact.getIndlaeggelsesDatetime());
-					if(in.plusDays(currentPatientDaysIfGreaterThanInterval).isBeforeNow()) {
-						// current patient doesn't need to be recalculated, as nothing has changed
-					} else {
-						recalculate = true;
-						break;
+	private void processSlicesByWorkers(ExecutorService workers, List<Statistics> workerStatistics, final ContactSliceReader slices, final boolean currentPatient) throws InterruptedException {
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (final Statistics workerInstance : workerStatistics) {
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					try {
+						processSlices(slices, workerInstance, currentPatient);
+					} catch(RuntimeException e) {
+						// stop the other workers, the import is failing
+						slices.stop();
+						throw e;
 					}
-					
+					return null;
+				}
+			});
+		}
+
+		List<Future<Void>> results = workers.invokeAll(tasks);
+		for (Future<Void> result : results) {
+			try {
+				result.get();
+			} catch(ExecutionException e) {
+				Throwable cause = e.getCause();
+				if(cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				} else if(cause instanceof Error) {
+					throw (Error) cause;
 				}
+				throw new RuntimeException(cause);
 			}
-			if(!recalculate) {
+		}
+	}
+
+	/*
+	 * Takes slices of CPR numbers with their contacts until all the CPR numbers are handed out.
+	 */
+	private void processSlices(ContactSliceReader slices, Statistics statistics, boolean currentPatient) throws InterruptedException {
+		ContactSliceReader.Slice slice;
+		while((slice = slices.next()) != null) {
+			processSlice(slice, statistics, currentPatient);
+		}
+	}
+
+	private void processSlice(final ContactSliceReader.Slice slice, final Statistics statistics, boolean currentPatient) {
+		List<String> cprNumbersToProcess = new ArrayList<String>();
+		for (String cpr : slice.getCprNumbers()) {
+			List<Administration> contactsByCPR = slice.getContacts(cpr);
+			log.debug("Fetched "+contactsByCPR.size()+ " contacts");
+			if(currentPatient && !isRecalculationNeeded(contactsByCPR)) {
 				log.debug("No need to recalculate current patient data");
-				return;
+				continue;
+			}
+			cprNumbersToProcess.add(cpr);
+		}
+
+		if(transactionCPRNumbers <= 0) {
+			// autocommit, every statement is committed by itself
+			processUnitOfWork(slice, cprNumbersToProcess, statistics);
+			return;
+		}
+		// a unit of CPR numbers is committed to HAIBA at once, a failing CPR number rolls back the unit and fails the import,
+		// so a CPR number is never left half written and the removal of its earlier processed data is rolled back with it
+		TransactionTemplate transactionTemplate = new TransactionTemplate(haibaTransactionManager);
+		for (int from = 0; from < cprNumbersToProcess.size(); from += transactionCPRNumbers) {
+			final List<String> unit = cprNumbersToProcess.subList(from, Math.min(from + transactionCPRNumbers, cprNumbersToProcess.size()));
+			transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+				@Override
+				protected void doInTransactionWithoutResult(TransactionStatus status) {
+					processUnitOfWork(slice, unit, statistics);
+				}
+			});
+		}
+	}
+
+	private void processUnitOfWork(ContactSliceReader.Slice slice, List<String> cprNumbers, Statistics statistics) {
+		// ensure old data for the CPR numbers is removed before applying businessrules, for all of them at once
+		haibaDao.prepareCPRNumbersForImport(cprNumbers);
+		log.debug("Removed earlier processed admissions for "+cprNumbers.size()+" CPR numbers");
+
+		for (String cpr : cprNumbers) {
+			List<Administration> contactsByCPR = slice.getContacts(cpr);
+			// count the processed contacts
+			statistics.contactCounter += contactsByCPR.size();
+
+			// Process the LPR data according to the defined business rules
+			rulesEngine.processRuleChain(contactsByCPR, statistics);
+			statistics.haibaRowsWrittenCounter += haibaDao.finishCPRNumberImport(cpr);
+			log.debug("Rules processed for CPR number");
+		}
+	}
+
+	/*
+	 * The earliest in date of a current contact, that is recalculated. Rounded down to the hour, as the in dates are, see isRecalculationNeeded.
+	 */
+	private Date getRecalculationIntervalStart() {
+		return new DateTime().minusDays(currentPatientDaysIfGreaterThanInterval).hourOfDay().roundFloorCopy().toDate();
+	}
+
+	/*
+	 * A current patient is only recalculated if data is changed, or if the current contact is less than 30 days old.
+	 */
+	private boolean isRecalculationNeeded(List<Administration> contactsByCPR) {
+		for (Administration contact : contactsByCPR) {
+			// check if any contacts has outdate set to null
+			if(contact.getUdskrivningsDatetime() == null) {
+				// if an outdate is null, check if the indate is more than 30 days old - if so nothing has changed
+				DateTime in = new DateTime(contact.getIndlaeggelsesDatetime());
+				if(in.plusDays(currentPatientDaysIfGreaterThanInterval).isBeforeNow()) {
+					// current patient doesn't need to be recalculated, as nothing has changed
+				} else {
+					return true;
+				}
 			}
 		}
+		return false;
+	}
 
-		// count the processed contacts
-		statistics.contactCounter += contactsByCPR.size();
-		
-		// ensure old data for this cpr number is removed before applying businessrules.
-		haibaDao.prepareCPRNumberForImport(cpr);
-		log.debug("Removed earlier processed admissions for CPR number");
-		
-		// Process the LPR data according to the defined business rules
-		rulesEngine.processRuleChain(contactsByCPR, statistics);
-		log.debug("Rules processed for CPR number");
+	/*
+	 * Returns the state of the contact reader for the CPR numbers being processed, null if none are processed
+	 */
+	public String getReaderStatus() {
+		ContactSliceReader reader = currentReader;
+		return reader != null ? reader.toString() : null;
 	}
 
 	public boolean isManualOverride() {
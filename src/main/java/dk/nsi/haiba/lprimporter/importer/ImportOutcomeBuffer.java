@@ -0,0 +1,117 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.lprimporter.importer;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.log4j.Logger;
+
+import dk.nsi.haiba.lprimporter.dao.HAIBADAO;
+import dk.nsi.haiba.lprimporter.dao.LPRDAO;
+import dk.nsi.haiba.lprimporter.log.Log;
+import dk.nsi.haiba.lprimporter.model.haiba.LPRReference;
+import dk.nsi.haiba.lprimporter.status.ImportStatus.Outcome;
+
+/*
+ * Collects the outcome of the processed LPR contacts, so the import timestamps are written to LPR in bulk
+ * when a batch of CPR numbers is processed, instead of one update per contact.
+ * The rules and the import workers add outcomes concurrently, the import thread flushes them.
+ */
+public class ImportOutcomeBuffer {
+    private static Log log = new Log(Logger.getLogger(ImportOutcomeBuffer.class));
+
+    private final Queue<Entry> entries = new ConcurrentLinkedQueue<Entry>();
+
+    public void add(LPRReference lprReference, Outcome outcome) {
+        entries.add(new Entry(lprReference, outcome));
+    }
+
+    /*
+     * Writes the collected outcomes with one update per outcome and source database, the latest outcome of a reference wins
+     * as it did when every outcome was written immediately.
+     */
+    public void flush(LPRDAO lprDao) {
+        for (Map.Entry<Outcome, List<LPRReference>> e : drain().entrySet()) {
+            log.debug("updating import time for " + e.getValue().size() + " contacts with outcome " + e.getKey());
+            lprDao.updateImportTimes(e.getValue(), e.getKey());
+        }
+    }
+
+    /*
+     * Stores the collected outcomes of a rebuild in HAIBA, they are written to LPR when the rebuilt tables are swapped in
+     */
+    public void stage(HAIBADAO haibaDao) {
+        for (Map.Entry<Outcome, List<LPRReference>> e : drain().entrySet()) {
+            log.debug("staging " + e.getValue().size() + " contacts with outcome " + e.getKey());
+            haibaDao.saveRebuildOutcomes(e.getValue(), e.getKey());
+        }
+    }
+
+    private Map<Outcome, List<LPRReference>> drain() {
+        Map<LPRReference, Outcome> latest = new LinkedHashMap<LPRReference, Outcome>();
+        Entry entry;
+        while ((entry = entries.poll()) != null) {
+            // remove first, so the reference gets the position of its latest outcome
+            latest.remove(entry.lprReference);
+            latest.put(entry.lprReference, entry.outcome);
+        }
+
+        Map<Outcome, List<LPRReference>> byOutcome = new EnumMap<Outcome, List<LPRReference>>(Outcome.class);
+        for (Map.Entry<LPRReference, Outcome> e : latest.entrySet()) {
+            List<LPRReference> references = byOutcome.get(e.getValue());
+            if (references == null) {
+                references = new ArrayList<LPRReference>();
+                byOutcome.put(e.getValue(), references);
+            }
+            references.add(e.getKey());
+        }
+        return byOutcome;
+    }
+
+    /*
+     * Discards the collected outcomes, used when an import is started so outcomes from a failed import are not written
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    private static class Entry {
+        final LPRReference lprReference;
+        final Outcome outcome;
+
+        Entry(LPRReference lprReference, Outcome outcome) {
+            this.lprReference = lprReference;
+            this.outcome = outcome;
+        }
+    }
+}
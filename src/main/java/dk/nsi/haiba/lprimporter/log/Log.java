@@ -62,6 +62,10 @@ public class Log {
 		logger.warn(message);
 	}
 
+	public void warn(String message, Throwable t) {
+		logger.warn(message, t);
+	}
+
 	public void info(String message) {
 		if(logger.isInfoEnabled()) {
 			logger.info(message);
@@ -30,6 +30,8 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
+import dk.nsi.haiba.lprimporter.util.EpochTime;
+
 /*
  * Model object for an Admission from the HAIBA datamodel
  */
@@ -38,8 +40,8 @@ public class Indlaeggelse {
 	String cpr;
 	String sygehusCode;
 	String afdelingsCode;
-	Date indlaeggelsesDatetime;
-	Date udskrivningsDatetime;
+	long indlaeggelsesTime = EpochTime.NONE;
+	long udskrivningsTime = EpochTime.NONE;
 	boolean aktuel = false; // default false
 	List<LPRReference> lprReferencer = new ArrayList<LPRReference>();
 	List<Diagnose> diagnoses = new ArrayList<Diagnose>();
@@ -55,8 +57,8 @@ public class Indlaeggelse {
 		this.cpr = cpr;
 		this.sygehusCode = sygehusCode;
 		this.afdelingsCode = afdelingsCode;
-		this.indlaeggelsesDatetime = indlaeggelsesDatetime;
-		this.udskrivningsDatetime = udskrivningsDatetime;
+		this.indlaeggelsesTime = EpochTime.of(indlaeggelsesDatetime);
+		this.udskrivningsTime = EpochTime.of(udskrivningsDatetime);
 		this.aktuel = aktuel;
 	}
 
@@ -86,20 +88,38 @@ public class Indlaeggelse {
 	 * indlaeggelsesDatetime contains both "Indlaeggelsesdato" and "Indlaeggelsestidspunkt" from the HAIBA database
 	 */
 	public Date getIndlaeggelsesDatetime() {
-		return indlaeggelsesDatetime;
+		return EpochTime.toDate(indlaeggelsesTime);
 	}
 	public void setIndlaeggelsesDatetime(Date indlaeggelsesDatetime) {
-		this.indlaeggelsesDatetime = indlaeggelsesDatetime;
+		this.indlaeggelsesTime = EpochTime.of(indlaeggelsesDatetime);
+	}
+	/*
+	 * indlaeggelsesDatetime in epoch milliseconds, EpochTime.NONE if not set
+	 */
+	public long getIndlaeggelsesTime() {
+		return indlaeggelsesTime;
+	}
+	public void setIndlaeggelsesTime(long indlaeggelsesTime) {
+		this.indlaeggelsesTime = indlaeggelsesTime;
 	}
 
 	/*
 	 * udskrivningsDatetime contains both "Udskrivningsdato" and "Udskrivningstidspunkt" from the HAIBA database
 	 */
 	public Date getUdskrivningsDatetime() {
-		return udskrivningsDatetime;
+		return EpochTime.toDate(udskrivningsTime);
 	}
 	public void setUdskrivningsDatetime(Date udskrivningsDatetime) {
-		this.udskrivningsDatetime = udskrivningsDatetime;
+		this.udskrivningsTime = EpochTime.of(udskrivningsDatetime);
+	}
+	/*
+	 * udskrivningsDatetime in epoch milliseconds, EpochTime.NONE if not set
+	 */
+	public long getUdskrivningsTime() {
+		return udskrivningsTime;
+	}
+	public void setUdskrivningsTime(long udskrivningsTime) {
+		this.udskrivningsTime = udskrivningsTime;
 	}
 	
 	public List<LPRReference> getLprReferencer() {
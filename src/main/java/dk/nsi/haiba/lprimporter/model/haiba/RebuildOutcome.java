@@ -0,0 +1,57 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.lprimporter.model.haiba;
+
+import dk.nsi.haiba.lprimporter.status.ImportStatus.Outcome;
+
+/*
+ * The import outcome of a contact processed by a rebuild, stored in HAIBA until the rebuilt tables are swapped in
+ */
+public class RebuildOutcome {
+
+	private final long id;
+	private final LPRReference lprReference;
+	private final Outcome outcome;
+
+	public RebuildOutcome(long id, LPRReference lprReference, Outcome outcome) {
+		this.id = id;
+		this.lprReference = lprReference;
+		this.outcome = outcome;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public LPRReference getLprReference() {
+		return lprReference;
+	}
+
+	public Outcome getOutcome() {
+		return outcome;
+	}
+}
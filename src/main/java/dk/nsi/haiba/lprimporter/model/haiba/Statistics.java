@@ -27,16 +27,24 @@
 package dk.nsi.haiba.lprimporter.model.haiba;
 
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class Statistics {
 	
-	private static Statistics instance = null;
+	private static volatile Statistics instance = null;
+	
+	/*
+	 * The worker instances counting for this run instance, they are merged when a snapshot is taken.
+	 * Each worker instance has a single writing thread, so the counters are updated without locks or CAS.
+	 */
+	private final List<Statistics> workerInstances = new CopyOnWriteArrayList<Statistics>();
 	
 	private Statistics() {
 		// private
 	}
 	
-	public static Statistics getInstance() {
+	public static synchronized Statistics getInstance() {
 		if(instance == null) {
 			instance = new Statistics();
 			instance.date = new Date();
@@ -44,11 +52,78 @@ public class Statistics {
 		return instance;
 	}
 	
+	/*
+	 * Returns the instance of the running import without creating one, null if no import is running.
+	 */
+	public static Statistics getCurrentInstance() {
+		return instance;
+	}
+	
 	/*
 	 * When the importer is finished and statistics are saved reset the instance to be ready for the next run.
 	 */
 	public void resetInstance() {
-		instance = null;
+		synchronized (Statistics.class) {
+			if(instance == this) {
+				instance = null;
+			}
+		}
+	}
+
+	/*
+	 * Creates an instance owned by one import worker and registers it with this instance.
+	 * Only the owning worker must update the counters, the counters are included in the snapshot of this instance.
+	 */
+	public Statistics createWorkerInstance() {
+		Statistics workerInstance = new Statistics();
+		workerInstance.date = date;
+		workerInstances.add(workerInstance);
+		return workerInstance;
+	}
+
+	/*
+	 * Returns a detached copy with the counters of this instance and all its worker instances.
+	 * May be called while the import is running, the counters are then the values read at the time of the call.
+	 */
+	public Statistics snapshot() {
+		Statistics snapshot = new Statistics();
+		snapshot.date = date;
+		snapshot.add(this);
+		for (Statistics workerInstance : workerInstances) {
+			snapshot.add(workerInstance);
+		}
+		return snapshot;
+	}
+
+	/*
+	 * Adds the counters from the given instance to this instance, the date of this instance is kept.
+	 */
+	public void add(Statistics other) {
+		contactCounter += other.contactCounter;
+		cprCounter += other.cprCounter;
+		contactErrorCounter += other.contactErrorCounter;
+		cprExportedCounter += other.cprExportedCounter;
+		admissionsExportedCounter += other.admissionsExportedCounter;
+		admissionsSeriesExportedCounter += other.admissionsSeriesExportedCounter;
+		ambulantContactsExportedCounter += other.ambulantContactsExportedCounter;
+		cprNumbersWithDeletedContactsCounter += other.cprNumbersWithDeletedContactsCounter;
+		currentPatientsCounter += other.currentPatientsCounter;
+		haibaRowsWrittenCounter += other.haibaRowsWrittenCounter;
+		singleContactCprCounter += other.singleContactCprCounter;
+		rule1Counter += other.rule1Counter;
+		rule2Counter += other.rule2Counter;
+		rule3Counter += other.rule3Counter;
+		rule4Counter += other.rule4Counter;
+		rule5Counter += other.rule5Counter;
+		rule6Counter += other.rule6Counter;
+		rule7Counter += other.rule7Counter;
+		rule8Counter += other.rule8Counter;
+		rule9Counter += other.rule9Counter;
+		rule10Counter += other.rule10Counter;
+		rule11Counter += other.rule11Counter;
+		rule12Counter += other.rule12Counter;
+		rule13Counter += other.rule13Counter;
+		rule14Counter += other.rule14Counter;
 	}
 	
 	
@@ -57,50 +132,59 @@ public class Statistics {
 		return date;
 	}
 	
+	/*
+	 * The counters are volatile so a snapshot taken from another thread sees the current values.
+	 */
 	// A counter for the number of contacts processed
-	public long contactCounter;
+	public volatile long contactCounter;
 
 	// A counter for the number of CPR numbers processed
-	public long cprCounter;
+	public volatile long cprCounter;
 
 	// A counter for the number of contacts ending up in errors
-	public long contactErrorCounter;
+	public volatile long contactErrorCounter;
 
 	// A counter for the number of CPR numbers exported (less or the the same as cprCounter)
-	public long cprExportedCounter;
+	public volatile long cprExportedCounter;
 
 	// A counter for the number of admissions exported
-	public long admissionsExportedCounter;
+	public volatile long admissionsExportedCounter;
 
 	// A counter for the number of series of admissions exported
-	public long admissionsSeriesExportedCounter;
+	public volatile long admissionsSeriesExportedCounter;
 
 	// A counter for the number of ambulant contacts exported
-	public long ambulantContactsExportedCounter;
+	public volatile long ambulantContactsExportedCounter;
 	
 	// A counter for processed CPR numbers with deleted contacts
-	public long cprNumbersWithDeletedContactsCounter;
+	public volatile long cprNumbersWithDeletedContactsCounter;
 
 	// A counter for processed CPR numbers for current patients
-	public long currentPatientsCounter;
+	public volatile long currentPatientsCounter;
+
+	// A counter for the rows inserted, updated or deleted in the HAIBA admission and ambulant tables
+	public volatile long haibaRowsWrittenCounter;
+
+	// A counter for the CPR numbers with a single contact left after rule #8, they skip the rules connecting more contacts
+	public volatile long singleContactCprCounter;
 
 	/*
 	 * Rule numbers are defined in the solution description.
 	 */
-	public long rule1Counter;
-	public long rule2Counter;
-	public long rule3Counter;
-	public long rule4Counter;
-	public long rule5Counter;
-	public long rule6Counter;
-	public long rule7Counter;
-	public long rule8Counter;
-	public long rule9Counter;
-	public long rule10Counter;
-	public long rule11Counter;
-	public long rule12Counter;
-	public long rule13Counter;
-	public long rule14Counter;
+	public volatile long rule1Counter;
+	public volatile long rule2Counter;
+	public volatile long rule3Counter;
+	public volatile long rule4Counter;
+	public volatile long rule5Counter;
+	public volatile long rule6Counter;
+	public volatile long rule7Counter;
+	public volatile long rule8Counter;
+	public volatile long rule9Counter;
+	public volatile long rule10Counter;
+	public volatile long rule11Counter;
+	public volatile long rule12Counter;
+	public volatile long rule13Counter;
+	public volatile long rule14Counter;
 
     @Override
     public String toString() {
@@ -109,7 +193,8 @@ public class Statistics {
                 + ", admissionsExportedCounter=" + admissionsExportedCounter + ", admissionsSeriesExportedCounter="
                 + admissionsSeriesExportedCounter + ", ambulantContactsExportedCounter="
                 + ambulantContactsExportedCounter + ", cprNumbersWithDeletedContactsCounter="
-                + cprNumbersWithDeletedContactsCounter + ", currentPatientsCounter=" + currentPatientsCounter
+                + cprNumbersWithDeletedContactsCounter + ", currentPatientsCounter=" + currentPatientsCounter + ", haibaRowsWrittenCounter=" + haibaRowsWrittenCounter
+                + ", singleContactCprCounter=" + singleContactCprCounter
                 + ", rule1Counter=" + rule1Counter + ", rule2Counter=" + rule2Counter + ", rule3Counter="
                 + rule3Counter + ", rule4Counter=" + rule4Counter + ", rule5Counter=" + rule5Counter
                 + ", rule6Counter=" + rule6Counter + ", rule7Counter=" + rule7Counter + ", rule8Counter="
@@ -31,6 +31,7 @@ import java.util.Date;
 import java.util.List;
 
 import dk.nsi.haiba.lprimporter.model.haiba.LPRReference;
+import dk.nsi.haiba.lprimporter.util.EpochTime;
 
 /*
  * Model object for a Contact to the healthsystem from the LPR datamodel
@@ -42,8 +43,8 @@ public class Administration {
 	String cpr;
 	String sygehusCode;
 	String afdelingsCode;
-	Date indlaeggelsesDatetime;
-	Date udskrivningsDatetime;
+	long indlaeggelsesTime = EpochTime.NONE;
+	long udskrivningsTime = EpochTime.NONE;
 	List<LPRDiagnose> lprDiagnoses = new ArrayList<LPRDiagnose>();
 	List<LPRProcedure> lprProcedures = new ArrayList<LPRProcedure>();
 	List<LPRReference> lprReferencer = new ArrayList<LPRReference>();
@@ -92,20 +93,38 @@ public class Administration {
 	 * indlaeggelsesDatetime contains both "Indlaeggelsesdato" and "Indlaeggelsestidspunkt" from the HAIBA database
 	 */
 	public Date getIndlaeggelsesDatetime() {
-		return indlaeggelsesDatetime;
+		return EpochTime.toDate(indlaeggelsesTime);
 	}
 	public void setIndlaeggelsesDatetime(Date indlaeggelsesDatetime) {
-		this.indlaeggelsesDatetime = indlaeggelsesDatetime;
+		this.indlaeggelsesTime = EpochTime.of(indlaeggelsesDatetime);
+	}
+	/*
+	 * indlaeggelsesDatetime in epoch milliseconds, EpochTime.NONE if not set
+	 */
+	public long getIndlaeggelsesTime() {
+		return indlaeggelsesTime;
+	}
+	public void setIndlaeggelsesTime(long indlaeggelsesTime) {
+		this.indlaeggelsesTime = indlaeggelsesTime;
 	}
 
 	/*
 	 * udskrivningsDatetime contains both "Udskrivningsdato" and "Udskrivningstidspunkt" from the HAIBA database
 	 */
 	public Date getUdskrivningsDatetime() {
-		return udskrivningsDatetime;
+		return EpochTime.toDate(udskrivningsTime);
 	}
 	public void setUdskrivningsDatetime(Date udskrivningsDatetime) {
-		this.udskrivningsDatetime = udskrivningsDatetime;
+		this.udskrivningsTime = EpochTime.of(udskrivningsDatetime);
+	}
+	/*
+	 * udskrivningsDatetime in epoch milliseconds, EpochTime.NONE if not set
+	 */
+	public long getUdskrivningsTime() {
+		return udskrivningsTime;
+	}
+	public void setUdskrivningsTime(long udskrivningsTime) {
+		this.udskrivningsTime = udskrivningsTime;
 	}
 
 	public List<LPRDiagnose> getLprDiagnoses() {
@@ -171,14 +190,10 @@ public class Administration {
         } else if(this.afdelingsCode == null && other.afdelingsCode != null) {
         	return false;
         }
-        if(this.indlaeggelsesDatetime != null && !this.indlaeggelsesDatetime.equals(other.indlaeggelsesDatetime)) {
-        	return false;
-        } else if(this.indlaeggelsesDatetime == null && other.indlaeggelsesDatetime != null) {
+        if(this.indlaeggelsesTime != other.indlaeggelsesTime) {
         	return false;
         }
-        if(this.udskrivningsDatetime != null && !this.udskrivningsDatetime.equals(other.udskrivningsDatetime)) {
-        	return false;
-        } else if(this.udskrivningsDatetime == null && other.udskrivningsDatetime != null) {
+        if(this.udskrivningsTime != other.udskrivningsTime) {
         	return false;
         }
 
@@ -191,11 +206,14 @@ public class Administration {
 	 * @see java.lang.Object#hashCode()
 	 */
 	public int hashCode() {
-        return (sygehusCode+
-        		afdelingsCode+
-        		cpr+
-        		indlaeggelsesDatetime+
-        		udskrivningsDatetime).hashCode();
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + ((sygehusCode == null) ? 0 : sygehusCode.hashCode());
+        result = prime * result + ((afdelingsCode == null) ? 0 : afdelingsCode.hashCode());
+        result = prime * result + ((cpr == null) ? 0 : cpr.hashCode());
+        result = prime * result + (int) (indlaeggelsesTime ^ (indlaeggelsesTime >>> 32));
+        result = prime * result + (int) (udskrivningsTime ^ (udskrivningsTime >>> 32));
+        return result;
     }
     public LPRReference getLprReference() {
         if (lprReference == null) {
@@ -28,6 +28,8 @@ package dk.nsi.haiba.lprimporter.model.lpr;
 
 import java.util.Date;
 
+import dk.nsi.haiba.lprimporter.util.EpochTime;
+
 /*
  * Model object for a Procedure (operation or treatment) from the LPR-2 datamodel
  */
@@ -39,7 +41,7 @@ public class LPRProcedure {
 	String tillaegsProcedureCode;
 	String sygehusCode;
 	String afdelingsCode;
-	Date procedureDatetime;
+	long procedureTime = EpochTime.NONE;
 	
 	public String getRecordNumber() {
 		return recordNumber;
@@ -82,9 +84,18 @@ public class LPRProcedure {
 	 * procedureDatetime contains both "Proceduredato" and "Proceduretidspunkt" from the LPR database
 	 */
 	public Date getProcedureDatetime() {
-		return procedureDatetime;
+		return EpochTime.toDate(procedureTime);
 	}
 	public void setProcedureDatetime(Date procedureDatetime) {
-		this.procedureDatetime = procedureDatetime;
+		this.procedureTime = EpochTime.of(procedureDatetime);
+	}
+	/*
+	 * procedureDatetime in epoch milliseconds, EpochTime.NONE if not set
+	 */
+	public long getProcedureTime() {
+		return procedureTime;
+	}
+	public void setProcedureTime(long procedureTime) {
+		this.procedureTime = procedureTime;
 	}
 }
@@ -28,26 +28,29 @@ package dk.nsi.haiba.lprimporter.rules;
 
 import java.util.Comparator;
 
-import org.apache.log4j.Logger;
-
-import dk.nsi.haiba.lprimporter.log.Log;
 import dk.nsi.haiba.lprimporter.model.lpr.Administration;
+import dk.nsi.haiba.lprimporter.util.EpochTime;
 
+/*
+ * Sorts contacts by in time, and contacts with the same in time by out time.
+ * Contacts without an out time, see LPRDateTimeRule, are not sorted by out time.
+ */
 public class AdministrationInDateComparator implements Comparator<Administration> {
-	private static Log log = new Log(Logger.getLogger(AdministrationInDateComparator.class));
 
 	@Override
     public int compare(Administration o1, Administration o2) {
     	// if indates are equal, the two contacts must be sorted on outdates to get the right sequence
-    	if(o1.getIndlaeggelsesDatetime().equals(o2.getIndlaeggelsesDatetime())) {
-    		if(o1.getUdskrivningsDatetime() == null || o2.getUdskrivningsDatetime() == null) {
-    			log.warn("UdskrivningsDateTime is null, cannot compare it");
-    	        return o1.getIndlaeggelsesDatetime().compareTo(o2.getIndlaeggelsesDatetime());
-    			
+    	if(o1.getIndlaeggelsesTime() == o2.getIndlaeggelsesTime()) {
+    		if(o1.getUdskrivningsTime() == EpochTime.NONE || o2.getUdskrivningsTime() == EpochTime.NONE) {
+    	        return 0;
     		} else {
-                return o1.getUdskrivningsDatetime().compareTo(o2.getUdskrivningsDatetime());
+                return compare(o1.getUdskrivningsTime(), o2.getUdskrivningsTime());
     		}
     	}
-        return o1.getIndlaeggelsesDatetime().compareTo(o2.getIndlaeggelsesDatetime());
+        return compare(o1.getIndlaeggelsesTime(), o2.getIndlaeggelsesTime());
+    }
+
+    static int compare(long time, long other) {
+        return time < other ? -1 : (time == other ? 0 : 1);
     }
 }
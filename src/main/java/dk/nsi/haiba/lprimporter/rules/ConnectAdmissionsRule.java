@@ -28,15 +28,14 @@ package dk.nsi.haiba.lprimporter.rules;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 
-import org.joda.time.DateTime;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
 
 import dk.nsi.haiba.lprimporter.dao.HAIBADAO;
-import dk.nsi.haiba.lprimporter.dao.LPRDAO;
 import dk.nsi.haiba.lprimporter.importer.ClassificationCheckHelper;
+import dk.nsi.haiba.lprimporter.importer.ImportOutcomeBuffer;
 import dk.nsi.haiba.lprimporter.model.haiba.Diagnose;
 import dk.nsi.haiba.lprimporter.model.haiba.Indlaeggelse;
 import dk.nsi.haiba.lprimporter.model.haiba.LPRReference;
@@ -51,14 +50,11 @@ import dk.nsi.haiba.lprimporter.status.ImportStatus.Outcome;
  */
 public class ConnectAdmissionsRule implements LPRRule {
 
-    private List<Indlaeggelse> admissions;
-
     @Autowired
     HAIBADAO haibaDao;
 
     @Autowired
-    @Qualifier(value = "compositeLPRDAO")
-    LPRDAO lprDao;
+    ImportOutcomeBuffer importOutcomeBuffer;
 
     @Autowired
     ClassificationCheckHelper classificationCheckHelper;
@@ -68,16 +64,19 @@ public class ConnectAdmissionsRule implements LPRRule {
     }
 
     @Override
-    public LPRRule doProcessing(Statistics statistics) {
+    public LPRRuleContext doProcessing(LPRRuleContext context, Statistics statistics) {
+        List<Indlaeggelse> admissions = context.getAdmissions();
 
         if (admissions.size() == 1) {
             // only 1 connection
             saveConnectedAdmissions(admissions, statistics);
-            return null; // end rules processing
+            return LPRRuleContext.withAdmissions(null, admissions); // end rules processing
         }
 
         // Sort admissions by in date
-        Collections.sort(admissions, new IndlaeggelseInDateComparator());
+        if (!context.isInTimelineOrder()) {
+            Collections.sort(admissions, new IndlaeggelseInDateComparator());
+        }
 
         // Check if admissions are connected and add a new IndlaeggelsesForloeb
         List<Indlaeggelse> connectedAdmissions = new ArrayList<Indlaeggelse>();
@@ -89,10 +88,7 @@ public class ConnectAdmissionsRule implements LPRRule {
                 continue;
             }
 
-            DateTime previousOut = new DateTime(previousAdmission.getUdskrivningsDatetime());
-            DateTime currentIn = new DateTime(admission.getIndlaeggelsesDatetime());
-
-            if (previousOut.isEqual(currentIn)) {
+            if (previousAdmission.getUdskrivningsTime() == admission.getIndlaeggelsesTime()) {
                 // add admission to the connected list
                 connectedAdmissions.add(admission);
             } else {
@@ -110,7 +106,7 @@ public class ConnectAdmissionsRule implements LPRRule {
         // increment counter for CPR numbers exported
         statistics.cprExportedCounter += 1;
 
-        return null;
+        return LPRRuleContext.withAdmissions(null, admissions);
     }
 
     private void saveConnectedAdmissions(List<Indlaeggelse> admissions, Statistics statistics) {
@@ -119,48 +115,24 @@ public class ConnectAdmissionsRule implements LPRRule {
         // increment counter for admissions exported
         statistics.admissionsExportedCounter += admissions.size();
 
-        classificationCheckHelper.checkClassifications(admissions.toArray(new Indlaeggelse[0]));
+        classificationCheckHelper.collectClassifications(admissions.toArray(new Indlaeggelse[0]));
         removeDuplicateProceduresDiagnoses(admissions);
         haibaDao.saveIndlaeggelsesForloeb(admissions);
         for (Indlaeggelse admission : admissions) {
             // Rules are complete, update LPR with the import timestamp so they are not imported again
             for (LPRReference lprRef : admission.getLprReferencer()) {
-                lprDao.updateImportTime(lprRef, Outcome.SUCCESS);
+                importOutcomeBuffer.add(lprRef, Outcome.SUCCESS);
             }
         }
     }
 
     private void removeDuplicateProceduresDiagnoses(List<Indlaeggelse> admissions) {
         for (Indlaeggelse admission : admissions) {
-            // remove duplicate diagnoses - 13. rule
-            List<Diagnose> d = new ArrayList<Diagnose>();
-            for (Diagnose diagosis : admission.getDiagnoses()) {
-                if (!d.contains(diagosis)) {
-                    d.add(diagosis);
-                }
-            }
-            admission.setDiagnoses(d);
+            // remove duplicate diagnoses - 13. rule, the first of equal diagnoses is kept in place
+            admission.setDiagnoses(new ArrayList<Diagnose>(new LinkedHashSet<Diagnose>(admission.getDiagnoses())));
 
             // remove duplicate procedures - 14. rule
-            List<Procedure> p = new ArrayList<Procedure>();
-            for (Procedure procedure : admission.getProcedures()) {
-                if (!p.contains(procedure)) {
-                    p.add(procedure);
-                }
-            }
-            admission.setProcedures(p);
+            admission.setProcedures(new ArrayList<Procedure>(new LinkedHashSet<Procedure>(admission.getProcedures())));
         }
     }
-
-    /*
-     * Package scope for unittesting purpose
-     */
-    List<Indlaeggelse> getAdmissions() {
-        return admissions;
-    }
-
-    public void setAdmissions(List<Indlaeggelse> admissions) {
-        this.admissions = admissions;
-    }
-
 }
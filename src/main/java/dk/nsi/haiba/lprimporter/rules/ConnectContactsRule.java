@@ -30,8 +30,6 @@ import java.util.Collections;
 import java.util.List;
 
 import org.apache.log4j.Logger;
-import org.joda.time.DateTime;
-import org.joda.time.Minutes;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 
@@ -48,7 +46,7 @@ import dk.nsi.haiba.lprimporter.model.lpr.Administration;
 public class ConnectContactsRule implements LPRRule {
 	
 	private static Log log = new Log(Logger.getLogger(ConnectContactsRule.class));
-	private List<Administration> contacts;
+	private static final long MILLIS_PER_MINUTE = 60L * 1000L;
 	
 	@Autowired
 	ContactToAdmissionRule contactToAdmissionRule;
@@ -63,7 +61,8 @@ public class ConnectContactsRule implements LPRRule {
 	private int differentHospitalDifference;
 
 	@Override
-	public LPRRule doProcessing(Statistics statistics) {
+	public LPRRuleContext doProcessing(LPRRuleContext context, Statistics statistics) {
+		List<Administration> contacts = context.getContacts();
 
 		// Overlapping contacts has been sorted out now, so sort the contacts by in date
 		Collections.sort(contacts, new AdministrationInDateComparator());
@@ -77,29 +76,27 @@ public class ConnectContactsRule implements LPRRule {
 					continue;
 				}
 				
-				DateTime previousOut = new DateTime(previousContact.getUdskrivningsDatetime());
-				DateTime in = new DateTime(contact.getIndlaeggelsesDatetime());
+				// the gap in whole minutes
+				long gap = (contact.getIndlaeggelsesTime() - previousContact.getUdskrivningsTime()) / MILLIS_PER_MINUTE;
 
 				// if same hospital
 				if(previousContact.getSygehusCode().equals(contact.getSygehusCode())) {
 					// check if gap is <= "sameHospitalDifference" in hours
-					if(Minutes.minutesBetween(previousOut, in).isGreaterThan(Minutes.minutes(0)) && 
-							Minutes.minutesBetween(previousOut, in).isLessThan(Minutes.minutes(sameHospitalDifference*60 +1))) {
+					if(gap > 0 && gap < sameHospitalDifference*60 +1) {
 						
 						// Increment counter for rule #13
 						statistics.rule13Counter += 1;
-						previousContact.setUdskrivningsDatetime(contact.getIndlaeggelsesDatetime());
+						previousContact.setUdskrivningsTime(contact.getIndlaeggelsesTime());
 					}
 				} else {
 					// else if different hospital
 
 					// check if gap is <= "differentHospitalDifference" in hours
-					if(Minutes.minutesBetween(previousOut, in).isGreaterThan(Minutes.minutes(0)) && 
-							Minutes.minutesBetween(previousOut, in).isLessThan(Minutes.minutes(differentHospitalDifference*60 +1))) {
+					if(gap > 0 && gap < differentHospitalDifference*60 +1) {
 						
 						// Increment counter for rule #13
 						statistics.rule13Counter += 1;
-						previousContact.setUdskrivningsDatetime(contact.getIndlaeggelsesDatetime());
+						previousContact.setUdskrivningsTime(contact.getIndlaeggelsesTime());
 					}
 				}
 				// set previous to current, for the next iteration
@@ -109,20 +106,7 @@ public class ConnectContactsRule implements LPRRule {
 			log.trace("Only one contact in list");
 		}
 		
-		// setup the next rule in the chain
-		contactToAdmissionRule.setContacts(contacts);
-		
-		return contactToAdmissionRule;
-	}
-
-	public void setContacts(List<Administration> contacts) {
-		this.contacts = contacts;
-	}
-	
-	/*
-	 * Package scope for unittesting purpose
-	 */
-	List<Administration> getContacts() {
-		return contacts;
+		// setup the next rule in the chain, an out time is only moved forward to the in time of the next contact so they are still sorted
+		return LPRRuleContext.withContactsInTimelineOrder(contactToAdmissionRule, contacts);
 	}
 }
@@ -31,7 +31,6 @@ import java.util.Collections;
 import java.util.List;
 
 import org.apache.log4j.Logger;
-import org.joda.time.DateTime;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import dk.nsi.haiba.lprimporter.log.Log;
@@ -51,18 +50,20 @@ import dk.nsi.haiba.lprimporter.model.lpr.LPRProcedure;
  */public class ContactToAdmissionRule implements LPRRule {
 	
 	private static Log log = new Log(Logger.getLogger(ContactToAdmissionRule.class));
-	private List<Administration> contacts;
 	
 	@Autowired
 	ConnectAdmissionsRule connectAdmissionsRule;
 	
 	@Override
-	public LPRRule doProcessing(Statistics statistics) {
+	public LPRRuleContext doProcessing(LPRRuleContext context, Statistics statistics) {
+		List<Administration> contacts = context.getContacts();
 
 		List<Indlaeggelse> indlaeggelser = new ArrayList<Indlaeggelse>();
 
 		// sort contacts after in date
-		Collections.sort(contacts, new AdministrationInDateComparator());
+		if(!context.isInTimelineOrder()) {
+			Collections.sort(contacts, new AdministrationInDateComparator());
+		}
 		
 		
 		if(contacts.size() == 1) {
@@ -74,11 +75,8 @@ import dk.nsi.haiba.lprimporter.model.lpr.LPRProcedure;
 					indlaeggelse = convertContact(contact);
 					continue;
 				} else {
-					DateTime previousOut = new DateTime(indlaeggelse.getUdskrivningsDatetime());
-					DateTime currentIn = new DateTime(contact.getIndlaeggelsesDatetime());
-					
 					// check if there is a gap between the contact and admission, if not merge them to one admission
-					if(hospitalAndDepartmentAreIdentical(indlaeggelse, contact) && previousOut.isEqual(currentIn)) {
+					if(hospitalAndDepartmentAreIdentical(indlaeggelse, contact) && indlaeggelse.getUdskrivningsTime() == contact.getIndlaeggelsesTime()) {
 						// Increment counter for rule #14
 						statistics.rule14Counter += 1;
 						
@@ -86,7 +84,7 @@ import dk.nsi.haiba.lprimporter.model.lpr.LPRProcedure;
 						// preserve diagnoses and procedures, adjust the outDate and save the LPR refnumber
 						indlaeggelse.getDiagnoses().addAll(tempIndlaeggelse.getDiagnoses());
 						indlaeggelse.getProcedures().addAll(tempIndlaeggelse.getProcedures());
-						indlaeggelse.setUdskrivningsDatetime(tempIndlaeggelse.getUdskrivningsDatetime());
+						indlaeggelse.setUdskrivningsTime(tempIndlaeggelse.getUdskrivningsTime());
 						indlaeggelse.getLprReferencer().addAll(tempIndlaeggelse.getLprReferencer());
 					} else {
 						// Indlaeggelse and Contact doesn't connect, save the indlaeggelse
@@ -101,8 +99,8 @@ import dk.nsi.haiba.lprimporter.model.lpr.LPRProcedure;
 			indlaeggelser.add(indlaeggelse);
 		}
 
-		connectAdmissionsRule.setAdmissions(indlaeggelser);
-		return connectAdmissionsRule;
+		// the admissions are created in the order of the contacts, each with the in time of its first contact
+		return LPRRuleContext.withAdmissionsInTimelineOrder(connectAdmissionsRule, indlaeggelser);
 	}
 
 	private Indlaeggelse convertContact(Administration contact) {
@@ -111,8 +109,8 @@ import dk.nsi.haiba.lprimporter.model.lpr.LPRProcedure;
 		indlaeggelse.setAfdelingsCode(contact.getAfdelingsCode());
 		indlaeggelse.setCpr(contact.getCpr());
 		indlaeggelse.setSygehusCode(contact.getSygehusCode());
-		indlaeggelse.setIndlaeggelsesDatetime(contact.getIndlaeggelsesDatetime());
-		indlaeggelse.setUdskrivningsDatetime(contact.getUdskrivningsDatetime());
+		indlaeggelse.setIndlaeggelsesTime(contact.getIndlaeggelsesTime());
+		indlaeggelse.setUdskrivningsTime(contact.getUdskrivningsTime());
 		indlaeggelse.setAktuel(contact.isCurrentPatient());
 		
 		// save current contact reference
@@ -161,9 +159,4 @@ import dk.nsi.haiba.lprimporter.model.lpr.LPRProcedure;
         }
         return true;
 	}
-
-	public void setContacts(List<Administration> contacts) {
-		this.contacts = contacts;
-	}
-
 }
@@ -28,18 +28,14 @@ package dk.nsi.haiba.lprimporter.rules;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
-import org.joda.time.DateTime;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
 
-import dk.nsi.haiba.lprimporter.dao.LPRDAO;
+import dk.nsi.haiba.lprimporter.importer.ImportOutcomeBuffer;
 import dk.nsi.haiba.lprimporter.log.BusinessRuleErrorLog;
 import dk.nsi.haiba.lprimporter.log.Log;
 import dk.nsi.haiba.lprimporter.message.MessageResolver;
@@ -56,7 +52,6 @@ import dk.nsi.haiba.lprimporter.status.ImportStatus.Outcome;
 public class ContactsWithSameStartDateRule implements LPRRule {
 	
 	private static Log log = new Log(Logger.getLogger(ContactsWithSameStartDateRule.class));
-	private List<Administration> contacts;
 	
 	@Autowired
 	OverlappingContactsRule overlappingContactsRule;
@@ -68,18 +63,18 @@ public class ContactsWithSameStartDateRule implements LPRRule {
 	BusinessRuleErrorLog businessRuleErrorLog;
 	
 	@Autowired
-    @Qualifier(value="compositeLPRDAO")
-	LPRDAO lprDao;
+	ImportOutcomeBuffer importOutcomeBuffer;
 
 	@Override
-	public LPRRule doProcessing(Statistics statistics) {
+	public LPRRuleContext doProcessing(LPRRuleContext context, Statistics statistics) {
+		List<Administration> contacts = context.getContacts();
 		
 		List<Administration> processedContacts = new ArrayList<Administration>();
 		
 		// sort list after inDate
 		Collections.sort(contacts, new AdministrationInDateComparator());
 
-		Set<Administration> contactsWithErrors = new HashSet<Administration>(); 
+		Set<Administration> contactsWithErrors = new LinkedHashSet<Administration>(); 
 		if(contacts.size() == 1) {
 			// only 1 contact for the same hospital and department - so no overlapping
 			processedContacts.addAll(contacts);
@@ -92,14 +87,12 @@ public class ContactsWithSameStartDateRule implements LPRRule {
 					continue;
 				}
 				
-				DateTime previousIn = new DateTime(previousContact.getIndlaeggelsesDatetime());
-				DateTime in = new DateTime(contact.getIndlaeggelsesDatetime());
-				if(in.isEqual(previousIn)) {
+				if(contact.getIndlaeggelsesTime() == previousContact.getIndlaeggelsesTime()) {
 					log.debug("indates are equal for contacts: "+ previousContact.getRecordNumber() + " and: "+contact.getRecordNumber());
 					// if out-datetime is equal but sygehus or afdeling is different it is an error
-					DateTime previousOut = new DateTime(previousContact.getUdskrivningsDatetime());
-					DateTime out = new DateTime(contact.getUdskrivningsDatetime());
-					if(previousOut.isEqual(out) &&
+					long previousOut = previousContact.getUdskrivningsTime();
+					long out = contact.getUdskrivningsTime();
+					if(previousOut == out &&
 							(!previousContact.getSygehusCode().equals(contact.getSygehusCode()) ||
 							!previousContact.getAfdelingsCode().equals(contact.getAfdelingsCode()))) {
 						// increment counter for rule #9
@@ -123,7 +116,7 @@ public class ContactsWithSameStartDateRule implements LPRRule {
 
 						Administration preservedContact = null;
 						Administration deletedContact = null;
-						if(out.isAfter(previousOut)) {
+						if(out > previousOut) {
 							preservedContact = contact;
 							deletedContact = previousContact;
 						} else {
@@ -158,10 +151,10 @@ public class ContactsWithSameStartDateRule implements LPRRule {
 			for (Administration administration : contactsWithErrors) {
 				// Increment count for contacts with errors
 				statistics.contactErrorCounter += 1;
-				lprDao.updateImportTime(administration.getLprReference(), Outcome.FAILURE);
+				importOutcomeBuffer.add(administration.getLprReference(), Outcome.FAILURE);
 				for (LPRReference earlierRef : administration.getLprReferencer()) {
 					statistics.contactErrorCounter += 1;
-					lprDao.updateImportTime(earlierRef, Outcome.FAILURE);
+					importOutcomeBuffer.add(earlierRef, Outcome.FAILURE);
 				}
 				processedContacts.remove(administration);
 			}
@@ -170,40 +163,21 @@ public class ContactsWithSameStartDateRule implements LPRRule {
 		contacts = processedContacts;
 		if(contacts.size() == 0) {
 			// all contacts were prone to error, abort the flow
-			return null;
+			return LPRRuleContext.withContacts(null, contacts);
 		}
 
 		// remove duplicate contacts
-		Map<String, Administration> items = new HashMap<String,Administration>();
+		IdenticalContacts items = new IdenticalContacts();
 		for (Administration item : contacts) {
-			if (items.values().contains(item)) {
-				// ignore duplicate items, but ensure all lpr refs are saved
-				Administration administration = items.get("Item"+item.hashCode());
-				if(administration.getRecordNumber() != item.getRecordNumber()) {
-					administration.addLPRReference(item.getLprReference());
-					administration.getLprReferencer().addAll(item.getLprReferencer());
-				}
-			} else {
-				items.put("Item"+item.hashCode(),item);
+			Administration administration = items.add(item);
+			// ignore duplicate items, but ensure all lpr refs are saved
+			if(administration != null && administration.getRecordNumber() != item.getRecordNumber()) {
+				IdenticalContacts.mergeReferences(administration, item);
 			}
 		}
-		contacts = new ArrayList<Administration>(items.values());
+		contacts = new ArrayList<Administration>(items.getSurvivors());
 		
 		// setup the next rule in the chain
-		overlappingContactsRule.setContacts(contacts);
-		
-		return overlappingContactsRule;
-	}
-
-
-	public void setContacts(List<Administration> contacts) {
-		this.contacts = contacts;
-	}
-	
-	/*
-	 * Package scope for unittesting purpose
-	 */
-	List<Administration> getContacts() {
-		return contacts;
+		return LPRRuleContext.withContacts(overlappingContactsRule, contacts);
 	}
 }
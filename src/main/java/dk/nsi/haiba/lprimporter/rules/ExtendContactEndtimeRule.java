@@ -29,7 +29,6 @@ package dk.nsi.haiba.lprimporter.rules;
 import java.util.List;
 
 import org.apache.log4j.Logger;
-import org.joda.time.DateTime;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import dk.nsi.haiba.lprimporter.exception.RuleAbortedException;
@@ -38,6 +37,7 @@ import dk.nsi.haiba.lprimporter.message.MessageResolver;
 import dk.nsi.haiba.lprimporter.model.haiba.Statistics;
 import dk.nsi.haiba.lprimporter.model.lpr.Administration;
 import dk.nsi.haiba.lprimporter.model.lpr.LPRProcedure;
+import dk.nsi.haiba.lprimporter.util.EpochTime;
 
 /*
  * This is the 7. rule to be applied to LPR data
@@ -47,7 +47,6 @@ import dk.nsi.haiba.lprimporter.model.lpr.LPRProcedure;
 public class ExtendContactEndtimeRule implements LPRRule {
 	
 	private static Log log = new Log(Logger.getLogger(ExtendContactEndtimeRule.class));
-	private List<Administration> contacts;
 	
 	@Autowired
 	ContactsWithSameStartDateRule contactsWithSameStartDateRule;
@@ -56,49 +55,44 @@ public class ExtendContactEndtimeRule implements LPRRule {
 	MessageResolver resolver;
 
 	@Override
-	public LPRRule doProcessing(Statistics statistics) {
+	public LPRRuleContext doProcessing(LPRRuleContext context, Statistics statistics) {
+		List<Administration> contacts = context.getContacts();
 		
 		for (Administration contact : contacts) {
 			
 			// contact.getUdskrivningsDatetime() is set in the datetimerule, and will not be null
-			DateTime contactEndDateTime = new DateTime(contact.getUdskrivningsDatetime());
-			DateTime latestProcedureDateTime = null; 
+			long contactEndDateTime = contact.getUdskrivningsTime();
+			long latestProcedureDateTime = EpochTime.NONE; 
 			
 			for (LPRProcedure procedure : contact.getLprProcedures()) {
 				
 				// Get latest procedure endtime, business rule #1 checks the datetime exists.
-				DateTime dt = new DateTime(procedure.getProcedureDatetime());
-				if(latestProcedureDateTime == null || dt.isAfter(latestProcedureDateTime)) {
+				long dt = procedure.getProcedureTime();
+				if(latestProcedureDateTime == EpochTime.NONE || dt > latestProcedureDateTime) {
 					latestProcedureDateTime = dt;
 				}
 			}
 			
 			//compare latest procedure endtime with contact endtime
-			if(latestProcedureDateTime != null) {
+			if(latestProcedureDateTime != EpochTime.NONE) {
 				
 				// if procedureDateTime is more than 24 hours after Contact enddatetime it is a businessrule error
-				if(latestProcedureDateTime.isAfter(contactEndDateTime.plusHours(24))) {
+				if(latestProcedureDateTime > EpochTime.plusHours(contactEndDateTime, 24)) {
 					BusinessRuleError error = new BusinessRuleError(contact.getLprReference().getDbId(), contact.getRecordNumber(), resolver.getMessage("rule.extend.contact.endddatetime.gap.to.long"), resolver.getMessage("rule.extend.contact.endddatetime.name"));
 					throw new RuleAbortedException("Rule aborted due to BusinessRuleError", error);
 				}
 				
 				// if procedureDateTime is after contact enddatetime, set it to procedureDateTime
-				if(latestProcedureDateTime.isAfter(contactEndDateTime)) {
+				if(latestProcedureDateTime > contactEndDateTime) {
 					// Increment the count for rule #7
 					statistics.rule7Counter += 1;
 					log.debug("procedureDateTime is after contact enddatetime for contact ref + " + contact.getRecordNumber());
-					contact.setUdskrivningsDatetime(latestProcedureDateTime.toDate());
+					contact.setUdskrivningsTime(latestProcedureDateTime);
 				}
 			}
 		}
 		
 		// setup the next rule in the chain
-		contactsWithSameStartDateRule.setContacts(contacts);
-		
-		return contactsWithSameStartDateRule;
-	}
-
-	public void setContacts(List<Administration> contacts) {
-		this.contacts = contacts;
+		return LPRRuleContext.withContacts(contactsWithSameStartDateRule, contacts);
 	}
 }
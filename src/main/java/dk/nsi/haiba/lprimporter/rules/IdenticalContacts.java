@@ -0,0 +1,124 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.lprimporter.rules;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import dk.nsi.haiba.lprimporter.model.lpr.Administration;
+
+/*
+ * Finds identical contacts, see Administration.equals, with one lookup per contact.
+ * The first of identical contacts survives, the others are merged into it.
+ * The survivors are iterated in the order they are added, the rules add the contacts sorted by AdministrationInDateComparator.
+ */
+final class IdenticalContacts {
+
+	private final Map<ContactKey, Administration> survivors = new LinkedHashMap<ContactKey, Administration>();
+
+	/*
+	 * Returns the survivor identical to the contact, or null if the contact is the first of its kind and survives
+	 */
+	Administration add(Administration contact) {
+		ContactKey key = new ContactKey(contact);
+		Administration survivor = survivors.get(key);
+		if(survivor == null) {
+			survivors.put(key, contact);
+		}
+		return survivor;
+	}
+
+	Collection<Administration> getSurvivors() {
+		return survivors.values();
+	}
+
+	/*
+	 * Saves the references to the LPR contacts of the duplicate with the survivor
+	 */
+	static void mergeReferences(Administration survivor, Administration duplicate) {
+		survivor.addLPRReference(duplicate.getLprReference());
+		survivor.getLprReferencer().addAll(duplicate.getLprReferencer());
+	}
+
+	/*
+	 * Saves the diagnoses, procedures and references of the duplicate with the survivor
+	 */
+	static void mergeAll(Administration survivor, Administration duplicate) {
+		survivor.getLprDiagnoses().addAll(duplicate.getLprDiagnoses());
+		survivor.getLprProcedures().addAll(duplicate.getLprProcedures());
+		mergeReferences(survivor, duplicate);
+	}
+
+	/*
+	 * The members of a contact compared by Administration.equals, at the time the key is created.
+	 * The hash code is the hash code of the contact, calculated once.
+	 */
+	static final class ContactKey {
+		private final String cpr;
+		private final String sygehusCode;
+		private final String afdelingsCode;
+		private final long indlaeggelsesTime;
+		private final long udskrivningsTime;
+		private final int hashCode;
+
+		ContactKey(Administration contact) {
+			cpr = contact.getCpr();
+			sygehusCode = contact.getSygehusCode();
+			afdelingsCode = contact.getAfdelingsCode();
+			indlaeggelsesTime = contact.getIndlaeggelsesTime();
+			udskrivningsTime = contact.getUdskrivningsTime();
+			hashCode = contact.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(obj == this) {
+				return true;
+			}
+			if(!(obj instanceof ContactKey)) {
+				return false;
+			}
+			ContactKey other = (ContactKey) obj;
+			return hashCode == other.hashCode &&
+					indlaeggelsesTime == other.indlaeggelsesTime &&
+					udskrivningsTime == other.udskrivningsTime &&
+					equal(cpr, other.cpr) &&
+					equal(sygehusCode, other.sygehusCode) &&
+					equal(afdelingsCode, other.afdelingsCode);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		private static boolean equal(String value, String other) {
+			return value == null ? other == null : value.equals(other);
+		}
+	}
+}
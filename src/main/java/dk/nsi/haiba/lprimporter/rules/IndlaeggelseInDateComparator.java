@@ -33,6 +33,6 @@ import dk.nsi.haiba.lprimporter.model.haiba.Indlaeggelse;
 public class IndlaeggelseInDateComparator implements Comparator<Indlaeggelse> {
     @Override
     public int compare(Indlaeggelse o1, Indlaeggelse o2) {
-        return o1.getIndlaeggelsesDatetime().compareTo(o2.getIndlaeggelsesDatetime());
+        return AdministrationInDateComparator.compare(o1.getIndlaeggelsesTime(), o2.getIndlaeggelsesTime());
     }
 }
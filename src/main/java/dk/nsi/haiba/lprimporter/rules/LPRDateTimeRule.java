@@ -28,17 +28,15 @@ package dk.nsi.haiba.lprimporter.rules;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Date;
 import java.util.List;
 
 import org.apache.log4j.Logger;
-import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 
-import dk.nsi.haiba.lprimporter.dao.LPRDAO;
 import dk.nsi.haiba.lprimporter.exception.RuleAbortedException;
+import dk.nsi.haiba.lprimporter.importer.ImportOutcomeBuffer;
 import dk.nsi.haiba.lprimporter.log.BusinessRuleErrorLog;
 import dk.nsi.haiba.lprimporter.log.Log;
 import dk.nsi.haiba.lprimporter.message.MessageResolver;
@@ -46,6 +44,7 @@ import dk.nsi.haiba.lprimporter.model.haiba.Statistics;
 import dk.nsi.haiba.lprimporter.model.lpr.Administration;
 import dk.nsi.haiba.lprimporter.model.lpr.LPRProcedure;
 import dk.nsi.haiba.lprimporter.status.ImportStatus.Outcome;
+import dk.nsi.haiba.lprimporter.util.EpochTime;
 
 /*
  * This is the 4., 5. and 6. rule to be applied to LPR data (Rule 5 is not really a rule. but a demand)
@@ -55,7 +54,6 @@ import dk.nsi.haiba.lprimporter.status.ImportStatus.Outcome;
 public class LPRDateTimeRule implements LPRRule {
 	
 	private static Log log = new Log(Logger.getLogger(LPRDateTimeRule.class));
-	private List<Administration> contacts;
 	
 	@Autowired
 	RemoveIdenticalContactsRule removeIdenticalContactsRule;
@@ -67,8 +65,7 @@ public class LPRDateTimeRule implements LPRRule {
 	BusinessRuleErrorLog businessRuleErrorLog;
 	
 	@Autowired
-    @Qualifier(value="compositeLPRDAO")
-	LPRDAO lprDao;
+	ImportOutcomeBuffer importOutcomeBuffer;
 
 	@Value("${default.contact.in.hour}")
 	int defaultContactInHour;
@@ -92,7 +89,8 @@ public class LPRDateTimeRule implements LPRRule {
 	private int currentPatientDaysIfGreaterThanInterval;
 
 	@Override
-	public LPRRule doProcessing(Statistics statistics) {
+	public LPRRuleContext doProcessing(LPRRuleContext context, Statistics statistics) {
+		List<Administration> contacts = context.getContacts();
 		
 		List<Administration> adjustedContacts = new ArrayList<Administration>();
 
@@ -104,67 +102,60 @@ public class LPRDateTimeRule implements LPRRule {
 			statistics.rule4Counter += 1;
 			
 			// AdmissionStartHour for the contact is default set to 0 if not applied in the database, adjust it with the default value from the propertiesfile
-			DateTime admissionStart = new DateTime(contact.getIndlaeggelsesDatetime());
-			if(admissionStart.getHourOfDay() == 0 && defaultContactInHour != 0) {
-				admissionStart = admissionStart.withHourOfDay(defaultContactInHour);
-				contact.setIndlaeggelsesDatetime(admissionStart.toDate());
+			long admissionStart = contact.getIndlaeggelsesTime();
+			if(EpochTime.hourOfDay(admissionStart) == 0 && defaultContactInHour != 0) {
+				admissionStart = EpochTime.withHourOfDay(admissionStart, defaultContactInHour);
+				contact.setIndlaeggelsesTime(admissionStart);
 			}
 			
 			// AdmissionEndtime must be adjusted, if it was set to 0
-			Date udskrivningsDatetime = contact.getUdskrivningsDatetime();
-			if(udskrivningsDatetime != null) {
-				DateTime admissionEnd = new DateTime(udskrivningsDatetime.getTime());
-				if(admissionEnd.getHourOfDay() == 0) {
+			long admissionEnd = contact.getUdskrivningsTime();
+			if(admissionEnd != EpochTime.NONE) {
+				if(EpochTime.hourOfDay(admissionEnd) == 0) {
 					// does a procedure exist on the same date, set the procedure hour as admission end hour
 					int hourOfDay = 0;
 					for (LPRProcedure procedure : contact.getLprProcedures()) {
-						DateTime procedureTime = new DateTime(procedure.getProcedureDatetime());
-						if(admissionEnd.getYear() == procedureTime.getYear() &&
-								admissionEnd.getMonthOfYear() == procedureTime.getMonthOfYear() &&
-								admissionEnd.getDayOfMonth() == procedureTime.getDayOfMonth()) {
+						long procedureTime = procedure.getProcedureTime();
+						if(procedureTime != EpochTime.NONE && EpochTime.isSameDay(admissionEnd, procedureTime)) {
 							// examine all procedures from the same day, and get the latest hour of day.
-							if(procedureTime.getHourOfDay() > hourOfDay) {
-								hourOfDay = procedureTime.getHourOfDay();
+							if(EpochTime.hourOfDay(procedureTime) > hourOfDay) {
+								hourOfDay = EpochTime.hourOfDay(procedureTime);
 							}
 						}
 					}
-					admissionEnd = admissionEnd.withHourOfDay(hourOfDay);
+					admissionEnd = EpochTime.withHourOfDay(admissionEnd, hourOfDay);
 				}
 
 				// Then if admissionEnd still is 0, check the in date time is the same day 
-				if(admissionEnd.getHourOfDay() == 0) {
-					if(admissionEnd.getYear() == admissionStart.getYear() &&
-							admissionEnd.getMonthOfYear() == admissionStart.getMonthOfYear() &&
-							admissionEnd.getDayOfMonth() == admissionStart.getDayOfMonth()) {
+				if(EpochTime.hourOfDay(admissionEnd) == 0) {
+					if(EpochTime.isSameDay(admissionEnd, admissionStart)) {
 						// if same date, set end-datetime to in-datetime + defaultvalue
-						admissionEnd = admissionEnd.withHourOfDay(admissionStart.getHourOfDay()).plusHours(defaultContactOuthoursAddedInhours);
+						admissionEnd = EpochTime.plusHours(EpochTime.withHourOfDay(admissionEnd, EpochTime.hourOfDay(admissionStart)), defaultContactOuthoursAddedInhours);
 					}
 				}
 				
 				// Then if admissionEnd still is 0, and the enddate is after indate set it to a configured defaultvalue 
-				if(admissionEnd.getHourOfDay() == 0) {
-					admissionEnd = admissionEnd.withHourOfDay(defaultAdmissionEndHours);
+				if(EpochTime.hourOfDay(admissionEnd) == 0) {
+					admissionEnd = EpochTime.withHourOfDay(admissionEnd, defaultAdmissionEndHours);
 				}
 				
-				contact.setUdskrivningsDatetime(admissionEnd.toDate());
+				contact.setUdskrivningsTime(admissionEnd);
 
 				List<LPRProcedure> processedProcedures = new ArrayList<LPRProcedure>();
 				for (LPRProcedure procedure : contact.getLprProcedures()) {
 					// if procedure time is set to 0 - set it to 12 the same day
-					Date procedureDatetime = procedure.getProcedureDatetime(); 
-					if(procedureDatetime != null) {
-						DateTime procedureDate = new DateTime(procedureDatetime.getTime());
+					long procedureTime = procedure.getProcedureTime(); 
+					if(procedureTime != EpochTime.NONE) {
 						// if procedureDate is more than 24 hours after admissionEndDate it is an error
-						if(procedureDate.isAfter(admissionEnd.plusHours(24))) {
+						if(procedureTime > EpochTime.plusHours(admissionEnd, 24)) {
 							BusinessRuleError be = new BusinessRuleError(contact.getLprReference().getDbId(), contact.getRecordNumber(),resolver.getMessage("rule.datetime.proceduredate.is.more.than.24hous.after.enddate"), resolver.getMessage("rule.datetime.name"));
 							businessRuleErrorLog.log(be);
 							// error, procedure is deleted from the contact.
 							continue;
 						}
 						
-						if(procedureDate.getHourOfDay() == 0) {
-							procedureDate = procedureDate.withHourOfDay(defaultProcedureHours);
-							procedure.setProcedureDatetime(procedureDate.toDate());
+						if(EpochTime.hourOfDay(procedureTime) == 0) {
+							procedure.setProcedureTime(EpochTime.withHourOfDay(procedureTime, defaultProcedureHours));
 						}
 						processedProcedures.add(procedure);
 					} else {
@@ -181,22 +172,18 @@ public class LPRDateTimeRule implements LPRRule {
 				log.debug("Admission End datetime is null for LPR ref: "+contact.getRecordNumber()+" patient is probably not discharged from hospital yet");
 
 				// if in-date is not more than 30 days older than now - set out-date to today at 24:00
-				DateTime now = new DateTime();
-				DateTime in = new DateTime(contact.getIndlaeggelsesDatetime());
-				if(in.isAfter(now.minusDays(currentPatientDefaultInterval))) {
-					DateTime out = in.withHourOfDay(0).withMinuteOfHour(0).withSecondOfMinute(0).plusHours(currentPatientHoursIfLessThanInterval);
-					contact.setUdskrivningsDatetime(out.toDate());
+				long now = DateTimeUtils.currentTimeMillis();
+				long in = contact.getIndlaeggelsesTime();
+				if(in > EpochTime.plusDays(now, -currentPatientDefaultInterval)) {
+					contact.setUdskrivningsTime(EpochTime.plusHours(EpochTime.withStartOfDay(in), currentPatientHoursIfLessThanInterval));
 				} else {
 					// else set out-date to in-date + 30 days
-					DateTime out = in.plusDays(currentPatientDaysIfGreaterThanInterval);
-					contact.setUdskrivningsDatetime(out.toDate());
+					contact.setUdskrivningsTime(EpochTime.plusDays(in, currentPatientDaysIfGreaterThanInterval));
 				}
 			}
 			
 			// Rule #6 in time is after out time
-			DateTime in = new DateTime(contact.getIndlaeggelsesDatetime());
-			DateTime out = new DateTime(contact.getUdskrivningsDatetime());
-			if(in.isAfter(out)) {
+			if(contact.getIndlaeggelsesTime() > contact.getUdskrivningsTime()) {
 				// Increment counter for rule #6
 				statistics.rule6Counter += 1;
 				// log the error and ignore the contact.
@@ -204,32 +191,19 @@ public class LPRDateTimeRule implements LPRRule {
 				businessRuleErrorLog.log(be);
 				// Increment count for contacts with errors
 				statistics.contactErrorCounter += 1;
-				lprDao.updateImportTime(contact.getLprReference(), Outcome.FAILURE);
+				importOutcomeBuffer.add(contact.getLprReference(), Outcome.FAILURE);
 				continue;
 			}
 			
 			adjustedContacts.add(contact);
 		}
 		
-		// set this for unittesting purpose
-		contacts = adjustedContacts;
-		if(contacts.size() == 0) {
+		if(adjustedContacts.size() == 0) {
 			log.debug("all contacts were prone to error, abort the flow");
-			return null;
+			return LPRRuleContext.withContacts(null, adjustedContacts);
 		}
 		
 		// setup the next rule in the chain
-		removeIdenticalContactsRule.setContacts(contacts);
-		
-		return removeIdenticalContactsRule;
-	}
-
-	// package scope for unittesting purpose
-	List<Administration> getContacts() {
-		return contacts;
-	}
-	
-	public void setContacts(List<Administration> contacts) {
-		this.contacts = contacts;
+		return LPRRuleContext.withContacts(removeIdenticalContactsRule, adjustedContacts);
 	}
 }
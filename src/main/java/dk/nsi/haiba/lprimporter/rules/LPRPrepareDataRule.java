@@ -31,10 +31,9 @@ import java.util.List;
 
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
 
 import dk.nsi.haiba.lprimporter.dao.HAIBADAO;
-import dk.nsi.haiba.lprimporter.dao.LPRDAO;
+import dk.nsi.haiba.lprimporter.importer.ImportOutcomeBuffer;
 import dk.nsi.haiba.lprimporter.log.BusinessRuleErrorLog;
 import dk.nsi.haiba.lprimporter.log.Log;
 import dk.nsi.haiba.lprimporter.message.MessageResolver;
@@ -42,6 +41,7 @@ import dk.nsi.haiba.lprimporter.model.haiba.LPRReference;
 import dk.nsi.haiba.lprimporter.model.haiba.Statistics;
 import dk.nsi.haiba.lprimporter.model.lpr.Administration;
 import dk.nsi.haiba.lprimporter.status.ImportStatus.Outcome;
+import dk.nsi.haiba.lprimporter.util.EpochTime;
 
 /*
  * This is the 1. and 3. rule to be applied to LPR data (2. rule is not really a rule, just a demand)
@@ -51,7 +51,6 @@ import dk.nsi.haiba.lprimporter.status.ImportStatus.Outcome;
 public class LPRPrepareDataRule implements LPRRule {
 	
 	private static Log log = new Log(Logger.getLogger(LPRPrepareDataRule.class));
-	private List<Administration> contacts;
 	
 	@Autowired
 	LPRDateTimeRule lprDateTimeRule;
@@ -66,11 +65,11 @@ public class LPRPrepareDataRule implements LPRRule {
 	HAIBADAO haibaDao;
 
 	@Autowired
-    @Qualifier(value="compositeLPRDAO")
-	LPRDAO lprDao;
+	ImportOutcomeBuffer importOutcomeBuffer;
 
 	@Override
-	public LPRRule doProcessing(Statistics statistics) {
+	public LPRRuleContext doProcessing(LPRRuleContext context, Statistics statistics) {
+		List<Administration> contacts = context.getContacts();
 		
 		List<Administration> preparedContacts = new ArrayList<Administration>();
 		
@@ -96,7 +95,7 @@ public class LPRPrepareDataRule implements LPRRule {
 				logErrorContact(contact.getLprReference(), resolver.getMessage("rule.preparedata.afdelingscode.isempty"), statistics);
 				continue;
 			}
-			if(contact.getIndlaeggelsesDatetime() == null) {
+			if(contact.getIndlaeggelsesTime() == EpochTime.NONE) {
 				// log and ignore this contact
 				logErrorContact(contact.getLprReference(), resolver.getMessage("rule.preparedata.indate.isempty"), statistics);
 				continue;
@@ -113,17 +112,13 @@ public class LPRPrepareDataRule implements LPRRule {
 			
 			preparedContacts.add(contact);
 		}
-		// to ensure unittest can get the prepared contacts
-		contacts = preparedContacts;
-		if(contacts.size() == 0) {
+		if(preparedContacts.size() == 0) {
 			log.debug("all contacts were prone to error, abort the rules flow");
-			return null;
+			return LPRRuleContext.withContacts(null, preparedContacts);
 		}
 		
 		// setup the next rule in the chain
-		lprDateTimeRule.setContacts(preparedContacts);
-		
-		return lprDateTimeRule;
+		return LPRRuleContext.withContacts(lprDateTimeRule, preparedContacts);
 	}
 	
 	
@@ -135,15 +130,6 @@ public class LPRPrepareDataRule implements LPRRule {
 		businessRuleErrorLog.log(be);
 		// Increment count for contacts with errors
 		statistics.contactErrorCounter += 1;
-		lprDao.updateImportTime(lprReference, Outcome.FAILURE);
-	}
-
-	// package scope for unittesting purpose
-	List<Administration> getContacts() {
-		return contacts;
-	}
-
-	public void setContacts(List<Administration> contacts) {
-		this.contacts = contacts;
+		importOutcomeBuffer.add(lprReference, Outcome.FAILURE);
 	}
 }
@@ -30,6 +30,9 @@ import dk.nsi.haiba.lprimporter.model.haiba.Statistics;
 
 public interface LPRRule {
 	
-	public LPRRule doProcessing(Statistics statistics);
+	/*
+	 * Processes the contacts or admissions in the context, and returns the context for the next rule.
+	 */
+	public LPRRuleContext doProcessing(LPRRuleContext context, Statistics statistics);
 
 }
@@ -0,0 +1,100 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.lprimporter.rules;
+
+import java.util.List;
+
+import dk.nsi.haiba.lprimporter.model.haiba.Indlaeggelse;
+import dk.nsi.haiba.lprimporter.model.lpr.Administration;
+
+/*
+ * The data passed from one rule to the next, while processing the contacts from a single CPR number.
+ * A context is never changed, instead each rule returns a new context with its result and the rule to apply next.
+ * The lists are handed over with the context, so they belong to the rule processing the context.
+ * A rule that knows its result is sorted by in and out time says so, then the next rules need not sort it again.
+ */
+public final class LPRRuleContext {
+
+	private final LPRRule nextRule;
+	private final List<Administration> contacts;
+	private final List<Indlaeggelse> admissions;
+	private final boolean inTimelineOrder;
+
+	private LPRRuleContext(LPRRule nextRule, List<Administration> contacts, List<Indlaeggelse> admissions, boolean inTimelineOrder) {
+		this.nextRule = nextRule;
+		this.contacts = contacts;
+		this.admissions = admissions;
+		this.inTimelineOrder = inTimelineOrder;
+	}
+
+	/*
+	 * Contacts to be processed by nextRule, if nextRule is null the rules flow ends with these contacts
+	 */
+	public static LPRRuleContext withContacts(LPRRule nextRule, List<Administration> contacts) {
+		return new LPRRuleContext(nextRule, contacts, null, false);
+	}
+
+	/*
+	 * Contacts sorted by AdministrationInDateComparator, to be processed by nextRule
+	 */
+	public static LPRRuleContext withContactsInTimelineOrder(LPRRule nextRule, List<Administration> contacts) {
+		return new LPRRuleContext(nextRule, contacts, null, true);
+	}
+
+	/*
+	 * Admissions to be processed by nextRule, if nextRule is null the rules flow ends with these admissions
+	 */
+	public static LPRRuleContext withAdmissions(LPRRule nextRule, List<Indlaeggelse> admissions) {
+		return new LPRRuleContext(nextRule, null, admissions, false);
+	}
+
+	/*
+	 * Admissions sorted by IndlaeggelseInDateComparator, to be processed by nextRule
+	 */
+	public static LPRRuleContext withAdmissionsInTimelineOrder(LPRRule nextRule, List<Indlaeggelse> admissions) {
+		return new LPRRuleContext(nextRule, null, admissions, true);
+	}
+
+	public LPRRule getNextRule() {
+		return nextRule;
+	}
+
+	public List<Administration> getContacts() {
+		return contacts;
+	}
+
+	public List<Indlaeggelse> getAdmissions() {
+		return admissions;
+	}
+
+	/*
+	 * True if the contacts or admissions are already sorted by their in and out time
+	 */
+	public boolean isInTimelineOrder() {
+		return inTimelineOrder;
+	}
+}
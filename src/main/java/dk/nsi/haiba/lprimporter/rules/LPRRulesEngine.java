@@ -29,10 +29,9 @@ package dk.nsi.haiba.lprimporter.rules;
 import java.util.List;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
 
-import dk.nsi.haiba.lprimporter.dao.LPRDAO;
 import dk.nsi.haiba.lprimporter.exception.RuleAbortedException;
+import dk.nsi.haiba.lprimporter.importer.ImportOutcomeBuffer;
 import dk.nsi.haiba.lprimporter.log.BusinessRuleErrorLog;
 import dk.nsi.haiba.lprimporter.model.haiba.Statistics;
 import dk.nsi.haiba.lprimporter.model.lpr.Administration;
@@ -52,19 +51,28 @@ public class LPRRulesEngine implements RulesEngine {
 	BusinessRuleErrorLog businessRuleErrorLog;
 	
 	@Autowired
-    @Qualifier(value="compositeLPRDAO")
-	LPRDAO lprDao;
+	ImportOutcomeBuffer importOutcomeBuffer;
 	
+	@Autowired
+	ContactsWithSameStartDateRule contactsWithSameStartDateRule;
+
+	@Autowired
+	ContactToAdmissionRule contactToAdmissionRule;
+
 	@Override
 	public void processRuleChain(List<Administration> contacts, Statistics statistics) {
 		
-		lprPrepareDataRule.setContacts(contacts);
+		LPRRuleContext context = LPRRuleContext.withContacts(lprPrepareDataRule, contacts);
 		
 		try {
-			LPRRule next = lprPrepareDataRule.doProcessing(statistics);
-			while(next != null) {
+			while(context.getNextRule() != null) {
+				if(context.getNextRule() == contactsWithSameStartDateRule && context.getContacts().size() == 1) {
+					// A single contact has no other contacts with the same start date, overlapping or to connect to, so it goes directly to the admission
+					statistics.singleContactCprCounter += 1;
+					context = LPRRuleContext.withContactsInTimelineOrder(contactToAdmissionRule, context.getContacts());
+				}
 				// Execute the next rule until the end of the flow
-				next = next.doProcessing(statistics);
+				context = context.getNextRule().doProcessing(context, statistics);
 			}
 		} catch(RuleAbortedException e) {
 			// An error occured, log the exceptions attached dataobject into the business rule log (both file and database).
@@ -73,7 +81,7 @@ public class LPRRulesEngine implements RulesEngine {
 			for (Administration contact : contacts) {
 				// Increment counter for rule #1
 				statistics.rule1Counter += 1;
-				lprDao.updateImportTime(contact.getLprReference(), Outcome.FAILURE);
+				importOutcomeBuffer.add(contact.getLprReference(), Outcome.FAILURE);
 			}
 		}
 	}
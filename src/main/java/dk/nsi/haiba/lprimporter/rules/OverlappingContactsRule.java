@@ -28,12 +28,11 @@ package dk.nsi.haiba.lprimporter.rules;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
-import org.joda.time.DateTime;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import dk.nsi.haiba.lprimporter.exception.RuleAbortedException;
@@ -41,6 +40,7 @@ import dk.nsi.haiba.lprimporter.log.Log;
 import dk.nsi.haiba.lprimporter.message.MessageResolver;
 import dk.nsi.haiba.lprimporter.model.haiba.Statistics;
 import dk.nsi.haiba.lprimporter.model.lpr.Administration;
+import dk.nsi.haiba.lprimporter.util.EpochTime;
 
 /*
  * This is the 11. and 12. rule to be applied to LPR data
@@ -50,7 +50,6 @@ import dk.nsi.haiba.lprimporter.model.lpr.Administration;
 public class OverlappingContactsRule implements LPRRule {
 	
 	private static Log log = new Log(Logger.getLogger(OverlappingContactsRule.class));
-	private List<Administration> contacts;
 	
 	@Autowired
 	ConnectContactsRule connectContactsRule;
@@ -59,9 +58,10 @@ public class OverlappingContactsRule implements LPRRule {
 	MessageResolver resolver;
 
 	@Override
-	public LPRRule doProcessing(Statistics statistics) {
+	public LPRRuleContext doProcessing(LPRRuleContext context, Statistics statistics) {
+		List<Administration> contacts = context.getContacts();
 		
-			List<Administration> processedContacts = new ArrayList<Administration>();
+			ProcessedContacts processedContacts = new ProcessedContacts();
 			
 			// sort list after inDate
 			Collections.sort(contacts, new AdministrationInDateComparator());
@@ -78,46 +78,40 @@ public class OverlappingContactsRule implements LPRRule {
 						continue;
 					}
 					
-					DateTime previousIn = new DateTime(previousContact.getIndlaeggelsesDatetime());
-					DateTime previousOut = null;
-					if(previousContact.getUdskrivningsDatetime() != null) {
-						previousOut = new DateTime(previousContact.getUdskrivningsDatetime());
-					} 
-					DateTime in = new DateTime(contact.getIndlaeggelsesDatetime());
+					long previousOut = previousContact.getUdskrivningsTime();
+					long in = contact.getIndlaeggelsesTime();
 					
-					if(previousOut == null) {
+					if(previousOut == EpochTime.NONE) {
 						BusinessRuleError be = new BusinessRuleError(previousContact.getLprReference().getDbId(), previousContact.getRecordNumber(), resolver.getMessage("rule.overlapping.contact.no.endddatetime"), resolver.getMessage("rule.overlapping.contact.name"));
 						throw new RuleAbortedException("Business rule aborted", be);
 					}
 					
 					// if contact is overlapping - or previous might be modified so in isbefore previous in
 					// AKS 3 jan: only in.isBefore(previousOut) is necessary, already sorted by in dates
-					if(in.isBefore(previousOut)) {
+					if(in < previousOut) {
 //					    if(((in.isAfter(previousIn)||in.isEqual(previousIn)) && (in.isBefore(previousOut))) ||
 //					            (in.isBefore(previousIn))) {
 
 						// Increment counter for rule #11
 						statistics.rule11Counter += 1;
 
-						List<Administration> splittedContacts = splitContacts(previousContact, contact, statistics);
+						List<Administration> splittedContacts = splitContacts(previousContact, contact, processedContacts, statistics);
 						processedContacts.addAll(splittedContacts);
 						
 						// check if the next contact is overlapped by previousContact, but not by contact
 						if(i < contacts.size()-1) {
 							// more contacts exists
 							Administration nextContact = contacts.get(i+1);
-							DateTime nextIn = new DateTime(nextContact.getIndlaeggelsesDatetime());
-							DateTime nextOut = new DateTime(nextContact.getUdskrivningsDatetime());
-							DateTime out = new DateTime(contact.getUdskrivningsDatetime());
-							if((nextIn.isAfter(out)||nextIn.isEqual(out))) {
+							long nextIn = nextContact.getIndlaeggelsesTime();
+							long out = contact.getUdskrivningsTime();
+							if(nextIn >= out) {
 							    // next is not overlapping contact
 							    // AKS 3 jan: only nextIn.isBefore/isEqual(previousOut) is necessary, already sorted by in dates
-								if((nextIn.isBefore(previousOut) || nextIn.isEqual(previousOut))) {
+								if(nextIn <= previousOut) {
 //								if((nextIn.isAfter(previousIn)||nextIn.isEqual(previousIn)) && (nextIn.isBefore(previousOut) || nextIn.isEqual(previousOut))) {
 									// but it is overlapping the previousContact, so sort out the sequence
-									Collections.sort(processedContacts, new AdministrationInDateComparator());
-									// set previous contact to the correct contact from the sequence
-									previousContact = processedContacts.get(processedContacts.size()-1);
+									// and set previous contact to the correct contact from the sequence
+									previousContact = processedContacts.sortAndGetLast();
 								} else {
 									previousContact = contact;
 								}
@@ -135,40 +129,33 @@ public class OverlappingContactsRule implements LPRRule {
 				}
 				
 			} 
-			contacts = processedContacts;
+			contacts = processedContacts.getContacts();
 
-			Map<Administration, Administration> items = new HashMap<Administration,Administration>();
+			IdenticalContacts items = new IdenticalContacts();
 			for (Administration item : contacts) {
-				if (items.values().contains(item)) {
-					// ignore duplicate items, but ensure all lpr refs are saved
-					Administration administration = items.get(item);
-					if(administration.getRecordNumber() != item.getRecordNumber()) {
-						administration.addLPRReference(item.getLprReference());
-						administration.getLprReferencer().addAll(item.getLprReferencer());
-					}
-				} else {
-					items.put(item ,item);
+				Administration administration = items.add(item);
+				// ignore duplicate items, but ensure all lpr refs are saved
+				if(administration != null && administration.getRecordNumber() != item.getRecordNumber()) {
+					IdenticalContacts.mergeReferences(administration, item);
 				}
 			}
-			contacts = new ArrayList<Administration>(items.values());
+			contacts = new ArrayList<Administration>(items.getSurvivors());
 		
 		
 		// setup the next rule in the chain
-		connectContactsRule.setContacts(contacts);
-		
-		return connectContactsRule;
+		return LPRRuleContext.withContacts(connectContactsRule, contacts);
 	}
 
-	private List<Administration> splitContacts(Administration previous, Administration current, Statistics statistics) {
+	private List<Administration> splitContacts(Administration previous, Administration current, ProcessedContacts processedContacts, Statistics statistics) {
 		List<Administration> splittedContacts = new ArrayList<Administration>();
 		
-		DateTime previousIn = new DateTime(previous.getIndlaeggelsesDatetime());
-		DateTime previousOut = new DateTime(previous.getUdskrivningsDatetime());
-		DateTime in = new DateTime(current.getIndlaeggelsesDatetime());
-		DateTime out = new DateTime(current.getUdskrivningsDatetime());
+		long previousIn = previous.getIndlaeggelsesTime();
+		long previousOut = previous.getUdskrivningsTime();
+		long in = current.getIndlaeggelsesTime();
+		long out = current.getUdskrivningsTime();
 
 		// AKS 3. jan: never happens; out is before previousOut to get into this method
-		if(in.isEqual(previousIn) && out.isEqual(previousOut)) {
+		if(in == previousIn && out == previousOut) {
 			// in and out datetimes are equal, choose the first - merge diagnoses and procedures
 			previous.getLprDiagnoses().addAll(current.getLprDiagnoses());
 			previous.getLprProcedures().addAll(current.getLprProcedures());
@@ -176,16 +163,17 @@ public class OverlappingContactsRule implements LPRRule {
 			previous.getLprReferencer().addAll(current.getLprReferencer());
 			splittedContacts.add(previous);
 			return splittedContacts;
-		} else if(previousIn.isEqual(in)) {
+		} else if(previousIn == in) {
 			// split on outTime, but check that it is the oldest outtime
-			if(previousOut.isBefore(out)) {
-				current.setIndlaeggelsesDatetime(previous.getUdskrivningsDatetime());
+			if(previousOut < out) {
+				current.setIndlaeggelsesTime(previous.getUdskrivningsTime());
 			} else {
 			    // AKS 3. jan: never happens, already sorted by in, then out
-				previous.setIndlaeggelsesDatetime(current.getUdskrivningsDatetime());
+				processedContacts.changing(previous);
+				previous.setIndlaeggelsesTime(current.getUdskrivningsTime());
 			}
 			
-		} else if(previousIn.isBefore(in) && previousOut.isAfter(out)) {
+		} else if(previousIn < in && previousOut > out) {
 			// Increment counter for rule #12
 			statistics.rule12Counter += 1;
 			
@@ -201,14 +189,15 @@ public class OverlappingContactsRule implements LPRRule {
 			newContact.setLprReference(previous.getLprReference());
 			newContact.setLprReferencer(previous.getLprReferencer());
 			// set in to current out and out to previous out
-			newContact.setIndlaeggelsesDatetime(current.getUdskrivningsDatetime());
-			newContact.setUdskrivningsDatetime(previous.getUdskrivningsDatetime());
+			newContact.setIndlaeggelsesTime(current.getUdskrivningsTime());
+			newContact.setUdskrivningsTime(previous.getUdskrivningsTime());
 			splittedContacts.add(newContact);
 			// Then set previous out to current in
-			previous.setUdskrivningsDatetime(current.getIndlaeggelsesDatetime());
-		} else if(out.equals(previousOut) || out.isAfter(previousOut) ) {
+			processedContacts.changing(previous);
+			previous.setUdskrivningsTime(current.getIndlaeggelsesTime());
+		} else if(out >= previousOut) {
 			// set current in to previous out
-			current.setIndlaeggelsesDatetime(previous.getUdskrivningsDatetime());
+			current.setIndlaeggelsesTime(previous.getUdskrivningsTime());
 		}
 		
 		splittedContacts.add(previous);
@@ -216,14 +205,98 @@ public class OverlappingContactsRule implements LPRRule {
 		return splittedContacts;
 	}
 
-	public void setContacts(List<Administration> contacts) {
-		this.contacts = contacts;
-	}
-	
 	/*
-	 * Package scope for unittesting purpose
+	 * The processed contacts, sorting them again only sorts the contacts added since the last sort, and merges them into the sorted contacts.
+	 * The result is the same as sorting all the contacts with the stable Collections.sort.
 	 */
-	List<Administration> getContacts() {
-		return contacts;
+	static final class ProcessedContacts {
+		private final AdministrationInDateComparator comparator = new AdministrationInDateComparator();
+		private final List<Administration> contacts = new ArrayList<Administration>();
+		// the number of times each contact occurs in the sorted part of the list
+		private final Map<Administration, Integer> sortedOccurrences = new IdentityHashMap<Administration, Integer>();
+		private int sortedSize;
+		// the times of the last sorted contact are changed, it is sorted with the added contacts
+		private boolean lastChanged;
+		// the times of another sorted contact are changed, all contacts must be sorted
+		private boolean sortedChanged;
+
+		void add(Administration contact) {
+			contacts.add(contact);
+		}
+
+		void addAll(List<Administration> added) {
+			contacts.addAll(added);
+		}
+
+		/*
+		 * Must be called before the in or out time of a contact is changed
+		 */
+		void changing(Administration contact) {
+			Integer occurrences = sortedOccurrences.get(contact);
+			if(occurrences == null) {
+				// only among the added contacts, which are sorted anyway
+				return;
+			}
+			if(occurrences.intValue() == 1 && contacts.get(sortedSize - 1) == contact) {
+				lastChanged = true;
+			} else {
+				sortedChanged = true;
+			}
+		}
+
+		Administration sortAndGetLast() {
+			for (int i = sortedSize; i < contacts.size(); i++) {
+				Administration contact = contacts.get(i);
+				Integer occurrences = sortedOccurrences.get(contact);
+				sortedOccurrences.put(contact, occurrences == null ? 1 : occurrences.intValue() + 1);
+			}
+
+			if(sortedChanged) {
+				Collections.sort(contacts, comparator);
+			} else {
+				// the changed last contact is before the added contacts in the list, so it is sorted as the first of them
+				int from = lastChanged ? sortedSize - 1 : sortedSize;
+				List<Administration> added = new ArrayList<Administration>(contacts.subList(from, contacts.size()));
+				Collections.sort(added, comparator);
+				// the sorted contacts not after the first added contact keep their place, the rest are merged with the added contacts
+				int mergeFrom = upperBound(from, added.get(0));
+				List<Administration> sorted = new ArrayList<Administration>(contacts.subList(mergeFrom, from));
+				int i = 0;
+				int j = 0;
+				for (int k = mergeFrom; k < contacts.size(); k++) {
+					// on equal times the sorted contact is first, as it is first in the list
+					if(j == added.size() || (i < sorted.size() && comparator.compare(sorted.get(i), added.get(j)) <= 0)) {
+						contacts.set(k, sorted.get(i++));
+					} else {
+						contacts.set(k, added.get(j++));
+					}
+				}
+			}
+			sortedSize = contacts.size();
+			lastChanged = false;
+			sortedChanged = false;
+			return contacts.get(contacts.size() - 1);
+		}
+
+		/*
+		 * The index of the first of the sorted contacts before index to, that is after the contact
+		 */
+		private int upperBound(int to, Administration contact) {
+			int low = 0;
+			int high = to;
+			while(low < high) {
+				int middle = (low + high) >>> 1;
+				if(comparator.compare(contacts.get(middle), contact) <= 0) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+
+		List<Administration> getContacts() {
+			return contacts;
+		}
 	}
 }
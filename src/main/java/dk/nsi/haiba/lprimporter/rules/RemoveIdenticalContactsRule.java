@@ -27,17 +27,14 @@
 package dk.nsi.haiba.lprimporter.rules;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
 
 import dk.nsi.haiba.lprimporter.dao.HAIBADAO;
-import dk.nsi.haiba.lprimporter.dao.LPRDAO;
 import dk.nsi.haiba.lprimporter.importer.ClassificationCheckHelper;
+import dk.nsi.haiba.lprimporter.importer.ImportOutcomeBuffer;
 import dk.nsi.haiba.lprimporter.log.Log;
 import dk.nsi.haiba.lprimporter.message.MessageResolver;
 import dk.nsi.haiba.lprimporter.model.haiba.LPRReference;
@@ -53,14 +50,12 @@ import dk.nsi.haiba.lprimporter.status.ImportStatus.Outcome;
 public class RemoveIdenticalContactsRule implements LPRRule {
 
 	private static Log log = new Log(Logger.getLogger(RemoveIdenticalContactsRule.class));
-	private List<Administration> contacts;
 
 	@Autowired
 	HAIBADAO haibaDao;
 	
 	@Autowired
-	@Qualifier(value="compositeLPRDAO")
-	LPRDAO lprDao;
+	ImportOutcomeBuffer importOutcomeBuffer;
 
 	@Autowired
 	ExtendContactEndtimeRule extendContactEndtimeRule;
@@ -72,33 +67,28 @@ public class RemoveIdenticalContactsRule implements LPRRule {
 	ClassificationCheckHelper classificationCheckHelper;
 
 	@Override
-	public LPRRule doProcessing(Statistics statistics) {
+	public LPRRuleContext doProcessing(LPRRuleContext context, Statistics statistics) {
+		List<Administration> contacts = context.getContacts();
 
 		// if identical procedures and diagnoses exists on the identical contacts, they are cleaned up in a later rule
 		
-		Map<Administration, Administration> items = new HashMap<Administration,Administration>();
+		IdenticalContacts items = new IdenticalContacts();
 		for (Administration item : contacts) {
-			if (items.values().contains(item)) {
+			Administration preserve = items.add(item);
+			if (preserve != null) {
 				// Increment the count for rule #8
 				statistics.rule8Counter += 1;
 				
 				log.debug("Found duplicate contact with recordnumber: "+item.getRecordNumber());
-				//preserve linked diagnoses and procedures before its removed.
-				Administration preserve = items.get(item);
-				preserve.getLprDiagnoses().addAll(item.getLprDiagnoses());
-				preserve.getLprProcedures().addAll(item.getLprProcedures());
-				// save references to the removed contact
-				preserve.getLprReferencer().add(item.getLprReference());
-				preserve.getLprReferencer().addAll(item.getLprReferencer());
-			} else {
-				items.put(item,item);
+				//preserve linked diagnoses and procedures before its removed, and save references to the removed contact
+				IdenticalContacts.mergeAll(preserve, item);
 			}
 		}
 		
 		// This is the last rule where ambulant contacts are processed, so save them
 		List<Administration> ambulantContacts = new ArrayList<Administration>();
 		List<Administration> nonAmbulantContacts = new ArrayList<Administration>();
-		for (Administration contact : items.values()) {
+		for (Administration contact : items.getSurvivors()) {
 			if(contact.getPatientType() == 0) {
 				nonAmbulantContacts.add(contact);
 			} else if(contact.getPatientType() == 2) {
@@ -112,39 +102,25 @@ public class RemoveIdenticalContactsRule implements LPRRule {
 		statistics.ambulantContactsExportedCounter += ambulantContacts.size();
 		saveAmbulantContacts(ambulantContacts);
 		
-		contacts = nonAmbulantContacts;
-		if(contacts.size() == 0) {
+		if(nonAmbulantContacts.size() == 0) {
 			// Only ambulant contacts for this patient, end rules processing
-			return null;
+			return LPRRuleContext.withContacts(null, nonAmbulantContacts);
 		}
 		
 		
 		// setup the next rule in the chain
-		extendContactEndtimeRule.setContacts(contacts);
-
-		return extendContactEndtimeRule;
-	}
-
-	public void setContacts(List<Administration> contacts) {
-		this.contacts = contacts;
-	}
-
-	/*
-	 * Package scope for testing purpose
-	 */
-	List<Administration> getContacts() {
-		return contacts;
+		return LPRRuleContext.withContacts(extendContactEndtimeRule, nonAmbulantContacts);
 	}
 
 	private void saveAmbulantContacts(List<Administration> contacts) {
-		classificationCheckHelper.checkClassifications((Administration[]) contacts.toArray(new Administration[contacts.size()]));
+		classificationCheckHelper.collectClassifications((Administration[]) contacts.toArray(new Administration[contacts.size()]));
 		haibaDao.saveAmbulantIndlaeggelser(contacts);
 		for (Administration contact : contacts) {
 			// Rules are complete, update LPR with the import timestamp so they are not imported again
 			for (LPRReference lprRef : contact.getLprReferencer()) {
-				lprDao.updateImportTime(lprRef, Outcome.SUCCESS);
+				importOutcomeBuffer.add(lprRef, Outcome.SUCCESS);
 			}
-			lprDao.updateImportTime(contact.getLprReference(), Outcome.SUCCESS);
+			importOutcomeBuffer.add(contact.getLprReference(), Outcome.SUCCESS);
 		}
 	}
 }
@@ -39,6 +39,7 @@ import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 
 import dk.nsi.haiba.lprimporter.importer.ImportExecutor;
+import dk.nsi.haiba.lprimporter.model.haiba.Statistics;
 
 /*
  * This class is responsible for showing a statuspage, this page contains information about the general health of the application.
@@ -84,6 +85,12 @@ public class StatusReporter {
 			}
 		}
 		
+		String rebuild = request.getParameter("rebuild");
+		if(rebuild != null && rebuild.equalsIgnoreCase("true")) {
+			// reprocess all of LPR into new HAIBA tables, used when the business rules are changed
+			importExecutor.doRebuild(true);
+		}
+		
 		HttpHeaders headers = new HttpHeaders();
 		String body = "OK";
 		HttpStatus status = HttpStatus.INTERNAL_SERVER_ERROR;
@@ -106,6 +113,7 @@ public class StatusReporter {
 
 		body += "</br>";
 		body = addLastRunInformation(body);
+		body = addRunningImportInformation(body);
 		
 		body += "</br>------------------</br>";
 		
@@ -114,6 +122,8 @@ public class StatusReporter {
 		body += "</br>";
 		body += "<a href=\""+url+"?manual=false\">Scheduled start importer</a>";
 		body += "</br>";
+		body += "<a href=\""+url+"?rebuild=true\">Rebuild all HAIBA tables from LPR</a>";
+		body += "</br>";
 		if(manual.equalsIgnoreCase("true")) {
 			body += "status: MANUAL";
 		} else {
@@ -135,5 +145,20 @@ public class StatusReporter {
 			return body + "\n" + latestStatus.toString();
 		}
 	}
+
+	private String addRunningImportInformation(String body) {
+		Statistics statistics = Statistics.getCurrentInstance();
+		if (statistics == null) {
+			return body;
+		}
+		// the workers keep counting, the snapshot shows the counters read now
+		body += "</br>Running import: " + statistics.snapshot().toString();
+		String readerStatus = importExecutor.getReaderStatus();
+		if (readerStatus != null) {
+			// queue depth and throughput of the reading, for tuning the prefetch size and the number of threads
+			body += "</br>" + readerStatus;
+		}
+		return body;
+	}
 	
 }
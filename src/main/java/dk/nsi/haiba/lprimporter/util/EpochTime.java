@@ -0,0 +1,118 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.lprimporter.util;
+
+import java.util.Date;
+
+import org.joda.time.DateTimeZone;
+
+/*
+ * Date and time arithmetic on epoch milliseconds, as used by the rules.
+ * The calculations give the same results as the Joda DateTime methods they are named after, in the default time zone,
+ * but without creating temporary date objects.
+ */
+public final class EpochTime {
+
+	/* no time, as a null Date */
+	public static final long NONE = Long.MIN_VALUE;
+
+	public static final long MILLIS_PER_HOUR = 60L * 60L * 1000L;
+	public static final long MILLIS_PER_DAY = 24L * MILLIS_PER_HOUR;
+
+	private EpochTime() {
+	}
+
+	public static long of(Date date) {
+		return date == null ? NONE : date.getTime();
+	}
+
+	public static Date toDate(long time) {
+		return time == NONE ? null : new Date(time);
+	}
+
+	public static long plusHours(long time, int hours) {
+		return time + hours * MILLIS_PER_HOUR;
+	}
+
+	/*
+	 * Days are added to the local time, so the hour of day is kept across daylight saving time changes
+	 */
+	public static long plusDays(long time, int days) {
+		if(days == 0) {
+			return time;
+		}
+		DateTimeZone zone = DateTimeZone.getDefault();
+		long local = time + zone.getOffset(time) + days * MILLIS_PER_DAY;
+		return local - zone.getOffsetFromLocal(local);
+	}
+
+	public static int hourOfDay(long time) {
+		return (int) (floorMod(local(time), MILLIS_PER_DAY) / MILLIS_PER_HOUR);
+	}
+
+	public static long withHourOfDay(long time, int hour) {
+		DateTimeZone zone = DateTimeZone.getDefault();
+		long local = zone.convertUTCToLocal(time);
+		local += (hour - floorMod(local, MILLIS_PER_DAY) / MILLIS_PER_HOUR) * MILLIS_PER_HOUR;
+		return zone.convertLocalToUTC(local, false, time);
+	}
+
+	/*
+	 * The time with hour, minutes and seconds set to 0, the milliseconds are kept
+	 */
+	public static long withStartOfDay(long time) {
+		DateTimeZone zone = DateTimeZone.getDefault();
+		long local = zone.convertUTCToLocal(time);
+		local -= floorMod(local, MILLIS_PER_DAY) - floorMod(local, 1000L);
+		return zone.convertLocalToUTC(local, false, time);
+	}
+
+	/*
+	 * The time with minutes and seconds set to 0, the milliseconds are kept
+	 */
+	public static long withStartOfHour(long time) {
+		return time - (floorMod(local(time), MILLIS_PER_HOUR) - floorMod(time, 1000L));
+	}
+
+	public static boolean isSameDay(long time, long other) {
+		return floorDiv(local(time), MILLIS_PER_DAY) == floorDiv(local(other), MILLIS_PER_DAY);
+	}
+
+	private static long local(long time) {
+		return time + DateTimeZone.getDefault().getOffset(time);
+	}
+
+	private static long floorDiv(long value, long divisor) {
+		long quotient = value / divisor;
+		return value % divisor < 0 ? quotient - 1 : quotient;
+	}
+
+	private static long floorMod(long value, long divisor) {
+		long remainder = value % divisor;
+		return remainder < 0 ? remainder + divisor : remainder;
+	}
+}
@@ -26,13 +26,30 @@
  */
 package dk.nsi.haiba.lprimporter.importer;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import org.joda.time.DateTime;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -40,13 +57,19 @@ import org.springframework.context.annotation.Import;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.context.support.AnnotationConfigContextLoader;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
 
 import dk.nsi.haiba.lprimporter.config.LPRTestConfiguration;
 import dk.nsi.haiba.lprimporter.dao.HAIBADAO;
 import dk.nsi.haiba.lprimporter.dao.LPRDAO;
+import dk.nsi.haiba.lprimporter.exception.DAOException;
+import dk.nsi.haiba.lprimporter.model.haiba.LPRReference;
+import dk.nsi.haiba.lprimporter.model.haiba.RebuildOutcome;
 import dk.nsi.haiba.lprimporter.model.haiba.Statistics;
 import dk.nsi.haiba.lprimporter.model.lpr.Administration;
 import dk.nsi.haiba.lprimporter.rules.RulesEngine;
+import dk.nsi.haiba.lprimporter.status.ImportStatus.Outcome;
 import dk.nsi.haiba.lprimporter.status.ImportStatusRepository;
 
 @RunWith(SpringJUnit4ClassRunner.class)
@@ -87,6 +110,15 @@ public class ImportExecutorTest {
 	@Autowired
 	RulesEngine rulesEngine;
 
+	@Autowired
+	HAIBADAO haibaDao;
+
+	@Autowired
+	ImportStatusRepository statusRepo;
+
+	@Autowired
+	ImportOutcomeBuffer importOutcomeBuffer;
+
 	@Before
 	public void resetMocks() {
 		Mockito.reset(lprdao);
@@ -96,13 +128,13 @@ public class ImportExecutorTest {
 	@Test
 	public void executorDoesntFecthAnyContacts() throws Exception {
 		
-		Mockito.when(lprdao.getCPRnumberBatch(20)).thenReturn(new ArrayList<String>());
+		Mockito.when(lprdao.getCPRnumberBatch(Mockito.eq(20), Mockito.anyString())).thenReturn(new ArrayList<String>());
 		Mockito.when(lprdao.isdatabaseReadyForImport()).thenReturn(1l);
 		
 		executor.doProcess(true);
 		
 		Mockito.verify(lprdao).hasUnprocessedCPRnumbers();
-		Mockito.verify(lprdao, Mockito.never()).getContactsByCPR(null);
+		Mockito.verify(lprdao, Mockito.never()).getContactsByCPRs(Mockito.anyCollectionOf(String.class));
 	}
 
 	@Test
@@ -112,15 +144,471 @@ public class ImportExecutorTest {
 		
 		Mockito.when(lprdao.hasUnprocessedCPRnumbers()).thenReturn(true);
 		// first return the list, then return an empty list to finish processing
-		Mockito.when(lprdao.getCPRnumberBatch(20)).thenReturn(cprList).thenReturn(new ArrayList<String>());
+		Mockito.when(lprdao.getCPRnumberBatch(Mockito.eq(20), Mockito.anyString())).thenReturn(cprList).thenReturn(new ArrayList<String>());
 		Mockito.when(lprdao.isdatabaseReadyForImport()).thenReturn(1l);
 		
 		executor.doProcess(true);
-		Mockito.verify(lprdao, Mockito.atLeastOnce()).getCPRnumberBatch(20);
-		Mockito.verify(lprdao, Mockito.atLeastOnce()).getContactsByCPR(cprList.get(0));
+		Mockito.verify(lprdao, Mockito.atLeastOnce()).getCPRnumberBatch(20, "");
+		Mockito.verify(lprdao, Mockito.atLeastOnce()).getContactsByCPRs(cprList);
 		Mockito.verify(rulesEngine, Mockito.atLeastOnce()).processRuleChain(Mockito.anyListOf(Administration.class), Mockito.any(Statistics.class));
 	}
 
+	@Test
+	public void executorProcessesBatchWithWorkerThreads() throws Exception {
+		List<String> cprList = new ArrayList<String>();
+		for (int i = 0; i < 10; i++) {
+			cprList.add("123456789"+i);
+		}
+		// every worker fetches the contacts for its own slice of the CPR numbers
+		final List<String> fetchedCPRNumbers = Collections.synchronizedList(new ArrayList<String>());
+		Mockito.when(lprdao.getContactsByCPRs(Mockito.anyCollectionOf(String.class))).thenAnswer(oneContactPerCPR(fetchedCPRNumbers));
+		Mockito.reset(haibaDao);
+		Mockito.when(lprdao.hasUnprocessedCPRnumbers()).thenReturn(true);
+		Mockito.when(lprdao.getCPRnumberBatch(Mockito.eq(20), Mockito.anyString())).thenReturn(cprList).thenReturn(new ArrayList<String>());
+		Mockito.when(lprdao.isdatabaseReadyForImport()).thenReturn(1l);
+
+		executor.threads = 4;
+		try {
+			executor.doProcess(true);
+		} finally {
+			executor.threads = 1;
+		}
+
+		assertEquals(cprList.size(), fetchedCPRNumbers.size());
+		List<String> preparedCPRNumbers = preparedCPRNumbers();
+		assertEquals(cprList.size(), preparedCPRNumbers.size());
+		for (String cpr : cprList) {
+			assertTrue(fetchedCPRNumbers.contains(cpr));
+			assertTrue(preparedCPRNumbers.contains(cpr));
+		}
+		Mockito.verify(rulesEngine, Mockito.times(cprList.size())).processRuleChain(Mockito.anyListOf(Administration.class), Mockito.any(Statistics.class));
+
+		// the statistics from the workers are added to the statistics saved for the run
+		ArgumentCaptor<Statistics> statistics = ArgumentCaptor.forClass(Statistics.class);
+		Mockito.verify(haibaDao).saveStatistics(statistics.capture());
+		assertEquals(cprList.size(), statistics.getValue().cprCounter);
+		assertEquals(cprList.size(), statistics.getValue().contactCounter);
+	}
+
+	@Test
+	public void executorPrefetchesContactsForWorkerThreads() throws Exception {
+		List<String> cprList = new ArrayList<String>();
+		for (int i = 0; i < 10; i++) {
+			cprList.add("123456789"+i);
+		}
+		final List<String> fetchedCPRNumbers = Collections.synchronizedList(new ArrayList<String>());
+		Mockito.when(lprdao.getContactsByCPRs(Mockito.anyCollectionOf(String.class))).thenAnswer(oneContactPerCPR(fetchedCPRNumbers));
+		Mockito.reset(haibaDao);
+		Mockito.when(lprdao.hasUnprocessedCPRnumbers()).thenReturn(true);
+		Mockito.when(lprdao.getCPRnumberBatch(Mockito.eq(20), Mockito.anyString())).thenReturn(cprList).thenReturn(new ArrayList<String>());
+		Mockito.when(lprdao.isdatabaseReadyForImport()).thenReturn(1l);
+
+		executor.threads = 2;
+		executor.prefetchCPRNumbers = 4;
+		try {
+			executor.doProcess(true);
+		} finally {
+			executor.threads = 1;
+			executor.prefetchCPRNumbers = 0;
+		}
+
+		assertEquals(cprList.size(), fetchedCPRNumbers.size());
+		assertTrue(preparedCPRNumbers().containsAll(cprList));
+		Mockito.verify(rulesEngine, Mockito.times(cprList.size())).processRuleChain(Mockito.anyListOf(Administration.class), Mockito.any(Statistics.class));
+		Mockito.verify(haibaDao).saveStatistics(Mockito.any(Statistics.class));
+		assertNull(executor.getReaderStatus());
+	}
+
+	@Test
+	public void failingPrefetchFailsTheImport() throws Exception {
+		List<String> cprList = new ArrayList<String>();
+		cprList.add("1234567890");
+		Mockito.reset(haibaDao);
+		Mockito.reset(statusRepo);
+		Mockito.when(lprdao.getContactsByCPRs(Mockito.anyCollectionOf(String.class))).thenThrow(new DAOException("LPR is down"));
+		Mockito.when(lprdao.hasUnprocessedCPRnumbers()).thenReturn(true);
+		Mockito.when(lprdao.getCPRnumberBatch(Mockito.eq(20), Mockito.anyString())).thenReturn(cprList).thenReturn(new ArrayList<String>());
+		Mockito.when(lprdao.isdatabaseReadyForImport()).thenReturn(1l);
+
+		executor.prefetchCPRNumbers = 4;
+		try {
+			executor.doProcess(true);
+		} finally {
+			executor.prefetchCPRNumbers = 0;
+		}
+
+		Mockito.verify(statusRepo).importEndedWithFailure(Mockito.any(DateTime.class), Mockito.anyString());
+		Mockito.verify(rulesEngine, Mockito.never()).processRuleChain(Mockito.anyListOf(Administration.class), Mockito.any(Statistics.class));
+		Mockito.verify(haibaDao, Mockito.never()).saveStatistics(Mockito.any(Statistics.class));
+	}
+
+	@Test
+	public void rebuildProcessesAllOfLPRIntoShadowTables() throws Exception {
+		List<String> cprList = new ArrayList<String>();
+		cprList.add("1234567890");
+		Mockito.reset(haibaDao);
+		stageRebuildOutcomes();
+		Mockito.when(lprdao.getContactsByCPRs(Mockito.anyCollectionOf(String.class))).thenAnswer(oneContactWithReferencePerCPR());
+		Mockito.doAnswer(successForTheContacts()).when(rulesEngine).processRuleChain(Mockito.anyListOf(Administration.class), Mockito.any(Statistics.class));
+		// all the contacts in LPR are imported already
+		Mockito.when(lprdao.hasUnprocessedCPRnumbers()).thenReturn(false);
+		Mockito.when(lprdao.getAllCPRnumberBatch(Mockito.eq(20), Mockito.anyString())).thenReturn(cprList).thenReturn(new ArrayList<String>());
+		Mockito.when(lprdao.isdatabaseReadyForImport()).thenReturn(1l);
+
+		executor.doRebuild(true);
+
+		InOrder inOrder = Mockito.inOrder(haibaDao, lprdao, rulesEngine);
+		inOrder.verify(haibaDao).startRebuild();
+		inOrder.verify(rulesEngine).processRuleChain(Mockito.anyListOf(Administration.class), Mockito.any(Statistics.class));
+		// the outcomes of each batch are stored in HAIBA, not kept in memory
+		inOrder.verify(haibaDao).saveRebuildOutcomes(Collections.singletonList(new LPRReference(1, "1234567890")), Outcome.SUCCESS);
+		inOrder.verify(haibaDao).finishRebuild();
+		// the contacts are marked as imported when the shadow tables have replaced the HAIBA tables
+		inOrder.verify(lprdao).updateImportTimes(Collections.singletonList(new LPRReference(1, "1234567890")), Outcome.SUCCESS);
+		inOrder.verify(haibaDao).dropRebuildOutcomes();
+		Mockito.verify(haibaDao, Mockito.never()).abortRebuild();
+		Mockito.verify(lprdao, Mockito.never()).getCPRnumberBatch(Mockito.anyInt(), Mockito.anyString());
+		// the shadow tables start out empty, so there are no current patients or deleted contacts to recalculate
+		Mockito.verify(haibaDao, Mockito.never()).getCurrentPatients();
+		Mockito.verify(lprdao, Mockito.never()).getCPRnumbersFromDeletedContacts();
+	}
+
+	@Test
+	public void rebuildIsKeptWhenMarkingTheContactsFails() throws Exception {
+		Mockito.reset(haibaDao, statusRepo);
+		stageRebuildOutcomes();
+		Mockito.when(lprdao.getContactsByCPRs(Mockito.anyCollectionOf(String.class))).thenAnswer(oneContactWithReferencePerCPR());
+		Mockito.doAnswer(successForTheContacts()).when(rulesEngine).processRuleChain(Mockito.anyListOf(Administration.class), Mockito.any(Statistics.class));
+		Mockito.when(lprdao.getAllCPRnumberBatch(Mockito.eq(20), Mockito.anyString())).thenReturn(Collections.singletonList("1234567890")).thenReturn(new ArrayList<String>());
+		Mockito.when(lprdao.isdatabaseReadyForImport()).thenReturn(1l);
+		Mockito.doThrow(new DAOException("LPR is down")).when(lprdao).updateImportTimes(Mockito.anyCollectionOf(LPRReference.class), Mockito.any(Outcome.class));
+
+		executor.doRebuild(true);
+
+		// the swap stands, the unmarked contacts are processed again by the next run
+		Mockito.verify(haibaDao).finishRebuild();
+		Mockito.verify(haibaDao, Mockito.never()).abortRebuild();
+		Mockito.verify(statusRepo).importEndedWithSuccess(Mockito.any(DateTime.class));
+	}
+
+	@Test
+	public void failingRebuildLeavesTheLiveTables() throws Exception {
+		List<String> cprList = new ArrayList<String>();
+		cprList.add("1234567890");
+		Mockito.reset(haibaDao);
+		Mockito.when(lprdao.getAllCPRnumberBatch(Mockito.eq(20), Mockito.anyString())).thenReturn(cprList).thenReturn(new ArrayList<String>());
+		Mockito.when(lprdao.isdatabaseReadyForImport()).thenReturn(1l);
+		Mockito.when(lprdao.getContactsByCPRs(Mockito.anyCollectionOf(String.class))).thenThrow(new DAOException("LPR is down"));
+
+		executor.doRebuild(true);
+
+		Mockito.verify(haibaDao).startRebuild();
+		Mockito.verify(haibaDao).abortRebuild();
+		Mockito.verify(haibaDao, Mockito.never()).finishRebuild();
+	}
+
+	@Test
+	public void failingRebuildLeavesTheNewContactsForTheNextRun() throws Exception {
+		List<String> firstBatch = Collections.singletonList("1111111111");
+		List<String> secondBatch = Collections.singletonList("2222222222");
+		Mockito.reset(haibaDao);
+		stageRebuildOutcomes();
+		Mockito.when(lprdao.getContactsByCPRs(Mockito.anyCollectionOf(String.class))).thenAnswer(oneContactWithReferencePerCPR());
+		Mockito.when(lprdao.getAllCPRnumberBatch(Mockito.eq(20), Mockito.anyString())).thenReturn(firstBatch).thenReturn(secondBatch).thenReturn(new ArrayList<String>());
+		Mockito.when(lprdao.isdatabaseReadyForImport()).thenReturn(1l);
+		// the first batch is processed, the second fails
+		Mockito.doAnswer(successForTheContacts()).doThrow(new DAOException("HAIBA is down"))
+				.when(rulesEngine).processRuleChain(Mockito.anyListOf(Administration.class), Mockito.any(Statistics.class));
+
+		executor.doRebuild(true);
+
+		Mockito.verify(haibaDao).abortRebuild();
+		Mockito.verify(haibaDao, Mockito.never()).finishRebuild();
+		// neither batch is marked as imported, the contacts of both are written only to the dropped shadow tables
+		Mockito.verify(lprdao, Mockito.never()).updateImportTimes(Mockito.anyCollectionOf(LPRReference.class), Mockito.any(Outcome.class));
+		Mockito.verify(haibaDao, Mockito.never()).getRebuildOutcomes(Mockito.anyLong(), Mockito.anyInt());
+
+		// both contacts are new, the next run finds them unprocessed and imports them into the HAIBA tables
+		List<String> unprocessed = new ArrayList<String>();
+		unprocessed.addAll(firstBatch);
+		unprocessed.addAll(secondBatch);
+		Mockito.reset(haibaDao, rulesEngine);
+		Mockito.doAnswer(successForTheContacts()).when(rulesEngine).processRuleChain(Mockito.anyListOf(Administration.class), Mockito.any(Statistics.class));
+		Mockito.when(lprdao.hasUnprocessedCPRnumbers()).thenReturn(true);
+		Mockito.when(lprdao.getCPRnumbersFromDeletedContacts()).thenReturn(new ArrayList<String>());
+		Mockito.when(lprdao.getCPRnumberBatch(Mockito.eq(20), Mockito.anyString())).thenReturn(unprocessed).thenReturn(new ArrayList<String>());
+
+		executor.doProcess(false);
+
+		assertEquals(unprocessed, preparedCPRNumbers());
+		Mockito.verify(lprdao).updateImportTimes(Arrays.asList(new LPRReference(1, "1111111111"), new LPRReference(1, "2222222222")), Outcome.SUCCESS);
+		Mockito.verify(haibaDao, Mockito.never()).startRebuild();
+	}
+
+	@Test
+	public void importWithoutIncrementalLeavesTheSyncIds() throws Exception {
+		Mockito.reset(haibaDao, statusRepo);
+		Mockito.when(lprdao.isdatabaseReadyForImport()).thenReturn(1l);
+		Mockito.when(lprdao.hasUnprocessedCPRnumbers()).thenReturn(false);
+
+		executor.doProcess(false);
+
+		// LPRSynkronisering is only used by incremental runs
+		Mockito.verify(lprdao, Mockito.never()).getLatestSyncIds();
+		Mockito.verify(haibaDao, Mockito.never()).getLastSyncIds();
+		Mockito.verify(haibaDao, Mockito.never()).saveLastSyncIds(Mockito.anyMapOf(Integer.class, Long.class));
+		Mockito.verify(statusRepo).importEndedWithSuccess(Mockito.any(DateTime.class));
+	}
+
+	@Test
+	public void incrementalImportProcessesTheCPRNumbersChangedSinceTheLastRun() throws Exception {
+		List<String> cprList = new ArrayList<String>();
+		cprList.add("1234567890");
+		Map<Integer, Long> lastSyncIds = new HashMap<Integer, Long>();
+		lastSyncIds.put(1, 10l);
+		Map<Integer, Long> latestSyncIds = new HashMap<Integer, Long>();
+		latestSyncIds.put(1, 12l);
+		Mockito.reset(haibaDao);
+		Mockito.when(haibaDao.getLastSyncIds()).thenReturn(lastSyncIds);
+		Mockito.when(lprdao.getLatestSyncIds()).thenReturn(latestSyncIds);
+		Mockito.when(lprdao.getCPRnumbersFromSyncHistory(lastSyncIds, latestSyncIds)).thenReturn(cprList);
+		Mockito.when(lprdao.isdatabaseReadyForImport()).thenReturn(1l);
+
+		executor.incremental = true;
+		try {
+			executor.doProcess(true);
+		} finally {
+			executor.incremental = false;
+		}
+
+		assertEquals(cprList, preparedCPRNumbers());
+		Mockito.verify(rulesEngine).processRuleChain(Mockito.anyListOf(Administration.class), Mockito.any(Statistics.class));
+		// LPR isn't scanned for unprocessed contacts
+		Mockito.verify(lprdao, Mockito.never()).hasUnprocessedCPRnumbers();
+		Mockito.verify(lprdao, Mockito.never()).getCPRnumberBatch(Mockito.anyInt(), Mockito.anyString());
+		Mockito.verify(lprdao, Mockito.never()).getCPRnumbersFromDeletedContacts();
+		Mockito.verify(haibaDao).saveLastSyncIds(latestSyncIds);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void incrementalImportScansLPRWithoutProcessedSyncIds() throws Exception {
+		List<String> cprList = new ArrayList<String>();
+		cprList.add("1234567890");
+		Map<Integer, Long> latestSyncIds = new HashMap<Integer, Long>();
+		latestSyncIds.put(1, 12l);
+		Mockito.reset(haibaDao);
+		Mockito.when(haibaDao.getLastSyncIds()).thenReturn(new HashMap<Integer, Long>());
+		Mockito.when(lprdao.getLatestSyncIds()).thenReturn(latestSyncIds);
+		Mockito.when(lprdao.hasUnprocessedCPRnumbers()).thenReturn(true);
+		Mockito.when(lprdao.getCPRnumberBatch(Mockito.eq(20), Mockito.anyString())).thenReturn(cprList).thenReturn(new ArrayList<String>());
+		Mockito.when(lprdao.isdatabaseReadyForImport()).thenReturn(1l);
+
+		executor.incremental = true;
+		try {
+			executor.doProcess(true);
+		} finally {
+			executor.incremental = false;
+		}
+
+		assertEquals(cprList, preparedCPRNumbers());
+		Mockito.verify(lprdao, Mockito.never()).getCPRnumbersFromSyncHistory(Mockito.anyMap(), Mockito.anyMap());
+		// the next run continues from the synchronisations processed by this run
+		Mockito.verify(haibaDao).saveLastSyncIds(latestSyncIds);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void failingImportKeepsTheProcessedSyncIds() throws Exception {
+		List<String> cprList = new ArrayList<String>();
+		cprList.add("1234567890");
+		Mockito.reset(haibaDao);
+		Mockito.when(lprdao.hasUnprocessedCPRnumbers()).thenReturn(true);
+		Mockito.when(lprdao.getCPRnumberBatch(Mockito.eq(20), Mockito.anyString())).thenReturn(cprList).thenReturn(new ArrayList<String>());
+		Mockito.when(lprdao.isdatabaseReadyForImport()).thenReturn(1l);
+		Mockito.when(lprdao.getContactsByCPRs(Mockito.anyCollectionOf(String.class))).thenThrow(new DAOException("LPR is down"));
+
+		executor.doProcess(true);
+
+		Mockito.verify(haibaDao, Mockito.never()).saveLastSyncIds(Mockito.anyMap());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void onlyCurrentPatientsWithRecentOpenContactsAreFetched() throws Exception {
+		Set<String> currentPatients = new HashSet<String>(Arrays.asList("1111111111", "2222222222"));
+		Set<String> recentPatients = new HashSet<String>(Arrays.asList("1111111111"));
+		Mockito.reset(haibaDao);
+		Mockito.when(haibaDao.getCurrentPatients()).thenReturn(currentPatients);
+		Mockito.when(lprdao.getCPRnumbersWithOpenContacts(Mockito.eq(currentPatients), Mockito.any(Date.class))).thenReturn(recentPatients);
+		Mockito.when(lprdao.hasUnprocessedCPRnumbers()).thenReturn(true);
+		Mockito.when(lprdao.getCPRnumberBatch(Mockito.eq(20), Mockito.anyString())).thenReturn(new ArrayList<String>());
+		Mockito.when(lprdao.isdatabaseReadyForImport()).thenReturn(1l);
+
+		executor.doProcess(true);
+
+		ArgumentCaptor<Collection> fetched = ArgumentCaptor.forClass(Collection.class);
+		Mockito.verify(lprdao, Mockito.atLeastOnce()).getContactsByCPRs(fetched.capture());
+		List<String> fetchedCPRNumbers = new ArrayList<String>();
+		for (Collection<String> slice : fetched.getAllValues()) {
+			fetchedCPRNumbers.addAll(slice);
+		}
+		assertEquals(Arrays.asList("1111111111"), fetchedCPRNumbers);
+	}
+
+	@Test
+	public void cprNumbersAreCommittedToHAIBAInUnitsOfWork() throws Exception {
+		List<String> cprList = new ArrayList<String>();
+		for (int i = 0; i < 5; i++) {
+			cprList.add("123456789"+i);
+		}
+		Mockito.when(lprdao.getContactsByCPRs(Mockito.anyCollectionOf(String.class))).thenAnswer(oneContactPerCPR(new ArrayList<String>()));
+		Mockito.reset(haibaDao);
+		Mockito.when(lprdao.hasUnprocessedCPRnumbers()).thenReturn(true);
+		Mockito.when(lprdao.getCPRnumberBatch(Mockito.eq(20), Mockito.anyString())).thenReturn(cprList).thenReturn(new ArrayList<String>());
+		Mockito.when(lprdao.isdatabaseReadyForImport()).thenReturn(1l);
+
+		PlatformTransactionManager transactionManager = Mockito.mock(PlatformTransactionManager.class);
+		PlatformTransactionManager haibaTransactionManager = executor.haibaTransactionManager;
+		executor.haibaTransactionManager = transactionManager;
+		executor.transactionCPRNumbers = 2;
+		try {
+			executor.doProcess(true);
+		} finally {
+			executor.haibaTransactionManager = haibaTransactionManager;
+			executor.transactionCPRNumbers = 0;
+		}
+
+		// the earlier processed data is removed in the same unit of work as the new data is written
+		assertEquals(cprList, preparedCPRNumbers());
+		Mockito.verify(haibaDao, Mockito.times(3)).prepareCPRNumbersForImport(Mockito.anyCollectionOf(String.class));
+		Mockito.verify(transactionManager, Mockito.times(3)).commit(Mockito.any(TransactionStatus.class));
+		Mockito.verify(transactionManager, Mockito.never()).rollback(Mockito.any(TransactionStatus.class));
+		Mockito.verify(haibaDao).saveStatistics(Mockito.any(Statistics.class));
+	}
+
+	@Test
+	public void failingCPRNumberRollsBackItsUnitOfWork() throws Exception {
+		List<String> cprList = new ArrayList<String>();
+		cprList.add("1234567890");
+		Mockito.when(lprdao.getContactsByCPRs(Mockito.anyCollectionOf(String.class))).thenAnswer(oneContactPerCPR(new ArrayList<String>()));
+		Mockito.reset(haibaDao);
+		Mockito.reset(statusRepo);
+		Mockito.when(lprdao.hasUnprocessedCPRnumbers()).thenReturn(true);
+		Mockito.when(lprdao.getCPRnumberBatch(Mockito.eq(20), Mockito.anyString())).thenReturn(cprList).thenReturn(new ArrayList<String>());
+		Mockito.when(lprdao.isdatabaseReadyForImport()).thenReturn(1l);
+		Mockito.doThrow(new DAOException("HAIBA is down")).when(rulesEngine).processRuleChain(Mockito.anyListOf(Administration.class), Mockito.any(Statistics.class));
+
+		PlatformTransactionManager transactionManager = Mockito.mock(PlatformTransactionManager.class);
+		PlatformTransactionManager haibaTransactionManager = executor.haibaTransactionManager;
+		executor.haibaTransactionManager = transactionManager;
+		executor.transactionCPRNumbers = 2;
+		try {
+			executor.doProcess(true);
+		} finally {
+			executor.haibaTransactionManager = haibaTransactionManager;
+			executor.transactionCPRNumbers = 0;
+		}
+
+		Mockito.verify(transactionManager).rollback(Mockito.any(TransactionStatus.class));
+		Mockito.verify(transactionManager, Mockito.never()).commit(Mockito.any(TransactionStatus.class));
+		// the contacts are left unprocessed in LPR, so they are imported again by the next run
+		Mockito.verify(lprdao, Mockito.never()).updateImportTimes(Mockito.anyCollectionOf(LPRReference.class), Mockito.any(Outcome.class));
+		Mockito.verify(statusRepo).importEndedWithFailure(Mockito.any(DateTime.class), Mockito.anyString());
+	}
+
+	/*
+	 * Returns the CPR numbers passed to prepareCPRNumbersForImport, the earlier processed data is removed for a slice at a time
+	 */
+	@SuppressWarnings("unchecked")
+	private List<String> preparedCPRNumbers() {
+		ArgumentCaptor<Collection> cprNumbers = ArgumentCaptor.forClass(Collection.class);
+		Mockito.verify(haibaDao, Mockito.atLeastOnce()).prepareCPRNumbersForImport(cprNumbers.capture());
+		List<String> preparedCPRNumbers = new ArrayList<String>();
+		for (Collection<String> slice : cprNumbers.getAllValues()) {
+			preparedCPRNumbers.addAll(slice);
+		}
+		return preparedCPRNumbers;
+	}
+
+	/*
+	 * Answers getContactsByCPRs with one contact for each CPR number, and records the CPR numbers fetched
+	 */
+	private Answer<Map<String, List<Administration>>> oneContactPerCPR(final List<String> fetchedCPRNumbers) {
+		return new Answer<Map<String, List<Administration>>>() {
+			@Override
+			public Map<String, List<Administration>> answer(InvocationOnMock invocation) throws Throwable {
+				Map<String, List<Administration>> contactsByCPR = new HashMap<String, List<Administration>>();
+				for (Object cpr : (Collection<?>) invocation.getArguments()[0]) {
+					List<Administration> contacts = new ArrayList<Administration>();
+					contacts.add(new Administration());
+					contactsByCPR.put((String) cpr, contacts);
+					fetchedCPRNumbers.add((String) cpr);
+				}
+				return contactsByCPR;
+			}
+		};
+	}
+
+	/*
+	 * Answers getContactsByCPRs with one contact for each CPR number, its LPR reference has the CPR number as record number
+	 */
+	private Answer<Map<String, List<Administration>>> oneContactWithReferencePerCPR() {
+		return new Answer<Map<String, List<Administration>>>() {
+			@Override
+			public Map<String, List<Administration>> answer(InvocationOnMock invocation) throws Throwable {
+				Map<String, List<Administration>> contactsByCPR = new HashMap<String, List<Administration>>();
+				for (Object cpr : (Collection<?>) invocation.getArguments()[0]) {
+					Administration contact = new Administration();
+					contact.setCpr((String) cpr);
+					contact.setLprReference(new LPRReference(1, (String) cpr));
+					contactsByCPR.put((String) cpr, Collections.singletonList(contact));
+				}
+				return contactsByCPR;
+			}
+		};
+	}
+
+	/*
+	 * Stores the outcomes saved by a rebuild in a list, as the HAIBA table would
+	 */
+	@SuppressWarnings("unchecked")
+	private void stageRebuildOutcomes() {
+		final List<RebuildOutcome> staged = new ArrayList<RebuildOutcome>();
+		Mockito.doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				for (LPRReference lprReference : (Collection<LPRReference>) invocation.getArguments()[0]) {
+					staged.add(new RebuildOutcome(staged.size() + 1, lprReference, (Outcome) invocation.getArguments()[1]));
+				}
+				return null;
+			}
+		}).when(haibaDao).saveRebuildOutcomes(Mockito.anyCollectionOf(LPRReference.class), Mockito.any(Outcome.class));
+		Mockito.when(haibaDao.getRebuildOutcomes(Mockito.anyLong(), Mockito.anyInt())).thenAnswer(new Answer<List<RebuildOutcome>>() {
+			@Override
+			public List<RebuildOutcome> answer(InvocationOnMock invocation) throws Throwable {
+				int afterId = ((Long) invocation.getArguments()[0]).intValue();
+				int count = (Integer) invocation.getArguments()[1];
+				return new ArrayList<RebuildOutcome>(staged.subList(afterId, Math.min(staged.size(), afterId + count)));
+			}
+		});
+	}
+
+	/*
+	 * Answers processRuleChain with a successful outcome for each contact, as the rules do
+	 */
+	private Answer<Void> successForTheContacts() {
+		return new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				for (Object contact : (List<?>) invocation.getArguments()[0]) {
+					importOutcomeBuffer.add(((Administration) contact).getLprReference(), Outcome.SUCCESS);
+				}
+				return null;
+			}
+		};
+	}
+
 	@Test
 	public void lprIsNotReadyForImport() throws Exception {
 		// return 0 for isdatabaseReadyForImport, which means Carecom job isn't finished yet
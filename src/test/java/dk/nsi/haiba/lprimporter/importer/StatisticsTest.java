@@ -27,9 +27,12 @@
 package dk.nsi.haiba.lprimporter.importer;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 
 import org.junit.Before;
@@ -109,9 +112,9 @@ public class StatisticsTest {
         Mockito.when(lprdao.isdatabaseReadyForImport()).thenReturn(syncId);
         Mockito.when(lprdao.hasUnprocessedCPRnumbers()).thenReturn(true);
         Mockito.when(lprdao.getCPRnumbersFromDeletedContacts()).thenReturn(cprList);
-        Mockito.when(lprdao.getCPRnumberBatch(20)).thenReturn(generateCprList(20)).thenReturn(generateCprList(5))
+        Mockito.when(lprdao.getCPRnumberBatch(Mockito.eq(20), Mockito.anyString())).thenReturn(generateCprList(20)).thenReturn(generateCprList(5))
                 .thenReturn(new ArrayList<String>());
-        Mockito.when(haibadao.getCurrentPatients()).thenReturn(cprList);
+        Mockito.when(haibadao.getCurrentPatients()).thenReturn(new HashSet<String>(cprList));
 
         Statistics statistics = Statistics.getInstance();
         executor.doProcess(true);
@@ -123,6 +126,31 @@ public class StatisticsTest {
         assertEquals("Statistics cprCounter counter", 25, statistics.cprCounter);
     }
 
+    @Test
+    public void snapshotMergesWorkerInstances() throws Exception {
+        Statistics statistics = Statistics.getInstance();
+        try {
+            Statistics worker1 = statistics.createWorkerInstance();
+            Statistics worker2 = statistics.createWorkerInstance();
+            statistics.cprCounter += 3;
+            worker1.contactCounter += 2;
+            worker1.rule13Counter += 1;
+            worker2.contactCounter += 5;
+
+            Statistics snapshot = statistics.snapshot();
+            assertEquals("Snapshot cprCounter", 3, snapshot.cprCounter);
+            assertEquals("Snapshot contactCounter", 7, snapshot.contactCounter);
+            assertEquals("Snapshot rule13Counter", 1, snapshot.rule13Counter);
+            assertEquals("Snapshot date", statistics.getDate(), snapshot.getDate());
+            // the run instance itself only has its own counters
+            assertEquals("Run instance contactCounter", 0, statistics.contactCounter);
+            assertSame(statistics, Statistics.getCurrentInstance());
+        } finally {
+            statistics.resetInstance();
+        }
+        assertNull(Statistics.getCurrentInstance());
+    }
+
     private List<String> generateCprList(int size) {
         List<String> returnValue = new ArrayList<String>();
         NumberFormat numberFormat = NumberFormat.getNumberInstance();
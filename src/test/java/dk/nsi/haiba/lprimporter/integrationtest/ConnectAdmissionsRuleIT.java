@@ -52,18 +52,20 @@ import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.context.support.AnnotationConfigContextLoader;
 import org.springframework.transaction.annotation.Transactional;
 
+import dk.nsi.haiba.lprimporter.dao.ClassificationCheckDAO;
 import dk.nsi.haiba.lprimporter.dao.HAIBADAO;
 import dk.nsi.haiba.lprimporter.dao.LPRDAO;
 import dk.nsi.haiba.lprimporter.dao.impl.HAIBADAOImpl;
 import dk.nsi.haiba.lprimporter.dao.impl.LPRDAOImpl;
 import dk.nsi.haiba.lprimporter.email.EmailSender;
+import dk.nsi.haiba.lprimporter.importer.ClassificationCheckHelper;
 import dk.nsi.haiba.lprimporter.model.haiba.Diagnose;
 import dk.nsi.haiba.lprimporter.model.haiba.Indlaeggelse;
 import dk.nsi.haiba.lprimporter.model.haiba.LPRReference;
 import dk.nsi.haiba.lprimporter.model.haiba.Procedure;
 import dk.nsi.haiba.lprimporter.model.haiba.Statistics;
 import dk.nsi.haiba.lprimporter.rules.ConnectAdmissionsRule;
-import dk.nsi.haiba.lprimporter.rules.LPRRule;
+import dk.nsi.haiba.lprimporter.rules.LPRRuleContext;
 
 /*
  * Tests the that last rule saves admissions correctly'
@@ -100,6 +102,12 @@ public class ConnectAdmissionsRuleIT {
     
     @Autowired
     HAIBADAO haibaDao;
+
+    @Autowired
+    ClassificationCheckDAO classificationCheckDAO;
+
+    @Autowired
+    ClassificationCheckHelper classificationCheckHelper;
 	
 	@Autowired
 	LPRDAO lprDao;
@@ -140,6 +148,10 @@ public class ConnectAdmissionsRuleIT {
 
 	@Before
 	public void init() {
+		// the classifications stored by an earlier test are rolled back, but still cached by the DAO
+		classificationCheckDAO.clearClassificationCache();
+		classificationCheckHelper.clear();
+
     	// Init Indlaeggelse data
 		cpr = "1111111111";
     	recordNummer = "1234";
@@ -182,10 +194,11 @@ public class ConnectAdmissionsRuleIT {
 	public void checkAdmissionsAreSaved() {
 		
 		List<Indlaeggelse> admissions = setupAdmissions();
-		connectAdmissionsRule.setAdmissions(admissions);
-		LPRRule nextRule = connectAdmissionsRule.doProcessing(Statistics.getInstance());
+		LPRRuleContext result = connectAdmissionsRule.doProcessing(LPRRuleContext.withAdmissions(connectAdmissionsRule, admissions), Statistics.getInstance());
+		// the classifications are checked at the end of an import run
+		classificationCheckHelper.checkCollectedClassifications();
 
-		assertNull("This is the last rule", nextRule);
+		assertNull("This is the last rule", result.getNextRule());
 		
 		assertEquals("Expected 4 admission sequences, because its a ref. table", 4, jdbc.queryForInt("Select count(*) from Indlaeggelsesforloeb"));
 		assertEquals("Expected 2 different sequence id's", 2, jdbc.queryForInt("Select count(distinct indlaeggelsesforloebid) from Indlaeggelsesforloeb "));
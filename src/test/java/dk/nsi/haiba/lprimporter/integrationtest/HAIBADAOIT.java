@@ -28,13 +28,18 @@ package dk.nsi.haiba.lprimporter.integrationtest;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.joda.time.DateTime;
 import org.junit.Before;
@@ -50,6 +55,7 @@ import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.context.support.AnnotationConfigContextLoader;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.transaction.annotation.Transactional;
 
 import dk.nsi.haiba.lprimporter.dao.HAIBADAO;
@@ -204,6 +210,32 @@ public class HAIBADAOIT {
     }
 
     
+    /*
+     * The admissions of a series are written in batches, every child row must reference its own admission
+     */
+    @Test
+	public void insertsIndlaeggelsesForloebWithSeveralAdmissions() {
+		List<Indlaeggelse> indlaeggelser = createIndlaeggelser(false);
+		Indlaeggelse second = new Indlaeggelse(cpr,sygehusCode,afdelingsCode, out, out, false);
+		second.addLPRReference(new LPRReference(545, "88888"));
+		second.addDiagnose(new Diagnose("d3", "A", null));
+		second.addDiagnose(new Diagnose("d4", "B", null));
+		indlaeggelser.add(second);
+
+		haibaDao.saveIndlaeggelsesForloeb(indlaeggelser);
+
+		assertEquals("Expected 2 rows", 2, jdbc.queryForInt("select count(*) from Indlaeggelser"));
+		assertEquals("Expected 2 rows", 2, jdbc.queryForInt("select count(*) from Indlaeggelsesforloeb"));
+		assertEquals("Expected 1 forloeb", 1, jdbc.queryForInt("select count(distinct IndlaeggelsesforloebID) from Indlaeggelsesforloeb"));
+		assertEquals("Expected 2 rows", 2, jdbc.queryForInt("select count(*) from LPR_Reference"));
+		assertEquals("Expected 3 rows", 3, jdbc.queryForInt("select count(*) from Diagnoser"));
+		assertEquals("Expected 1 row", 1, jdbc.queryForInt("select count(*) from Procedurer"));
+
+		long secondId = jdbc.queryForLong("select IndlaeggelsesID from LPR_Reference where LPR_recordnummer = '88888'");
+		assertEquals("Expected diagnoses on the second admission", 2, jdbc.queryForInt("select count(*) from Diagnoser where IndlaeggelsesID = ?", secondId));
+		assertEquals("Expected the procedure on the first admission", 0, jdbc.queryForInt("select count(*) from Procedurer where IndlaeggelsesID = ?", secondId));
+    }
+    
     @Test
 	public void insertsIndlaeggelseAndDeleteIt() {
     	
@@ -236,6 +268,41 @@ public class HAIBADAOIT {
 		assertEquals("Expected 0 row", 0, jdbc.queryForInt("select count(*) from Procedurer"));
     }
     
+    @Test
+	public void deletesSeveralCPRNumbers() {
+		String firstCPR = cpr;
+		haibaDao.saveIndlaeggelsesForloeb(createIndlaeggelser(false));
+		cpr = "2234567890";
+		haibaDao.saveIndlaeggelsesForloeb(createIndlaeggelser(false));
+
+		// a patient with only an ambulant contact
+		Administration contact = new Administration();
+		contact.setRecordNumber("1234");
+		contact.setSygehusCode(sygehusCode);
+		contact.setAfdelingsCode(afdelingsCode);
+		contact.setCpr("3234567890");
+		contact.setIndlaeggelsesDatetime(in);
+		contact.setUdskrivningsDatetime(out);
+		contact.addLPRReference(new LPRReference(789, "2345"));
+		List<Administration> contacts = new ArrayList<Administration>();
+		contacts.add(contact);
+		haibaDao.saveAmbulantIndlaeggelser(contacts);
+
+		assertEquals("Expected 2 rows", 2, jdbc.queryForInt("select count(*) from Indlaeggelser"));
+		assertEquals("Expected 1 row", 1, jdbc.queryForInt("select count(*) from AmbulantKontakt"));
+
+		haibaDao.prepareCPRNumbersForImport(Arrays.asList(firstCPR, "3234567890", "other"));
+
+		assertEquals("Expected 1 row", 1, jdbc.queryForInt("select count(*) from Indlaeggelser"));
+		assertEquals(cpr, jdbc.queryForObject("select cpr from Indlaeggelser", String.class));
+		assertEquals("Expected 1 row", 1, jdbc.queryForInt("select count(*) from Indlaeggelsesforloeb"));
+		assertEquals("Expected 1 row", 1, jdbc.queryForInt("select count(*) from LPR_Reference"));
+		assertEquals("Expected 1 row", 1, jdbc.queryForInt("select count(*) from Diagnoser"));
+		assertEquals("Expected 1 row", 1, jdbc.queryForInt("select count(*) from Procedurer"));
+		assertEquals("Expected 0 row", 0, jdbc.queryForInt("select count(*) from AmbulantKontakt"));
+		assertEquals("Expected 0 row", 0, jdbc.queryForInt("select count(*) from AmbulantLPR_Reference"));
+    }
+
     @Test
 	public void insertsAndFetchesCurrentPatient() {
     	
@@ -244,10 +311,10 @@ public class HAIBADAOIT {
     	assertNotNull(haibaDao);
 		haibaDao.saveIndlaeggelsesForloeb(indlaeggelser);
 		
-		List<String> currentPatients = haibaDao.getCurrentPatients();
+		Set<String> currentPatients = haibaDao.getCurrentPatients();
 		
 		assertEquals("Expected 1 row", 1, currentPatients.size());
-		assertEquals(cpr, currentPatients.get(0));
+		assertTrue(currentPatients.contains(cpr));
     }
     
     @Test
@@ -271,6 +338,7 @@ public class HAIBADAOIT {
     public void fetchSygehusWhenSygehusCodeIs3800() {
     	
     	jdbc.update("insert into klass_shak (Nummer, Navn, Organisationstype, CreatedDate, ValidFrom, ValidTo) values ('3800999', 'TST Testafdeling', 'test', '2009-01-01', '2009-01-01', '2045-01-01')");
+    	haibaDao.clearSygehusInitialsCache();
     	
     	String sygehusInitials = haibaDao.getSygehusInitials("3800", "999", new Date());
     	
@@ -278,6 +346,20 @@ public class HAIBADAOIT {
     	
     }
 
+    @Test 
+    public void fetchSygehusValidAtTheContactInDate() {
+    	jdbc.update("insert into klass_shak (Nummer, Navn, Organisationstype, CreatedDate, ValidFrom, ValidTo) values ('3800998', 'OLD Testafdeling', 'test', '2009-01-01', '2009-01-01', '2010-12-31')");
+    	jdbc.update("insert into klass_shak (Nummer, Navn, Organisationstype, CreatedDate, ValidFrom, ValidTo) values ('3800998', 'NEW Testafdeling', 'test', '2009-01-01', '2011-01-01', '2045-01-01')");
+    	haibaDao.clearSygehusInitialsCache();
+
+    	assertEquals("OLD", haibaDao.getSygehusInitials("3800", "998", new DateTime(2010, 6, 1, 0, 0, 0, 0).toDate()));
+    	assertEquals("NEW", haibaDao.getSygehusInitials("3800", "998", new DateTime(2011, 1, 1, 0, 0, 0, 0).toDate()));
+    	// not valid yet
+    	assertEquals("", haibaDao.getSygehusInitials("3800", "998", new DateTime(2008, 6, 1, 0, 0, 0, 0).toDate()));
+    	// unknown department
+    	assertEquals("", haibaDao.getSygehusInitials("3800", "997", new Date()));
+    }
+
     @Test(expected=DAOException.class)
     public void insertsBrokenBusinessruleError() {
     	
@@ -321,4 +403,113 @@ public class HAIBADAOIT {
     	assertEquals("Expected 2", 2, jdbc.queryForInt("select Regel1 from Statistik"));
     }
 
+    @Test
+    public void savesTheLastSyncIds() {
+        assertEquals(0, haibaDao.getLastSyncIds().size());
+
+        Map<Integer, Long> syncIds = new HashMap<Integer, Long>();
+        syncIds.put(1, 10l);
+        syncIds.put(2, 8000l);
+        haibaDao.saveLastSyncIds(syncIds);
+        assertEquals(syncIds, haibaDao.getLastSyncIds());
+
+        syncIds.put(1, 11l);
+        haibaDao.saveLastSyncIds(syncIds);
+        assertEquals(syncIds, haibaDao.getLastSyncIds());
+        assertEquals(2, jdbc.queryForInt("select count(*) from LPRSynkronisering"));
+    }
+
+    @Test
+    public void writesOnlyTheChangedRows() {
+        ReflectionTestUtils.setField(haibaDao, "writeChangesOnly", true);
+        try {
+            DateTime firstIn = new DateTime(2013, 1, 1, 10, 0, 0, 0);
+            haibaDao.prepareCPRNumberForImport(cpr);
+            haibaDao.saveIndlaeggelsesForloeb(forloeb(firstIn, 2, "1000"));
+            haibaDao.saveIndlaeggelsesForloeb(forloeb(firstIn.plusDays(10), 1, "2000"));
+            haibaDao.saveAmbulantIndlaeggelser(ambulantContact(firstIn.plusDays(20), "3000"));
+            assertTrue(haibaDao.finishCPRNumberImport(cpr) > 0);
+            assertEquals(3, jdbc.queryForInt("select count(*) from Indlaeggelser"));
+            assertEquals(3, jdbc.queryForInt("select count(*) from Indlaeggelsesforloeb"));
+            assertEquals(2, jdbc.queryForInt("select count(distinct IndlaeggelsesforloebID) from Indlaeggelsesforloeb"));
+            assertEquals(1, jdbc.queryForInt("select count(*) from AmbulantKontakt"));
+            List<Long> admissionIds = jdbc.queryForList("select IndlaeggelsesID from Indlaeggelser order by IndlaeggelsesID", Long.class);
+            List<Long> forloebIds = jdbc.queryForList("select IndlaeggelsesforloebID from Indlaeggelsesforloeb order by IndlaeggelsesID", Long.class);
+
+            // the same output is not written again
+            haibaDao.prepareCPRNumberForImport(cpr);
+            haibaDao.saveIndlaeggelsesForloeb(forloeb(firstIn, 2, "1000"));
+            haibaDao.saveIndlaeggelsesForloeb(forloeb(firstIn.plusDays(10), 1, "2000"));
+            haibaDao.saveAmbulantIndlaeggelser(ambulantContact(firstIn.plusDays(20), "3000"));
+            assertEquals(0, haibaDao.finishCPRNumberImport(cpr));
+
+            // the second forloeb is extended, and the ambulant contact is gone
+            haibaDao.prepareCPRNumberForImport(cpr);
+            haibaDao.saveIndlaeggelsesForloeb(forloeb(firstIn, 2, "1000"));
+            haibaDao.saveIndlaeggelsesForloeb(forloeb(firstIn.plusDays(10), 2, "2000"));
+            assertTrue(haibaDao.finishCPRNumberImport(cpr) > 0);
+
+            assertEquals(4, jdbc.queryForInt("select count(*) from Indlaeggelser"));
+            assertEquals(0, jdbc.queryForInt("select count(*) from AmbulantKontakt"));
+            assertEquals(0, jdbc.queryForInt("select count(*) from AmbulantDiagnoser"));
+            assertEquals(2, jdbc.queryForInt("select count(distinct IndlaeggelsesforloebID) from Indlaeggelsesforloeb"));
+            assertEquals(4, jdbc.queryForInt("select count(*) from Indlaeggelsesforloeb"));
+            List<Long> newAdmissionIds = jdbc.queryForList("select IndlaeggelsesID from Indlaeggelser order by IndlaeggelsesID", Long.class);
+            assertEquals(admissionIds, newAdmissionIds.subList(0, 3));
+            // the first forloeb is kept
+            List<Long> newForloebIds = jdbc.queryForList("select IndlaeggelsesforloebID from Indlaeggelsesforloeb order by IndlaeggelsesID", Long.class);
+            assertEquals(forloebIds.subList(0, 2), newForloebIds.subList(0, 2));
+            assertEquals(newForloebIds.get(2), newForloebIds.get(3));
+
+            // nothing saved for the CPR number removes its data
+            haibaDao.prepareCPRNumberForImport(cpr);
+            haibaDao.finishCPRNumberImport(cpr);
+            assertEquals(0, jdbc.queryForInt("select count(*) from Indlaeggelser"));
+            assertEquals(0, jdbc.queryForInt("select count(*) from Indlaeggelsesforloeb"));
+            assertEquals(0, jdbc.queryForInt("select count(*) from Diagnoser"));
+            assertEquals(0, jdbc.queryForInt("select count(*) from LPR_Reference"));
+        } finally {
+            ReflectionTestUtils.setField(haibaDao, "writeChangesOnly", false);
+        }
+    }
+
+    /*
+     * Connected admissions of one day each, from the given in date
+     */
+    private List<Indlaeggelse> forloeb(DateTime in, int admissions, String recordNumber) {
+        List<Indlaeggelse> indlaeggelser = new ArrayList<Indlaeggelse>();
+        for (int i = 0; i < admissions; i++) {
+            Indlaeggelse indlaeggelse = new Indlaeggelse(cpr, sygehusCode, afdelingsCode, in.plusDays(i).toDate(), in.plusDays(i + 1).toDate(), false);
+            indlaeggelse.addLPRReference(new LPRReference(1, recordNumber + i));
+            indlaeggelse.addDiagnose(new Diagnose("d1", "A", null));
+            indlaeggelse.addProcedure(new Procedure("p1", "p", null, sygehusCode, afdelingsCode, in.plusDays(i).toDate()));
+            indlaeggelser.add(indlaeggelse);
+        }
+        return indlaeggelser;
+    }
+
+    private List<Administration> ambulantContact(DateTime in, String recordNumber) {
+        Administration contact = new Administration();
+        contact.setRecordNumber(recordNumber);
+        contact.setSygehusCode(sygehusCode);
+        contact.setAfdelingsCode(afdelingsCode);
+        contact.setCpr(cpr);
+        contact.setIndlaeggelsesDatetime(in.toDate());
+        contact.setUdskrivningsDatetime(in.plusHours(2).toDate());
+        contact.setPatientType(2);
+        LPRDiagnose diagnosis = new LPRDiagnose();
+        diagnosis.setRecordNumber(recordNumber);
+        diagnosis.setDiagnoseCode("B");
+        diagnosis.setDiagnoseType("A");
+        List<LPRDiagnose> diagnoses = new ArrayList<LPRDiagnose>();
+        diagnoses.add(diagnosis);
+        contact.setLprDiagnoses(diagnoses);
+        List<LPRReference> lprRefs = new ArrayList<LPRReference>();
+        lprRefs.add(new LPRReference(1, recordNumber));
+        contact.setLprReferencer(lprRefs);
+        List<Administration> contacts = new ArrayList<Administration>();
+        contacts.add(contact);
+        return contacts;
+    }
+
 }
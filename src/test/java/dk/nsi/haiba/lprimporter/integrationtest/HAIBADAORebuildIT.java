@@ -0,0 +1,197 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.lprimporter.integrationtest;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.context.annotation.PropertySource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.AnnotationConfigContextLoader;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import dk.nsi.haiba.lprimporter.dao.HAIBADAO;
+import dk.nsi.haiba.lprimporter.dao.impl.HAIBADAOImpl;
+import dk.nsi.haiba.lprimporter.model.haiba.Diagnose;
+import dk.nsi.haiba.lprimporter.model.haiba.Indlaeggelse;
+import dk.nsi.haiba.lprimporter.model.haiba.LPRReference;
+import dk.nsi.haiba.lprimporter.model.haiba.Procedure;
+import dk.nsi.haiba.lprimporter.model.haiba.RebuildOutcome;
+import dk.nsi.haiba.lprimporter.status.ImportStatus.Outcome;
+
+/*
+ * Tests the rebuild of the HAIBA tables through shadow tables
+ * Not transactional, the shadow tables are created and swapped with DDL statements which commit - data is deleted manually
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(loader = AnnotationConfigContextLoader.class)
+public class HAIBADAORebuildIT {
+
+    @Configuration
+    @PropertySource("classpath:test.properties")
+    @Import(LPRIntegrationTestConfiguration.class)
+    static class ContextConfiguration {
+        @Bean
+        public HAIBADAO haibaDao() {
+            return new HAIBADAOImpl();
+        }
+    }
+
+    @Autowired
+    @Qualifier("haibaJdbcTemplate")
+    JdbcTemplate jdbc;
+
+    @Autowired
+    HAIBADAO haibaDao;
+
+    @After
+    public void cleanUp() {
+        haibaDao.abortRebuild();
+        jdbc.execute("delete from Diagnoser");
+        jdbc.execute("delete from Procedurer");
+        jdbc.execute("delete from Indlaeggelsesforloeb");
+        jdbc.execute("delete from LPR_Reference");
+        jdbc.execute("delete from Indlaeggelser");
+    }
+
+    @Test
+    public void rebuiltTablesReplaceTheLiveTables() {
+        haibaDao.saveIndlaeggelsesForloeb(createIndlaeggelser("1111111111", "1111"));
+
+        haibaDao.startRebuild();
+        haibaDao.saveIndlaeggelsesForloeb(createIndlaeggelser("2222222222", "2222"));
+        haibaDao.saveRebuildOutcomes(Collections.singletonList(new LPRReference(1, "2222")), Outcome.SUCCESS);
+
+        // readers still see the live tables
+        assertEquals(1, jdbc.queryForInt("select count(*) from Indlaeggelser where cpr='1111111111'"));
+        assertEquals(0, jdbc.queryForInt("select count(*) from Indlaeggelser where cpr='2222222222'"));
+
+        haibaDao.finishRebuild();
+
+        assertEquals(0, jdbc.queryForInt("select count(*) from Indlaeggelser where cpr='1111111111'"));
+        assertEquals(1, jdbc.queryForInt("select count(*) from Indlaeggelser where cpr='2222222222'"));
+        assertEquals(1, jdbc.queryForInt("select count(*) from Indlaeggelsesforloeb"));
+        assertEquals(1, jdbc.queryForInt("select count(*) from LPR_Reference where LPR_recordnummer='2222'"));
+        assertEquals(1, jdbc.queryForInt("select count(*) from Diagnoser"));
+        assertEquals(1, jdbc.queryForInt("select count(*) from Procedurer"));
+
+        // the outcomes are kept until they are written to LPR
+        List<RebuildOutcome> outcomes = haibaDao.getRebuildOutcomes(0, 10);
+        assertEquals(1, outcomes.size());
+        assertEquals(new LPRReference(1, "2222"), outcomes.get(0).getLprReference());
+        assertEquals(Outcome.SUCCESS, outcomes.get(0).getOutcome());
+        assertEquals(0, haibaDao.getRebuildOutcomes(outcomes.get(0).getId(), 10).size());
+        haibaDao.dropRebuildOutcomes();
+        assertEquals(0, jdbc.queryForInt("select count(*) from information_schema.TABLES where TABLE_SCHEMA = DATABASE() and (TABLE_NAME like '%\\_shadow' or TABLE_NAME like '%\\_old')"));
+
+        // the data is written to the live tables again
+        haibaDao.saveIndlaeggelsesForloeb(createIndlaeggelser("3333333333", "3333"));
+        assertEquals(1, jdbc.queryForInt("select count(*) from Indlaeggelser where cpr='3333333333'"));
+    }
+
+    @Test
+    public void abortedRebuildLeavesTheLiveTables() {
+        haibaDao.saveIndlaeggelsesForloeb(createIndlaeggelser("1111111111", "1111"));
+
+        haibaDao.startRebuild();
+        haibaDao.saveIndlaeggelsesForloeb(createIndlaeggelser("2222222222", "2222"));
+        haibaDao.saveRebuildOutcomes(Collections.singletonList(new LPRReference(1, "2222")), Outcome.SUCCESS);
+        haibaDao.abortRebuild();
+
+        assertEquals(1, jdbc.queryForInt("select count(*) from Indlaeggelser"));
+        assertEquals(1, jdbc.queryForInt("select count(*) from Indlaeggelser where cpr='1111111111'"));
+        assertEquals(0, jdbc.queryForInt("select count(*) from information_schema.TABLES where TABLE_SCHEMA = DATABASE() and TABLE_NAME like '%\\_shadow'"));
+    }
+
+    @Test
+    public void rebuildIsFinishedWhenTheReplacedTablesAreNotDropped() {
+        haibaDao.saveIndlaeggelsesForloeb(createIndlaeggelser("1111111111", "1111"));
+        // the foreign key follows the renamed table, and keeps it from being dropped
+        jdbc.execute("create table RebuildBlocker (IndlaeggelsesID BIGINT(15), FOREIGN KEY (IndlaeggelsesID) REFERENCES Indlaeggelser(IndlaeggelsesID)) ENGINE=InnoDB");
+        try {
+            haibaDao.startRebuild();
+            haibaDao.saveIndlaeggelsesForloeb(createIndlaeggelser("2222222222", "2222"));
+            haibaDao.finishRebuild();
+
+            assertEquals(1, jdbc.queryForInt("select count(*) from Indlaeggelser where cpr='2222222222'"));
+            assertEquals(1, jdbc.queryForInt("select count(*) from information_schema.TABLES where TABLE_SCHEMA = DATABASE() and TABLE_NAME = 'Indlaeggelser_old'"));
+        } finally {
+            jdbc.execute("drop table RebuildBlocker");
+        }
+    }
+
+    @Test
+    public void rebuildAfterAFailedCPRNumberWritesToTheShadowTables() {
+        ReflectionTestUtils.setField(haibaDao, "writeChangesOnly", true);
+        try {
+            haibaDao.saveIndlaeggelsesForloeb(createIndlaeggelser("1111111111", "1111"));
+            // the processing of the CPR number fails before it is finished, its stored rows are left pending
+            haibaDao.prepareCPRNumberForImport("1111111111");
+            haibaDao.saveIndlaeggelsesForloeb(createIndlaeggelser("1111111111", "1111"));
+
+            haibaDao.startRebuild();
+            haibaDao.prepareCPRNumberForImport("1111111111");
+            haibaDao.saveIndlaeggelsesForloeb(createIndlaeggelser("1111111111", "1111"));
+            haibaDao.finishCPRNumberImport("1111111111");
+            haibaDao.finishRebuild();
+
+            // the same output as the stored rows of the live tables is still written to the empty shadow tables
+            assertEquals(1, jdbc.queryForInt("select count(*) from Indlaeggelser where cpr='1111111111'"));
+            assertEquals(1, jdbc.queryForInt("select count(*) from Indlaeggelsesforloeb"));
+            assertEquals(1, jdbc.queryForInt("select count(*) from LPR_Reference where LPR_recordnummer='1111'"));
+            assertEquals(1, jdbc.queryForInt("select count(*) from Diagnoser"));
+        } finally {
+            ReflectionTestUtils.setField(haibaDao, "writeChangesOnly", false);
+        }
+    }
+
+    private List<Indlaeggelse> createIndlaeggelser(String cpr, String recordNumber) {
+        Date in = new Date();
+        Date out = new Date(in.getTime() + 24 * 60 * 60 * 1000);
+        List<Indlaeggelse> indlaeggelser = new ArrayList<Indlaeggelse>();
+        Indlaeggelse indlaeggelse = new Indlaeggelse(cpr, "qwer", "asd", in, out, false);
+        indlaeggelse.addLPRReference(new LPRReference(545, recordNumber));
+        indlaeggelse.addDiagnose(new Diagnose("d1", "A", "d2"));
+        indlaeggelse.addProcedure(new Procedure("p1", "p", "p2", "qwer", "asd", in));
+        indlaeggelser.add(indlaeggelse);
+        return indlaeggelser;
+    }
+}
@@ -31,8 +31,11 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.joda.time.DateTime;
 import org.junit.Test;
@@ -139,11 +142,34 @@ public class LPRDAOCompositeIT {
                         new Long(recordNummer), cpr, sygehusCode, afdelingCode, in.toDate(), out.toDate(),
                         processed.toDate());
 
-        List<String> unprocessedCPRNumbers = lprdao.getCPRnumberBatch(20);
+        List<String> unprocessedCPRNumbers = lprdao.getCPRnumberBatch(20, "");
         assertNotNull("Expected 0 contacts from LPR", unprocessedCPRNumbers);
         assertEquals(0, unprocessedCPRNumbers.size());
     }
 
+    /*
+     * Inserts unprocessed contacts into both databases, and tests the batches are pages of CPR numbers across both databases
+     */
+    @Test
+    public void pagesThroughUnprocessedCPRNumbers() {
+        ssiJdbcTemplate.update("insert into T_ADM (v_recnum, v_cpr) values (?, ?)", 1, "3333333333");
+        ssiJdbcTemplate.update("insert into T_ADM (v_recnum, v_cpr) values (?, ?)", 2, "1111111111");
+        minipasJdbcTemplate.update("insert into T_ADM (v_recnum, v_cpr) values (?, ?)", 3, "2222222222");
+        minipasJdbcTemplate.update("insert into T_ADM (v_recnum, v_cpr) values (?, ?)", 4, "1111111111");
+
+        List<String> batch = lprdao.getCPRnumberBatch(2, "");
+        assertEquals(2, batch.size());
+        assertEquals("1111111111", batch.get(0));
+        assertEquals("2222222222", batch.get(1));
+
+        // the contacts are not marked as imported, the next batch must still move on
+        batch = lprdao.getCPRnumberBatch(2, batch.get(1));
+        assertEquals(1, batch.size());
+        assertEquals("3333333333", batch.get(0));
+
+        assertEquals(0, lprdao.getCPRnumberBatch(2, batch.get(0)).size());
+    }
+
     /*
      * Inserts 2 diagnoses into the T_DIAG table, and tests data is fetched correct from the DAO
      */
@@ -276,6 +302,28 @@ public class LPRDAOCompositeIT {
                 ssiJdbcTemplate.queryForObject("select V_STATUS from T_ADM", String.class));
     }
 
+    /*
+     * Inserts contacts into both T_ADM tables, and tests the import timestamps are set in the right database
+     */
+    @Test
+    public void updateImportTimestamps() {
+        ssiJdbcTemplate.update("insert into T_ADM (v_recnum, v_cpr) values (?, ?)", 1234, "1111111111");
+        ssiJdbcTemplate.update("insert into T_ADM (v_recnum, v_cpr) values (?, ?)", 1235, "1111111111");
+        ssiJdbcTemplate.update("insert into T_ADM (v_recnum, v_cpr) values (?, ?)", 1236, "1111111111");
+        minipasJdbcTemplate.update("insert into T_ADM (v_recnum, v_cpr) values (?, ?)", 5678, "2222222222");
+
+        List<LPRReference> references = new ArrayList<LPRReference>();
+        references.add(new LPRReference(LPRDAOComposite.SSI_DB, "1234"));
+        references.add(new LPRReference(LPRDAOComposite.SSI_DB, "1235"));
+        references.add(new LPRReference(LPRDAOComposite.MINIPAS_DB, "5678"));
+        lprdao.updateImportTimes(references, Outcome.FAILURE);
+
+        assertEquals(2, ssiJdbcTemplate.queryForInt("select count(*) from T_ADM where V_STATUS = 'FAILURE' and D_IMPORTDTO is not null"));
+        assertEquals(1, ssiJdbcTemplate.queryForInt("select count(*) from T_ADM where D_IMPORTDTO is null"));
+        assertEquals(Outcome.FAILURE.toString(),
+                minipasJdbcTemplate.queryForObject("select V_STATUS from T_ADM", String.class));
+    }
+
     /*
      * Inserts a couple of rows in the T_LOG_SYNC table, and tests if import is ready or not.
      */
@@ -341,4 +389,49 @@ public class LPRDAOCompositeIT {
             minipasJdbcTemplate.update("delete from T_LOG_SYNC_HISTORY where v_recnum = ?", recordNumber);
         }
     }
+
+    @Test
+    public void checkForChangedContactsSinceTheLastSync() {
+        long recordNumber = 1234567;
+        String cpr = "1111111111";
+        String cpr2 = "2222222222";
+        try {
+            ssiJdbcTemplate.update("insert into T_ADM (v_recnum, v_cpr) values (?, ?)", new Long(recordNumber), cpr);
+            ssiJdbcTemplate.update("insert into T_ADM (v_recnum, v_cpr) values (?, ?)", new Long(recordNumber + 1), cpr2);
+            ssiJdbcTemplate.update("insert into T_LOG_SYNC (v_sync_id, start_time, end_time) values (?, ?, ?)", 1,
+                    new Date(), new Date());
+            ssiJdbcTemplate.update("insert into T_LOG_SYNC (v_sync_id, start_time, end_time) values (?, ?, ?)", 2,
+                    new Date(), new Date());
+            ssiJdbcTemplate
+                    .update("insert into T_LOG_SYNC_HISTORY (v_sync_id, v_recnum, affected_v_recnum, c_action_type) values (1, 111, ?, 'INSERT')",
+                            recordNumber);
+            ssiJdbcTemplate
+                    .update("insert into T_LOG_SYNC_HISTORY (v_sync_id, v_recnum, affected_v_recnum, c_action_type) values (2, 112, ?, 'UPDATE')",
+                            recordNumber + 1);
+            minipasJdbcTemplate.update("insert into T_LOG_SYNC (v_sync_id, start_time, end_time) values (?, ?, ?)", 8,
+                    new Date(), new Date());
+
+            Map<Integer, Long> latestSyncIds = lprdao.getLatestSyncIds();
+            assertEquals(new Long(2), latestSyncIds.get(LPRDAOComposite.SSI_DB));
+            assertEquals(new Long(8), latestSyncIds.get(LPRDAOComposite.MINIPAS_DB));
+
+            // only the changes after the last processed sync id
+            Map<Integer, Long> lastSyncIds = new HashMap<Integer, Long>();
+            lastSyncIds.put(LPRDAOComposite.SSI_DB, 1l);
+            lastSyncIds.put(LPRDAOComposite.MINIPAS_DB, 8l);
+            List<String> cprNumbers = lprdao.getCPRnumbersFromSyncHistory(lastSyncIds, latestSyncIds);
+            assertEquals("Expect 1 CPR number", 1, cprNumbers.size());
+            assertEquals(cpr2, cprNumbers.get(0));
+
+            lastSyncIds.put(LPRDAOComposite.SSI_DB, 0l);
+            cprNumbers = lprdao.getCPRnumbersFromSyncHistory(lastSyncIds, latestSyncIds);
+            assertEquals("Expect 2 CPR numbers", 2, cprNumbers.size());
+
+            lastSyncIds.put(LPRDAOComposite.SSI_DB, 2l);
+            cprNumbers = lprdao.getCPRnumbersFromSyncHistory(lastSyncIds, latestSyncIds);
+            assertEquals("Expect no CPR numbers", 0, cprNumbers.size());
+        } finally {
+            minipasJdbcTemplate.update("delete from T_LOG_SYNC where v_sync_id = ?", 8);
+        }
+    }
 }
@@ -31,8 +31,11 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.sql.DataSource;
 
@@ -120,6 +123,48 @@ public class LPRDAOIT {
     /*
      * Inserts a single contact into the T_ADM table with processed date set, and tests that it is not fetched again by DAO
      */
+    /*
+     * Inserts contacts for 2 CPR numbers, and tests they are fetched and grouped by CPR number with one call to the DAO
+     */
+    @Test
+	public void fetchContactsForSeveralCPRNumbers() {
+    	jdbcTemplate.update("insert into T_ADM (v_recnum, v_cpr, c_pattype) values (?, ?, ?)", new Long(1234), "1111111111", 2);
+    	jdbcTemplate.update("insert into T_ADM (v_recnum, v_cpr, c_pattype) values (?, ?, ?)", new Long(1235), "1111111111", 2);
+    	jdbcTemplate.update("insert into T_ADM (v_recnum, v_cpr, c_pattype) values (?, ?, ?)", new Long(5678), "2222222222", 2);
+    	jdbcTemplate.update("insert into T_KODER (v_recnum, c_kode, c_kodeart, c_tilkode,v_type) values (?, ?, ?, ?, ?)", new Long(1234), "D03.9", "A", "tilA", "DIA");
+    	jdbcTemplate.update("insert into T_KODER (v_recnum, c_kode, c_kodeart, c_tilkode,v_type) values (?, ?, ?, ?, ?)", new Long(1234), "D00.9", "B", "tilB", "DIA");
+
+    	Map<String, List<Administration>> contactsByCPR = lprdao.getContactsByCPRs(Arrays.asList("1111111111", "2222222222", "3333333333"));
+
+    	assertEquals(3, contactsByCPR.size());
+    	assertEquals(2, contactsByCPR.get("1111111111").size());
+    	assertEquals(1, contactsByCPR.get("2222222222").size());
+    	assertEquals(0, contactsByCPR.get("3333333333").size());
+    	// the contacts are ordered by record number, and the codes are added to their own contact
+    	assertEquals("1234", contactsByCPR.get("1111111111").get(0).getRecordNumber());
+    	assertEquals(2, contactsByCPR.get("1111111111").get(0).getLprDiagnoses().size());
+    	assertEquals("1235", contactsByCPR.get("1111111111").get(1).getRecordNumber());
+    	assertEquals(0, contactsByCPR.get("1111111111").get(1).getLprDiagnoses().size());
+	}
+
+    @Test
+	public void fetchCPRNumbersWithOpenContacts() {
+    	DateTime now = new DateTime();
+    	// open and recent
+    	jdbcTemplate.update("insert into T_ADM (v_recnum, v_cpr, d_inddto, c_pattype) values (?, ?, ?, ?)", new Long(1234), "1111111111", now.minusDays(2).toDate(), 2);
+    	// open and old
+    	jdbcTemplate.update("insert into T_ADM (v_recnum, v_cpr, d_inddto, c_pattype) values (?, ?, ?, ?)", new Long(1235), "2222222222", now.minusDays(40).toDate(), 2);
+    	// recent but discharged
+    	jdbcTemplate.update("insert into T_ADM (v_recnum, v_cpr, d_inddto, d_uddto, c_pattype) values (?, ?, ?, ?, ?)", new Long(1236), "3333333333", now.minusDays(2).toDate(), now.minusDays(1).toDate(), 2);
+    	// open and recent, but not asked for
+    	jdbcTemplate.update("insert into T_ADM (v_recnum, v_cpr, d_inddto, c_pattype) values (?, ?, ?, ?)", new Long(1237), "4444444444", now.minusDays(2).toDate(), 2);
+
+    	Set<String> cprNumbers = lprdao.getCPRnumbersWithOpenContacts(Arrays.asList("1111111111", "2222222222", "3333333333"), now.minusDays(30).toDate());
+
+    	assertEquals(1, cprNumbers.size());
+    	assertTrue(cprNumbers.contains("1111111111"));
+	}
+
     @Test
 	public void doNotfetchContactThatHasBeenImported() {
     	
@@ -133,7 +178,7 @@ public class LPRDAOIT {
 
     	jdbcTemplate.update("insert into T_ADM (v_recnum, v_cpr, c_sgh, c_afd, d_inddto, d_uddto, d_importdto) values (?, ?, ?, ?, ?, ?, ?)", new Long(recordNummer), cpr, sygehusCode, afdelingCode, in.toDate(), out.toDate(), processed.toDate());
     	
-    	List<String> unprocessedCPRNumbers = lprdao.getCPRnumberBatch(20);
+    	List<String> unprocessedCPRNumbers = lprdao.getCPRnumberBatch(20, "");
     	assertNotNull("Expected 0 contacts from LPR", unprocessedCPRNumbers);
     	assertEquals(0, unprocessedCPRNumbers.size());
 	}
@@ -51,15 +51,18 @@ import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.context.support.AnnotationConfigContextLoader;
 import org.springframework.transaction.annotation.Transactional;
 
+import dk.nsi.haiba.lprimporter.dao.ClassificationCheckDAO;
 import dk.nsi.haiba.lprimporter.dao.HAIBADAO;
 import dk.nsi.haiba.lprimporter.dao.LPRDAO;
 import dk.nsi.haiba.lprimporter.dao.impl.HAIBADAOImpl;
 import dk.nsi.haiba.lprimporter.dao.impl.LPRDAOImpl;
 import dk.nsi.haiba.lprimporter.email.EmailSender;
+import dk.nsi.haiba.lprimporter.importer.ClassificationCheckHelper;
+import dk.nsi.haiba.lprimporter.importer.ImportOutcomeBuffer;
 import dk.nsi.haiba.lprimporter.model.haiba.Statistics;
 import dk.nsi.haiba.lprimporter.model.lpr.Administration;
 import dk.nsi.haiba.lprimporter.rules.LPRPrepareDataRule;
-import dk.nsi.haiba.lprimporter.rules.LPRRule;
+import dk.nsi.haiba.lprimporter.rules.LPRRuleContext;
 
 @RunWith(SpringJUnit4ClassRunner.class)
 @Transactional("haibaTransactionManager")
@@ -98,10 +101,19 @@ public class ProcessRulesIT {
     @Autowired
     HAIBADAO haibaDao;
 
+    @Autowired
+    ClassificationCheckDAO classificationCheckDAO;
+
+    @Autowired
+    ClassificationCheckHelper classificationCheckHelper;
+
     @Autowired
     @Qualifier(value = "compositeLPRDAO")
     LPRDAO lprDao;
 
+    @Autowired
+    ImportOutcomeBuffer importOutcomeBuffer;
+
     @Autowired
     LPRPrepareDataRule lprPrepareDataRule;
 
@@ -178,6 +190,9 @@ public class ProcessRulesIT {
         lprJdbcTemplate.execute("delete from T_ADM");
         lprJdbcTemplate.execute("delete from T_KODER");
         haibaJdbcTemplate.execute("delete from anvendt_klass_shak");
+        // the classifications are cached by the DAO, as in one import run
+        classificationCheckDAO.clearClassificationCache();
+        classificationCheckHelper.clear();
     }
 
     @Test
@@ -205,14 +220,14 @@ public class ProcessRulesIT {
                         new Long(recordNummer4), cpr, sygehusCode4, afdelingsCode4, in4.toDate(), out4.toDate(), 0);
         List<Administration> contactsByCPR = lprDao.getContactsByCPR(cpr);
 
-        lprPrepareDataRule.setContacts(contactsByCPR);
         Statistics statistics = Statistics.getInstance();
-        LPRRule next = lprPrepareDataRule.doProcessing(statistics);
+        LPRRuleContext context = lprPrepareDataRule.doProcessing(LPRRuleContext.withContacts(lprPrepareDataRule, contactsByCPR), statistics);
 
         // Process rest of the rules and save admission
-        while (next != null) {
-            next = next.doProcessing(statistics);
+        while (context.getNextRule() != null) {
+            context = context.getNextRule().doProcessing(context, statistics);
         }
+        importOutcomeBuffer.flush(lprDao);
 
         // Expect 2 errors logged
         assertEquals(2, haibaJdbcTemplate.queryForInt("select count(*) from RegelFejlbeskeder"));
@@ -259,14 +274,14 @@ public class ProcessRulesIT {
 
         List<Administration> contactsByCPR = lprDao.getContactsByCPR(cpr);
 
-        lprPrepareDataRule.setContacts(contactsByCPR);
         Statistics statistics = Statistics.getInstance();
-        LPRRule next = lprPrepareDataRule.doProcessing(statistics);
+        LPRRuleContext context = lprPrepareDataRule.doProcessing(LPRRuleContext.withContacts(lprPrepareDataRule, contactsByCPR), statistics);
 
         // Process rest of the rules and save admission
-        while (next != null) {
-            next = next.doProcessing(statistics);
+        while (context.getNextRule() != null) {
+            context = context.getNextRule().doProcessing(context, statistics);
         }
+        importOutcomeBuffer.flush(lprDao);
 
         assertEquals("SUCCESS", lprJdbcTemplate.queryForObject("select v_status from T_ADM where v_recnum ="
                 + recordNummer0, String.class));
@@ -306,14 +321,14 @@ public class ProcessRulesIT {
 
         List<Administration> contactsByCPR = lprDao.getContactsByCPR(cpr);
 
-        lprPrepareDataRule.setContacts(contactsByCPR);
         Statistics statistics = Statistics.getInstance();
-        LPRRule next = lprPrepareDataRule.doProcessing(statistics);
+        LPRRuleContext context = lprPrepareDataRule.doProcessing(LPRRuleContext.withContacts(lprPrepareDataRule, contactsByCPR), statistics);
 
         // Process rest of the rules and save admission
-        while (next != null) {
-            next = next.doProcessing(statistics);
+        while (context.getNextRule() != null) {
+            context = context.getNextRule().doProcessing(context, statistics);
         }
+        importOutcomeBuffer.flush(lprDao);
 
         assertEquals("SUCCESS", lprJdbcTemplate.queryForObject("select v_status from T_ADM where v_recnum ="
                 + recordNummer0, String.class));
@@ -346,14 +361,14 @@ public class ProcessRulesIT {
 
         List<Administration> contactsByCPR = lprDao.getContactsByCPR(cpr);
 
-        lprPrepareDataRule.setContacts(contactsByCPR);
         Statistics statistics = Statistics.getInstance();
-        LPRRule next = lprPrepareDataRule.doProcessing(statistics);
+        LPRRuleContext context = lprPrepareDataRule.doProcessing(LPRRuleContext.withContacts(lprPrepareDataRule, contactsByCPR), statistics);
 
         // Process rest of the rules and save admission
-        while (next != null) {
-            next = next.doProcessing(statistics);
+        while (context.getNextRule() != null) {
+            context = context.getNextRule().doProcessing(context, statistics);
         }
+        importOutcomeBuffer.flush(lprDao);
 
         assertEquals("SUCCESS", lprJdbcTemplate.queryForObject("select v_status from T_ADM where v_recnum ="
                 + recordNummer0, String.class));
@@ -390,14 +405,14 @@ public class ProcessRulesIT {
 
         List<Administration> contactsByCPR = lprDao.getContactsByCPR(cpr);
 
-        lprPrepareDataRule.setContacts(contactsByCPR);
         Statistics statistics = Statistics.getInstance();
-        LPRRule next = lprPrepareDataRule.doProcessing(statistics);
+        LPRRuleContext context = lprPrepareDataRule.doProcessing(LPRRuleContext.withContacts(lprPrepareDataRule, contactsByCPR), statistics);
 
         // Process rest of the rules and save admission
-        while (next != null) {
-            next = next.doProcessing(statistics);
+        while (context.getNextRule() != null) {
+            context = context.getNextRule().doProcessing(context, statistics);
         }
+        importOutcomeBuffer.flush(lprDao);
 
         assertEquals("SUCCESS", lprJdbcTemplate.queryForObject("select v_status from T_ADM where v_recnum ="
                 + recordNummer0, String.class));
@@ -476,14 +491,14 @@ public class ProcessRulesIT {
 
         List<Administration> contactsByCPR = lprDao.getContactsByCPR(cpr);
 
-        lprPrepareDataRule.setContacts(contactsByCPR);
         Statistics statistics = Statistics.getInstance();
-        LPRRule next = lprPrepareDataRule.doProcessing(statistics);
+        LPRRuleContext context = lprPrepareDataRule.doProcessing(LPRRuleContext.withContacts(lprPrepareDataRule, contactsByCPR), statistics);
 
         // Process rest of the rules and save admission
-        while (next != null) {
-            next = next.doProcessing(statistics);
+        while (context.getNextRule() != null) {
+            context = context.getNextRule().doProcessing(context, statistics);
         }
+        importOutcomeBuffer.flush(lprDao);
 
         assertEquals("SUCCESS", lprJdbcTemplate.queryForObject("select v_status from T_ADM where v_recnum ="
                 + recordNummer0, String.class));
@@ -526,16 +541,18 @@ public class ProcessRulesIT {
 
         List<Administration> contactsByCPR = lprDao.getContactsByCPR(cpr);
 
-        lprPrepareDataRule.setContacts(contactsByCPR);
         Statistics statistics = Statistics.getInstance();
 
         // Process rules
-        LPRRule next = lprPrepareDataRule.doProcessing(statistics);
+        LPRRuleContext context = lprPrepareDataRule.doProcessing(LPRRuleContext.withContacts(lprPrepareDataRule, contactsByCPR), statistics);
 
         // Process rest of the rules and save admission
-        while (next != null) {
-            next = next.doProcessing(statistics);
+        while (context.getNextRule() != null) {
+            context = context.getNextRule().doProcessing(context, statistics);
         }
+        importOutcomeBuffer.flush(lprDao);
+        // as at the end of an import run
+        classificationCheckHelper.checkCollectedClassifications();
         // Expected 3 Indlaeggelser and 2 ambulantcontacts
         assertEquals(3, haibaJdbcTemplate.queryForInt("select count(*) from Indlaeggelser"));
         assertEquals(2, haibaJdbcTemplate.queryForInt("select count(*) from AmbulantKontakt"));
@@ -583,16 +600,16 @@ public class ProcessRulesIT {
 
         List<Administration> contactsByCPR = lprDao.getContactsByCPR(cpr);
 
-        lprPrepareDataRule.setContacts(contactsByCPR);
         Statistics statistics = Statistics.getInstance();
 
         // Process rules
-        LPRRule next = lprPrepareDataRule.doProcessing(statistics);
+        LPRRuleContext context = lprPrepareDataRule.doProcessing(LPRRuleContext.withContacts(lprPrepareDataRule, contactsByCPR), statistics);
 
         // Process rest of the rules and save admission
-        while (next != null) {
-            next = next.doProcessing(statistics);
+        while (context.getNextRule() != null) {
+            context = context.getNextRule().doProcessing(context, statistics);
         }
+        importOutcomeBuffer.flush(lprDao);
 
         assertEquals("SUCCESS",
                 lprJdbcTemplate.queryForObject("select v_status from T_ADM where v_recnum =1950697931", String.class));
@@ -627,16 +644,16 @@ public class ProcessRulesIT {
 
         List<Administration> contactsByCPR = lprDao.getContactsByCPR(cpr);
 
-        lprPrepareDataRule.setContacts(contactsByCPR);
         Statistics statistics = Statistics.getInstance();
 
         // Process rules
-        LPRRule next = lprPrepareDataRule.doProcessing(statistics);
+        LPRRuleContext context = lprPrepareDataRule.doProcessing(LPRRuleContext.withContacts(lprPrepareDataRule, contactsByCPR), statistics);
 
         // Process rest of the rules and save admission
-        while (next != null) {
-            next = next.doProcessing(statistics);
+        while (context.getNextRule() != null) {
+            context = context.getNextRule().doProcessing(context, statistics);
         }
+        importOutcomeBuffer.flush(lprDao);
 
         assertEquals("expected import_dto is set in t_adm table", 3,
                 lprJdbcTemplate.queryForInt("select count(*) from T_ADM where d_importdto is not null"));
@@ -661,16 +678,18 @@ public class ProcessRulesIT {
 
         List<Administration> contactsByCPR = lprDao.getContactsByCPR(cpr);
 
-        lprPrepareDataRule.setContacts(contactsByCPR);
         Statistics statistics = Statistics.getInstance();
 
         // Process rules
-        LPRRule next = lprPrepareDataRule.doProcessing(statistics);
+        LPRRuleContext context = lprPrepareDataRule.doProcessing(LPRRuleContext.withContacts(lprPrepareDataRule, contactsByCPR), statistics);
 
         // Process rest of the rules and save admission
-        while (next != null) {
-            next = next.doProcessing(statistics);
+        while (context.getNextRule() != null) {
+            context = context.getNextRule().doProcessing(context, statistics);
         }
+        importOutcomeBuffer.flush(lprDao);
+        // as at the end of an import run
+        classificationCheckHelper.checkCollectedClassifications();
 
         // expected admission enddate must be 2009-03-29 12:00:00
         assertEquals("2009-03-29 12:00:00.0", haibaJdbcTemplate.queryForObject(
@@ -699,16 +718,16 @@ public class ProcessRulesIT {
 
         List<Administration> contactsByCPR = lprDao.getContactsByCPR(cpr);
 
-        lprPrepareDataRule.setContacts(contactsByCPR);
         Statistics statistics = Statistics.getInstance();
 
         // Process rules
-        LPRRule next = lprPrepareDataRule.doProcessing(statistics);
+        LPRRuleContext context = lprPrepareDataRule.doProcessing(LPRRuleContext.withContacts(lprPrepareDataRule, contactsByCPR), statistics);
 
         // Process rest of the rules and save admission
-        while (next != null) {
-            next = next.doProcessing(statistics);
+        while (context.getNextRule() != null) {
+            context = context.getNextRule().doProcessing(context, statistics);
         }
+        importOutcomeBuffer.flush(lprDao);
 
         // 2 admissions are expected, due to connecting contacts from same hospital and department.
         assertEquals("expected 2 admissions", 2, haibaJdbcTemplate.queryForInt("select count(*) from Indlaeggelser"));
@@ -743,16 +762,16 @@ public class ProcessRulesIT {
 
         List<Administration> contactsByCPR = lprDao.getContactsByCPR(cpr);
 
-        lprPrepareDataRule.setContacts(contactsByCPR);
         Statistics statistics = Statistics.getInstance();
 
         // Process rules
-        LPRRule next = lprPrepareDataRule.doProcessing(statistics);
+        LPRRuleContext context = lprPrepareDataRule.doProcessing(LPRRuleContext.withContacts(lprPrepareDataRule, contactsByCPR), statistics);
 
         // Process rest of the rules and save admission
-        while (next != null) {
-            next = next.doProcessing(statistics);
+        while (context.getNextRule() != null) {
+            context = context.getNextRule().doProcessing(context, statistics);
         }
+        importOutcomeBuffer.flush(lprDao);
 
         // 2 admissions are expected, due to connecting contacts from same hospital and department.
         assertEquals("expected 4 admissions", 4, haibaJdbcTemplate.queryForInt("select count(*) from Indlaeggelser"));
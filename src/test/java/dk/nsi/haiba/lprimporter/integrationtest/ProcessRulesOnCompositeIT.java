@@ -51,15 +51,17 @@ import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.context.support.AnnotationConfigContextLoader;
 import org.springframework.transaction.annotation.Transactional;
 
+import dk.nsi.haiba.lprimporter.dao.ClassificationCheckDAO;
 import dk.nsi.haiba.lprimporter.dao.HAIBADAO;
 import dk.nsi.haiba.lprimporter.dao.LPRDAO;
 import dk.nsi.haiba.lprimporter.dao.impl.HAIBADAOImpl;
 import dk.nsi.haiba.lprimporter.dao.impl.LPRDAOComposite;
 import dk.nsi.haiba.lprimporter.email.EmailSender;
+import dk.nsi.haiba.lprimporter.importer.ImportOutcomeBuffer;
 import dk.nsi.haiba.lprimporter.model.haiba.Statistics;
 import dk.nsi.haiba.lprimporter.model.lpr.Administration;
 import dk.nsi.haiba.lprimporter.rules.LPRPrepareDataRule;
-import dk.nsi.haiba.lprimporter.rules.LPRRule;
+import dk.nsi.haiba.lprimporter.rules.LPRRuleContext;
 
 @RunWith(SpringJUnit4ClassRunner.class)
 @Transactional("haibaTransactionManager")
@@ -102,10 +104,16 @@ public class ProcessRulesOnCompositeIT {
     @Autowired
     HAIBADAO haibaDao;
 
+    @Autowired
+    ClassificationCheckDAO classificationCheckDAO;
+
     @Autowired
     @Qualifier(value = "compositeLPRDAO")
     LPRDAO lprDao;
 
+    @Autowired
+    ImportOutcomeBuffer importOutcomeBuffer;
+
     @Autowired
     LPRPrepareDataRule lprPrepareDataRule;
 
@@ -182,6 +190,8 @@ public class ProcessRulesOnCompositeIT {
         jdbcTemplate.execute("delete from T_ADM");
         jdbcTemplate.execute("delete from T_KODER where v_recnum = 1854549558");
         minipasJdbcTemplate.execute("delete from T_ADM");
+        // the classifications are cached by the DAO, as in one import run
+        classificationCheckDAO.clearClassificationCache();
     }
 
     @Test
@@ -209,14 +219,14 @@ public class ProcessRulesOnCompositeIT {
                         new Long(recordNummer4), cpr, sygehusCode4, afdelingsCode4, in4.toDate(), out4.toDate(), 0);
         List<Administration> contactsByCPR = lprDao.getContactsByCPR(cpr);
 
-        lprPrepareDataRule.setContacts(contactsByCPR);
         Statistics statistics = Statistics.getInstance();
-        LPRRule next = lprPrepareDataRule.doProcessing(statistics);
+        LPRRuleContext context = lprPrepareDataRule.doProcessing(LPRRuleContext.withContacts(lprPrepareDataRule, contactsByCPR), statistics);
 
         // Process rest of the rules and save admission
-        while (next != null) {
-            next = next.doProcessing(statistics);
+        while (context.getNextRule() != null) {
+            context = context.getNextRule().doProcessing(context, statistics);
         }
+        importOutcomeBuffer.flush(lprDao);
 
         // Expect 2 errors logged
         assertEquals(2, jdbc.queryForInt("select count(*) from RegelFejlbeskeder"));
@@ -263,14 +273,14 @@ public class ProcessRulesOnCompositeIT {
 
         List<Administration> contactsByCPR = lprDao.getContactsByCPR(cpr);
 
-        lprPrepareDataRule.setContacts(contactsByCPR);
         Statistics statistics = Statistics.getInstance();
-        LPRRule next = lprPrepareDataRule.doProcessing(statistics);
+        LPRRuleContext context = lprPrepareDataRule.doProcessing(LPRRuleContext.withContacts(lprPrepareDataRule, contactsByCPR), statistics);
 
         // Process rest of the rules and save admission
-        while (next != null) {
-            next = next.doProcessing(statistics);
+        while (context.getNextRule() != null) {
+            context = context.getNextRule().doProcessing(context, statistics);
         }
+        importOutcomeBuffer.flush(lprDao);
 
         assertEquals("SUCCESS", minipasJdbcTemplate.queryForObject("select v_status from T_ADM where v_recnum ="
                 + recordNummer0, String.class));
@@ -310,14 +320,14 @@ public class ProcessRulesOnCompositeIT {
 
         List<Administration> contactsByCPR = lprDao.getContactsByCPR(cpr);
 
-        lprPrepareDataRule.setContacts(contactsByCPR);
         Statistics statistics = Statistics.getInstance();
-        LPRRule next = lprPrepareDataRule.doProcessing(statistics);
+        LPRRuleContext context = lprPrepareDataRule.doProcessing(LPRRuleContext.withContacts(lprPrepareDataRule, contactsByCPR), statistics);
 
         // Process rest of the rules and save admission
-        while (next != null) {
-            next = next.doProcessing(statistics);
+        while (context.getNextRule() != null) {
+            context = context.getNextRule().doProcessing(context, statistics);
         }
+        importOutcomeBuffer.flush(lprDao);
 
         assertEquals("SUCCESS", minipasJdbcTemplate.queryForObject("select v_status from T_ADM where v_recnum ="
                 + recordNummer0, String.class));
@@ -350,14 +360,14 @@ public class ProcessRulesOnCompositeIT {
 
         List<Administration> contactsByCPR = lprDao.getContactsByCPR(cpr);
 
-        lprPrepareDataRule.setContacts(contactsByCPR);
         Statistics statistics = Statistics.getInstance();
-        LPRRule next = lprPrepareDataRule.doProcessing(statistics);
+        LPRRuleContext context = lprPrepareDataRule.doProcessing(LPRRuleContext.withContacts(lprPrepareDataRule, contactsByCPR), statistics);
 
         // Process rest of the rules and save admission
-        while (next != null) {
-            next = next.doProcessing(statistics);
+        while (context.getNextRule() != null) {
+            context = context.getNextRule().doProcessing(context, statistics);
         }
+        importOutcomeBuffer.flush(lprDao);
 
         assertEquals("SUCCESS", jdbcTemplate.queryForObject("select v_status from T_ADM where v_recnum ="
                 + recordNummer0, String.class));
@@ -394,14 +404,14 @@ public class ProcessRulesOnCompositeIT {
 
         List<Administration> contactsByCPR = lprDao.getContactsByCPR(cpr);
 
-        lprPrepareDataRule.setContacts(contactsByCPR);
         Statistics statistics = Statistics.getInstance();
-        LPRRule next = lprPrepareDataRule.doProcessing(statistics);
+        LPRRuleContext context = lprPrepareDataRule.doProcessing(LPRRuleContext.withContacts(lprPrepareDataRule, contactsByCPR), statistics);
 
         // Process rest of the rules and save admission
-        while (next != null) {
-            next = next.doProcessing(statistics);
+        while (context.getNextRule() != null) {
+            context = context.getNextRule().doProcessing(context, statistics);
         }
+        importOutcomeBuffer.flush(lprDao);
 
         assertEquals("SUCCESS", jdbcTemplate.queryForObject("select v_status from T_ADM where v_recnum ="
                 + recordNummer0, String.class));
@@ -480,14 +490,14 @@ public class ProcessRulesOnCompositeIT {
 
         List<Administration> contactsByCPR = lprDao.getContactsByCPR(cpr);
 
-        lprPrepareDataRule.setContacts(contactsByCPR);
         Statistics statistics = Statistics.getInstance();
-        LPRRule next = lprPrepareDataRule.doProcessing(statistics);
+        LPRRuleContext context = lprPrepareDataRule.doProcessing(LPRRuleContext.withContacts(lprPrepareDataRule, contactsByCPR), statistics);
 
         // Process rest of the rules and save admission
-        while (next != null) {
-            next = next.doProcessing(statistics);
+        while (context.getNextRule() != null) {
+            context = context.getNextRule().doProcessing(context, statistics);
         }
+        importOutcomeBuffer.flush(lprDao);
 
         assertEquals("SUCCESS", minipasJdbcTemplate.queryForObject("select v_status from T_ADM where v_recnum ="
                 + recordNummer0, String.class));
@@ -530,16 +540,16 @@ public class ProcessRulesOnCompositeIT {
 
         List<Administration> contactsByCPR = lprDao.getContactsByCPR(cpr);
 
-        lprPrepareDataRule.setContacts(contactsByCPR);
         Statistics statistics = Statistics.getInstance();
 
         // Process rules
-        LPRRule next = lprPrepareDataRule.doProcessing(statistics);
+        LPRRuleContext context = lprPrepareDataRule.doProcessing(LPRRuleContext.withContacts(lprPrepareDataRule, contactsByCPR), statistics);
 
         // Process rest of the rules and save admission
-        while (next != null) {
-            next = next.doProcessing(statistics);
+        while (context.getNextRule() != null) {
+            context = context.getNextRule().doProcessing(context, statistics);
         }
+        importOutcomeBuffer.flush(lprDao);
         // Expected 3 Indlaeggelser and 2 ambulantcontacts
         assertEquals(3, jdbc.queryForInt("select count(*) from Indlaeggelser"));
         assertEquals(2, jdbc.queryForInt("select count(*) from AmbulantKontakt"));
@@ -587,16 +597,16 @@ public class ProcessRulesOnCompositeIT {
 
         List<Administration> contactsByCPR = lprDao.getContactsByCPR(cpr);
 
-        lprPrepareDataRule.setContacts(contactsByCPR);
         Statistics statistics = Statistics.getInstance();
 
         // Process rules
-        LPRRule next = lprPrepareDataRule.doProcessing(statistics);
+        LPRRuleContext context = lprPrepareDataRule.doProcessing(LPRRuleContext.withContacts(lprPrepareDataRule, contactsByCPR), statistics);
 
         // Process rest of the rules and save admission
-        while (next != null) {
-            next = next.doProcessing(statistics);
+        while (context.getNextRule() != null) {
+            context = context.getNextRule().doProcessing(context, statistics);
         }
+        importOutcomeBuffer.flush(lprDao);
 
         assertEquals("SUCCESS",
                 jdbcTemplate.queryForObject("select v_status from T_ADM where v_recnum =1950697931", String.class));
@@ -633,16 +643,16 @@ public class ProcessRulesOnCompositeIT {
 
         List<Administration> contactsByCPR = lprDao.getContactsByCPR(cpr);
 
-        lprPrepareDataRule.setContacts(contactsByCPR);
         Statistics statistics = Statistics.getInstance();
 
         // Process rules
-        LPRRule next = lprPrepareDataRule.doProcessing(statistics);
+        LPRRuleContext context = lprPrepareDataRule.doProcessing(LPRRuleContext.withContacts(lprPrepareDataRule, contactsByCPR), statistics);
 
         // Process rest of the rules and save admission
-        while (next != null) {
-            next = next.doProcessing(statistics);
+        while (context.getNextRule() != null) {
+            context = context.getNextRule().doProcessing(context, statistics);
         }
+        importOutcomeBuffer.flush(lprDao);
 
         assertEquals("expected import_dto is set in t_adm table", 2,
                 jdbcTemplate.queryForInt("select count(*) from T_ADM where d_importdto is not null"));
@@ -668,16 +678,16 @@ public class ProcessRulesOnCompositeIT {
 
         List<Administration> contactsByCPR = lprDao.getContactsByCPR(cpr);
 
-        lprPrepareDataRule.setContacts(contactsByCPR);
         Statistics statistics = Statistics.getInstance();
 
         // Process rules
-        LPRRule next = lprPrepareDataRule.doProcessing(statistics);
+        LPRRuleContext context = lprPrepareDataRule.doProcessing(LPRRuleContext.withContacts(lprPrepareDataRule, contactsByCPR), statistics);
 
         // Process rest of the rules and save admission
-        while (next != null) {
-            next = next.doProcessing(statistics);
+        while (context.getNextRule() != null) {
+            context = context.getNextRule().doProcessing(context, statistics);
         }
+        importOutcomeBuffer.flush(lprDao);
 
         // expected admission enddate must be 2009-03-29 12:00:00
         assertEquals("2009-03-29 12:00:00.0",
@@ -703,16 +713,16 @@ public class ProcessRulesOnCompositeIT {
 
         List<Administration> contactsByCPR = lprDao.getContactsByCPR(cpr);
 
-        lprPrepareDataRule.setContacts(contactsByCPR);
         Statistics statistics = Statistics.getInstance();
 
         // Process rules
-        LPRRule next = lprPrepareDataRule.doProcessing(statistics);
+        LPRRuleContext context = lprPrepareDataRule.doProcessing(LPRRuleContext.withContacts(lprPrepareDataRule, contactsByCPR), statistics);
 
         // Process rest of the rules and save admission
-        while (next != null) {
-            next = next.doProcessing(statistics);
+        while (context.getNextRule() != null) {
+            context = context.getNextRule().doProcessing(context, statistics);
         }
+        importOutcomeBuffer.flush(lprDao);
 
         // 2 admissions are expected, due to connecting contacts from same hospital and department.
         assertEquals("expected 2 admissions", 2, jdbc.queryForInt("select count(*) from Indlaeggelser"));
@@ -747,16 +757,16 @@ public class ProcessRulesOnCompositeIT {
 
         List<Administration> contactsByCPR = lprDao.getContactsByCPR(cpr);
 
-        lprPrepareDataRule.setContacts(contactsByCPR);
         Statistics statistics = Statistics.getInstance();
 
         // Process rules
-        LPRRule next = lprPrepareDataRule.doProcessing(statistics);
+        LPRRuleContext context = lprPrepareDataRule.doProcessing(LPRRuleContext.withContacts(lprPrepareDataRule, contactsByCPR), statistics);
 
         // Process rest of the rules and save admission
-        while (next != null) {
-            next = next.doProcessing(statistics);
+        while (context.getNextRule() != null) {
+            context = context.getNextRule().doProcessing(context, statistics);
         }
+        importOutcomeBuffer.flush(lprDao);
 
         // 2 admissions are expected, due to connecting contacts from same hospital and department.
         assertEquals("expected 4 admissions", 4, jdbc.queryForInt("select count(*) from Indlaeggelser"));
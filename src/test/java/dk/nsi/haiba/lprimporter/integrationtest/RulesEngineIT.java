@@ -167,6 +167,31 @@ public class RulesEngineIT {
 	}
 
 
+	@Test
+	public void singleContactGoesDirectlyToAdmission() {
+		List<Administration> contacts = setupContacts();
+		contacts.get(0).setPatientType(0);
+		Statistics statistics = Statistics.getInstance().createWorkerInstance();
+
+		rulesEngine.processRuleChain(contacts, statistics);
+
+		assertEquals(1, statistics.singleContactCprCounter);
+		assertEquals(1, statistics.admissionsExportedCounter);
+		assertEquals("Expected 1 admission", 1, jdbc.queryForInt("select count(*) from Indlaeggelser"));
+		assertEquals("Expected no errors", 0, jdbc.queryForInt("select count(*) from RegelFejlbeskeder"));
+	}
+
+	@Test
+	public void ambulantContactIsNotCountedAsSingleContact() {
+		List<Administration> contacts = setupContacts();
+		Statistics statistics = Statistics.getInstance().createWorkerInstance();
+
+		rulesEngine.processRuleChain(contacts, statistics);
+
+		assertEquals(0, statistics.singleContactCprCounter);
+		assertEquals(1, statistics.ambulantContactsExportedCounter);
+	}
+
 	private List<Administration> setupContacts() {
 		List<Administration> contacts = new ArrayList<Administration>();
 		Administration contact = new Administration();
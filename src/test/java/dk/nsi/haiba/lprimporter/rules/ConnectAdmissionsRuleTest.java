@@ -50,6 +50,7 @@ import dk.nsi.haiba.lprimporter.config.LPRTestConfiguration;
 import dk.nsi.haiba.lprimporter.dao.ClassificationCheckDAO;
 import dk.nsi.haiba.lprimporter.dao.HAIBADAO;
 import dk.nsi.haiba.lprimporter.dao.LPRDAO;
+import dk.nsi.haiba.lprimporter.importer.ImportOutcomeBuffer;
 import dk.nsi.haiba.lprimporter.model.haiba.Indlaeggelse;
 import dk.nsi.haiba.lprimporter.model.haiba.LPRReference;
 import dk.nsi.haiba.lprimporter.model.haiba.Procedure;
@@ -84,6 +85,9 @@ public class ConnectAdmissionsRuleTest {
 	@Autowired
 	LPRDAO lprDao;
 
+	@Autowired
+	ImportOutcomeBuffer importOutcomeBuffer;
+
 	@Autowired
 	ConnectAdmissionsRule connectAdmissionsRule;
 
@@ -169,10 +173,9 @@ public class ConnectAdmissionsRuleTest {
 		sygehusCode3 = "csgh";
 		
 		List<Indlaeggelse> admissions = setupAdmissions();
-		connectAdmissionsRule.setAdmissions(admissions);
-		LPRRule nextRule = connectAdmissionsRule.doProcessing(Statistics.getInstance());
+		LPRRuleContext result = connectAdmissionsRule.doProcessing(LPRRuleContext.withAdmissions(connectAdmissionsRule, admissions), Statistics.getInstance());
 
-		List<Indlaeggelse> processedAdmissions = connectAdmissionsRule.getAdmissions();
+		List<Indlaeggelse> processedAdmissions = result.getAdmissions();
 		assertEquals("List size must be 4", 4, processedAdmissions.size());
 	}
 	
@@ -181,13 +184,13 @@ public class ConnectAdmissionsRuleTest {
 	public void checkAdmissionsAreSaved() {
 		
 		List<Indlaeggelse> admissions = setupAdmissions();
-		connectAdmissionsRule.setAdmissions(admissions);
-		LPRRule nextRule = connectAdmissionsRule.doProcessing(Statistics.getInstance());
+		LPRRuleContext result = connectAdmissionsRule.doProcessing(LPRRuleContext.withAdmissions(connectAdmissionsRule, admissions), Statistics.getInstance());
 
-		assertNull("This is the last rule", nextRule);
+		assertNull("This is the last rule", result.getNextRule());
 		
 		Mockito.verify(haibaDao, Mockito.atLeastOnce()).saveIndlaeggelsesForloeb(Mockito.anyList());
-		Mockito.verify(lprDao, Mockito.atLeastOnce()).updateImportTime((LPRReference)Mockito.any(), (Outcome)Mockito.any());
+		importOutcomeBuffer.flush(lprDao);
+		Mockito.verify(lprDao, Mockito.atLeastOnce()).updateImportTimes(Mockito.anyCollection(), (Outcome)Mockito.any());
 
 	}
 
@@ -113,11 +113,11 @@ public class ConnectContactsRuleTest {
 		
 		List<Administration> contacts = setupContacts();
 
-		connectContactsRule.setContacts(contacts);
-		connectContactsRule.doProcessing(Statistics.getInstance());
+		LPRRuleContext result = connectContactsRule.doProcessing(LPRRuleContext.withContacts(connectContactsRule, contacts), Statistics.getInstance());
 		
-		List<Administration> processedContacts = connectContactsRule.getContacts();
+		List<Administration> processedContacts = result.getContacts();
 		assertTrue("Still expecting 3 contacts", processedContacts.size() == 3);
+		assertTrue("Expected contacts in timeline order", result.isInTimelineOrder());
 
 		Collections.sort(processedContacts, new AdministrationInDateComparator());
 		
@@ -153,10 +153,9 @@ public class ConnectContactsRuleTest {
 		
 		List<Administration> contacts = setupContacts();
 
-		connectContactsRule.setContacts(contacts);
-		connectContactsRule.doProcessing(Statistics.getInstance());
+		LPRRuleContext result = connectContactsRule.doProcessing(LPRRuleContext.withContacts(connectContactsRule, contacts), Statistics.getInstance());
 		
-		List<Administration> processedContacts = connectContactsRule.getContacts();
+		List<Administration> processedContacts = result.getContacts();
 		assertTrue("Still expecting 3 contacts", processedContacts.size() == 3);
 
 		Collections.sort(processedContacts, new AdministrationInDateComparator());
@@ -181,10 +180,9 @@ public class ConnectContactsRuleTest {
 		
 		List<Administration> contacts = setupContacts();
 
-		connectContactsRule.setContacts(contacts);
-		connectContactsRule.doProcessing(Statistics.getInstance());
+		LPRRuleContext result = connectContactsRule.doProcessing(LPRRuleContext.withContacts(connectContactsRule, contacts), Statistics.getInstance());
 		
-		List<Administration> processedContacts = connectContactsRule.getContacts();
+		List<Administration> processedContacts = result.getContacts();
 		assertTrue("Still expecting 3 contacts", processedContacts.size() == 3);
 
 		Collections.sort(processedContacts, new AdministrationInDateComparator());
@@ -221,10 +219,9 @@ public class ConnectContactsRuleTest {
 		
 		List<Administration> contacts = setupContacts();
 
-		connectContactsRule.setContacts(contacts);
-		connectContactsRule.doProcessing(Statistics.getInstance());
+		LPRRuleContext result = connectContactsRule.doProcessing(LPRRuleContext.withContacts(connectContactsRule, contacts), Statistics.getInstance());
 		
-		List<Administration> processedContacts = connectContactsRule.getContacts();
+		List<Administration> processedContacts = result.getContacts();
 		assertEquals("List size must be 3", 3, processedContacts.size());
 	}
 
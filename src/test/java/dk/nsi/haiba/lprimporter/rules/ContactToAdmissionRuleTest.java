@@ -31,6 +31,7 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.joda.time.DateTime;
@@ -118,32 +119,42 @@ public class ContactToAdmissionRuleTest {
 	public void ruleConvertsLPRDataToHAIBADataSameHospitalAndDepartment() {
 		
 		List<Administration> contacts = setupContacts();
-		contactToAdmissionRule.setContacts(contacts);
 		
-		LPRRule nextRule = contactToAdmissionRule.doProcessing(Statistics.getInstance());
+		LPRRuleContext result = contactToAdmissionRule.doProcessing(LPRRuleContext.withContacts(contactToAdmissionRule, contacts), Statistics.getInstance());
 		 
-		assertTrue(nextRule instanceof ConnectAdmissionsRule);
+		assertTrue(result.getNextRule() instanceof ConnectAdmissionsRule);
 		
-		ConnectAdmissionsRule connectAdmissionsRule = (ConnectAdmissionsRule)nextRule;
-		List<Indlaeggelse> admissions = connectAdmissionsRule.getAdmissions();
+		List<Indlaeggelse> admissions = result.getAdmissions();
 		assertNotNull(admissions);
 		assertEquals("Expected 1 admission", 1, admissions.size());
 		assertEquals("Expected 2 contact references", 2, admissions.get(0).getLprReferencer().size());
 	}
 
+	@Test
+	public void admissionsAreInTimelineOrder() {
+		afdelingsCode2 = "af2";
+		List<Administration> contacts = setupContacts();
+		Collections.reverse(contacts);
+
+		LPRRuleContext result = contactToAdmissionRule.doProcessing(LPRRuleContext.withContacts(contactToAdmissionRule, contacts), Statistics.getInstance());
+
+		assertTrue(result.isInTimelineOrder());
+		List<Indlaeggelse> admissions = result.getAdmissions();
+		assertEquals("Expected 2 admissions", 2, admissions.size());
+		assertTrue(admissions.get(0).getIndlaeggelsesTime() < admissions.get(1).getIndlaeggelsesTime());
+	}
+
 	@Test
 	public void ruleConvertsLPRDataToHAIBADataSameHospitalDifferentDepartment() {
 		
     	afdelingsCode2 = "af2";
 		List<Administration> contacts = setupContacts();
-		contactToAdmissionRule.setContacts(contacts);
 		
-		LPRRule nextRule = contactToAdmissionRule.doProcessing(Statistics.getInstance());
+		LPRRuleContext result = contactToAdmissionRule.doProcessing(LPRRuleContext.withContacts(contactToAdmissionRule, contacts), Statistics.getInstance());
 		 
-		assertTrue(nextRule instanceof ConnectAdmissionsRule);
+		assertTrue(result.getNextRule() instanceof ConnectAdmissionsRule);
 		
-		ConnectAdmissionsRule connectAdmissionsRule = (ConnectAdmissionsRule)nextRule;
-		List<Indlaeggelse> admissions = connectAdmissionsRule.getAdmissions();
+		List<Indlaeggelse> admissions = result.getAdmissions();
 		assertNotNull(admissions);
 		assertEquals("Expected 2 admissions", 2, admissions.size());
 		for (Indlaeggelse indlaeggelse : admissions) {
@@ -177,11 +188,9 @@ public class ContactToAdmissionRuleTest {
 		List<Administration> contacts = setupContacts();
 		contacts.add(contact3);
 
-		contactToAdmissionRule.setContacts(contacts);
 		
-		LPRRule nextRule = contactToAdmissionRule.doProcessing(Statistics.getInstance());
-		ConnectAdmissionsRule connectAdmissionsRule = (ConnectAdmissionsRule)nextRule;
-		List<Indlaeggelse> admissions = connectAdmissionsRule.getAdmissions();
+		LPRRuleContext result = contactToAdmissionRule.doProcessing(LPRRuleContext.withContacts(contactToAdmissionRule, contacts), Statistics.getInstance());
+		List<Indlaeggelse> admissions = result.getAdmissions();
 		assertNotNull(admissions);
 		assertEquals("Expected 3 admissions", 3, admissions.size());
 	}
@@ -51,7 +51,7 @@ import org.springframework.test.context.support.AnnotationConfigContextLoader;
 import dk.nsi.haiba.lprimporter.config.LPRTestConfiguration;
 import dk.nsi.haiba.lprimporter.dao.HAIBADAO;
 import dk.nsi.haiba.lprimporter.dao.LPRDAO;
-import dk.nsi.haiba.lprimporter.model.haiba.LPRReference;
+import dk.nsi.haiba.lprimporter.importer.ImportOutcomeBuffer;
 import dk.nsi.haiba.lprimporter.model.haiba.Statistics;
 import dk.nsi.haiba.lprimporter.model.lpr.Administration;
 import dk.nsi.haiba.lprimporter.model.lpr.LPRProcedure;
@@ -81,6 +81,9 @@ public class ContactsWithSameStartDateRuleTest {
 	@Autowired
 	LPRDAO lprDao;
 
+	@Autowired
+	ImportOutcomeBuffer importOutcomeBuffer;
+
 	@Autowired
 	ContactsWithSameStartDateRule contactsWithSameStartDateRule;
 
@@ -145,10 +148,9 @@ public class ContactsWithSameStartDateRuleTest {
     	sygehusCode2 = "test";
 		List<Administration> contacts = setupContacts();
 
-		contactsWithSameStartDateRule.setContacts(contacts);
-		contactsWithSameStartDateRule.doProcessing(Statistics.getInstance());
+		LPRRuleContext result = contactsWithSameStartDateRule.doProcessing(LPRRuleContext.withContacts(contactsWithSameStartDateRule, contacts), Statistics.getInstance());
 		
-		List<Administration> processedContacts = contactsWithSameStartDateRule.getContacts();
+		List<Administration> processedContacts = result.getContacts();
 		
 		assertEquals("Expecting 1 contacts", 1, processedContacts.size());
 
@@ -174,16 +176,16 @@ public class ContactsWithSameStartDateRuleTest {
     	
 		List<Administration> contacts = setupContacts();
 
-		contactsWithSameStartDateRule.setContacts(contacts);
-		contactsWithSameStartDateRule.doProcessing(Statistics.getInstance());
+		LPRRuleContext result = contactsWithSameStartDateRule.doProcessing(LPRRuleContext.withContacts(contactsWithSameStartDateRule, contacts), Statistics.getInstance());
 		
-		List<Administration> processedContacts = contactsWithSameStartDateRule.getContacts();
+		List<Administration> processedContacts = result.getContacts();
 		
 		assertEquals("Expecting 0 contacts",0, processedContacts.size());
 
 		// Expect 2 error to be logged
 		Mockito.verify(haibaDao, Mockito.atLeastOnce()).saveBusinessRuleError((BusinessRuleError) Mockito.any());
-		Mockito.verify(lprDao, Mockito.atLeastOnce()).updateImportTime((LPRReference)Mockito.any(), (Outcome)Mockito.any());
+		importOutcomeBuffer.flush(lprDao);
+		Mockito.verify(lprDao, Mockito.atLeastOnce()).updateImportTimes(Mockito.anyCollection(), (Outcome)Mockito.any());
 
 		Collections.sort(processedContacts, new AdministrationInDateComparator());
 	}
@@ -194,10 +196,9 @@ public class ContactsWithSameStartDateRuleTest {
     	out2 = new DateTime(2010, 6, 10, 12, 0, 0);
 		List<Administration> contacts = setupContacts();
 
-		contactsWithSameStartDateRule.setContacts(contacts);
-		contactsWithSameStartDateRule.doProcessing(Statistics.getInstance());
+		LPRRuleContext result = contactsWithSameStartDateRule.doProcessing(LPRRuleContext.withContacts(contactsWithSameStartDateRule, contacts), Statistics.getInstance());
 		
-		List<Administration> processedContacts = contactsWithSameStartDateRule.getContacts();
+		List<Administration> processedContacts = result.getContacts();
 		
 		assertTrue("Expecting 2 contacts", processedContacts.size() == 2);
 
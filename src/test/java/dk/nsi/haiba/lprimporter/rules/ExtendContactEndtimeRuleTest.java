@@ -102,8 +102,7 @@ public class ExtendContactEndtimeRuleTest {
 		
 		List<Administration> contacts = setupContacts();
 		
-		extendContactEndtimeRule.setContacts(contacts);
-		extendContactEndtimeRule.doProcessing(Statistics.getInstance());
+		extendContactEndtimeRule.doProcessing(LPRRuleContext.withContacts(extendContactEndtimeRule, contacts), Statistics.getInstance());
 		
 		assertEquals(out.toDate(), contacts.get(0).getUdskrivningsDatetime());
 	}
@@ -119,8 +118,7 @@ public class ExtendContactEndtimeRuleTest {
 		
 		List<Administration> contacts = setupContacts();
 		
-		extendContactEndtimeRule.setContacts(contacts);
-		extendContactEndtimeRule.doProcessing(Statistics.getInstance());
+		extendContactEndtimeRule.doProcessing(LPRRuleContext.withContacts(extendContactEndtimeRule, contacts), Statistics.getInstance());
 		
 		assertEquals(op1.toDate(), contacts.get(0).getUdskrivningsDatetime());
 	}
@@ -135,10 +133,9 @@ public class ExtendContactEndtimeRuleTest {
     	op1 = new DateTime(2010, 6, 5, 13, 0, 0);
 		List<Administration> contacts = setupContacts();
 		
-		extendContactEndtimeRule.setContacts(contacts);
 		
 		try {
-			extendContactEndtimeRule.doProcessing(Statistics.getInstance());
+			extendContactEndtimeRule.doProcessing(LPRRuleContext.withContacts(extendContactEndtimeRule, contacts), Statistics.getInstance());
 		} catch(RuleAbortedException e) {
 			BusinessRuleError businessRuleError = e.getBusinessRuleError();
 			assertEquals(recordNummer, businessRuleError.getLprReference());
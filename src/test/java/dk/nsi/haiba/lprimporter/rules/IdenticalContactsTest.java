@@ -0,0 +1,126 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.lprimporter.rules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import dk.nsi.haiba.lprimporter.model.haiba.LPRReference;
+import dk.nsi.haiba.lprimporter.model.lpr.Administration;
+import dk.nsi.haiba.lprimporter.model.lpr.LPRDiagnose;
+import dk.nsi.haiba.lprimporter.model.lpr.LPRProcedure;
+
+public class IdenticalContactsTest {
+
+	@Test
+	public void firstOfIdenticalContactsSurvives() {
+		IdenticalContacts identicalContacts = new IdenticalContacts();
+		Administration first = createContact("1234", "csgh", "afd", 1);
+		Administration identical = createContact("2345", "csgh", "afd", 1);
+		Administration other = createContact("3456", "csgh", "afd", 2);
+
+		assertNull(identicalContacts.add(first));
+		assertSame(first, identicalContacts.add(identical));
+		assertNull(identicalContacts.add(other));
+		assertEquals(2, identicalContacts.getSurvivors().size());
+	}
+
+	@Test
+	public void contactsWithSameHashCodeAreNotIdentical() {
+		// "Aa" and "BB" has the same hash code
+		Administration contact = createContact("1234", "Aa", "afd", 1);
+		Administration other = createContact("2345", "BB", "afd", 1);
+		assertEquals(contact.hashCode(), other.hashCode());
+
+		IdenticalContacts identicalContacts = new IdenticalContacts();
+		assertNull(identicalContacts.add(contact));
+		assertNull(identicalContacts.add(other));
+		assertEquals(2, identicalContacts.getSurvivors().size());
+	}
+
+	@Test
+	public void survivorsAreInTheOrderTheyAreAdded() {
+		List<Administration> firstOfEachKind = new ArrayList<Administration>();
+		IdenticalContacts identicalContacts = new IdenticalContacts();
+		for (int i = 0; i < 200; i++) {
+			Administration contact = createContact("" + i, "sgh" + (i % 3), "afd" + (i % 5), i % 40);
+			if(!firstOfEachKind.contains(contact)) {
+				firstOfEachKind.add(contact);
+			}
+			identicalContacts.add(contact);
+		}
+
+		assertEquals(firstOfEachKind, new ArrayList<Administration>(identicalContacts.getSurvivors()));
+	}
+
+	@Test
+	public void diagnosesProceduresAndReferencesAreMergedIntoTheSurvivor() {
+		Administration survivor = createContact("1234", "csgh", "afd", 1);
+		Administration duplicate = createContact("2345", "csgh", "afd", 1);
+		Administration earlier = createContact("3456", "csgh", "afd", 1);
+		duplicate.addLPRReference(earlier.getLprReference());
+		LPRDiagnose diagnose = new LPRDiagnose();
+		diagnose.setRecordNumber("2345");
+		duplicate.addLprDiagnose(diagnose);
+		LPRProcedure procedure = new LPRProcedure();
+		procedure.setRecordNumber("2345");
+		duplicate.addLprProcedure(procedure);
+
+		IdenticalContacts.mergeAll(survivor, duplicate);
+
+		assertEquals(1, survivor.getLprDiagnoses().size());
+		assertSame(diagnose, survivor.getLprDiagnoses().get(0));
+		assertEquals(1, survivor.getLprProcedures().size());
+		assertSame(procedure, survivor.getLprProcedures().get(0));
+		List<String> references = new ArrayList<String>();
+		for (LPRReference reference : survivor.getLprReferencer()) {
+			references.add(reference.getLprRecordNumber());
+		}
+		assertEquals(2, references.size());
+		assertEquals("2345", references.get(0));
+		assertEquals("3456", references.get(1));
+	}
+
+	private Administration createContact(String recordNumber, String sygehusCode, String afdelingsCode, int day) {
+		DateTime in = new DateTime(2010, 5, 3, 8, 0, 0).plusDays(day);
+		Administration contact = new Administration();
+		contact.setRecordNumber(recordNumber);
+		contact.setCpr("1111111111");
+		contact.setSygehusCode(sygehusCode);
+		contact.setAfdelingsCode(afdelingsCode);
+		contact.setIndlaeggelsesDatetime(in.toDate());
+		contact.setUdskrivningsDatetime(in.plusHours(12).toDate());
+		return contact;
+	}
+}
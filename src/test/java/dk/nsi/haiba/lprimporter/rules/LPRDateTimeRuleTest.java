@@ -110,8 +110,7 @@ public class LPRDateTimeRuleTest {
 		
 		List<Administration> contacts = setupContacts();
 
-		lprDateTimeRule.setContacts(contacts);
-		lprDateTimeRule.doProcessing(Statistics.getInstance());
+		lprDateTimeRule.doProcessing(LPRRuleContext.withContacts(lprDateTimeRule, contacts), Statistics.getInstance());
 		
 		assertNotNull("1 contact is still expected", contacts);
 		assertEquals(1, contacts.size());
@@ -132,8 +131,7 @@ public class LPRDateTimeRuleTest {
 		
 		List<Administration> contacts = setupContacts();
 		
-		lprDateTimeRule.setContacts(contacts);
-		lprDateTimeRule.doProcessing(Statistics.getInstance());
+		lprDateTimeRule.doProcessing(LPRRuleContext.withContacts(lprDateTimeRule, contacts), Statistics.getInstance());
 		
 		assertNotNull("1 contact is still expected", contacts);
 		assertEquals(1, contacts.size());
@@ -154,8 +152,7 @@ public class LPRDateTimeRuleTest {
     	
 		List<Administration> contacts = setupContacts();
 		
-		lprDateTimeRule.setContacts(contacts);
-		lprDateTimeRule.doProcessing(Statistics.getInstance());
+		lprDateTimeRule.doProcessing(LPRRuleContext.withContacts(lprDateTimeRule, contacts), Statistics.getInstance());
 		
 		assertNotNull("1 contact is still expected", contacts);
 		assertEquals(1, contacts.size());
@@ -175,8 +172,7 @@ public class LPRDateTimeRuleTest {
     	
 		List<Administration> contacts = setupContacts();
 		
-		lprDateTimeRule.setContacts(contacts);
-		lprDateTimeRule.doProcessing(Statistics.getInstance());
+		lprDateTimeRule.doProcessing(LPRRuleContext.withContacts(lprDateTimeRule, contacts), Statistics.getInstance());
 		
 		assertNotNull("1 contact is still expected", contacts);
 		assertEquals(1, contacts.size());
@@ -195,10 +191,9 @@ public class LPRDateTimeRuleTest {
     	op1 = null;
 		List<Administration> contacts = setupContacts();
 		
-		lprDateTimeRule.setContacts(contacts);
 		
 		try {
-			lprDateTimeRule.doProcessing(Statistics.getInstance());
+			lprDateTimeRule.doProcessing(LPRRuleContext.withContacts(lprDateTimeRule, contacts), Statistics.getInstance());
 		} catch(RuleAbortedException e) {
 			BusinessRuleError businessRuleError = e.getBusinessRuleError();
 			assertEquals(recordNummer, businessRuleError.getLprReference());
@@ -221,8 +216,7 @@ public class LPRDateTimeRuleTest {
 
     	List<Administration> contacts = setupContacts();
 		
-		lprDateTimeRule.setContacts(contacts);
-		lprDateTimeRule.doProcessing(Statistics.getInstance());
+		lprDateTimeRule.doProcessing(LPRRuleContext.withContacts(lprDateTimeRule, contacts), Statistics.getInstance());
 		
 		assertNotNull("1 contact is still expected", contacts);
 		assertEquals(1, contacts.size());
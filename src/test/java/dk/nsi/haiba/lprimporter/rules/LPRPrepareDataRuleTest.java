@@ -100,10 +100,9 @@ public class LPRPrepareDataRuleTest {
 		
 		List<Administration> contacts = setupContacts();
 
-		lprPrepareDataRule.setContacts(contacts);
-		lprPrepareDataRule.doProcessing(Statistics.getInstance());
+		LPRRuleContext result = lprPrepareDataRule.doProcessing(LPRRuleContext.withContacts(lprPrepareDataRule, contacts), Statistics.getInstance());
 		
-		List<Administration> preparedContacts = lprPrepareDataRule.getContacts();
+		List<Administration> preparedContacts = result.getContacts();
 		
 		assertNotNull("1 contact is still expected", preparedContacts);
 		assertEquals(1, preparedContacts.size());
@@ -115,10 +114,9 @@ public class LPRPrepareDataRuleTest {
 		recordNummer = null;
 		List<Administration> contacts = setupContacts();
 
-		lprPrepareDataRule.setContacts(contacts);
-		lprPrepareDataRule.doProcessing(Statistics.getInstance());
+		LPRRuleContext result = lprPrepareDataRule.doProcessing(LPRRuleContext.withContacts(lprPrepareDataRule, contacts), Statistics.getInstance());
 		
-		List<Administration> preparedContacts = lprPrepareDataRule.getContacts();
+		List<Administration> preparedContacts = result.getContacts();
 		
 		assertNotNull("0 contacts are expected", preparedContacts);
 		assertEquals(0, preparedContacts.size());
@@ -131,10 +129,9 @@ public class LPRPrepareDataRuleTest {
 		cpr = null;
 		List<Administration> contacts = setupContacts();
 
-		lprPrepareDataRule.setContacts(contacts);
-		lprPrepareDataRule.doProcessing(Statistics.getInstance());
+		LPRRuleContext result = lprPrepareDataRule.doProcessing(LPRRuleContext.withContacts(lprPrepareDataRule, contacts), Statistics.getInstance());
 		
-		List<Administration> preparedContacts = lprPrepareDataRule.getContacts();
+		List<Administration> preparedContacts = result.getContacts();
 		
 		assertNotNull("0 contacts are expected", preparedContacts);
 		assertEquals(0, preparedContacts.size());
@@ -147,10 +144,9 @@ public class LPRPrepareDataRuleTest {
 		sygehusCode = null;
 		List<Administration> contacts = setupContacts();
 
-		lprPrepareDataRule.setContacts(contacts);
-		lprPrepareDataRule.doProcessing(Statistics.getInstance());
+		LPRRuleContext result = lprPrepareDataRule.doProcessing(LPRRuleContext.withContacts(lprPrepareDataRule, contacts), Statistics.getInstance());
 		
-		List<Administration> preparedContacts = lprPrepareDataRule.getContacts();
+		List<Administration> preparedContacts = result.getContacts();
 		
 		assertNotNull("0 contacts are expected", preparedContacts);
 		assertEquals(0, preparedContacts.size());
@@ -163,10 +159,9 @@ public class LPRPrepareDataRuleTest {
 		afdelingsCode = null;
 		List<Administration> contacts = setupContacts();
 
-		lprPrepareDataRule.setContacts(contacts);
-		lprPrepareDataRule.doProcessing(Statistics.getInstance());
+		LPRRuleContext result = lprPrepareDataRule.doProcessing(LPRRuleContext.withContacts(lprPrepareDataRule, contacts), Statistics.getInstance());
 		
-		List<Administration> preparedContacts = lprPrepareDataRule.getContacts();
+		List<Administration> preparedContacts = result.getContacts();
 		
 		assertNotNull("0 contacts are expected", preparedContacts);
 		assertEquals(0, preparedContacts.size());
@@ -179,10 +174,9 @@ public class LPRPrepareDataRuleTest {
 		in = null;
 		List<Administration> contacts = setupContacts();
 
-		lprPrepareDataRule.setContacts(contacts);
-		lprPrepareDataRule.doProcessing(Statistics.getInstance());
+		LPRRuleContext result = lprPrepareDataRule.doProcessing(LPRRuleContext.withContacts(lprPrepareDataRule, contacts), Statistics.getInstance());
 		
-		List<Administration> preparedContacts = lprPrepareDataRule.getContacts();
+		List<Administration> preparedContacts = result.getContacts();
 		
 		assertNotNull("0 contacts are expected", preparedContacts);
 		assertEquals(0, preparedContacts.size());
@@ -197,10 +191,9 @@ public class LPRPrepareDataRuleTest {
 
 		Mockito.when(haibaDao.getSygehusInitials(sygehusCode, afdelingsCode, in.toDate())).thenReturn("HOL");
 		
-		lprPrepareDataRule.setContacts(contacts);
-		lprPrepareDataRule.doProcessing(Statistics.getInstance());
+		LPRRuleContext result = lprPrepareDataRule.doProcessing(LPRRuleContext.withContacts(lprPrepareDataRule, contacts), Statistics.getInstance());
 		
-		List<Administration> preparedContacts = lprPrepareDataRule.getContacts();
+		List<Administration> preparedContacts = result.getContacts();
 		
 		assertNotNull("1 contact is still expected", preparedContacts);
 		assertEquals(1, preparedContacts.size());
@@ -113,10 +113,9 @@ public class OverlappingContactsRuleTest {
     	out2 = new DateTime(2010, 6, 10, 12, 0, 0);
 		List<Administration> contacts = setupContacts();
 
-		overlappingContactsRule.setContacts(contacts);
-		overlappingContactsRule.doProcessing(Statistics.getInstance());
+		LPRRuleContext result = overlappingContactsRule.doProcessing(LPRRuleContext.withContacts(overlappingContactsRule, contacts), Statistics.getInstance());
 		
-		List<Administration> processedContacts = overlappingContactsRule.getContacts();
+		List<Administration> processedContacts = result.getContacts();
 		
 		assertTrue("Still expecting 3 contacts", processedContacts.size() == 3);
 
@@ -148,10 +147,9 @@ public class OverlappingContactsRuleTest {
 	public void overlappingContactIsSplittedIntoTwo() {
 		List<Administration> contacts = setupContacts();
 
-		overlappingContactsRule.setContacts(contacts);
-		overlappingContactsRule.doProcessing(Statistics.getInstance());
+		LPRRuleContext result = overlappingContactsRule.doProcessing(LPRRuleContext.withContacts(overlappingContactsRule, contacts), Statistics.getInstance());
 		
-		List<Administration> processedContacts = overlappingContactsRule.getContacts();
+		List<Administration> processedContacts = result.getContacts();
 		
 		assertTrue("Expecting 1 extra contact added to the list", processedContacts.size() == 4);
 
@@ -182,10 +180,9 @@ public class OverlappingContactsRuleTest {
     	out = null;
 		List<Administration> contacts = setupContacts();
 
-		overlappingContactsRule.setContacts(contacts);
 		boolean ruleWasAborted = false;
 		try {
-			overlappingContactsRule.doProcessing(Statistics.getInstance());
+			overlappingContactsRule.doProcessing(LPRRuleContext.withContacts(overlappingContactsRule, contacts), Statistics.getInstance());
 		} catch(RuleAbortedException e) {
 			BusinessRuleError error = e.getBusinessRuleError();
 			assertEquals("1234", error.getLprReference());
@@ -215,10 +212,9 @@ public class OverlappingContactsRuleTest {
 		
 		List<Administration> contacts = setupContacts();
 
-		overlappingContactsRule.setContacts(contacts);
-		overlappingContactsRule.doProcessing(Statistics.getInstance());
+		LPRRuleContext result = overlappingContactsRule.doProcessing(LPRRuleContext.withContacts(overlappingContactsRule, contacts), Statistics.getInstance());
 		
-		List<Administration> processedContacts = overlappingContactsRule.getContacts();
+		List<Administration> processedContacts = result.getContacts();
 		assertEquals("List size must be 5", 5, processedContacts.size());
 	}
 	
@@ -239,10 +235,9 @@ public class OverlappingContactsRuleTest {
 		
 		List<Administration> contacts = setupContacts();
 
-		overlappingContactsRule.setContacts(contacts);
 
-		overlappingContactsRule.doProcessing(Statistics.getInstance());
-		List<Administration> processedContacts = overlappingContactsRule.getContacts();
+		LPRRuleContext result = overlappingContactsRule.doProcessing(LPRRuleContext.withContacts(overlappingContactsRule, contacts), Statistics.getInstance());
+		List<Administration> processedContacts = result.getContacts();
 		assertEquals(3,  processedContacts.size());
 	}
 
@@ -262,10 +257,9 @@ public class OverlappingContactsRuleTest {
 		
 		List<Administration> contacts = setupContacts();
 
-		overlappingContactsRule.setContacts(contacts);
-		overlappingContactsRule.doProcessing(Statistics.getInstance());
+		LPRRuleContext result = overlappingContactsRule.doProcessing(LPRRuleContext.withContacts(overlappingContactsRule, contacts), Statistics.getInstance());
 		
-		List<Administration> processedContacts = overlappingContactsRule.getContacts();
+		List<Administration> processedContacts = result.getContacts();
 		assertEquals("List size must be 3", 3, processedContacts.size());
 	}
 
@@ -287,10 +281,9 @@ public class OverlappingContactsRuleTest {
 		
 		List<Administration> contacts = setupContacts();
 
-		overlappingContactsRule.setContacts(contacts);
-		overlappingContactsRule.doProcessing(Statistics.getInstance());
+		LPRRuleContext result = overlappingContactsRule.doProcessing(LPRRuleContext.withContacts(overlappingContactsRule, contacts), Statistics.getInstance());
 		
-		List<Administration> processedContacts = overlappingContactsRule.getContacts();
+		List<Administration> processedContacts = result.getContacts();
 		assertEquals("List size must be 4", 4, processedContacts.size());
 		
 		Collections.sort(processedContacts, new AdministrationInDateComparator());
@@ -317,6 +310,43 @@ public class OverlappingContactsRuleTest {
 	
 	}
 
+
+	/*
+	 * A long contact with many nested contacts is split into consecutive contacts between the nested contacts
+	 */
+	@Test
+	public void manyNestedContactsAreSplitIntoConsecutiveContacts() {
+		List<Administration> contacts = new ArrayList<Administration>();
+		DateTime start = new DateTime(2010, 1, 1, 12, 0, 0);
+		contacts.add(createContact("0", start, start.plusDays(1000)));
+		for (int i = 1; i <= 500; i++) {
+			contacts.add(createContact(""+i, start.plusDays(2*i-1), start.plusDays(2*i)));
+		}
+		Collections.reverse(contacts);
+
+		LPRRuleContext result = overlappingContactsRule.doProcessing(LPRRuleContext.withContacts(overlappingContactsRule, contacts), Statistics.getInstance());
+
+		List<Administration> processedContacts = result.getContacts();
+		// the 500 nested contacts, and the long contact split into 500
+		assertEquals(1000, processedContacts.size());
+		Collections.sort(processedContacts, new AdministrationInDateComparator());
+		assertEquals(start.toDate(), processedContacts.get(0).getIndlaeggelsesDatetime());
+		for (int i = 1; i < processedContacts.size(); i++) {
+			assertEquals(processedContacts.get(i-1).getUdskrivningsDatetime(), processedContacts.get(i).getIndlaeggelsesDatetime());
+		}
+		assertEquals(start.plusDays(1000).toDate(), processedContacts.get(999).getUdskrivningsDatetime());
+	}
+
+	private Administration createContact(String recordNumber, DateTime in, DateTime out) {
+		Administration contact = new Administration();
+		contact.setRecordNumber(recordNumber);
+		contact.setSygehusCode(sygehusCode);
+		contact.setAfdelingsCode(afdelingsCode);
+		contact.setCpr(cpr);
+		contact.setIndlaeggelsesDatetime(in.toDate());
+		contact.setUdskrivningsDatetime(out.toDate());
+		return contact;
+	}
 	
 	private List<Administration> setupContacts() {
 		List<Administration> contacts = new ArrayList<Administration>();
@@ -109,10 +109,9 @@ public class RemoveIdenticalContactsRuleTest {
 		
 		List<Administration> contacts = setupContacts();
 
-		removeIdenticalContactsRule.setContacts(contacts);
-		removeIdenticalContactsRule.doProcessing(Statistics.getInstance());
+		LPRRuleContext result = removeIdenticalContactsRule.doProcessing(LPRRuleContext.withContacts(removeIdenticalContactsRule, contacts), Statistics.getInstance());
 		
-		assertTrue("Expecting 1 contact removed from the list", removeIdenticalContactsRule.getContacts().size() == 2);
+		assertTrue("Expecting 1 contact removed from the list", result.getContacts().size() == 2);
 		
 		// check if there still is a reference to the removed contacts
 		for (Administration contact : contacts) {
@@ -131,10 +130,9 @@ public class RemoveIdenticalContactsRuleTest {
 	
 		List<Administration> contacts = setupContacts();
 
-		removeIdenticalContactsRule.setContacts(contacts);
-		removeIdenticalContactsRule.doProcessing(Statistics.getInstance());
+		LPRRuleContext result = removeIdenticalContactsRule.doProcessing(LPRRuleContext.withContacts(removeIdenticalContactsRule, contacts), Statistics.getInstance());
 		
-		List<Administration> contactsAfterProcessing = removeIdenticalContactsRule.getContacts();
+		List<Administration> contactsAfterProcessing = result.getContacts();
 		
 		assertTrue("Expecting 1 contact removed from the list", contactsAfterProcessing.size() == 2);
 		for (Administration administration : contactsAfterProcessing) {
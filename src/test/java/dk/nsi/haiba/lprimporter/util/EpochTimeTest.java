@@ -0,0 +1,93 @@
+/**
+ * The MIT License
+ *
+ * Original work sponsored and donated by National Board of e-Health (NSI), Denmark
+ * (http://www.nsi.dk)
+ *
+ * Copyright (C) 2011 National Board of e-Health (NSI), Denmark (http://www.nsi.dk)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package dk.nsi.haiba.lprimporter.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EpochTimeTest {
+
+	DateTimeZone defaultZone;
+
+	@Before
+	public void init() {
+		defaultZone = DateTimeZone.getDefault();
+		// the rules run in danish time, with daylight saving time changes
+		DateTimeZone.setDefault(DateTimeZone.forID("Europe/Copenhagen"));
+	}
+
+	@After
+	public void restore() {
+		DateTimeZone.setDefault(defaultZone);
+	}
+
+	@Test
+	public void noTimeIsANullDate() {
+		assertEquals(EpochTime.NONE, EpochTime.of(null));
+		assertNull(EpochTime.toDate(EpochTime.NONE));
+		Date date = new Date();
+		assertEquals(date, EpochTime.toDate(EpochTime.of(date)));
+	}
+
+	@Test
+	public void calculatesAsJodaDateTime() {
+		// hour by hour across the change to and from daylight saving time
+		DateTime time = new DateTime(2012, 3, 20, 0, 0, 0);
+		DateTime end = new DateTime(2012, 11, 5, 0, 0, 0);
+		while(time.isBefore(end)) {
+			long millis = time.getMillis();
+			assertEquals(time.getHourOfDay(), EpochTime.hourOfDay(millis));
+			assertEquals(time.plusHours(24).getMillis(), EpochTime.plusHours(millis, 24));
+			assertEquals(time.plusDays(30).getMillis(), EpochTime.plusDays(millis, 30));
+			assertEquals(time.minusDays(30).getMillis(), EpochTime.plusDays(millis, -30));
+			assertEquals(time.withHourOfDay(12).getMillis(), EpochTime.withHourOfDay(millis, 12));
+			assertEquals(time.withHourOfDay(0).withMinuteOfHour(0).withSecondOfMinute(0).getMillis(), EpochTime.withStartOfDay(millis));
+			assertEquals(time.hourOfDay().roundFloorCopy().getMillis(), EpochTime.withStartOfHour(millis + 59 * 60 * 1000));
+			time = time.plusHours(1);
+		}
+	}
+
+	@Test
+	public void comparesTheLocalDay() {
+		long lateEvening = new DateTime(2012, 3, 24, 23, 0, 0).getMillis();
+		long midnight = new DateTime(2012, 3, 25, 0, 0, 0).getMillis();
+		long morning = new DateTime(2012, 3, 25, 9, 0, 0).getMillis();
+
+		assertTrue(EpochTime.isSameDay(midnight, morning));
+		assertFalse(EpochTime.isSameDay(lateEvening, midnight));
+	}
+}